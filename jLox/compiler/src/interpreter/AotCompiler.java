@@ -0,0 +1,170 @@
+package interpreter;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * AOT 编译：JavaTranspiler 生成的源代码在内存中编译为字节码，和运行时库一起打包为可执行的 jar
+ * 运行时库为 interpreter 包(以及 interpreter.ir)中的类，从当前的 classpath 中复制
+ * -Dlox.aot.dump=true 时输出生成的 Java 源代码
+ */
+class AotCompiler {
+    private static final boolean dump = Boolean.getBoolean("lox.aot.dump");
+
+    private AotCompiler() {
+    }
+
+    /**
+     * 编译已经完成语义分析和类型推导的程序
+     *
+     * @param interpreter 语义分析使用的解释器
+     * @param statements  一系列statement
+     * @param className   生成的主类名
+     * @param jar         输出的 jar 文件
+     * @return 是否成功
+     */
+    static boolean compile(Interpreter interpreter, List<Stmt> statements, String className, Path jar)
+            throws IOException {
+        String source = JavaTranspiler.translate(interpreter, statements, className);
+        if (dump) {
+            System.out.println(source);
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            System.err.println("[aot] no Java compiler available, run with a JDK");
+            return false;
+        }
+        Path runtime = runtime();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Map<String, byte[]> classes = new TreeMap<>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, null, null);
+        try (InMemory files = new InMemory(standard, classes)) {
+            JavaFileObject unit = new SimpleJavaFileObject(
+                    URI.create("string:///" + className + ".java"), JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return source;
+                }
+            };
+            List<String> options = List.of("-encoding", "UTF-8", "-nowarn", "-classpath", runtime.toString());
+            if (!compiler.getTask(null, files, diagnostics, options, null, List.of(unit)).call()) {
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                    System.err.println("[aot] " + diagnostic);
+                }
+                return false;
+            }
+        }
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, className);
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                out.putNextEntry(new JarEntry(entry.getKey().replace('.', '/') + ".class"));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+            copyRuntime(runtime, out);
+        }
+        return true;
+    }
+
+    /**
+     * 运行时库所在的目录或者 jar
+     */
+    private static Path runtime() throws IOException {
+        try {
+            return Paths.get(LoxCallable.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static boolean isRuntimeClass(String name) {
+        return name.endsWith(".class") && name.startsWith("interpreter/") && !name.startsWith("interpreter/tool/");
+    }
+
+    private static void copyRuntime(Path runtime, JarOutputStream out) throws IOException {
+        if (Files.isDirectory(runtime)) {
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(runtime)) {
+                files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                String name = runtime.relativize(file).toString().replace('\\', '/');
+                if (isRuntimeClass(name)) {
+                    out.putNextEntry(new JarEntry(name));
+                    Files.copy(file, out);
+                    out.closeEntry();
+                }
+            }
+            return;
+        }
+        try (JarInputStream in = new JarInputStream(Files.newInputStream(runtime))) {
+            JarEntry entry;
+            while ((entry = in.getNextJarEntry()) != null) {
+                if (isRuntimeClass(entry.getName()) && !entry.getName().equals(JarFile.MANIFEST_NAME)) {
+                    out.putNextEntry(new JarEntry(entry.getName()));
+                    in.transferTo(out);
+                    out.closeEntry();
+                }
+            }
+        }
+    }
+
+    /**
+     * 编译结果保存在内存中，<类名,字节码>
+     */
+    private static class InMemory extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<String, byte[]> classes;
+
+        InMemory(StandardJavaFileManager manager, Map<String, byte[]> classes) {
+            super(manager);
+            this.classes = classes;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                   FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("bytes:///" + className.replace('.', '/') + kind.extension),
+                    kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return new ByteArrayOutputStream() {
+                        @Override
+                        public void close() {
+                            classes.put(className, toByteArray());
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package interpreter;
+
+import java.util.List;
+
+/**
+ * AOT 编译后的 Lox 函数和方法
+ * 函数体是生成的 Java 代码(静态方法或 lambda)，self 为方法绑定的实例，函数中为 null
+ */
+public final class AotFunction implements LoxMethod {
+    /**
+     * 生成的函数体
+     */
+    @FunctionalInterface
+    public interface Body {
+        Object invoke(Object self, Object[] arguments);
+    }
+
+    private final String name;
+    private final int arity;
+    private final boolean isInitializer;
+    private final Body body;
+    private final LoxInstance self;
+
+    public AotFunction(String name, int arity, boolean isInitializer, Body body) {
+        this(name, arity, isInitializer, body, null);
+    }
+
+    private AotFunction(String name, int arity, boolean isInitializer, Body body, LoxInstance self) {
+        this.name = name;
+        this.arity = arity;
+        this.isInitializer = isInitializer;
+        this.body = body;
+        this.self = self;
+    }
+
+    /**
+     * 参数个数已经检查过的调用，不需要构造 List
+     */
+    Object invoke(Object[] arguments) {
+        Object value = body.invoke(self, arguments);
+        return isInitializer ? self : value;
+    }
+
+    String name() {
+        return name;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return invoke(arguments.toArray());
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public AotFunction bind(LoxInstance instance) {
+        return new AotFunction(name, arity, isInitializer, body, instance);
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + name + ">";
+    }
+}
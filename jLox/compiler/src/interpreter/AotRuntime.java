@@ -0,0 +1,189 @@
+package interpreter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * AOT 编译生成的 Java 代码使用的运行时库
+ * 运算、调用、属性访问的语义(包括 runtime error)都交给 Interpreter 中的实现，与解释执行保持一致
+ */
+public final class AotRuntime {
+    private static final ErrorReporter errors = new ErrorReporter(System.err);
+    // 只用于运算和内置函数，不执行语法树
+    private static final Interpreter interpreter = new Interpreter(errors, System.out);
+
+    /**
+     * 还没有定义的全局变量
+     */
+    public static final Object UNDEFINED = new Object();
+    /**
+     * switch 的 default 标签
+     */
+    public static final Object DEFAULT = SwitchTable.DEFAULT;
+
+    private AotRuntime() {
+    }
+
+    /**
+     * 执行程序，报告 runtime error
+     */
+    public static void main(Runnable program) {
+        try {
+            program.run();
+        } catch (RuntimeError error) {
+            errors.runtimeError(error);
+            errors.summary("Runtime Error");
+            System.exit(70);
+        }
+    }
+
+    //---------------变量------------------//
+
+    /**
+     * 全局变量的初始值：内置函数或 UNDEFINED
+     */
+    public static Object global(String name) {
+        Object value = interpreter.globals.getHere(name);
+        return value != null ? value : UNDEFINED;
+    }
+
+    public static RuntimeError undefined(Token name) {
+        return new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    }
+
+    //---------------运算------------------//
+
+    public static boolean truthy(Object value) {
+        return interpreter.isTruthy(value);
+    }
+
+    public static Object binary(Token operator, Object left, Object right) {
+        return interpreter.binary(operator, left, right);
+    }
+
+    public static Object concat(Object left, Object right) {
+        return LoxString.concat(left, right);
+    }
+
+    public static Object number(Token operator, double left, double right) {
+        return interpreter.numberBinary(operator, left, right);
+    }
+
+    public static Object integer(Token operator, long left, long right) {
+        return interpreter.integerBinary(operator, left, right);
+    }
+
+    public static Object unary(Token operator, Object right) {
+        return interpreter.unary(operator, right, false);
+    }
+
+    /**
+     * 后缀的 ++/--：先求值的旧值作为结果
+     */
+    public static Object first(Object first, Object second) {
+        return first;
+    }
+
+    public static double first(double first, double second) {
+        return first;
+    }
+
+    /**
+     * 表达式语句丢弃结果
+     */
+    public static void ignore(Object value) {
+    }
+
+    public static void ignore(double value) {
+    }
+
+    public static void ignore(boolean value) {
+    }
+
+    public static void print(Object value) {
+        interpreter.print(value);
+    }
+
+    //---------------调用和对象------------------//
+
+    public static Object call(Object callee, Token paren, Object[] arguments) {
+        if (callee instanceof AotFunction && ((AotFunction) callee).arity() == arguments.length) {
+            return ((AotFunction) callee).invoke(arguments);
+        }
+        return interpreter.call(callee, paren, Arrays.asList(arguments));
+    }
+
+    public static Object get(Object object, Token name) {
+        return interpreter.get(object, name);
+    }
+
+    /**
+     * 赋值给属性之前先检查对象，再求值右边的表达式
+     */
+    public static Object instance(Object object, Token name) {
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(name, "Only instances have fields.");
+        }
+        return object;
+    }
+
+    public static Object set(Object object, Token name, Object value) {
+        interpreter.set(object, name, value);
+        return value;
+    }
+
+    public static Object array(Object... elements) {
+        return LoxArray.of(Arrays.asList(elements));
+    }
+
+    public static Object index(Object array, Token bracket, Object index) {
+        return interpreter.index(array, bracket, index);
+    }
+
+    public static Object setIndex(Object array, Token bracket, Object index, Object value) {
+        interpreter.setIndex(array, bracket, index, value);
+        return value;
+    }
+
+    public static Object superclass(Object superclass, Token name) {
+        if (!(superclass instanceof LoxClass)) {
+            throw new RuntimeError(name, "Superclass must be a class.");
+        }
+        return superclass;
+    }
+
+    public static Object klass(String name, Object superclass, AotFunction... methods) {
+        Map<String, LoxMethod> table = new HashMap<>();
+        for (AotFunction method : methods) {
+            table.put(method.name(), method);
+        }
+        return new LoxClass(name, (LoxClass) superclass, table);
+    }
+
+    public static Object superMethod(Object superclass, Object self, Token method) {
+        LoxMethod function = ((LoxClass) superclass).findMethod(method.lexeme);
+        if (function == null) {
+            throw new RuntimeError(method, "Undefined property '" + method.lexeme + "'.");
+        }
+        return function.bind((LoxInstance) self);
+    }
+
+    //---------------switch------------------//
+
+    public static Object switchTable(Token keyword, Object[] labels, int[] targets, int size) {
+        Integer[] boxed = new Integer[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            boxed[i] = targets[i];
+        }
+        return SwitchTable.of(keyword, Arrays.asList(labels), Arrays.asList(boxed), size, errors);
+    }
+
+    public static int entry(Object table, Object value) {
+        return ((SwitchTable) table).entry(value);
+    }
+
+    public static boolean matches(Object value, Object label) {
+        return SwitchTable.matches(value, label);
+    }
+}
@@ -0,0 +1,14 @@
+package interpreter;
+
+/**
+ * break 跳出 switch，不携带任何值，所有 break 共用一个实例
+ */
+class Break extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    static final Break INSTANCE = new Break();
+
+    private Break() {
+        super(null, null, false, false);
+    }
+}
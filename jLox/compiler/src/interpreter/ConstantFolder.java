@@ -0,0 +1,91 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 常量折叠，在 Resolver 分析完子表达式之后调用
+ * 操作数都是编译期已知的值时，直接用解释器的运算求出结果，记录在节点的 folded/value 上，
+ * 运行时不再求值；求值会产生 runtime error 的表达式不折叠，错误留到运行时报告
+ */
+class ConstantFolder {
+    // 不是编译期常量
+    static final Object NOT_CONSTANT = new Object();
+
+    /**
+     * 表达式在编译期的值：字面量，或已经折叠的变量、一元和二元运算
+     *
+     * @param expr Expr
+     * @return value or NOT_CONSTANT
+     */
+    static Object valueOf(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            return ((Expr.Literal) expr).value;
+        }
+        if (expr instanceof Expr.Grouping) {
+            return valueOf(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.Variable && ((Expr.Variable) expr).folded) {
+            return ((Expr.Variable) expr).value;
+        }
+        if (expr instanceof Expr.Unary && ((Expr.Unary) expr).folded) {
+            return ((Expr.Unary) expr).value;
+        }
+        if (expr instanceof Expr.Binary && ((Expr.Binary) expr).folded) {
+            return ((Expr.Binary) expr).value;
+        }
+        return NOT_CONSTANT;
+    }
+
+    static void fold(Interpreter interpreter, Expr.Unary expr) {
+        Object right = valueOf(expr.right);
+        if (right == NOT_CONSTANT) {
+            return;
+        }
+        try {
+            expr.value = interpreter.unary(expr.operator, right, false);
+            expr.folded = true;
+        } catch (RuntimeError error) {
+            // 留到运行时报告
+        }
+    }
+
+    static void fold(Interpreter interpreter, Expr.Binary expr) {
+        Object left = valueOf(expr.left);
+        Object right = valueOf(expr.right);
+        if (left == NOT_CONSTANT || right == NOT_CONSTANT) {
+            return;
+        }
+        try {
+            // 常量都是 String，拼接的结果不保留为 LoxString
+            expr.value = LoxString.plain(interpreter.binary(expr.operator, left, right));
+            expr.folded = true;
+        } catch (RuntimeError error) {
+            // 留到运行时报告
+        }
+    }
+
+    /**
+     * 参数都是常量的 pure 内置函数(intrinsic)：执行时内置函数没有被替换才使用折叠的值，
+     * 所以不作为其它表达式的常量(valueOf 不返回它)
+     */
+    static void fold(Interpreter interpreter, Expr.Call expr) {
+        if (expr.intrinsic == null || !expr.intrinsic.pure) {
+            return;
+        }
+        List<Object> arguments = new ArrayList<>();
+        for (Expr argument : expr.arguments) {
+            Object value = valueOf(argument);
+            if (value == NOT_CONSTANT) {
+                return;
+            }
+            arguments.add(value);
+        }
+        try {
+            expr.value = LoxString.plain(expr.intrinsic.call(interpreter, arguments));
+            expr.folded = true;
+        } catch (RuntimeError error) {
+            // 留到运行时报告
+        }
+    }
+}
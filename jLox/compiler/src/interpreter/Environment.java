@@ -5,18 +5,39 @@ import java.util.Map;
 
 public class Environment {
     final Environment enclosing;
+    // 创建它的并行任务(Interpreter.owner)，其它情况为 null
+    final Object owner;
     private final Map<String, Object> values = new HashMap<>();
+    // 有内置函数被重新定义或赋值为其它值，之后 intrinsic 的调用处不再直接调用(只对全局作用域有意义)
+    private boolean nativesReplaced = false;
 
     Environment() {
         enclosing = null;
+        owner = null;
     }
 
     Environment(Environment enclosing) {
+        this(enclosing, null);
+    }
+
+    Environment(Environment enclosing, Object owner) {
         this.enclosing = enclosing;
+        this.owner = owner;
     }
 
     void define(String name, Object value) {
-        values.put(name, value);
+        put(name, value);
+    }
+
+    private void put(String name, Object value) {
+        Object previous = values.put(name, value);
+        if (previous instanceof NativeMethod && previous != value) {
+            nativesReplaced = true;
+        }
+    }
+
+    boolean nativesReplaced() {
+        return nativesReplaced;
     }
 
     Environment ancestor(int distance) {
@@ -44,7 +65,7 @@ public class Environment {
 
     public void assign(Token name, Object value) {
         if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+            put(name.lexeme, value);
             return;
         }
         if (enclosing != null) {
@@ -56,6 +77,27 @@ public class Environment {
     }
 
     public void assignAt(Integer distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+        ancestor(distance).put(name.lexeme, value);
+    }
+
+    /**
+     * 只在本层环境中读写，配合 ancestor 使用，复合赋值只需查找一次环境链
+     */
+    Object getHere(String lexeme) {
+        return values.get(lexeme);
+    }
+
+    void assignHere(String lexeme, Object value) {
+        put(lexeme, value);
+    }
+
+    /**
+     * 复制本层的变量，值本身不复制；spawn 的任务使用全局变量的快照
+     */
+    Environment snapshot() {
+        Environment copy = new Environment(enclosing);
+        copy.values.putAll(values);
+        copy.nativesReplaced = nativesReplaced;
+        return copy;
     }
 }
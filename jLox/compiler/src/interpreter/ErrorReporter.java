@@ -0,0 +1,73 @@
+package interpreter;
+
+import java.io.PrintStream;
+
+/**
+ * 报告编译错误和运行错误，并记录是否发生过错误
+ * 每次执行(LoxContext)各有一个，不在线程之间共享
+ */
+public final class ErrorReporter {
+    private final PrintStream err;
+    private boolean hadCompileError = false;
+    private boolean hadRuntimeError = false;
+
+    public ErrorReporter(PrintStream err) {
+        this.err = err;
+    }
+
+    // 报告错误
+    void report(int line, String where, String message) {
+        err.println("[line " + line + "] Error " + where + ": " + message);
+        hadCompileError = true;
+    }
+
+    // 错误函数:Token+错误信息
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, "at end", message);
+        } else {
+            report(token.line, "at '" + token.lexeme + "'", message);
+        }
+    }
+
+    // 警告：不影响编译和执行
+    void warning(Token token, String message) {
+        err.println("[line " + token.line + "] Warning at '" + token.lexeme + "': " + message);
+    }
+
+    // 没有被 await 的任务中的运行错误，原生函数的错误没有 token
+    void taskError(RuntimeError error) {
+        String where = error.token != null ? "[line " + error.token.line + "] " : "";
+        err.println(where + "Error in unawaited task\n: " + error.getMessage());
+        hadRuntimeError = true;
+    }
+
+    // 报告运行时的语义错误
+    void runtimeError(RuntimeError error) {
+        err.println("[line " + error.token.line + "] Error runTime\n: " + error.getMessage());
+        hadRuntimeError = true;
+    }
+
+    /**
+     * 输出错误的汇总("Compile Error" / "Runtime Error")，与报告的错误在同一个流中
+     */
+    void summary(String message) {
+        err.println(message);
+    }
+
+    public boolean hadCompileError() {
+        return hadCompileError;
+    }
+
+    public boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    /**
+     * 清除错误标记，REPL 的下一次输入重新开始
+     */
+    public void reset() {
+        hadCompileError = false;
+        hadRuntimeError = false;
+    }
+}
@@ -3,6 +3,32 @@ package interpreter;
 import java.util.List;
 
 abstract class Expr {
+    static final int THIS = 0;
+    static final int SUPER = 1;
+    static final int UNARY = 2;
+    static final int BINARY = 3;
+    static final int GROUPING = 4;
+    static final int LITERAL = 5;
+    static final int LOGICAL = 6;
+    static final int VARIABLE = 7;
+    static final int ASSIGN = 8;
+    static final int CALL = 9;
+    static final int GET = 10;
+    static final int SET = 11;
+    static final int COMPOUND_ASSIGN = 12;
+    static final int COMPOUND_SET = 13;
+    static final int INCREMENT = 14;
+    static final int ARRAY = 15;
+    static final int INDEX = 16;
+    static final int INDEX_SET = 17;
+
+    // 节点种类，dispatch 按它分派
+    final int kind;
+
+    Expr(int kind) {
+        this.kind = kind;
+    }
+
     abstract <R> R accept(Visitor<R> visitor);
 
     public interface Visitor<R> {
@@ -18,28 +44,80 @@ abstract class Expr {
         R visitCallExpr(Call Expr);
         R visitGetExpr(Get Expr);
         R visitSetExpr(Set Expr);
+        R visitCompoundAssignExpr(CompoundAssign Expr);
+        R visitCompoundSetExpr(CompoundSet Expr);
+        R visitIncrementExpr(Increment Expr);
+        R visitArrayExpr(Array Expr);
+        R visitIndexExpr(Index Expr);
+        R visitIndexSetExpr(IndexSet Expr);
+    }
+
+    static <R> R dispatch(Expr expr, Visitor<R> visitor) {
+        switch (expr.kind) {
+            case THIS:
+                return visitor.visitThisExpr((This) expr);
+            case SUPER:
+                return visitor.visitSuperExpr((Super) expr);
+            case UNARY:
+                return visitor.visitUnaryExpr((Unary) expr);
+            case BINARY:
+                return visitor.visitBinaryExpr((Binary) expr);
+            case GROUPING:
+                return visitor.visitGroupingExpr((Grouping) expr);
+            case LITERAL:
+                return visitor.visitLiteralExpr((Literal) expr);
+            case LOGICAL:
+                return visitor.visitLogicalExpr((Logical) expr);
+            case VARIABLE:
+                return visitor.visitVariableExpr((Variable) expr);
+            case ASSIGN:
+                return visitor.visitAssignExpr((Assign) expr);
+            case CALL:
+                return visitor.visitCallExpr((Call) expr);
+            case GET:
+                return visitor.visitGetExpr((Get) expr);
+            case SET:
+                return visitor.visitSetExpr((Set) expr);
+            case COMPOUND_ASSIGN:
+                return visitor.visitCompoundAssignExpr((CompoundAssign) expr);
+            case COMPOUND_SET:
+                return visitor.visitCompoundSetExpr((CompoundSet) expr);
+            case INCREMENT:
+                return visitor.visitIncrementExpr((Increment) expr);
+            case ARRAY:
+                return visitor.visitArrayExpr((Array) expr);
+            case INDEX:
+                return visitor.visitIndexExpr((Index) expr);
+            case INDEX_SET:
+                return visitor.visitIndexSetExpr((IndexSet) expr);
+            default:
+                throw new IllegalStateException("Unknown expr kind " + expr.kind);
+        }
     }
 
-    static class This extends Expr {
+    static final class This extends Expr {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitThisExpr(this);
         }
 
         This(Token keyword) {
+            super(THIS);
             this.keyword = keyword;
         }
 
         final Token keyword;
+        Object cache = null;
     }
 
-    static class Super extends Expr {
+    static final class Super extends Expr {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitSuperExpr(this);
         }
 
         Super(Token keyword, Token method) {
+            super(SUPER);
             this.keyword = keyword;
             this.method = method;
         }
@@ -48,28 +126,34 @@ abstract class Expr {
         final Token method;
     }
 
-    static class Unary extends Expr {
+    static final class Unary extends Expr {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitUnaryExpr(this);
         }
 
         Unary(Token operator, Expr right) {
+            super(UNARY);
             this.operator = operator;
             this.right = right;
         }
 
         final Token operator;
         final Expr right;
+        int invariant = -1;
+        LoxType operand = LoxType.UNKNOWN;
+        boolean folded = false;
+        Object value = null;
     }
 
-    static class Binary extends Expr {
+    static final class Binary extends Expr {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitBinaryExpr(this);
         }
 
         Binary(Expr left, Token operator, Expr right) {
+            super(BINARY);
             this.left = left;
             this.operator = operator;
             this.right = right;
@@ -78,41 +162,50 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        int invariant = -1;
+        LoxType operands = LoxType.UNKNOWN;
+        boolean folded = false;
+        Object value = null;
+        int seen = 0;
+        LoxType expected = LoxType.UNKNOWN;
     }
 
-    static class Grouping extends Expr {
+    static final class Grouping extends Expr {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitGroupingExpr(this);
         }
 
         Grouping(Expr expression) {
+            super(GROUPING);
             this.expression = expression;
         }
 
         final Expr expression;
     }
 
-    static class Literal extends Expr {
+    static final class Literal extends Expr {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitLiteralExpr(this);
         }
 
         Literal(Object value) {
+            super(LITERAL);
             this.value = value;
         }
 
         final Object value;
     }
 
-    static class Logical extends Expr {
+    static final class Logical extends Expr {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitLogicalExpr(this);
         }
 
         Logical(Expr left, Token operator, Expr right) {
+            super(LOGICAL);
             this.left = left;
             this.operator = operator;
             this.right = right;
@@ -121,28 +214,35 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        int invariant = -1;
+        LoxType operand = LoxType.UNKNOWN;
     }
 
-    static class Variable extends Expr {
+    static final class Variable extends Expr {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitVariableExpr(this);
         }
 
         Variable(Token name) {
+            super(VARIABLE);
             this.name = name;
         }
 
         final Token name;
+        boolean folded = false;
+        Object value = null;
+        Object cache = null;
     }
 
-    static class Assign extends Expr {
+    static final class Assign extends Expr {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitAssignExpr(this);
         }
 
         Assign(Token name, Expr value) {
+            super(ASSIGN);
             this.name = name;
             this.value = value;
         }
@@ -151,13 +251,14 @@ abstract class Expr {
         final Expr value;
     }
 
-    static class Call extends Expr {
+    static final class Call extends Expr {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitCallExpr(this);
         }
 
         Call(Expr callee, Token paren, List<Expr> arguments) {
+            super(CALL);
             this.callee = callee;
             this.paren = paren;
             this.arguments = arguments;
@@ -166,15 +267,21 @@ abstract class Expr {
         final Expr callee;
         final Token paren;
         final List<Expr> arguments;
+        Stmt.Function target = null;
+        boolean polymorphic = false;
+        NativeMethod intrinsic = null;
+        boolean folded = false;
+        Object value = null;
     }
 
-    static class Get extends Expr {
+    static final class Get extends Expr {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitGetExpr(this);
         }
 
         Get(Expr object, Token name) {
+            super(GET);
             this.object = object;
             this.name = name;
         }
@@ -183,20 +290,133 @@ abstract class Expr {
         final Token name;
     }
 
-    static class Set extends Expr {
+    static final class Set extends Expr {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitSetExpr(this);
         }
 
         Set(Expr object, Token name, Expr value) {
+            super(SET);
+            this.object = object;
+            this.name = name;
+            this.value = value;
+        }
+
+        final Expr object;
+        final Token name;
+        final Expr value;
+    }
+
+    static final class CompoundAssign extends Expr {
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitCompoundAssignExpr(this);
+        }
+
+        CompoundAssign(Token name, Token operator, Expr value) {
+            super(COMPOUND_ASSIGN);
+            this.name = name;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        final Token name;
+        final Token operator;
+        final Expr value;
+        LoxType operands = LoxType.UNKNOWN;
+    }
+
+    static final class CompoundSet extends Expr {
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitCompoundSetExpr(this);
+        }
+
+        CompoundSet(Expr object, Token name, Token operator, Expr value) {
+            super(COMPOUND_SET);
             this.object = object;
             this.name = name;
+            this.operator = operator;
             this.value = value;
         }
 
         final Expr object;
         final Token name;
+        final Token operator;
+        final Expr value;
+    }
+
+    static final class Increment extends Expr {
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIncrementExpr(this);
+        }
+
+        Increment(Expr target, Token operator, boolean prefix) {
+            super(INCREMENT);
+            this.target = target;
+            this.operator = operator;
+            this.prefix = prefix;
+        }
+
+        final Expr target;
+        final Token operator;
+        final boolean prefix;
+        LoxType operand = LoxType.UNKNOWN;
+    }
+
+    static final class Array extends Expr {
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitArrayExpr(this);
+        }
+
+        Array(Token bracket, List<Expr> elements) {
+            super(ARRAY);
+            this.bracket = bracket;
+            this.elements = elements;
+        }
+
+        final Token bracket;
+        final List<Expr> elements;
+    }
+
+    static final class Index extends Expr {
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIndexExpr(this);
+        }
+
+        Index(Expr object, Token bracket, Expr index) {
+            super(INDEX);
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+        }
+
+        final Expr object;
+        final Token bracket;
+        final Expr index;
+    }
+
+    static final class IndexSet extends Expr {
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitIndexSetExpr(this);
+        }
+
+        IndexSet(Expr object, Token bracket, Expr index, Expr value) {
+            super(INDEX_SET);
+            this.object = object;
+            this.bracket = bracket;
+            this.index = index;
+            this.value = value;
+        }
+
+        final Expr object;
+        final Token bracket;
+        final Expr index;
         final Expr value;
     }
 
@@ -1,9 +1,18 @@
 package interpreter;
 
+import interpreter.ir.IrFunction;
+
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 将parser域中语法树的节点转换为运行中的值
@@ -12,27 +21,102 @@ import java.util.Map;
 public class Interpreter implements Expr.Visitor<Object>,
         Stmt.Visitor<Void> {
 
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    final Environment globals;
+    private Environment environment;
+    // 语义分析的结果，执行已编译的程序(LoxProgram)时由各次执行共享，只读
+    private final Map<Expr, Integer> locals;
+    // 被闭包捕获的局部变量(声明处的 token)，由 Resolver 找出
+    private final Set<Token> captured;
+    // 已经执行过的全局常量，之后的 REPL 输入仍然可以代入和检查赋值
+    final Map<String, Stmt.Const> constants = new HashMap<>();
+    // 当前 for 循环的不变量槽位，UNSET 表示本次进入循环后还未求值
+    private static final Object UNSET = new Object();
+    private Object[] invariants = null;
+    // 自增自减的右操作数
+    private static final Object ONE = 1L;
+    // 节点缓存的深度：全局变量
+    private static final Object GLOBAL = new Object();
+    // 热点函数和循环的升级策略
+    final TieringPolicy tiering = TieringPolicy.fromProperties();
+    // 是否在语法树节点上记录类型反馈(Profile)
+    private final boolean profiling = Profile.enabled();
+    // 二元运算观察到的操作数类型：写入 profile，分层执行升级时据此推测类型
+    private final boolean recording = profiling || tiering.enabled();
+    // 编译错误和运行错误的去处，print 的输出
+    final ErrorReporter errors;
+    private final PrintStream out;
+    // -Dlox.stack=explicit 时由显式栈求值器执行，否则为 null
+    final StackEvaluator explicitStack;
+    // 并行任务(isolate)的解释器为自己，创建的环境由它标记；其它解释器为 null
+    final Object owner;
+    // spawn 创建的任务，由 fork 的解释器共享，程序执行结束时检查没有被 await 的失败
+    final Set<LoxTask> tasks;
 
-    Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double) System.currentTimeMillis() / 1000.0;
-            }
+    /**
+     * 独立的解释器：自己的全局变量和语义分析结果
+     */
+    Interpreter(ErrorReporter errors, PrintStream out) {
+        this(natives(), new HashMap<>(), new HashSet<>(), errors, out);
+    }
 
-            @Override
-            public int arity() {
-                return 0;
-            }
+    /**
+     * @param globals  全局变量，已经定义了内置函数
+     * @param locals   语义分析得到的深度
+     * @param captured 被闭包捕获的局部变量
+     */
+    Interpreter(Environment globals, Map<Expr, Integer> locals, Set<Token> captured,
+                ErrorReporter errors, PrintStream out) {
+        this(globals, locals, captured, errors, out, false, ConcurrentHashMap.newKeySet());
+    }
 
-            @Override
-            public String toString() {
-                return "<native function>";
-            }
-        });
+    private Interpreter(Environment globals, Map<Expr, Integer> locals, Set<Token> captured,
+                        ErrorReporter errors, PrintStream out, boolean isolated, Set<LoxTask> tasks) {
+        this.owner = isolated ? this : null;
+        this.tasks = tasks;
+        this.globals = globals;
+        this.environment = globals;
+        this.locals = locals;
+        this.captured = captured;
+        this.errors = errors;
+        this.out = out;
+        this.explicitStack = StackEvaluator.fromProperties(this);
+    }
+
+    /**
+     * 新的全局作用域，只包含内置函数
+     */
+    static Environment natives() {
+        Environment globals = new Environment();
+        // @LoxNative 的函数库
+        for (NativeMethod method : NativeMethod.LIBRARY.values()) {
+            globals.define(method.name, method);
+        }
+        return globals;
+    }
+
+    /**
+     * spawn 的任务使用的解释器：共享语义分析的结果、错误报告和输出，全局变量为当前的快照
+     */
+    Interpreter fork() {
+        return new Interpreter(globals.snapshot(), locals, captured, errors, out, false, tasks);
+    }
+
+    /**
+     * parallelMap/parallelReduce 的任务使用的解释器：与 fork 相同，另外只能写入任务自己创建的环境
+     */
+    Interpreter isolate() {
+        return new Interpreter(globals.snapshot(), locals, captured, errors, out, true, tasks);
+    }
+
+    /**
+     * 并行任务中写入变量之前检查：闭包捕获的变量在任务之间共享，全局变量是任务的快照，
+     * 写入前者是数据竞争，后者的结果会丢失，都报告为错误
+     */
+    void checkWritable(Environment target, Token name) {
+        if (owner != null && target.owner != owner) {
+            throw new RuntimeError(name, "Cannot assign to " + (target == globals ? "global" : "captured")
+                    + " variable '" + name.lexeme + "' in a parallel function.");
+        }
     }
 
     /**
@@ -42,11 +126,17 @@ public class Interpreter implements Expr.Visitor<Object>,
      */
     public void interpreter(List<Stmt> statements) {
         try {
+            if (explicitStack != null) {
+                explicitStack.execute(statements);
+                return;
+            }
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Main.runtimeError(error);
+            errors.runtimeError(error);
+        } finally {
+            LoxTask.abandon(tasks);
         }
     }
 
@@ -60,8 +150,7 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
-        Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        print(evaluate(stmt.expression));
         return null;
     }
 
@@ -91,9 +180,25 @@ public class Interpreter implements Expr.Visitor<Object>,
         return null;
     }
 
+    @Override
+    public Void visitConstStmt(Stmt.Const stmt) {
+        Object value = stmt.folded ? stmt.value : evaluate(stmt.initializer);
+        environment.define(stmt.name.lexeme, value);
+        if (environment == globals) {
+            constants.put(stmt.name.lexeme, stmt);
+        }
+        return null;
+    }
+
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        if (!stmt.scoped) {
+            for (Stmt statement : stmt.statements) {
+                execute(statement);
+            }
+            return null;
+        }
+        executeBlock(stmt.statements, new Environment(environment, owner));
         return null;
     }
 
@@ -102,31 +207,34 @@ public class Interpreter implements Expr.Visitor<Object>,
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
-            if (!(superclass instanceof LoxClass)) {
-                throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
-            }
+        }
+        defineClass(stmt, superclass, environment);
+        return null;
+    }
+
+    /**
+     * 在 environment 中定义类，superclass 为已经求出的父类(没有父类时为 null)
+     */
+    void defineClass(Stmt.Class stmt, Object superclass, Environment environment) {
+        if (stmt.superclass != null && !(superclass instanceof LoxClass)) {
+            throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
         }
         environment.define(stmt.name.lexeme, null);
 
+        Environment closure = environment;
         if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            closure = new Environment(environment, owner);
+            closure.define("super", superclass);
         }
 
-        Map<String, LoxFunction> methods = new HashMap<>();
+        Map<String, LoxMethod> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
+            LoxFunction function = new LoxFunction(method, closure, method.name.lexeme.equals("init"));
             methods.put(method.name.lexeme, function);
         }
 
         LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods);
-
-        if (superclass != null) {
-            environment = environment.enclosing;
-        }
-
         environment.assign(stmt.name, klass);
-        return null;
     }
 
     @Override
@@ -141,61 +249,399 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
+        if (stmt.ir != null) {
+            executeLoop(stmt);
+            return null;
+        }
         while (isTruthy(evaluate(stmt.condition))) {
             execute(stmt.body);
+            if (tiering.countBackEdge(this, stmt)) {
+                // on-stack replacement：循环的状态都在环境中，剩余的迭代直接由 IR 执行
+                executeLoop(stmt);
+                return null;
+            }
         }
         return null;
     }
 
+    /**
+     * 由 IR 执行升级的循环(剩余的全部迭代)，推测失败时之后的执行退回解释器
+     */
+    private void executeLoop(Stmt.While stmt) {
+        IrFunction ir = stmt.ir;
+        IrExecutor.execute(this, ir, environment, Collections.emptyList());
+        if (ir.invalidated()) {
+            tiering.deoptimize(stmt, ir);
+        }
+    }
+
+    private void executeLoop(Stmt.For stmt) {
+        IrFunction ir = stmt.ir;
+        IrExecutor.execute(this, ir, environment, Collections.emptyList());
+        if (ir.invalidated()) {
+            tiering.deoptimize(stmt, ir);
+        }
+    }
+
+    /**
+     * for 循环执行器
+     * 循环体不捕获环境时，所有迭代复用同一个环境，避免每次迭代新建 Environment
+     * 和 while 一样计数回边，升级后(初始化已经执行)剩余的迭代由 IR 在 for 的作用域环境中执行
+     */
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        Environment previous = this.environment;
+        Object[] enclosingInvariants = this.invariants;
+        try {
+            if (stmt.initializer instanceof Stmt.Var) {
+                this.environment = new Environment(previous, owner);
+            }
+            if (stmt.initializer != null) {
+                execute(stmt.initializer);
+            }
+
+            this.invariants = null;
+            if (stmt.invariants > 0) {
+                this.invariants = new Object[stmt.invariants];
+                Arrays.fill(this.invariants, UNSET);
+            }
+
+            if (stmt.ir != null) {
+                executeLoop(stmt);
+                return null;
+            }
+            Environment iteration = null;
+            List<Stmt> statements = null;
+            if (stmt.reuseScope) {
+                iteration = new Environment(this.environment, owner);
+                statements = ((Stmt.Block) stmt.body).statements;
+            }
+
+            while (stmt.condition == null || isTruthy(evaluate(stmt.condition))) {
+                if (iteration != null) {
+                    executeBlock(statements, iteration);
+                } else {
+                    execute(stmt.body);
+                }
+                if (stmt.increment != null) {
+                    evaluate(stmt.increment);
+                }
+                if (tiering.countBackEdge(this, stmt)) {
+                    executeLoop(stmt);
+                    return null;
+                }
+            }
+        } finally {
+            this.environment = previous;
+            this.invariants = enclosingInvariants;
+        }
+        return null;
+    }
+
+    /**
+     * 有分派表时直接查表得到开始执行的语句，否则依次求值 case 标签并比较
+     */
+    @Override
+    public Void visitSwitchStmt(Stmt.Switch stmt) {
+        Object value = evaluate(stmt.value);
+        int start = stmt.table != null ? stmt.table.position(value) : search(stmt, value);
+
+        Environment previous = this.environment;
+        try {
+            if (stmt.scoped) {
+                this.environment = new Environment(previous, owner);
+            }
+            for (int i = start; i < stmt.body.size(); i++) {
+                execute(stmt.body.get(i));
+            }
+        } catch (Break ignored) {
+            // 跳出 switch
+        } finally {
+            this.environment = previous;
+        }
+        return null;
+    }
+
+    private int search(Stmt.Switch stmt, Object value) {
+        int otherwise = stmt.body.size();
+        for (int i = 0; i < stmt.labels.size(); i++) {
+            Expr label = stmt.labels.get(i);
+            if (label == null) {
+                otherwise = stmt.targets.get(i);
+            } else if (SwitchTable.matches(value, evaluate(label))) {
+                return stmt.targets.get(i);
+            }
+        }
+        return otherwise;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        throw Break.INSTANCE;
+    }
+
     //---------------Expression------------------//
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (expr.folded) {
+            return expr.value;
+        }
+        if (expr.invariant >= 0) {
+            Object value = invariants[expr.invariant];
+            if (value == UNSET) {
+                value = binary(expr);
+                invariants[expr.invariant] = value;
+            }
+            return value;
+        }
+        return binary(expr);
+    }
+
+    private Object binary(Expr.Binary expr) {
+        if (expr.right instanceof Expr.Index) {
+            return elementBinary(expr, evaluate(expr.left), (Expr.Index) expr.right, false);
+        }
+        if (expr.left instanceof Expr.Index && (expr.right instanceof Expr.Literal
+                || expr.right instanceof Expr.Variable)) {
+            // 右操作数没有副作用，可以在读出左边的元素之前求值
+            Expr.Index index = (Expr.Index) expr.left;
+            Object object = evaluate(index.object);
+            Object position = evaluate(index.index);
+            return elementBinary(expr, evaluate(expr.right), object, index.bracket, position, true);
+        }
         // 先分析左操作数再分析右操作数
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
-        switch (expr.operator.type) {
+        return binary(expr, left, right);
+    }
+
+    private Object elementBinary(Expr.Binary expr, Object other, Expr.Index element, boolean elementLeft) {
+        Object object = evaluate(element.object);
+        Object position = evaluate(element.index);
+        return elementBinary(expr, other, object, element.bracket, position, elementLeft);
+    }
+
+    /**
+     * 一个操作数是数组元素：元素和另一个操作数都是数字时按数组的存储直接读出 long/double，元素不装箱
+     * 结果与通用的路径相同：两个整数为整数运算，否则转换为浮点数
+     */
+    private Object elementBinary(Expr.Binary expr, Object other, Object object, Token bracket,
+                                 Object position, boolean elementLeft) {
+        if (!(object instanceof LoxArray)) {
+            Object element = index(object, bracket, position);
+            return elementLeft ? binary(expr, element, other) : binary(expr, other, element);
+        }
+        LoxArray array = (LoxArray) object;
+        int i = checkIndex(array, bracket, position);
+        if (other instanceof Long && array.isLong(i)) {
+            if (recording) {
+                expr.seen |= Profile.mask(LoxType.INTEGER);
+            }
+            long element = array.getLong(i);
+            return elementLeft ? integerBinary(expr.operator, element, (long) other)
+                    : integerBinary(expr.operator, (long) other, element);
+        }
+        if (isNumber(other) && array.isNumber(i)) {
+            if (recording) {
+                LoxType type = array.isLong(i) ? LoxType.INTEGER : LoxType.NUMBER;
+                expr.seen |= Profile.mask(LoxType.of(other)) | Profile.mask(type);
+            }
+            double value = ((Number) other).doubleValue();
+            double element = array.getDouble(i);
+            return elementLeft ? numberBinary(expr.operator, element, value)
+                    : numberBinary(expr.operator, value, element);
+        }
+        Object element = array.get(i);
+        return elementLeft ? binary(expr, element, other) : binary(expr, other, element);
+    }
+
+    /**
+     * 操作数已经求值的二元运算，按类型推导和类型反馈选择路径
+     */
+    Object binary(Expr.Binary expr, Object left, Object right) {
+        if (expr.operands == LoxType.UNKNOWN) {
+            if (expr.expected != LoxType.UNKNOWN) {
+                // 按 profile 预先特化的节点，类型不符时退回通用的路径，不再特化
+                if (LoxType.of(left) == expr.expected && LoxType.of(right) == expr.expected) {
+                    return binary(expr.operator, expr.expected, left, right);
+                }
+                expr.expected = LoxType.UNKNOWN;
+            }
+            if (recording) {
+                expr.seen |= Profile.mask(LoxType.of(left)) | Profile.mask(LoxType.of(right));
+            }
+        }
+        return binary(expr.operator, expr.operands, left, right);
+    }
+
+    /**
+     * 类型推导已经证明了操作数的类型时跳过检查
+     */
+    Object binary(Token operator, LoxType operands, Object left, Object right) {
+        if (operands == LoxType.NUMBER) {
+            return numberBinary(operator, (double) left, (double) right);
+        }
+        if (operands == LoxType.INTEGER) {
+            return integerBinary(operator, (long) left, (long) right);
+        }
+        if (operands == LoxType.STRING && operator.type == TokenType.PLUS) {
+            return LoxString.concat(left, right);
+        }
+        return binary(operator, left, right);
+    }
+
+    /**
+     * 操作数已知为浮点数的二元运算，不做类型检查
+     */
+    Object numberBinary(Token operator, double left, double right) {
+        switch (operator.type) {
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left > (double) right;
+                return left > right;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left >= (double) right;
+                return left >= right;
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left < (double) right;
+                return left < right;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left <= (double) right;
+                return left <= right;
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left - (double) right;
+                return left - right;
             case PLUS:
-                if (left instanceof Double && right instanceof Double) {
+                return left + right;
+            case DIVIDE:
+                return left / right;
+            case MULTIPLY:
+                return left * right;
+            case MOD:
+                return left % right;
+            case BANG_EQUAL:
+                return Double.compare(left, right) != 0;
+            case EQUAL_EQUAL:
+                // 与 Double.equals 一致
+                return Double.compare(left, right) == 0;
+            default:
+                throw new RuntimeError(operator, "Operands must be integers.");
+        }
+    }
+
+    /**
+     * 操作数已知为整数的二元运算，不做类型检查
+     * 加减乘溢出时改用浮点数计算，除法的结果总是浮点数
+     */
+    Object integerBinary(Token operator, long left, long right) {
+        switch (operator.type) {
+            case GREATER:
+                return left > right;
+            case GREATER_EQUAL:
+                return left >= right;
+            case LESS:
+                return left < right;
+            case LESS_EQUAL:
+                return left <= right;
+            case MINUS: {
+                long result = left - right;
+                if (((left ^ right) & (left ^ result)) < 0) {
+                    return (double) left - (double) right;
+                }
+                return result;
+            }
+            case PLUS: {
+                long result = left + right;
+                if (((left ^ result) & (right ^ result)) < 0) {
                     return (double) left + (double) right;
                 }
-                if (left instanceof String && right instanceof String) {
-                    return (String) left + (String) right;
+                return result;
+            }
+            case MULTIPLY: {
+                long high = Math.multiplyHigh(left, right);
+                long result = left * right;
+                if (high != (result >> 63)) {
+                    return (double) left * (double) right;
                 }
-
-                throw new RuntimeError(expr.operator,
-                        "Operands must be two numbers or two strings.");
+                return result;
+            }
             case DIVIDE:
-                checkNumberOperands(expr.operator, left, right);
                 return (double) left / (double) right;
-            case MULTIPLY:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left * (double) right;
+            case MOD:
+                if (right == 0) {
+                    throw new RuntimeError(operator, "Division by zero.");
+                }
+                return left % right;
+            case SHIFT_LEFT:
+                return left << shiftCount(operator, right);
+            case SHIFT_RIGHT:
+                return left >> shiftCount(operator, right);
+            case AND:
+                return left & right;
+            case OR:
+                return left | right;
+            case XOR:
+                return left ^ right;
             case BANG_EQUAL:
-                return !isEqual(left, right);
+                return left != right;
             case EQUAL_EQUAL:
-                return isEqual(left, right);
+                return left == right;
             default:
                 break;
         }
+        // Unreachable
         return null;
     }
 
+    /**
+     * Java 只取移位数的低 6 位(1 << 64 为 1)，超出 0..63 的移位数是运行时错误
+     */
+    private static int shiftCount(Token operator, long count) {
+        if (count < 0 || count > 63) {
+            throw new RuntimeError(operator, "Shift count must be between 0 and 63.");
+        }
+        return (int) count;
+    }
+
+    /**
+     * 二元运算，运行时检查操作数类型
+     * 整数与浮点数混合运算时，整数转换为浮点数
+     */
+    Object binary(Token operator, Object left, Object right) {
+        if (left instanceof Long && right instanceof Long) {
+            return integerBinary(operator, (long) left, (long) right);
+        }
+        if (isNumber(left) && isNumber(right)) {
+            return numberBinary(operator, ((Number) left).doubleValue(), ((Number) right).doubleValue());
+        }
+        switch (operator.type) {
+            case PLUS:
+                if (LoxString.isString(left) && LoxString.isString(right)) {
+                    return LoxString.concat(left, right);
+                }
+
+                throw new RuntimeError(operator,
+                        "Operands must be two numbers or two strings.");
+            case AND:
+            case OR:
+            case XOR:
+                // 布尔值的 & | ^ 不短路
+                if (left instanceof Boolean && right instanceof Boolean) {
+                    boolean a = (boolean) left;
+                    boolean b = (boolean) right;
+                    return operator.type == TokenType.AND ? a & b :
+                            operator.type == TokenType.OR ? a | b : a ^ b;
+                }
+
+                throw new RuntimeError(operator,
+                        "Operands must be two integers or two booleans.");
+            case SHIFT_LEFT:
+            case SHIFT_RIGHT:
+                throw new RuntimeError(operator, "Operands must be integers.");
+            case BANG_EQUAL:
+                return !isEqual(left, right);
+            case EQUAL_EQUAL:
+                return isEqual(left, right);
+            default:
+                throw new RuntimeError(operator, "Operands must be numbers.");
+        }
+    }
+
     @Override
     public Object visitGroupingExpr(Expr.Grouping expr) {
         return evaluate(expr.expression);
@@ -208,12 +654,25 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitLogicalExpr(Expr.Logical expr) {
+        if (expr.invariant >= 0) {
+            Object value = invariants[expr.invariant];
+            if (value == UNSET) {
+                value = logical(expr);
+                invariants[expr.invariant] = value;
+            }
+            return value;
+        }
+        return logical(expr);
+    }
+
+    private Object logical(Expr.Logical expr) {
         Object left = evaluate(expr.left);
+        boolean truth = expr.operand == LoxType.BOOL ? (boolean) left : isTruthy(left);
 
-        if (expr.operator.type == TokenType.OR) {
-            if (isTruthy(left)) return left;
+        if (expr.operator.type == TokenType.OR_OR) {
+            if (truth) return left;
         } else {
-            if (!isTruthy(left)) return left;
+            if (!truth) return left;
         }
 
         return evaluate(expr.right);
@@ -221,18 +680,27 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        if (expr.cache == null) {
+            expr.cache = distance(expr);
+        }
+        return lookUpVariable(expr.keyword, expr.cache);
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
+        return superMethod(expr, environment, locals.get(expr));
+    }
+
+    /**
+     * super.method 绑定到当前的 this
+     */
+    Object superMethod(Expr.Super expr, Environment environment, int distance) {
         LoxClass superclass = (LoxClass)environment.getAt(
                 distance, "super");
         LoxInstance object = (LoxInstance)environment.getAt(
                 distance - 1, "this");
 
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
+        LoxMethod method = superclass.findMethod(expr.method.lexeme);
 
         if (method == null) {
             throw new RuntimeError(expr.method,
@@ -244,16 +712,60 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
+        if (expr.folded) {
+            return expr.value;
+        }
+        if (expr.invariant >= 0) {
+            Object value = invariants[expr.invariant];
+            if (value == UNSET) {
+                value = unary(expr);
+                invariants[expr.invariant] = value;
+            }
+            return value;
+        }
+        return unary(expr);
+    }
+
+    private Object unary(Expr.Unary expr) {
         Object right = evaluate(expr.right);
-        switch (expr.operator.type) {
+        return unary(expr.operator, right, expr.operand == LoxType.NUMBER);
+    }
+
+    /**
+     * 一元运算，number 表示操作数已知为浮点数
+     */
+    Object unary(Token operator, Object right, boolean number) {
+        if (number) {
+            switch (operator.type) {
+                case MINUS:
+                    return -(double) right;
+                case PLUS:
+                    return right;
+                default:
+                    break;
+            }
+        }
+        switch (operator.type) {
             case MINUS:
-                checkNumberOperand(expr.operator, right);
+                if (right instanceof Long) {
+                    long value = (long) right;
+                    if (value == Long.MIN_VALUE) {
+                        return -(double) value;
+                    }
+                    return -value;
+                }
+                checkNumberOperand(operator, right);
                 return -(double) right;
             case PLUS:
-                checkNumberOperand(expr.operator, right);
-                return +(double) right;
+                checkNumberOperand(operator, right);
+                return right;
             case BANG:
                 return !isTruthy(right);
+            case NOT:
+                if (right instanceof Long) {
+                    return ~(long) right;
+                }
+                throw new RuntimeError(operator, "Operand must be an integer.");
             default:
                 break;
         }
@@ -263,7 +775,14 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        if (expr.folded) {
+            return expr.value;
+        }
+        // 深度缓存在节点上，不必每次查 locals
+        if (expr.cache == null) {
+            expr.cache = distance(expr);
+        }
+        return lookUpVariable(expr.name, expr.cache);
     }
 
     @Override
@@ -271,8 +790,11 @@ public class Interpreter implements Expr.Visitor<Object>,
         Object value = evaluate(expr.value);
         Integer distance = locals.get(expr);
         if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+            Environment target = environment.ancestor(distance);
+            checkWritable(target, expr.name);
+            target.assignHere(expr.name.lexeme, value);
         } else {
+            checkWritable(globals, expr.name);
             globals.assign(expr.name, value);
         }
         return value;
@@ -280,33 +802,110 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        // 全局的内置函数没有被替换：不查找被调用者，直接调用
+        if (expr.intrinsic != null && !globals.nativesReplaced()) {
+            return expr.folded ? expr.value : callNative(expr.intrinsic, expr);
+        }
         Object callee = evaluate(expr.callee);
+        if (callee instanceof NativeMethod && ((NativeMethod) callee).arity() == expr.arguments.size()) {
+            return callNative((NativeMethod) callee, expr);
+        }
 
         List<Object> arguments = new ArrayList<>();
         for (Expr argument : expr.arguments) {
             arguments.add(evaluate(argument));
         }
+        if (callee instanceof LoxFunction && ((LoxFunction) callee).declaration == expr.target) {
+            // 单态的调用点，记录目标时已经检查过参数个数
+            return ((LoxFunction) callee).call(this, arguments);
+        }
+        if (profiling && !expr.polymorphic && callee instanceof LoxFunction) {
+            feedback(expr, ((LoxFunction) callee).declaration, arguments.size());
+        }
+        return call(callee, expr.paren, arguments);
+    }
+
+    /**
+     * 不创建参数列表调用 @LoxNative 的函数，参数个数已经检查过
+     */
+    private Object callNative(NativeMethod function, Expr.Call expr) {
+        List<Expr> arguments = expr.arguments;
+        try {
+            switch (arguments.size()) {
+                case 0:
+                    return function.invoke(this);
+                case 1:
+                    return function.invoke(this, evaluate(arguments.get(0)));
+                case 2:
+                    return function.invoke(this, evaluate(arguments.get(0)), evaluate(arguments.get(1)));
+                case 3:
+                    return function.invoke(this, evaluate(arguments.get(0)), evaluate(arguments.get(1)),
+                            evaluate(arguments.get(2)));
+                default:
+                    List<Object> values = new ArrayList<>();
+                    for (Expr argument : arguments) {
+                        values.add(evaluate(argument));
+                    }
+                    return function.call(this, values);
+            }
+        } catch (RuntimeError error) {
+            if (error.token == null) {
+                throw new RuntimeError(expr.paren, error.getMessage());
+            }
+            throw error;
+        }
+    }
+
+    /**
+     * 记录调用点的目标，出现第二个目标后不再记录
+     */
+    private void feedback(Expr.Call expr, Stmt.Function target, int arity) {
+        if (target.params.size() != arity) {
+            return;
+        }
+        if (expr.target == null) {
+            expr.target = target;
+        } else {
+            expr.target = null;
+            expr.polymorphic = true;
+        }
+    }
+
+    /**
+     * 检查被调用者和参数个数，之后调用
+     */
+    Object call(Object callee, Token paren, List<Object> arguments) {
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren,
+            throw new RuntimeError(paren,
                     "Can only call functions and classes.");
         }
         LoxCallable function = (LoxCallable) callee;
         if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " +
+            throw new RuntimeError(paren, "Expected " +
                     function.arity() + " arguments but got " +
                     arguments.size() + ".");
         }
-        return function.call(this, arguments);
+        try {
+            return function.call(this, arguments);
+        } catch (RuntimeError error) {
+            if (error.token == null) {
+                throw new RuntimeError(paren, error.getMessage());
+            }
+            throw error;
+        }
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.object);
+        return get(evaluate(expr.object), expr.name);
+    }
+
+    Object get(Object object, Token name) {
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.name);
+            return ((LoxInstance) object).get(name);
         }
 
-        throw new RuntimeError(expr.name,
+        throw new RuntimeError(name,
                 "Only instances have properties.");
     }
 
@@ -324,6 +923,137 @@ public class Interpreter implements Expr.Visitor<Object>,
         return value;
     }
 
+    void set(Object object, Token name, Object value) {
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(name,
+                    "Only instances have fields.");
+        }
+        ((LoxInstance) object).set(name, value);
+    }
+
+    @Override
+    public Object visitArrayExpr(Expr.Array expr) {
+        LoxArray array = new LoxArray(expr.elements.size());
+        for (Expr element : expr.elements) {
+            array.push(evaluate(element));
+        }
+        return array;
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        return index(evaluate(expr.object), expr.bracket, evaluate(expr.index));
+    }
+
+    Object index(Object object, Token bracket, Object index) {
+        if (object instanceof LoxMap) {
+            return ((LoxMap) object).get(index);
+        }
+        LoxArray array = array(object, bracket);
+        return array.get(checkIndex(array, bracket, index));
+    }
+
+    @Override
+    public Object visitIndexSetExpr(Expr.IndexSet expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+        Object value = evaluate(expr.value);
+        setIndex(object, expr.bracket, index, value);
+        return value;
+    }
+
+    void setIndex(Object object, Token bracket, Object index, Object value) {
+        if (object instanceof LoxMap) {
+            ((LoxMap) object).set(index, value);
+            return;
+        }
+        LoxArray array = array(object, bracket);
+        array.set(checkIndex(array, bracket, index), value);
+    }
+
+    private static LoxArray array(Object object, Token bracket) {
+        if (!(object instanceof LoxArray)) {
+            throw new RuntimeError(bracket, "Only arrays and maps can be indexed.");
+        }
+        return (LoxArray) object;
+    }
+
+    /**
+     * 下标为整数(或者没有小数部分的浮点数)，并且在数组的范围内
+     */
+    private static int checkIndex(LoxArray array, Token bracket, Object index) {
+        long position;
+        if (index instanceof Long) {
+            position = (long) index;
+        } else if (index instanceof Double && (double) index == Math.rint((double) index)) {
+            position = (long) (double) index;
+        } else {
+            throw new RuntimeError(bracket, "Index must be an integer.");
+        }
+        if (position < 0 || position >= array.length()) {
+            throw new RuntimeError(bracket,
+                    "Index " + position + " out of bounds for length " + array.length() + ".");
+        }
+        return (int) position;
+    }
+
+    /**
+     * x op= value：只查找一次环境链，在变量所在的环境上读-改-写
+     */
+    @Override
+    public Object visitCompoundAssignExpr(Expr.CompoundAssign expr) {
+        Integer distance = locals.get(expr);
+        Environment owner = distance != null ? environment.ancestor(distance) : globals;
+        Object old = distance != null ? owner.getHere(expr.name.lexeme) : globals.get(expr.name);
+        Object value = binary(expr.operator, expr.operands, old, evaluate(expr.value));
+        checkWritable(owner, expr.name);
+        owner.assignHere(expr.name.lexeme, value);
+        return value;
+    }
+
+    @Override
+    public Object visitCompoundSetExpr(Expr.CompoundSet expr) {
+        Object object = evaluate(expr.object);
+        Object old = get(object, expr.name);
+        Object value = binary(expr.operator, old, evaluate(expr.value));
+        ((LoxInstance) object).set(expr.name, value);
+        return value;
+    }
+
+    /**
+     * ++x / x++ / --x / x--，对象为变量或属性
+     */
+    @Override
+    public Object visitIncrementExpr(Expr.Increment expr) {
+        if (expr.target instanceof Expr.Variable) {
+            Token name = ((Expr.Variable) expr.target).name;
+            Integer distance = locals.get(expr.target);
+            Environment owner = distance != null ? environment.ancestor(distance) : globals;
+            Object old = distance != null ? owner.getHere(name.lexeme) : globals.get(name);
+            Object value = increment(expr, old);
+            checkWritable(owner, name);
+            owner.assignHere(name.lexeme, value);
+            return expr.prefix ? value : old;
+        }
+
+        Expr.Get get = (Expr.Get) expr.target;
+        Object object = evaluate(get.object);
+        Object old = get(object, get.name);
+        Object value = increment(expr, old);
+        ((LoxInstance) object).set(get.name, value);
+        return expr.prefix ? value : old;
+    }
+
+    Object increment(Expr.Increment expr, Object old) {
+        if (expr.operand == LoxType.NUMBER) {
+            return numberBinary(expr.operator, (double) old, 1.0);
+        }
+        if (expr.operand == LoxType.INTEGER) {
+            return integerBinary(expr.operator, (long) old, 1L);
+        }
+        return binary(expr.operator, old, ONE);
+    }
+
     void executeBlock(List<Stmt> statements, Environment environment) {
         // 定位
         Environment previous = this.environment;
@@ -353,6 +1083,10 @@ public class Interpreter implements Expr.Visitor<Object>,
         if (a == null) {
             return false;
         }
+        // String.equals 不认识 LoxString，由 LoxString 按内容比较
+        if (b instanceof LoxString) {
+            return b.equals(a);
+        }
         return a.equals(b);
     }
 
@@ -362,7 +1096,7 @@ public class Interpreter implements Expr.Visitor<Object>,
      * @param object object
      * @return bool
      */
-    private boolean isTruthy(Object object) {
+    boolean isTruthy(Object object) {
         if (object == null) {
             return false;
         }
@@ -374,12 +1108,13 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     /**
      * 根据expr调用4个visit函数 主要目的是可以通过此函数进行递归分析value
+     * 由 Expr.dispatch 按 kind 的 tableswitch 分派，不经过 accept 的虚调用
      *
      * @param expr Expr
      * @return Object
      */
     private Object evaluate(Expr expr) {
-        return expr.accept(this);
+        return Expr.dispatch(expr, this);
     }
 
     /**
@@ -388,7 +1123,7 @@ public class Interpreter implements Expr.Visitor<Object>,
      * @param stmt Stmt
      */
     private void execute(Stmt stmt) {
-        stmt.accept(this);
+        Stmt.dispatch(stmt, this);
     }
 
     /**
@@ -396,12 +1131,46 @@ public class Interpreter implements Expr.Visitor<Object>,
      */
     void resolve(Expr expr, int depth) {
         locals.put(expr, depth);
+        if (expr instanceof Expr.Variable) {
+            ((Expr.Variable) expr).cache = null;
+        } else if (expr instanceof Expr.This) {
+            ((Expr.This) expr).cache = null;
+        }
     }
 
-    private Object lookUpVariable(Token name, Expr variable) {
-        Integer distance = locals.get(variable);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    /**
+     * 语义分析调用，记录被闭包捕获的局部变量
+     */
+    void capture(Token binding) {
+        captured.add(binding);
+    }
+
+    boolean isCaptured(Token binding) {
+        return captured.contains(binding);
+    }
+
+    /**
+     * 语义分析得到的深度，全局变量返回 null
+     */
+    Integer depth(Expr expr) {
+        return locals.get(expr);
+    }
+
+    void print(Object value) {
+        out.println(stringify(value));
+    }
+
+    /**
+     * 语义分析得到的深度，全局变量为 GLOBAL
+     */
+    private Object distance(Expr variable) {
+        Integer depth = locals.get(variable);
+        return depth != null ? depth : GLOBAL;
+    }
+
+    private Object lookUpVariable(Token name, Object distance) {
+        if (distance != GLOBAL) {
+            return environment.getAt((Integer) distance, name.lexeme);
         } else {
             return globals.get(name);
         }
@@ -414,24 +1183,20 @@ public class Interpreter implements Expr.Visitor<Object>,
      * @param operand  Object
      */
     private void checkNumberOperand(Token operator, Object operand) {
-        if (operand instanceof Double) {
+        if (isNumber(operand)) {
             return;
         }
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
     /**
-     * 验证二元运算符的操作数是不是数字 不是抛出runtime error
+     * Lox 中的数字为 Double 或 Long
      *
-     * @param operator Token
-     * @param left     Object
-     * @param right    Object
+     * @param object Object
+     * @return bool
      */
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) {
-            return;
-        }
-        throw new RuntimeError(operator, "Operands must be numbers.");
+    private boolean isNumber(Object object) {
+        return object instanceof Double || object instanceof Long;
     }
 
     /**
@@ -440,7 +1205,7 @@ public class Interpreter implements Expr.Visitor<Object>,
      * @param object Object
      * @return String
      */
-    private String stringify(Object object) {
+    String stringify(Object object) {
         if (object == null) {
             return "NULL";
         }
@@ -451,7 +1216,48 @@ public class Interpreter implements Expr.Visitor<Object>,
             }
             return text;
         }
+        if (object instanceof LoxArray || object instanceof LoxMap) {
+            return stringify(object, Collections.newSetFromMap(new IdentityHashMap<>()));
+        }
         return object.toString();
     }
+
+    /**
+     * 数组和 Map 的内容；visiting 为正在输出的容器(按引用)，容器包含自身时输出 [...] 或 {...}，不无限递归
+     */
+    private String stringify(Object object, Set<Object> visiting) {
+        if (!(object instanceof LoxArray) && !(object instanceof LoxMap)) {
+            return stringify(object);
+        }
+        if (!visiting.add(object)) {
+            return object instanceof LoxArray ? "[...]" : "{...}";
+        }
+        StringBuilder text = new StringBuilder();
+        if (object instanceof LoxArray) {
+            LoxArray array = (LoxArray) object;
+            text.append("[");
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0) {
+                    text.append(", ");
+                }
+                text.append(stringify(array.get(i), visiting));
+            }
+            text.append("]");
+        } else {
+            LoxMap map = (LoxMap) object;
+            LoxArray keys = map.keys();
+            text.append("{");
+            for (int i = 0; i < keys.length(); i++) {
+                if (i > 0) {
+                    text.append(", ");
+                }
+                text.append(stringify(keys.get(i), visiting)).append(": ")
+                        .append(stringify(map.get(keys.get(i)), visiting));
+            }
+            text.append("}");
+        }
+        visiting.remove(object);
+        return text.toString();
+    }
 }
 
@@ -0,0 +1,760 @@
+package interpreter;
+
+import interpreter.ir.BasicBlock;
+import interpreter.ir.Instruction;
+import interpreter.ir.IrFunction;
+import interpreter.ir.Opcode;
+import interpreter.ir.PassManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * 将函数体从语法树降低(lower)为 SSA 形式的 IR (interpreter.ir)
+ * SSA 的构造采用 Braun et al. "Simple and Efficient Construction of Static Single Assignment Form"，
+ * 在降低的同时读写变量，块的所有前驱都确定之后再封闭(seal)块并补全 phi
+ * <p>
+ * 函数自己的参数和局部变量成为 SSA 值；外层函数的局部变量通过 LOAD/STORE 显式读写闭包环境，
+ * 全局变量通过 LOAD_GLOBAL/STORE_GLOBAL 读写
+ * 函数体中声明了函数或类(会捕获函数自己的环境)，或者使用了 super 时不降低，仍由树遍历解释器执行
+ */
+class IrBuilder implements Expr.Visitor<Instruction>, Stmt.Visitor<Void> {
+    /**
+     * 遇到不支持的语法时抛出，放弃降低这个函数
+     */
+    private static class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final IrFunction function;
+    // 块的栈，与 Resolver 中函数内部的 scopes 一一对应，<变量名,声明处的token>
+    private final Stack<Map<String, Token>> scopes = new Stack<>();
+    // 变量在每个块末尾的当前定义
+    private final Map<Token, Map<BasicBlock, Instruction>> definitions = new HashMap<>();
+    // 未封闭的块中等待补全操作数的 phi
+    private final Map<BasicBlock, Map<Token, Instruction>> incompletePhis = new HashMap<>();
+    private final Set<Instruction> incomplete = new HashSet<>();
+    private final Set<BasicBlock> sealed = new HashSet<>();
+    // 当前正在写入的块，null 表示之后的代码不可达
+    private BasicBlock current;
+    // break 跳转到的块，即当前 switch 之后的块
+    private BasicBlock breakTarget;
+    // 正在降低的是单独的 while/for 循环(on-stack replacement)，而不是函数体
+    private boolean osr = false;
+    // 按解释器观察到的操作数类型推测类型没有被证明的二元运算(分层执行升级时)
+    private boolean speculate = false;
+    // scopes 中对应闭包环境本身的层数(for 循环 OSR 时 for 的作用域)，计算环境的深度时不算在内
+    private int closureScopes = 0;
+
+    private IrBuilder(Interpreter interpreter, IrFunction function) {
+        this.interpreter = interpreter;
+        this.function = function;
+    }
+
+    /**
+     * 降低程序中所有可以降低的函数(包括方法和嵌套函数)，优化后写入 Stmt.Function.ir
+     *
+     * @param interpreter 提供语义分析得到的变量深度
+     * @param statements  一系列statement
+     * @param passes      对每个函数执行的优化
+     */
+    static void compile(Interpreter interpreter, List<Stmt> statements, PassManager passes) {
+        for (Stmt statement : statements) {
+            compile(interpreter, statement, passes);
+        }
+    }
+
+    private static void compile(Interpreter interpreter, Stmt stmt, PassManager passes) {
+        if (stmt instanceof Stmt.Function) {
+            Stmt.Function declaration = (Stmt.Function) stmt;
+            IrFunction function = lower(interpreter, declaration);
+            if (function != null) {
+                passes.run(function);
+                declaration.ir = function;
+            }
+            compile(interpreter, declaration.body, passes);
+        } else if (stmt instanceof Stmt.Class) {
+            for (Stmt.Function method : ((Stmt.Class) stmt).methods) {
+                compile(interpreter, method, passes);
+            }
+        } else if (stmt instanceof Stmt.Block) {
+            compile(interpreter, ((Stmt.Block) stmt).statements, passes);
+        } else if (stmt instanceof Stmt.If) {
+            compile(interpreter, ((Stmt.If) stmt).thenBranch, passes);
+            if (((Stmt.If) stmt).elseBranch != null) {
+                compile(interpreter, ((Stmt.If) stmt).elseBranch, passes);
+            }
+        } else if (stmt instanceof Stmt.While) {
+            compile(interpreter, ((Stmt.While) stmt).body, passes);
+        } else if (stmt instanceof Stmt.For) {
+            compile(interpreter, ((Stmt.For) stmt).body, passes);
+        }
+    }
+
+    /**
+     * 降低一个函数，函数体含有不支持的语法时返回 null
+     */
+    static IrFunction lower(Interpreter interpreter, Stmt.Function declaration) {
+        return lower(interpreter, declaration, false);
+    }
+
+    /**
+     * @param speculate 是否按 Binary.seen / Binary.expected 推测操作数的类型
+     */
+    static IrFunction lower(Interpreter interpreter, Stmt.Function declaration, boolean speculate) {
+        IrFunction function = new IrFunction(declaration.name.lexeme, declaration.params.size());
+        IrBuilder builder = new IrBuilder(interpreter, function);
+        builder.speculate = speculate;
+        try {
+            builder.body(declaration);
+        } catch (Unsupported unsupported) {
+            return null;
+        }
+        return function;
+    }
+
+    /**
+     * 将一个 while 循环单独降低为没有参数的 IR，用于 on-stack replacement：
+     * 循环之外的变量都通过 LOAD/STORE 读写执行到循环时的环境，循环结束时返回 nil
+     * 循环中含有 return 时返回 null
+     */
+    static IrFunction lowerLoop(Interpreter interpreter, Stmt.While loop, boolean speculate) {
+        return lowerLoop(interpreter, "while@" + loop.keyword.line, speculate, null,
+                loop.condition, loop.body, null);
+    }
+
+    /**
+     * for 循环的初始化在升级之前已经执行，只降低条件、循环体和增量，执行时的环境为 for 的作用域环境
+     * 初始化声明的变量在入口处读出一次，之后是 SSA 值：降低的循环中没有函数声明，
+     * 没有闭包能看到这个环境，循环结束后环境也被丢弃，所以不需要写回
+     */
+    static IrFunction lowerLoop(Interpreter interpreter, Stmt.For loop, boolean speculate) {
+        Token variable = loop.initializer instanceof Stmt.Var ? ((Stmt.Var) loop.initializer).name : null;
+        return lowerLoop(interpreter, "for@" + loop.keyword.line, speculate, variable,
+                loop.condition, loop.body, loop.increment);
+    }
+
+    private static IrFunction lowerLoop(Interpreter interpreter, String name, boolean speculate,
+                                        Token variable, Expr condition, Stmt body, Expr increment) {
+        IrFunction function = new IrFunction(name, 0);
+        IrBuilder builder = new IrBuilder(interpreter, function);
+        builder.osr = true;
+        builder.speculate = speculate;
+        try {
+            builder.current = function.newBlock();
+            builder.seal(builder.current);
+            if (variable != null) {
+                builder.scopes.push(new HashMap<>());
+                builder.closureScopes = 1;
+                builder.declare(variable, function.append(builder.current, Opcode.LOAD, variable, null, 0));
+            }
+            builder.loop(condition, body, increment);
+            function.append(builder.current, Opcode.RETURN, null, null, 0,
+                    function.constant(builder.current, null));
+        } catch (Unsupported unsupported) {
+            return null;
+        }
+        return function;
+    }
+
+    private void body(Stmt.Function declaration) {
+        current = function.newBlock();
+        seal(current);
+        scopes.push(new HashMap<>());
+        for (int i = 0; i < declaration.params.size(); i++) {
+            Token param = declaration.params.get(i);
+            declare(param, function.append(current, Opcode.PARAM, param, null, i));
+        }
+        lower(declaration.body);
+        if (current != null) {
+            function.append(current, Opcode.RETURN, null, null, 0, function.constant(current, null));
+        }
+        scopes.pop();
+    }
+
+    private void lower(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (current == null) {
+                // return 之后的代码不可达
+                return;
+            }
+            statement.accept(this);
+        }
+    }
+
+    private Instruction lower(Expr expr) {
+        return expr.accept(this);
+    }
+
+    //---------------statements------------------//
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        lower(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        Instruction value = lower(stmt.expression);
+        function.append(current, Opcode.PRINT, null, null, 0, value);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (osr) {
+            // 循环之外没有可以返回到的函数体
+            throw new Unsupported();
+        }
+        Instruction value = stmt.value != null ? lower(stmt.value) : function.constant(current, null);
+        function.append(current, Opcode.RETURN, stmt.keyword, null, 0, value);
+        current = null;
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        Instruction value = stmt.initializer != null ?
+                lower(stmt.initializer) : function.constant(current, null);
+        declare(stmt.name, value);
+        return null;
+    }
+
+    @Override
+    public Void visitConstStmt(Stmt.Const stmt) {
+        declare(stmt.name, lower(stmt.initializer));
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.scoped) {
+            scopes.push(new HashMap<>());
+        }
+        lower(stmt.statements);
+        if (stmt.scoped) {
+            scopes.pop();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        Instruction condition = lower(stmt.condition);
+        BasicBlock thenBlock = function.newBlock();
+        BasicBlock elseBlock = function.newBlock();
+        BasicBlock merge = function.newBlock();
+        function.branch(current, condition, thenBlock, elseBlock);
+        seal(thenBlock);
+        seal(elseBlock);
+
+        current = thenBlock;
+        stmt.thenBranch.accept(this);
+        if (current != null) {
+            function.jump(current, merge);
+        }
+
+        current = elseBlock;
+        if (stmt.elseBranch != null) {
+            stmt.elseBranch.accept(this);
+        }
+        if (current != null) {
+            function.jump(current, merge);
+        }
+
+        seal(merge);
+        // 两个分支都返回了
+        current = merge.predecessors.isEmpty() ? null : merge;
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        loop(stmt.condition, stmt.body, null);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        boolean scoped = stmt.initializer instanceof Stmt.Var;
+        if (scoped) {
+            scopes.push(new HashMap<>());
+        }
+        if (stmt.initializer != null) {
+            stmt.initializer.accept(this);
+        }
+        loop(stmt.condition, stmt.body, stmt.increment);
+        if (scoped) {
+            scopes.pop();
+        }
+        return null;
+    }
+
+    /**
+     * 每个入口一个块，SWITCH 指令按分派表跳转；最后一个入口即 switch 之后的块，
+     * 它的前驱在 break 和贯穿全部确定之后才封闭
+     * 标签不全是常量(没有分派表)时不降低
+     */
+    @Override
+    public Void visitSwitchStmt(Stmt.Switch stmt) {
+        SwitchTable table = stmt.table;
+        if (table == null) {
+            throw new Unsupported();
+        }
+        Instruction value = lower(stmt.value);
+        List<BasicBlock> entries = new ArrayList<>();
+        for (int i = 0; i < table.entries.length; i++) {
+            entries.add(function.newBlock());
+        }
+        function.dispatch(current, stmt.keyword, value, table, entries);
+        BasicBlock exit = entries.get(entries.size() - 1);
+
+        BasicBlock enclosingBreak = breakTarget;
+        breakTarget = exit;
+        if (stmt.scoped) {
+            scopes.push(new HashMap<>());
+        }
+        current = null;
+        for (int entry = 0; entry < table.entries.length - 1; entry++) {
+            BasicBlock block = entries.get(entry);
+            if (current != null) {
+                function.jump(current, block);
+            }
+            seal(block);
+            current = block;
+            lower(stmt.body.subList(table.entries[entry], table.entries[entry + 1]));
+        }
+        if (current != null) {
+            function.jump(current, exit);
+        }
+        if (stmt.scoped) {
+            scopes.pop();
+        }
+        breakTarget = enclosingBreak;
+
+        seal(exit);
+        current = exit;
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        function.jump(current, breakTarget);
+        current = null;
+        return null;
+    }
+
+    /**
+     * 当前块作为前置块(preheader)跳转到循环头，循环头在回边确定之后才封闭
+     */
+    private void loop(Expr condition, Stmt body, Expr increment) {
+        BasicBlock header = function.newBlock();
+        function.jump(current, header);
+        current = header;
+
+        Instruction test = condition != null ? lower(condition) : function.constant(current, true);
+        BasicBlock bodyBlock = function.newBlock();
+        BasicBlock exit = function.newBlock();
+        function.branch(current, test, bodyBlock, exit);
+        seal(bodyBlock);
+
+        current = bodyBlock;
+        body.accept(this);
+        if (current != null && increment != null) {
+            lower(increment);
+        }
+        if (current != null) {
+            function.jump(current, header);
+        }
+
+        seal(header);
+        seal(exit);
+        current = exit;
+    }
+
+    //---------------Expression------------------//
+
+    @Override
+    public Instruction visitBinaryExpr(Expr.Binary expr) {
+        if (expr.folded) {
+            return function.constant(current, expr.value);
+        }
+        Instruction left = lower(expr.left);
+        Instruction right = lower(expr.right);
+        Instruction binary = binary(expr.operator, expr.operands, left, right);
+        if (binary.checked && speculate) {
+            speculate(binary, expr);
+        }
+        return binary;
+    }
+
+    /**
+     * 解释器只观察到一种数值类型、并且这种类型下运算不会出错时，按这种类型执行；
+     * 推测不成立时由 IrExecutor 使函数失效，分层执行退回解释器(deopt)
+     */
+    private static void speculate(Instruction binary, Expr.Binary expr) {
+        LoxType type = expr.expected != LoxType.UNKNOWN ? expr.expected : Profile.expected(expr.seen);
+        if ((type == LoxType.INTEGER || type == LoxType.NUMBER) && proven(expr.operator.type, type)) {
+            binary.checked = false;
+            binary.speculated = type == LoxType.INTEGER ? Long.class : Double.class;
+        }
+    }
+
+    private Instruction binary(Token operator, LoxType operands, Instruction left, Instruction right) {
+        Instruction binary = function.append(current, Opcode.BINARY, operator, null, 0, left, right);
+        binary.checked = !proven(operator.type, operands);
+        return binary;
+    }
+
+    /**
+     * 类型推导是否证明了二元运算不会抛出 runtime error
+     */
+    private static boolean proven(TokenType operator, LoxType operands) {
+        switch (operator) {
+            case AND:
+            case OR:
+            case XOR:
+                return operands == LoxType.INTEGER;
+            case SHIFT_LEFT:
+            case SHIFT_RIGHT:
+                // 移位数可能超出 0..63
+                return false;
+            case MOD:
+                // 整数取模可能除以零
+                return operands == LoxType.NUMBER;
+            default:
+                return operands == LoxType.NUMBER || operands == LoxType.INTEGER;
+        }
+    }
+
+    @Override
+    public Instruction visitGroupingExpr(Expr.Grouping expr) {
+        return lower(expr.expression);
+    }
+
+    @Override
+    public Instruction visitLiteralExpr(Expr.Literal expr) {
+        return function.constant(current, expr.value);
+    }
+
+    /**
+     * 短路求值：左操作数所在的块直接跳到汇合块，右操作数的块求值后跳到汇合块，汇合块中用 phi 选择结果
+     */
+    @Override
+    public Instruction visitLogicalExpr(Expr.Logical expr) {
+        Instruction left = lower(expr.left);
+        BasicBlock leftBlock = current;
+        BasicBlock rightBlock = function.newBlock();
+        BasicBlock merge = function.newBlock();
+        if (expr.operator.type == TokenType.OR_OR) {
+            function.branch(leftBlock, left, merge, rightBlock);
+        } else {
+            function.branch(leftBlock, left, rightBlock, merge);
+        }
+        seal(rightBlock);
+
+        current = rightBlock;
+        Instruction right = lower(expr.right);
+        function.jump(current, merge);
+        seal(merge);
+
+        current = merge;
+        Instruction phi = function.phi(merge);
+        phi.operands.add(left);
+        phi.operands.add(right);
+        return phi;
+    }
+
+    @Override
+    public Instruction visitUnaryExpr(Expr.Unary expr) {
+        if (expr.folded) {
+            return function.constant(current, expr.value);
+        }
+        switch (expr.operator.type) {
+            case MINUS:
+            case PLUS:
+            case BANG:
+            case NOT:
+                break;
+            default:
+                throw new Unsupported();
+        }
+        Instruction right = lower(expr.right);
+        Instruction unary = function.append(current, Opcode.UNARY, expr.operator, null, 0, right);
+        unary.checked = expr.operand != LoxType.NUMBER || expr.operator.type == TokenType.NOT;
+        return unary;
+    }
+
+    @Override
+    public Instruction visitVariableExpr(Expr.Variable expr) {
+        if (expr.folded) {
+            return function.constant(current, expr.value);
+        }
+        return read(expr, expr.name);
+    }
+
+    @Override
+    public Instruction visitAssignExpr(Expr.Assign expr) {
+        Instruction value = lower(expr.value);
+        write(expr, expr.name, value);
+        return value;
+    }
+
+    @Override
+    public Instruction visitCompoundAssignExpr(Expr.CompoundAssign expr) {
+        Instruction old = read(expr, expr.name);
+        Instruction value = binary(expr.operator, expr.operands, old, lower(expr.value));
+        write(expr, expr.name, value);
+        return value;
+    }
+
+    @Override
+    public Instruction visitCompoundSetExpr(Expr.CompoundSet expr) {
+        Instruction object = lower(expr.object);
+        Instruction old = function.append(current, Opcode.GET, expr.name, null, 0, object);
+        Instruction value = binary(expr.operator, LoxType.UNKNOWN, old, lower(expr.value));
+        function.append(current, Opcode.SET, expr.name, null, 0, object, value);
+        return value;
+    }
+
+    @Override
+    public Instruction visitIncrementExpr(Expr.Increment expr) {
+        // 已知为浮点数时用 1.0，保证不检查类型的运算两边类型一致
+        Instruction one = function.constant(current, expr.operand == LoxType.NUMBER ? (Object) 1.0 : (Object) 1L);
+        Instruction old;
+        Instruction value;
+        if (expr.target instanceof Expr.Variable) {
+            Token name = ((Expr.Variable) expr.target).name;
+            old = read(expr.target, name);
+            value = binary(expr.operator, expr.operand, old, one);
+            write(expr.target, name, value);
+        } else {
+            Expr.Get get = (Expr.Get) expr.target;
+            Instruction object = lower(get.object);
+            old = function.append(current, Opcode.GET, get.name, null, 0, object);
+            value = binary(expr.operator, expr.operand, old, one);
+            function.append(current, Opcode.SET, get.name, null, 0, object, value);
+        }
+        return expr.prefix ? value : old;
+    }
+
+    /**
+     * 函数内的局部变量读写 SSA 值，其余的变量读写环境
+     */
+    private Instruction read(Expr expr, Token name) {
+        Token binding = lookUp(name);
+        if (binding != null) {
+            return readVariable(binding, current);
+        }
+        Integer depth = interpreter.depth(expr);
+        if (depth == null) {
+            return function.append(current, Opcode.LOAD_GLOBAL, name, null, 0);
+        }
+        return function.append(current, Opcode.LOAD, name, null, closureDistance(depth));
+    }
+
+    private void write(Expr expr, Token name, Instruction value) {
+        Token binding = lookUp(name);
+        if (binding != null) {
+            writeVariable(binding, current, value);
+            return;
+        }
+        Integer depth = interpreter.depth(expr);
+        if (depth == null) {
+            function.append(current, Opcode.STORE_GLOBAL, name, null, 0, value);
+        } else {
+            function.append(current, Opcode.STORE, name, null, closureDistance(depth), value);
+        }
+    }
+
+    @Override
+    public Instruction visitCallExpr(Expr.Call expr) {
+        Instruction callee = lower(expr.callee);
+        Instruction[] operands = new Instruction[expr.arguments.size() + 1];
+        operands[0] = callee;
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            operands[i + 1] = lower(expr.arguments.get(i));
+        }
+        return function.append(current, Opcode.CALL, expr.paren, null, 0, operands);
+    }
+
+    @Override
+    public Instruction visitGetExpr(Expr.Get expr) {
+        Instruction object = lower(expr.object);
+        return function.append(current, Opcode.GET, expr.name, null, 0, object);
+    }
+
+    @Override
+    public Instruction visitSetExpr(Expr.Set expr) {
+        Instruction object = lower(expr.object);
+        Instruction value = lower(expr.value);
+        function.append(current, Opcode.SET, expr.name, null, 0, object, value);
+        return value;
+    }
+
+    @Override
+    public Instruction visitArrayExpr(Expr.Array expr) {
+        Instruction[] elements = new Instruction[expr.elements.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = lower(expr.elements.get(i));
+        }
+        return function.append(current, Opcode.ARRAY, expr.bracket, null, 0, elements);
+    }
+
+    @Override
+    public Instruction visitIndexExpr(Expr.Index expr) {
+        Instruction object = lower(expr.object);
+        Instruction index = lower(expr.index);
+        return function.append(current, Opcode.INDEX, expr.bracket, null, 0, object, index);
+    }
+
+    @Override
+    public Instruction visitIndexSetExpr(Expr.IndexSet expr) {
+        Instruction object = lower(expr.object);
+        Instruction index = lower(expr.index);
+        Instruction value = lower(expr.value);
+        function.append(current, Opcode.INDEX_SET, expr.bracket, null, 0, object, index, value);
+        return value;
+    }
+
+    @Override
+    public Instruction visitThisExpr(Expr.This expr) {
+        return function.append(current, Opcode.LOAD, expr.keyword, null,
+                closureDistance(interpreter.depth(expr)));
+    }
+
+    @Override
+    public Instruction visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported();
+    }
+
+    //---------------SSA------------------//
+
+    /**
+     * 语义分析的深度从当前作用域算起，减去函数内部的作用域层数即为从闭包环境算起的深度
+     */
+    private int closureDistance(int depth) {
+        return depth - (scopes.size() - closureScopes);
+    }
+
+    private void declare(Token name, Instruction value) {
+        scopes.peek().put(name.lexeme, name);
+        writeVariable(name, current, value);
+    }
+
+    /**
+     * 函数内部声明的变量返回声明处的token，否则返回 null
+     */
+    private Token lookUp(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; --i) {
+            Token binding = scopes.get(i).get(name.lexeme);
+            if (binding != null) {
+                return binding;
+            }
+        }
+        return null;
+    }
+
+    private void writeVariable(Token variable, BasicBlock block, Instruction value) {
+        definitions.computeIfAbsent(variable, key -> new HashMap<>()).put(block, value);
+    }
+
+    private Instruction readVariable(Token variable, BasicBlock block) {
+        Instruction value = definitions.computeIfAbsent(variable, key -> new HashMap<>()).get(block);
+        if (value != null) {
+            return value;
+        }
+        if (!sealed.contains(block)) {
+            // 前驱还不完整，先放一个空的 phi，封闭时补全
+            value = function.phi(block);
+            incompletePhis.computeIfAbsent(block, key -> new HashMap<>()).put(variable, value);
+            incomplete.add(value);
+        } else if (block.predecessors.size() == 1) {
+            value = readVariable(variable, block.predecessors.get(0));
+        } else if (block.predecessors.isEmpty()) {
+            // 不可达的块
+            value = function.constant(block, null);
+        } else {
+            // 先写入 phi 以打断循环中的递归
+            value = function.phi(block);
+            writeVariable(variable, block, value);
+            value = addPhiOperands(variable, value);
+        }
+        writeVariable(variable, block, value);
+        return value;
+    }
+
+    private Instruction addPhiOperands(Token variable, Instruction phi) {
+        for (BasicBlock predecessor : phi.block().predecessors) {
+            phi.operands.add(readVariable(variable, predecessor));
+        }
+        return tryRemoveTrivialPhi(phi);
+    }
+
+    /**
+     * 所有操作数都相同(或为自己)的 phi 替换为该操作数
+     */
+    private Instruction tryRemoveTrivialPhi(Instruction phi) {
+        Instruction same = null;
+        for (Instruction operand : phi.operands) {
+            if (operand == same || operand == phi) {
+                continue;
+            }
+            if (same != null) {
+                return phi;
+            }
+            same = operand;
+        }
+        if (same == null) {
+            // 不可达或未定义
+            same = function.constant(function.entry(), null);
+            function.moveBeforeTerminator(same, function.entry());
+        }
+
+        Instruction replacement = same;
+        List<Instruction> users = function.replaceAllUses(phi, replacement);
+        function.remove(phi);
+        for (Map<BasicBlock, Instruction> blocks : definitions.values()) {
+            blocks.replaceAll((block, value) -> value == phi ? replacement : value);
+        }
+        // 使用了它的 phi 可能也变得平凡，还没有补全操作数的 phi 除外
+        for (Instruction user : users) {
+            if (user.opcode == Opcode.PHI && user != phi && !incomplete.contains(user)) {
+                tryRemoveTrivialPhi(user);
+            }
+        }
+        return replacement;
+    }
+
+    private void seal(BasicBlock block) {
+        Map<Token, Instruction> phis = incompletePhis.remove(block);
+        sealed.add(block);
+        if (phis != null) {
+            incomplete.removeAll(phis.values());
+            for (Map.Entry<Token, Instruction> entry : phis.entrySet()) {
+                addPhiOperands(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package interpreter;
+
+import interpreter.ir.BasicBlock;
+import interpreter.ir.Instruction;
+import interpreter.ir.IrFunction;
+import interpreter.ir.Opcode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 执行 SSA 形式的函数体
+ * 每条指令的值存放在以指令编号为下标的寄存器中，局部变量不再需要 Environment
+ * 运算的语义(包括 runtime error)与树遍历解释器共用 Interpreter 中的实现
+ */
+class IrExecutor {
+    static Object execute(Interpreter interpreter, IrFunction function,
+                          Environment closure, List<Object> arguments) {
+        Object[] registers = new Object[function.size()];
+        Object[] phis = new Object[function.size()];
+        BasicBlock previous = null;
+        BasicBlock block = function.entry();
+
+        while (true) {
+            List<Instruction> instructions = block.instructions;
+            int i = 0;
+            if (previous != null) {
+                // phi 在进入块时同时求值，先读出所有操作数再写入
+                int edge = block.predecessors.indexOf(previous);
+                int count = 0;
+                while (instructions.get(count).opcode == Opcode.PHI) {
+                    phis[count] = registers[instructions.get(count).operands.get(edge).id()];
+                    count++;
+                }
+                for (; i < count; i++) {
+                    registers[instructions.get(i).id()] = phis[i];
+                }
+            }
+
+            BasicBlock next = null;
+            for (; next == null; i++) {
+                Instruction instruction = instructions.get(i);
+                List<Instruction> operands = instruction.operands;
+                Object value = null;
+                switch (instruction.opcode) {
+                    case CONST:
+                        value = instruction.constant;
+                        break;
+                    case PARAM:
+                        value = arguments.get(instruction.index);
+                        break;
+                    case BINARY: {
+                        Object left = registers[operands.get(0).id()];
+                        Object right = registers[operands.get(1).id()];
+                        if (instruction.checked) {
+                            value = interpreter.binary(instruction.token, left, right);
+                        } else if (instruction.speculated != null && (!instruction.speculated.isInstance(left)
+                                || !instruction.speculated.isInstance(right))) {
+                            // 推测失败：这一次按通用的路径求值，剩余的执行仍然正确，结束后退回解释器
+                            value = interpreter.binary(instruction.token, left, right);
+                            function.invalidate();
+                        } else if (left instanceof Long) {
+                            value = interpreter.integerBinary(instruction.token, (long) left, (long) right);
+                        } else {
+                            value = interpreter.numberBinary(instruction.token, (double) left, (double) right);
+                        }
+                        break;
+                    }
+                    case UNARY:
+                        value = interpreter.unary(instruction.token,
+                                registers[operands.get(0).id()], !instruction.checked);
+                        break;
+                    case LOAD:
+                        value = closure.getAt(instruction.index, instruction.token.lexeme);
+                        break;
+                    case STORE: {
+                        Environment target = closure.ancestor(instruction.index);
+                        interpreter.checkWritable(target, instruction.token);
+                        target.assignHere(instruction.token.lexeme, registers[operands.get(0).id()]);
+                        break;
+                    }
+                    case LOAD_GLOBAL:
+                        value = interpreter.globals.get(instruction.token);
+                        break;
+                    case STORE_GLOBAL:
+                        interpreter.checkWritable(interpreter.globals, instruction.token);
+                        interpreter.globals.assign(instruction.token, registers[operands.get(0).id()]);
+                        break;
+                    case CALL: {
+                        List<Object> values = new ArrayList<>(operands.size() - 1);
+                        for (int j = 1; j < operands.size(); j++) {
+                            values.add(registers[operands.get(j).id()]);
+                        }
+                        value = interpreter.call(registers[operands.get(0).id()], instruction.token, values);
+                        break;
+                    }
+                    case GET:
+                        value = interpreter.get(registers[operands.get(0).id()], instruction.token);
+                        break;
+                    case SET:
+                        interpreter.set(registers[operands.get(0).id()], instruction.token,
+                                registers[operands.get(1).id()]);
+                        break;
+                    case ARRAY: {
+                        LoxArray array = new LoxArray(operands.size());
+                        for (Instruction element : operands) {
+                            array.push(registers[element.id()]);
+                        }
+                        value = array;
+                        break;
+                    }
+                    case INDEX:
+                        value = interpreter.index(registers[operands.get(0).id()], instruction.token,
+                                registers[operands.get(1).id()]);
+                        break;
+                    case INDEX_SET:
+                        interpreter.setIndex(registers[operands.get(0).id()], instruction.token,
+                                registers[operands.get(1).id()], registers[operands.get(2).id()]);
+                        break;
+                    case PRINT:
+                        interpreter.print(registers[operands.get(0).id()]);
+                        break;
+                    case JUMP:
+                        next = instruction.targets.get(0);
+                        break;
+                    case BRANCH:
+                        boolean truth = interpreter.isTruthy(registers[operands.get(0).id()]);
+                        next = instruction.targets.get(truth ? 0 : 1);
+                        break;
+                    case SWITCH: {
+                        SwitchTable table = (SwitchTable) instruction.constant;
+                        next = instruction.targets.get(table.entry(registers[operands.get(0).id()]));
+                        break;
+                    }
+                    case RETURN:
+                        return registers[operands.get(0).id()];
+                    default:
+                        throw new IllegalStateException("Unexpected " + instruction.opcode + " in " + block);
+                }
+                registers[instruction.id()] = value;
+            }
+            previous = block;
+            block = next;
+        }
+    }
+}
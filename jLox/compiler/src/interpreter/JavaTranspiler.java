@@ -0,0 +1,1181 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.TreeSet;
+
+/**
+ * 将通过语义分析和类型推导的程序翻译为 Java 源代码(AOT 编译)
+ * - 全局变量为静态字段，读写时检查是否已经定义；全局函数为静态方法，调用处直接调用(变量仍指向它时)
+ * - 顶层的类为嵌套的 Java 类，方法为其中的静态方法；其他函数和类的方法为 lambda
+ * - 局部变量为 Java 局部变量，只有 Resolver 找出的被闭包捕获的变量放在所在作用域的环境数组中
+ * - 类型推导证明为浮点数的运算和局部变量直接使用 double
+ * 运算、调用和属性访问通过 AotRuntime 交给 Interpreter，与解释执行的语义(包括 runtime error)一致
+ */
+class JavaTranspiler implements Expr.Visitor<JavaTranspiler.Code>, Stmt.Visitor<Boolean> {
+    /**
+     * 生成的 Java 表达式的类型
+     */
+    enum Kind {
+        OBJECT, DOUBLE, BOOLEAN
+    }
+
+    /**
+     * 一个 Java 表达式，boxed 为装箱后的常量(浮点数字面量)
+     */
+    static final class Code {
+        final String text;
+        final Kind kind;
+        final String boxed;
+
+        Code(String text, Kind kind) {
+            this(text, kind, null);
+        }
+
+        Code(String text, Kind kind, String boxed) {
+            this.text = text;
+            this.kind = kind;
+            this.boxed = boxed;
+        }
+    }
+
+    /**
+     * 变量在 Java 中的位置：局部变量、环境数组中的元素、this 或 super
+     */
+    private static final class Binding {
+        final String java;
+        final boolean isDouble;
+
+        Binding(String java, boolean isDouble) {
+            this.java = java;
+            this.isDouble = isDouble;
+        }
+    }
+
+    /**
+     * 正在生成的 Java 方法体或 lambda 体
+     */
+    private static final class Frame {
+        final StringBuilder body = new StringBuilder();
+        final List<String> objects = new ArrayList<>();
+        final List<String> doubles = new ArrayList<>();
+        final int indent;
+
+        Frame(int indent) {
+            this.indent = indent;
+        }
+    }
+
+    private static final String INDENT = "    ";
+
+    private final Interpreter interpreter;
+    private final String className;
+    private int ids = 0;
+
+    // 静态字段按初始化的顺序分开存放
+    private final StringBuilder tokenFields = new StringBuilder();
+    private final StringBuilder constantFields = new StringBuilder();
+    private final StringBuilder tableFields = new StringBuilder();
+    private final StringBuilder functionFields = new StringBuilder();
+    private final StringBuilder members = new StringBuilder();
+    private final Map<Token, String> tokens = new HashMap<>();
+    private final Map<Object, String> constants = new HashMap<>();
+    // 全局变量名 -> 字段名
+    private final Map<String, String> globals = new LinkedHashMap<>();
+    // 全局函数：函数名 -> 最后一个同名的声明，声明 -> 静态方法名
+    private final Map<String, Stmt.Function> globalFunctions = new HashMap<>();
+    private final Map<Stmt.Function, String> methodNames = new HashMap<>();
+    // 顶层的类 -> 嵌套类名
+    private final Map<Stmt.Class, String> classNames = new HashMap<>();
+
+    // 与 Resolver 中的 scopes 一一对应，<变量名,位置>
+    private final Stack<Map<String, Binding>> scopes = new Stack<>();
+    // 被捕获的变量(声明处的 token) -> 环境数组中的元素
+    private final Map<Token, String> slots = new HashMap<>();
+    private Frame frame;
+
+    private JavaTranspiler(Interpreter interpreter, String className) {
+        this.interpreter = interpreter;
+        this.className = className;
+    }
+
+    /**
+     * 翻译整个程序
+     *
+     * @param interpreter 提供语义分析得到的变量深度和捕获信息
+     * @param statements  一系列statement
+     * @param className   生成的类名，main 方法执行整个程序
+     * @return Java 源代码
+     */
+    static String translate(Interpreter interpreter, List<Stmt> statements, String className) {
+        return new JavaTranspiler(interpreter, className).program(statements);
+    }
+
+    private String program(List<Stmt> statements) {
+        // 全局函数和顶层的类先生成，调用处可能在声明之前
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Function) {
+                Stmt.Function function = (Stmt.Function) statement;
+                methodNames.put(function, "f" + id() + "_" + function.name.lexeme);
+                globalFunctions.put(function.name.lexeme, function);
+            } else if (statement instanceof Stmt.Class) {
+                classNames.put((Stmt.Class) statement, "C" + id() + "_" + ((Stmt.Class) statement).name.lexeme);
+            }
+        }
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Function) {
+                globalFunction((Stmt.Function) statement);
+            } else if (statement instanceof Stmt.Class) {
+                globalClass((Stmt.Class) statement);
+            }
+        }
+
+        frame = new Frame(2);
+        statements(statements);
+        String run = finish(frame);
+
+        StringBuilder out = new StringBuilder();
+        out.append("import interpreter.AotFunction;\n");
+        out.append("import interpreter.AotRuntime;\n");
+        out.append("import interpreter.Token;\n");
+        out.append("import interpreter.TokenType;\n\n");
+        out.append("/**\n * Generated from Lox by the jLox AOT compiler.\n */\n");
+        out.append("public final class ").append(className).append(" {\n");
+        out.append(tokenFields).append(constantFields).append(tableFields);
+        for (String field : globals.values()) {
+            out.append(INDENT).append("private static Object ").append(field)
+                    .append(" = AotRuntime.global(\"").append(field.substring(2)).append("\");\n");
+        }
+        out.append(functionFields).append('\n');
+        out.append(INDENT).append("public static void main(String[] args) {\n");
+        out.append(INDENT).append(INDENT).append("AotRuntime.main(").append(className).append("::run);\n");
+        out.append(INDENT).append("}\n\n");
+        out.append(INDENT).append("private static void run() {\n").append(run).append(INDENT).append("}\n");
+        for (String field : globals.values()) {
+            accessors(out, field);
+        }
+        out.append(members);
+        out.append("}\n");
+        return out.toString();
+    }
+
+    /**
+     * 全局变量的读写方法，检查变量是否已经定义
+     */
+    private void accessors(StringBuilder out, String field) {
+        String name = field.substring(2);
+        out.append('\n');
+        out.append(INDENT).append("private static Object get_").append(name).append("(Token name) {\n");
+        out.append(INDENT).append(INDENT).append("Object value = ").append(field).append(";\n");
+        out.append(INDENT).append(INDENT).append("if (value == AotRuntime.UNDEFINED) {\n");
+        out.append(INDENT).append(INDENT).append(INDENT).append("throw AotRuntime.undefined(name);\n");
+        out.append(INDENT).append(INDENT).append("}\n");
+        out.append(INDENT).append(INDENT).append("return value;\n");
+        out.append(INDENT).append("}\n\n");
+        out.append(INDENT).append("private static Object set_").append(name).append("(Object value, Token name) {\n");
+        out.append(INDENT).append(INDENT).append("if (").append(field).append(" == AotRuntime.UNDEFINED) {\n");
+        out.append(INDENT).append(INDENT).append(INDENT).append("throw AotRuntime.undefined(name);\n");
+        out.append(INDENT).append(INDENT).append("}\n");
+        out.append(INDENT).append(INDENT).append("return ").append(field).append(" = value;\n");
+        out.append(INDENT).append("}\n");
+    }
+
+    //---------------函数和类------------------//
+
+    /**
+     * 全局函数：静态方法，以及指向它的 AotFunction 常量
+     */
+    private void globalFunction(Stmt.Function function) {
+        String method = methodNames.get(function);
+        List<String> params = new ArrayList<>();
+        for (Token param : function.params) {
+            params.add("v" + id() + "_" + param.lexeme);
+        }
+        members.append('\n').append(INDENT).append("private static Object ").append(method)
+                .append("(").append(parameters(params)).append(") {\n")
+                .append(body(function, params, false, 2))
+                .append(INDENT).append("}\n");
+        functionFields.append(INDENT).append("private static final AotFunction ").append(field(function))
+                .append(" = new AotFunction(").append(javaString(function.name.lexeme)).append(", ")
+                .append(function.params.size()).append(", false, (self, args) -> ")
+                .append(method).append("(").append(arguments(function.params.size())).append("));\n");
+    }
+
+    /**
+     * 顶层的类：嵌套的 Java 类，方法为静态方法，superclass 在执行类声明时赋值
+     */
+    private void globalClass(Stmt.Class stmt) {
+        String name = classNames.get(stmt);
+        StringBuilder out = new StringBuilder();
+        out.append('\n').append(INDENT).append("private static final class ").append(name).append(" {\n");
+        out.append(INDENT).append(INDENT).append("static Object superclass;\n");
+        if (stmt.superclass != null) {
+            beginScope(new ArrayList<>());
+            scopes.peek().put("super", new Binding(name + ".superclass", false));
+        }
+        beginScope(new ArrayList<>());
+        for (Stmt.Function method : stmt.methods) {
+            String self = "self" + id();
+            scopes.peek().put("this", new Binding(self, false));
+            List<String> params = new ArrayList<>();
+            for (Token param : method.params) {
+                params.add("v" + id() + "_" + param.lexeme);
+            }
+            params.add(0, self);
+            String body = body(method, params.subList(1, params.size()), false, 3);
+            out.append('\n').append(INDENT).append(INDENT).append("static Object ").append(methodName(method))
+                    .append("(").append(parameters(params)).append(") {\n")
+                    .append(body)
+                    .append(INDENT).append(INDENT).append("}\n");
+        }
+        scopes.pop();
+        if (stmt.superclass != null) {
+            scopes.pop();
+        }
+        out.append(INDENT).append("}\n");
+        members.append(out);
+    }
+
+    private String methodName(Stmt.Function method) {
+        return methodNames.computeIfAbsent(method, m -> "m" + id() + "_" + m.name.lexeme);
+    }
+
+    private String field(Stmt.Function function) {
+        return "F" + methodNames.get(function).substring(1);
+    }
+
+    /**
+     * 生成函数体
+     *
+     * @param params 参数在 Java 中的名字(静态方法)或取出参数的表达式(lambda)
+     * @param copy   参数是否需要复制到局部变量中
+     * @param indent 函数体的缩进层数
+     * @return 函数体的代码，包括临时变量的声明
+     */
+    private String body(Stmt.Function function, List<String> params, boolean copy, int indent) {
+        Frame enclosing = frame;
+        frame = new Frame(indent);
+        List<Token> declared = new ArrayList<>(function.params);
+        declared.addAll(declarations(function.body));
+        beginScope(declared);
+        for (int i = 0; i < function.params.size(); i++) {
+            Token param = function.params.get(i);
+            String value = params.get(i);
+            if (slots.containsKey(param)) {
+                line(slots.get(param) + " = " + value + ";");
+                scopes.peek().put(param.lexeme, new Binding(slots.get(param), false));
+            } else if (!copy) {
+                scopes.peek().put(param.lexeme, new Binding(value, false));
+            } else {
+                String name = "v" + id() + "_" + param.lexeme;
+                line("Object " + name + " = " + value + ";");
+                scopes.peek().put(param.lexeme, new Binding(name, false));
+            }
+        }
+        if (statements(function.body)) {
+            line("return null;");
+        }
+        scopes.pop();
+        String body = finish(frame);
+        frame = enclosing;
+        return body;
+    }
+
+    /**
+     * 嵌套的函数或者方法：lambda 形式的 AotFunction
+     */
+    private String lambda(Stmt.Function function, boolean isInitializer, String self) {
+        String args = "args" + id();
+        if (self == null) {
+            self = "self" + id();
+        }
+        List<String> params = new ArrayList<>();
+        for (int i = 0; i < function.params.size(); i++) {
+            params.add(args + "[" + i + "]");
+        }
+        String body = body(function, params, true, frame.indent + 1);
+        return "new AotFunction(" + javaString(function.name.lexeme) + ", " + function.params.size() + ", "
+                + isInitializer + ", (" + self + ", " + args + ") -> {\n" + body + indent(frame.indent) + "})";
+    }
+
+    private static String parameters(List<String> names) {
+        StringBuilder out = new StringBuilder();
+        for (String name : names) {
+            if (out.length() > 0) {
+                out.append(", ");
+            }
+            out.append("Object ").append(name);
+        }
+        return out.toString();
+    }
+
+    private static String arguments(int count) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append("args[").append(i).append("]");
+        }
+        return out.toString();
+    }
+
+    //---------------statements------------------//
+
+    /**
+     * 依次生成语句，之后的语句不可达时停止(Java 不允许不可达的语句)
+     *
+     * @return 最后一条语句之后是否可达
+     */
+    private boolean statements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (!statement.accept(this)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 生成 if/while/for 的分支或循环体，块直接展开在外层的 {} 中
+     */
+    private boolean nested(Stmt stmt) {
+        if (stmt instanceof Stmt.Block) {
+            return block((Stmt.Block) stmt);
+        }
+        return stmt.accept(this);
+    }
+
+    private boolean block(Stmt.Block stmt) {
+        if (!stmt.scoped) {
+            return statements(stmt.statements);
+        }
+        beginScope(declarations(stmt.statements));
+        boolean completes = statements(stmt.statements);
+        scopes.pop();
+        return completes;
+    }
+
+    @Override
+    public Boolean visitExpressionStmt(Stmt.Expression stmt) {
+        line("AotRuntime.ignore(" + code(stmt.expression).text + ");");
+        return true;
+    }
+
+    @Override
+    public Boolean visitPrintStmt(Stmt.Print stmt) {
+        line("AotRuntime.print(" + object(code(stmt.expression)) + ");");
+        return true;
+    }
+
+    @Override
+    public Boolean visitReturnStmt(Stmt.Return stmt) {
+        line("return " + (stmt.value != null ? object(code(stmt.value)) : "null") + ";");
+        return false;
+    }
+
+    @Override
+    public Boolean visitVarStmt(Stmt.Var stmt) {
+        Code value = stmt.initializer != null ? code(stmt.initializer) : literal(null);
+        define(stmt.name, stmt.type, value);
+        return true;
+    }
+
+    @Override
+    public Boolean visitConstStmt(Stmt.Const stmt) {
+        Code value = stmt.folded ? literal(stmt.value) : code(stmt.initializer);
+        define(stmt.name, stmt.type, value);
+        return true;
+    }
+
+    @Override
+    public Boolean visitBlockStmt(Stmt.Block stmt) {
+        line("{");
+        boolean completes = indented(() -> block(stmt));
+        line("}");
+        return completes;
+    }
+
+    @Override
+    public Boolean visitClassStmt(Stmt.Class stmt) {
+        String name = classNames.get(stmt);
+        String superclass = "null";
+        if (stmt.superclass != null) {
+            String value = "AotRuntime.superclass(" + object(code(stmt.superclass)) + ", "
+                    + token(stmt.superclass.name) + ")";
+            if (name != null) {
+                superclass = name + ".superclass";
+                line(superclass + " = " + value + ";");
+            } else {
+                superclass = "super" + id();
+                line("final Object " + superclass + " = " + value + ";");
+            }
+        }
+        Binding binding = define(stmt.name, LoxType.UNKNOWN, literal(null));
+
+        List<String> methods = new ArrayList<>();
+        if (name != null) {
+            // 顶层的类，方法已经生成为静态方法
+            for (Stmt.Function method : stmt.methods) {
+                methods.add("new AotFunction(" + javaString(method.name.lexeme) + ", " + method.params.size()
+                        + ", " + method.name.lexeme.equals("init") + ", (self, args) -> " + name + "."
+                        + methodName(method) + "(self" + (method.params.isEmpty() ? "" : ", ")
+                        + arguments(method.params.size()) + "))");
+            }
+        } else {
+            if (stmt.superclass != null) {
+                beginScope(new ArrayList<>());
+                scopes.peek().put("super", new Binding(superclass, false));
+            }
+            beginScope(new ArrayList<>());
+            for (Stmt.Function method : stmt.methods) {
+                String self = "self" + id();
+                scopes.peek().put("this", new Binding(self, false));
+                methods.add(lambda(method, method.name.lexeme.equals("init"), self));
+            }
+            scopes.pop();
+            if (stmt.superclass != null) {
+                scopes.pop();
+            }
+        }
+
+        StringBuilder klass = new StringBuilder("AotRuntime.klass(" + javaString(stmt.name.lexeme) + ", " + superclass);
+        for (String method : methods) {
+            klass.append(", ").append(method);
+        }
+        klass.append(")");
+        line((binding == null ? global(stmt.name.lexeme) : binding.java) + " = " + klass + ";");
+        return true;
+    }
+
+    @Override
+    public Boolean visitIfStmt(Stmt.If stmt) {
+        line("if (" + bool(code(stmt.condition)) + ") {");
+        boolean completes = indented(() -> nested(stmt.thenBranch));
+        if (stmt.elseBranch != null) {
+            line("} else {");
+            completes |= indented(() -> nested(stmt.elseBranch));
+        } else {
+            completes = true;
+        }
+        line("}");
+        return completes;
+    }
+
+    @Override
+    public Boolean visitFunctionStmt(Stmt.Function stmt) {
+        if (scopes.isEmpty()) {
+            line(global(stmt.name.lexeme) + " = " + field(stmt) + ";");
+            return true;
+        }
+        // 先绑定名字，函数体中可以递归引用(被捕获，位于环境数组中)
+        Binding binding = bind(stmt.name, false);
+        initialize(binding, new Code(lambda(stmt, false, null), Kind.OBJECT));
+        return true;
+    }
+
+    @Override
+    public Boolean visitWhileStmt(Stmt.While stmt) {
+        line("while (" + bool(code(stmt.condition)) + ") {");
+        indented(() -> nested(stmt.body));
+        line("}");
+        return true;
+    }
+
+    @Override
+    public Boolean visitForStmt(Stmt.For stmt) {
+        boolean scoped = stmt.initializer instanceof Stmt.Var;
+        line("{");
+        indented(() -> {
+            if (scoped) {
+                beginScope(List.of(((Stmt.Var) stmt.initializer).name));
+            }
+            if (stmt.initializer != null) {
+                stmt.initializer.accept(this);
+            }
+            String condition = stmt.condition != null ? bool(code(stmt.condition)) : "";
+            String increment = stmt.increment != null ?
+                    "AotRuntime.ignore(" + code(stmt.increment).text + ")" : "";
+            line("for (; " + condition + "; " + increment + ") {");
+            indented(() -> nested(stmt.body));
+            line("}");
+            if (scoped) {
+                scopes.pop();
+            }
+            return true;
+        });
+        line("}");
+        // 没有条件的 for 循环只能通过 return 离开
+        return stmt.condition != null;
+    }
+
+    /**
+     * 每个入口对应 Java switch 的一个 case，入口编号由分派表或者依次比较标签得到
+     */
+    @Override
+    public Boolean visitSwitchStmt(Stmt.Switch stmt) {
+        line("{");
+        indented(() -> {
+            Code value = code(stmt.value);
+            int[] entries;
+            String entry;
+            if (stmt.table != null) {
+                entries = stmt.table.entries;
+                entry = "AotRuntime.entry(" + table(stmt) + ", " + object(value) + ")";
+            } else {
+                entries = entries(stmt);
+                String subject = "v" + id();
+                entry = "e" + id();
+                line("Object " + subject + " = " + object(value) + ";");
+                line("int " + entry + ";");
+                StringBuilder search = new StringBuilder();
+                int otherwise = entries.length - 1;
+                for (int i = 0; i < stmt.labels.size(); i++) {
+                    int index = indexOf(entries, stmt.targets.get(i));
+                    if (stmt.labels.get(i) == null) {
+                        otherwise = index;
+                        continue;
+                    }
+                    search.append("if (AotRuntime.matches(").append(subject).append(", ")
+                            .append(object(code(stmt.labels.get(i)))).append(")) {\n")
+                            .append(indent(frame.indent + 1)).append(entry).append(" = ").append(index).append(";\n")
+                            .append(indent(frame.indent)).append("} else ");
+                }
+                search.append("{\n").append(indent(frame.indent + 1)).append(entry).append(" = ")
+                        .append(otherwise).append(";\n").append(indent(frame.indent)).append("}");
+                line(search.toString());
+            }
+
+            if (stmt.scoped) {
+                beginScope(declarations(stmt.body));
+            }
+            line("switch (" + entry + ") {");
+            indented(() -> {
+                boolean reachable = false;
+                for (int i = 0; i < stmt.body.size(); i++) {
+                    int index = indexOf(entries, i);
+                    if (index >= 0) {
+                        line("case " + index + ":");
+                        reachable = true;
+                    }
+                    if (reachable) {
+                        Stmt statement = stmt.body.get(i);
+                        reachable = indented(() -> statement.accept(this));
+                    }
+                }
+                return true;
+            });
+            line("}");
+            if (stmt.scoped) {
+                scopes.pop();
+            }
+            return true;
+        });
+        line("}");
+        return true;
+    }
+
+    /**
+     * 没有分派表时的入口：开始执行的语句下标去重升序，最后是 body.size()
+     */
+    private static int[] entries(Stmt.Switch stmt) {
+        TreeSet<Integer> positions = new TreeSet<>(stmt.targets);
+        positions.add(stmt.body.size());
+        return positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int indexOf(int[] entries, int position) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] == position) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 分派表为静态字段，类初始化时由标签的常量值重新生成
+     */
+    private String table(Stmt.Switch stmt) {
+        String name = "S" + id();
+        StringBuilder labels = new StringBuilder();
+        StringBuilder targets = new StringBuilder();
+        for (int i = 0; i < stmt.labels.size(); i++) {
+            if (i > 0) {
+                labels.append(", ");
+                targets.append(", ");
+            }
+            Expr label = stmt.labels.get(i);
+            labels.append(label == null ? "AotRuntime.DEFAULT" : object(literal(ConstantFolder.valueOf(label))));
+            targets.append(stmt.targets.get(i));
+        }
+        tableFields.append(INDENT).append("private static final Object ").append(name)
+                .append(" = AotRuntime.switchTable(").append(token(stmt.keyword))
+                .append(", new Object[]{").append(labels).append("}, new int[]{").append(targets).append("}, ")
+                .append(stmt.body.size()).append(");\n");
+        return name;
+    }
+
+    @Override
+    public Boolean visitBreakStmt(Stmt.Break stmt) {
+        line("break;");
+        return false;
+    }
+
+    //---------------expressions------------------//
+
+    private Code code(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public Code visitThisExpr(Expr.This expr) {
+        return new Code(lookUp(expr, "this").java, Kind.OBJECT);
+    }
+
+    @Override
+    public Code visitSuperExpr(Expr.Super expr) {
+        int distance = interpreter.depth(expr);
+        Binding superclass = scopes.get(scopes.size() - 1 - distance).get("super");
+        Binding self = scopes.get(scopes.size() - distance).get("this");
+        return new Code("AotRuntime.superMethod(" + superclass.java + ", " + self.java + ", "
+                + token(expr.method) + ")", Kind.OBJECT);
+    }
+
+    @Override
+    public Code visitUnaryExpr(Expr.Unary expr) {
+        if (expr.folded) {
+            return literal(expr.value);
+        }
+        Code right = code(expr.right);
+        if (expr.operator.type == TokenType.BANG) {
+            return new Code("(!" + bool(right) + ")", Kind.BOOLEAN);
+        }
+        if (expr.operator.type == TokenType.MINUS && expr.operand == LoxType.NUMBER) {
+            return new Code("(-" + number(right) + ")", Kind.DOUBLE);
+        }
+        return new Code("AotRuntime.unary(" + token(expr.operator) + ", " + object(right) + ")", Kind.OBJECT);
+    }
+
+    @Override
+    public Code visitBinaryExpr(Expr.Binary expr) {
+        if (expr.folded) {
+            return literal(expr.value);
+        }
+        return binary(expr.operator, expr.operands, code(expr.left), code(expr.right));
+    }
+
+    /**
+     * 类型推导证明了操作数的类型时直接使用 Java 的运算
+     */
+    private Code binary(Token operator, LoxType operands, Code left, Code right) {
+        String op = javaOperator(operator.type);
+        if (operands == LoxType.NUMBER) {
+            String l = number(left);
+            String r = number(right);
+            switch (operator.type) {
+                case PLUS:
+                case MINUS:
+                case MULTIPLY:
+                case DIVIDE:
+                case MOD:
+                    return new Code("(" + l + " " + op + " " + r + ")", Kind.DOUBLE);
+                case GREATER:
+                case GREATER_EQUAL:
+                case LESS:
+                case LESS_EQUAL:
+                    return new Code("(" + l + " " + op + " " + r + ")", Kind.BOOLEAN);
+                case EQUAL_EQUAL:
+                case BANG_EQUAL:
+                    // 与 Double.equals 一致
+                    return new Code("(Double.compare(" + l + ", " + r + ") " + op + " 0)", Kind.BOOLEAN);
+                default:
+                    return new Code("AotRuntime.number(" + token(operator) + ", " + l + ", " + r + ")", Kind.OBJECT);
+            }
+        }
+        if (operands == LoxType.INTEGER) {
+            String l = "((long) " + left.text + ")";
+            String r = "((long) " + right.text + ")";
+            switch (operator.type) {
+                case GREATER:
+                case GREATER_EQUAL:
+                case LESS:
+                case LESS_EQUAL:
+                case EQUAL_EQUAL:
+                case BANG_EQUAL:
+                    return new Code("(" + l + " " + op + " " + r + ")", Kind.BOOLEAN);
+                default:
+                    return new Code("AotRuntime.integer(" + token(operator) + ", " + l + ", " + r + ")", Kind.OBJECT);
+            }
+        }
+        if (operands == LoxType.STRING && operator.type == TokenType.PLUS) {
+            return new Code("AotRuntime.concat(" + left.text + ", " + right.text + ")", Kind.OBJECT);
+        }
+        return new Code("AotRuntime.binary(" + token(operator) + ", " + object(left) + ", " + object(right) + ")",
+                Kind.OBJECT);
+    }
+
+    private static String javaOperator(TokenType type) {
+        switch (type) {
+            case PLUS:
+                return "+";
+            case MINUS:
+                return "-";
+            case MULTIPLY:
+                return "*";
+            case DIVIDE:
+                return "/";
+            case MOD:
+                return "%";
+            case GREATER:
+                return ">";
+            case GREATER_EQUAL:
+                return ">=";
+            case LESS:
+                return "<";
+            case LESS_EQUAL:
+                return "<=";
+            case EQUAL_EQUAL:
+                return "==";
+            case BANG_EQUAL:
+                return "!=";
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Code visitGroupingExpr(Expr.Grouping expr) {
+        return code(expr.expression);
+    }
+
+    @Override
+    public Code visitLiteralExpr(Expr.Literal expr) {
+        return literal(expr.value);
+    }
+
+    /**
+     * || 和 && 的结果是决定结果的操作数本身，左操作数存放在临时变量中
+     */
+    @Override
+    public Code visitLogicalExpr(Expr.Logical expr) {
+        boolean or = expr.operator.type == TokenType.OR_OR;
+        Code left = code(expr.left);
+        Code right = code(expr.right);
+        if (expr.operand == LoxType.BOOL) {
+            String truth = bool(left);
+            if (right.kind == Kind.BOOLEAN) {
+                return new Code("(" + truth + (or ? " || " : " && ") + right.text + ")", Kind.BOOLEAN);
+            }
+            return new Code(or ? "(" + truth + " ? Boolean.TRUE : " + object(right) + ")" :
+                    "(!" + truth + " ? Boolean.FALSE : " + object(right) + ")", Kind.OBJECT);
+        }
+        String temp = temp(false);
+        String truth = "AotRuntime.truthy(" + temp + " = " + object(left) + ")";
+        return new Code("(" + (or ? "" : "!") + truth + " ? " + temp + " : " + object(right) + ")", Kind.OBJECT);
+    }
+
+    @Override
+    public Code visitVariableExpr(Expr.Variable expr) {
+        if (expr.folded) {
+            return literal(expr.value);
+        }
+        return read(expr, expr.name);
+    }
+
+    @Override
+    public Code visitAssignExpr(Expr.Assign expr) {
+        Code value = code(expr.value);
+        return assignment(lookUp(expr, expr.name.lexeme), expr.name, value);
+    }
+
+    /**
+     * 全局函数的名字仍然指向它时直接调用静态方法，否则通过 AotRuntime 调用
+     */
+    @Override
+    public Code visitCallExpr(Expr.Call expr) {
+        Code callee = code(expr.callee);
+        StringBuilder arguments = new StringBuilder();
+        for (Expr argument : expr.arguments) {
+            if (arguments.length() > 0) {
+                arguments.append(", ");
+            }
+            arguments.append(object(code(argument)));
+        }
+        String generic = "AotRuntime.call(" + object(callee) + ", " + token(expr.paren)
+                + ", new Object[]{" + arguments + "})";
+
+        if (expr.callee instanceof Expr.Variable && !((Expr.Variable) expr.callee).folded
+                && interpreter.depth(expr.callee) == null) {
+            Stmt.Function target = globalFunctions.get(((Expr.Variable) expr.callee).name.lexeme);
+            if (target != null && target.params.size() == expr.arguments.size()) {
+                return new Code("(" + global(target.name.lexeme) + " == " + field(target) + " ? "
+                        + methodNames.get(target) + "(" + arguments + ") : " + generic + ")", Kind.OBJECT);
+            }
+        }
+        return new Code(generic, Kind.OBJECT);
+    }
+
+    @Override
+    public Code visitGetExpr(Expr.Get expr) {
+        return new Code("AotRuntime.get(" + object(code(expr.object)) + ", " + token(expr.name) + ")", Kind.OBJECT);
+    }
+
+    @Override
+    public Code visitSetExpr(Expr.Set expr) {
+        String object = "AotRuntime.instance(" + object(code(expr.object)) + ", " + token(expr.name) + ")";
+        return new Code("AotRuntime.set(" + object + ", " + token(expr.name) + ", "
+                + object(code(expr.value)) + ")", Kind.OBJECT);
+    }
+
+    @Override
+    public Code visitArrayExpr(Expr.Array expr) {
+        StringBuilder elements = new StringBuilder();
+        for (Expr element : expr.elements) {
+            elements.append(elements.length() == 0 ? "" : ", ").append(object(code(element)));
+        }
+        return new Code("AotRuntime.array(" + elements + ")", Kind.OBJECT);
+    }
+
+    @Override
+    public Code visitIndexExpr(Expr.Index expr) {
+        return new Code("AotRuntime.index(" + object(code(expr.object)) + ", " + token(expr.bracket) + ", "
+                + object(code(expr.index)) + ")", Kind.OBJECT);
+    }
+
+    @Override
+    public Code visitIndexSetExpr(Expr.IndexSet expr) {
+        return new Code("AotRuntime.setIndex(" + object(code(expr.object)) + ", " + token(expr.bracket) + ", "
+                + object(code(expr.index)) + ", " + object(code(expr.value)) + ")", Kind.OBJECT);
+    }
+
+    @Override
+    public Code visitCompoundAssignExpr(Expr.CompoundAssign expr) {
+        Binding binding = lookUp(expr, expr.name.lexeme);
+        Code old = binding == null ? global(expr.name) :
+                new Code(binding.java, binding.isDouble ? Kind.DOUBLE : Kind.OBJECT);
+        Code value = binary(expr.operator, expr.operands, old, code(expr.value));
+        return assignment(binding, expr.name, value);
+    }
+
+    @Override
+    public Code visitCompoundSetExpr(Expr.CompoundSet expr) {
+        String object = temp(false);
+        String name = token(expr.name);
+        String target = object(code(expr.object));
+        Code old = new Code("AotRuntime.get(" + object + ", " + name + ")", Kind.OBJECT);
+        Code value = binary(expr.operator, LoxType.UNKNOWN, old, code(expr.value));
+        return new Code("AotRuntime.set(" + object + " = " + target + ", " + name + ", " + value.text + ")",
+                Kind.OBJECT);
+    }
+
+    @Override
+    public Code visitIncrementExpr(Expr.Increment expr) {
+        if (expr.target instanceof Expr.Variable) {
+            Token name = ((Expr.Variable) expr.target).name;
+            Binding binding = lookUp(expr.target, name.lexeme);
+            Code old = read(expr.target, name);
+            if (expr.prefix) {
+                return assignment(binding, name, increment(expr, old));
+            }
+            boolean isDouble = old.kind == Kind.DOUBLE;
+            String temp = temp(isDouble);
+            Code value = assignment(binding, name, increment(expr, new Code(temp, old.kind)));
+            return new Code("AotRuntime.first(" + temp + " = " + old.text + ", " + value.text + ")",
+                    isDouble ? Kind.DOUBLE : Kind.OBJECT);
+        }
+
+        Expr.Get get = (Expr.Get) expr.target;
+        String object = temp(false);
+        String name = token(get.name);
+        String target = object(code(get.object));
+        if (expr.prefix) {
+            Code value = increment(expr, new Code("AotRuntime.get(" + object + ", " + name + ")", Kind.OBJECT));
+            return new Code("AotRuntime.set(" + object + " = " + target + ", " + name + ", " + object(value) + ")",
+                    Kind.OBJECT);
+        }
+        String read = "AotRuntime.get(" + object + " = " + target + ", " + name + ")";
+        String old = temp(false);
+        Code value = increment(expr, new Code(old, Kind.OBJECT));
+        return new Code("AotRuntime.first(" + old + " = " + read + ", AotRuntime.set(" + object + ", " + name
+                + ", " + object(value) + "))", Kind.OBJECT);
+    }
+
+    private Code increment(Expr.Increment expr, Code old) {
+        if (expr.operand == LoxType.NUMBER) {
+            return binary(expr.operator, LoxType.NUMBER, old, literal(1.0));
+        }
+        return binary(expr.operator, expr.operand, old, literal(1L));
+    }
+
+    //---------------变量------------------//
+
+    /**
+     * 变量在 Java 中的位置，全局变量返回 null
+     */
+    private Binding lookUp(Expr expr, String name) {
+        Integer distance = interpreter.depth(expr);
+        if (distance == null) {
+            return null;
+        }
+        return scopes.get(scopes.size() - 1 - distance).get(name);
+    }
+
+    private Code read(Expr expr, Token name) {
+        Binding binding = lookUp(expr, name.lexeme);
+        if (binding == null) {
+            return global(name);
+        }
+        return new Code(binding.java, binding.isDouble ? Kind.DOUBLE : Kind.OBJECT);
+    }
+
+    private Code global(Token name) {
+        global(name.lexeme);
+        return new Code("get_" + name.lexeme + "(" + token(name) + ")", Kind.OBJECT);
+    }
+
+    private String global(String name) {
+        return globals.computeIfAbsent(name, n -> "g_" + n);
+    }
+
+    private Code assignment(Binding binding, Token name, Code value) {
+        if (binding == null) {
+            global(name.lexeme);
+            return new Code("set_" + name.lexeme + "(" + object(value) + ", " + token(name) + ")", Kind.OBJECT);
+        }
+        if (binding.isDouble) {
+            return new Code("(" + binding.java + " = " + number(value) + ")", Kind.DOUBLE);
+        }
+        return new Code("(" + binding.java + " = " + object(value) + ")", Kind.OBJECT);
+    }
+
+    /**
+     * 声明变量并赋初值，返回变量的位置(全局变量为 null)
+     */
+    private Binding define(Token name, LoxType type, Code value) {
+        if (scopes.isEmpty()) {
+            line(global(name.lexeme) + " = " + object(value) + ";");
+            return null;
+        }
+        Binding binding = bind(name, type == LoxType.NUMBER);
+        initialize(binding, value);
+        return binding;
+    }
+
+    private Binding bind(Token name, boolean isDouble) {
+        String slot = slots.get(name);
+        Binding binding = slot != null ? new Binding(slot, false) :
+                new Binding("v" + id() + "_" + name.lexeme, isDouble);
+        scopes.peek().put(name.lexeme, binding);
+        return binding;
+    }
+
+    private void initialize(Binding binding, Code value) {
+        if (slots.containsValue(binding.java)) {
+            line(binding.java + " = " + object(value) + ";");
+        } else if (binding.isDouble) {
+            line("double " + binding.java + " = " + number(value) + ";");
+        } else {
+            line("Object " + binding.java + " = " + object(value) + ";");
+        }
+    }
+
+    /**
+     * 进入作用域，被捕获的变量放在这个作用域的环境数组中
+     *
+     * @param declared 直接在这个作用域中声明的变量
+     */
+    private void beginScope(List<Token> declared) {
+        scopes.push(new HashMap<>());
+        List<Token> captured = new ArrayList<>();
+        for (Token name : declared) {
+            if (interpreter.isCaptured(name)) {
+                captured.add(name);
+            }
+        }
+        if (captured.isEmpty()) {
+            return;
+        }
+        String environment = "env" + id();
+        line("final Object[] " + environment + " = new Object[" + captured.size() + "];");
+        for (int i = 0; i < captured.size(); i++) {
+            slots.put(captured.get(i), environment + "[" + i + "]");
+        }
+    }
+
+    private static List<Token> declarations(List<Stmt> statements) {
+        List<Token> names = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var) {
+                names.add(((Stmt.Var) statement).name);
+            } else if (statement instanceof Stmt.Const) {
+                names.add(((Stmt.Const) statement).name);
+            } else if (statement instanceof Stmt.Function) {
+                names.add(((Stmt.Function) statement).name);
+            } else if (statement instanceof Stmt.Class) {
+                names.add(((Stmt.Class) statement).name);
+            }
+        }
+        return names;
+    }
+
+    //---------------值和类型转换------------------//
+
+    private Code literal(Object value) {
+        if (value == null) {
+            return new Code("null", Kind.OBJECT);
+        }
+        if (value instanceof Boolean) {
+            // 不使用 true/false，避免 Java 把 while (true) 之后的代码当作不可达
+            return new Code((boolean) value ? "Boolean.TRUE" : "Boolean.FALSE", Kind.OBJECT);
+        }
+        if (value instanceof Double) {
+            return new Code(javaDouble((double) value), Kind.DOUBLE, constant(value, javaDouble((double) value)));
+        }
+        if (value instanceof Long) {
+            long number = (long) value;
+            return new Code(constant(value, number < 0 ? "(" + number + "L)" : number + "L"), Kind.OBJECT);
+        }
+        return new Code(constant(value, javaString((String) value)), Kind.OBJECT);
+    }
+
+    private String constant(Object value, String text) {
+        return constants.computeIfAbsent(value, v -> {
+            String name = "K" + id();
+            constantFields.append(INDENT).append("private static final Object ").append(name)
+                    .append(" = ").append(text).append(";\n");
+            return name;
+        });
+    }
+
+    private String object(Code code) {
+        switch (code.kind) {
+            case DOUBLE:
+                return code.boxed != null ? code.boxed : "Double.valueOf(" + code.text + ")";
+            case BOOLEAN:
+                return "Boolean.valueOf(" + code.text + ")";
+            default:
+                return code.text;
+        }
+    }
+
+    /**
+     * 已知为浮点数的值
+     */
+    private static String number(Code code) {
+        return code.kind == Kind.DOUBLE ? code.text : "((double) " + code.text + ")";
+    }
+
+    private static String bool(Code code) {
+        return code.kind == Kind.BOOLEAN ? code.text : "AotRuntime.truthy(" + code.text + ")";
+    }
+
+    private static String javaDouble(double value) {
+        if (Double.isNaN(value)) {
+            return "Double.NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+        }
+        String text = Double.toString(value);
+        return text.startsWith("-") ? "(" + text + ")" : text;
+    }
+
+    private static String javaString(String value) {
+        StringBuilder out = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\%03o", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private String token(Token token) {
+        return tokens.computeIfAbsent(token, t -> {
+            String name = "T" + id();
+            tokenFields.append(INDENT).append("private static final Token ").append(name)
+                    .append(" = new Token(TokenType.").append(t.type).append(", ").append(javaString(t.lexeme))
+                    .append(", null, ").append(t.line).append(", ").append(t.offset).append(");\n");
+            return name;
+        });
+    }
+
+    //---------------输出------------------//
+
+    private int id() {
+        return ids++;
+    }
+
+    /**
+     * 当前方法体中的临时变量，在方法体开头声明
+     */
+    private String temp(boolean isDouble) {
+        String name = "t" + id();
+        (isDouble ? frame.doubles : frame.objects).add(name);
+        return name;
+    }
+
+    private void line(String text) {
+        frame.body.append(indent(frame.indent)).append(text).append('\n');
+    }
+
+    private interface Emitter {
+        boolean emit();
+    }
+
+    private boolean indented(Emitter emitter) {
+        Frame current = frame;
+        Frame inner = new Frame(current.indent + 1);
+        frame = inner;
+        boolean completes;
+        try {
+            completes = emitter.emit();
+        } finally {
+            frame = current;
+        }
+        current.objects.addAll(inner.objects);
+        current.doubles.addAll(inner.doubles);
+        current.body.append(inner.body);
+        return completes;
+    }
+
+    private static String finish(Frame frame) {
+        StringBuilder out = new StringBuilder();
+        if (!frame.objects.isEmpty()) {
+            out.append(indent(frame.indent)).append("Object ").append(String.join(", ", frame.objects)).append(";\n");
+        }
+        if (!frame.doubles.isEmpty()) {
+            out.append(indent(frame.indent)).append("double ").append(String.join(", ", frame.doubles)).append(";\n");
+        }
+        return out.append(frame.body).toString();
+    }
+
+    private static String indent(int level) {
+        return INDENT.repeat(level);
+    }
+}
@@ -0,0 +1,464 @@
+package interpreter;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * 流式的 JSON 解析器：step 每次读取一个事件，只保存容器的栈，不需要整个文档在内存中
+ * object 得到 LoxMap，array 得到 LoxArray，没有小数点和指数的数字为整数，其余为浮点数
+ * <p>
+ * 作为迭代器(LoxIterator)有两种方式：
+ * 事件(jsonEvents)：next 返回事件的名字，key 和值由 jsonValue 得到；
+ * 元素(jsonElements)：顶层为数组时 next 依次返回每个完整的元素，否则只返回顶层的值
+ */
+final class JsonReader implements LoxIterator {
+    enum Event {
+        START_OBJECT("startObject"), END_OBJECT("endObject"),
+        START_ARRAY("startArray"), END_ARRAY("endArray"),
+        KEY("key"), VALUE("value"), END(null);
+
+        final String label;
+
+        Event(String label) {
+            this.label = label;
+        }
+    }
+
+    // 容器中的状态
+    private static final int EMPTY = 0;     // 刚进入，可以直接结束
+    private static final int NONEMPTY = 1;  // 已经有元素，下一个是 , 或结束
+    private static final int KEY = 2;       // object 中读完了 key 和 :，下一个是值
+    // readValue 遇到容器或文档的结束，没有值
+    private static final Object NO_VALUE = new Object();
+
+    private final Reader reader;
+    private final String source;
+    private final boolean elements;
+    private final char[] buffer = new char[1 << 14];
+    private int position = 0;
+    private int limit = 0;
+    private int line = 1;
+    // 容器的栈，true 为 object
+    private boolean[] objects = new boolean[16];
+    private int[] states = new int[16];
+    private int depth = 0;
+    // 顶层的值已经开始
+    private boolean started = false;
+    private boolean closed = false;
+    // 最近的 KEY/VALUE 事件的值
+    private Object value;
+    // 转义的字符串和数字的缓冲，重复使用
+    private final StringBuilder text = new StringBuilder();
+
+    private JsonReader(Reader reader, String source, boolean elements) {
+        this.reader = reader;
+        this.source = source;
+        this.elements = elements;
+    }
+
+    /**
+     * 解析整个 JSON 文本
+     */
+    static Object parse(String json) {
+        JsonReader reader = new JsonReader(new StringReader(json), "string", false);
+        Object value = reader.readValue();
+        if (value == NO_VALUE || reader.step() != Event.END) {
+            throw reader.error("Expected a single value");
+        }
+        return value;
+    }
+
+    static JsonReader open(String path, boolean elements) {
+        try {
+            Reader reader = new InputStreamReader(Files.newInputStream(Paths.get(path)), StandardCharsets.UTF_8);
+            return new JsonReader(reader, path, elements);
+        } catch (IOException | InvalidPathException e) {
+            throw new RuntimeError("Cannot open file '" + path + "'.");
+        }
+    }
+
+    //---------------迭代器------------------//
+
+    @Override
+    public synchronized Object next() {
+        if (closed) {
+            return null;
+        }
+        if (elements) {
+            return nextElement();
+        }
+        Event event = step();
+        if (event == Event.END) {
+            close();
+            return null;
+        }
+        return event.label;
+    }
+
+    /**
+     * 最近的 key 或值事件的值
+     */
+    synchronized Object value() {
+        return value;
+    }
+
+    private Object nextElement() {
+        if (!started) {
+            skipWhitespace();
+            // 逐个读取的只能是顶层数组的元素
+            if (peek() != '[') {
+                RuntimeError error = error("Expected a top-level array");
+                close();
+                throw error;
+            }
+            step();
+        }
+        Object element = readValue();
+        if (element != NO_VALUE) {
+            return element;
+        }
+        if (step() != Event.END) {
+            throw error("Unexpected data after the top-level value");
+        }
+        close();
+        return null;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        try {
+            reader.close();
+        } catch (IOException e) {
+            throw new RuntimeError("Cannot close '" + source + "'.");
+        }
+    }
+
+    //---------------解析------------------//
+
+    /**
+     * 读取下一个完整的值；下一个事件是容器或文档的结束时返回 NO_VALUE
+     * 不递归，嵌套的深度不受 JVM 栈的限制
+     */
+    Object readValue() {
+        ArrayDeque<Object> containers = new ArrayDeque<>();
+        ArrayDeque<Object> keys = new ArrayDeque<>();
+        for (; ; ) {
+            Object element;
+            switch (step()) {
+                case START_OBJECT:
+                    containers.push(new LoxMap());
+                    continue;
+                case START_ARRAY:
+                    containers.push(new LoxArray(8));
+                    continue;
+                case KEY:
+                    keys.push(value);
+                    continue;
+                case VALUE:
+                    element = value;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    if (containers.isEmpty()) {
+                        return NO_VALUE;
+                    }
+                    element = containers.pop();
+                    break;
+                default:
+                    if (!containers.isEmpty()) {
+                        throw error("Unexpected end of input");
+                    }
+                    return NO_VALUE;
+            }
+            if (containers.isEmpty()) {
+                return element;
+            }
+            Object container = containers.peek();
+            if (container instanceof LoxMap) {
+                ((LoxMap) container).set(keys.pop(), element);
+            } else {
+                ((LoxArray) container).push(element);
+            }
+        }
+    }
+
+    /**
+     * 读取下一个事件，KEY/VALUE 的值在 value 中
+     */
+    Event step() {
+        skipWhitespace();
+        if (depth == 0) {
+            if (started) {
+                if (peek() >= 0) {
+                    throw error("Unexpected data after the top-level value");
+                }
+                return Event.END;
+            }
+            started = true;
+            return startValue(advance());
+        }
+        int top = depth - 1;
+        boolean object = objects[top];
+        char close = object ? '}' : ']';
+        int c = peek();
+        if (states[top] == KEY) {
+            states[top] = NONEMPTY;
+            return startValue(advance());
+        }
+        if (states[top] == NONEMPTY) {
+            if (c == ',') {
+                advance();
+                skipWhitespace();
+                c = peek();
+            } else if (c == close) {
+                advance();
+                depth--;
+                return object ? Event.END_OBJECT : Event.END_ARRAY;
+            } else {
+                throw error("Expected ',' or '" + close + "'");
+            }
+        } else if (c == close) {
+            advance();
+            depth--;
+            return object ? Event.END_OBJECT : Event.END_ARRAY;
+        }
+        if (!object) {
+            states[top] = NONEMPTY;
+            return startValue(advance());
+        }
+        if (advance() != '"') {
+            throw error("Expected a string key");
+        }
+        // key 大多重复出现，驻留后比较时引用相同
+        value = StringTable.intern(readString());
+        skipWhitespace();
+        if (advance() != ':') {
+            throw error("Expected ':' after a key");
+        }
+        states[top] = KEY;
+        return Event.KEY;
+    }
+
+    private Event startValue(int c) {
+        switch (c) {
+            case '{':
+                push(true);
+                return Event.START_OBJECT;
+            case '[':
+                push(false);
+                return Event.START_ARRAY;
+            case '"':
+                value = readString();
+                return Event.VALUE;
+            case 't':
+                expect("rue");
+                value = true;
+                return Event.VALUE;
+            case 'f':
+                expect("alse");
+                value = false;
+                return Event.VALUE;
+            case 'n':
+                expect("ull");
+                value = null;
+                return Event.VALUE;
+            case -1:
+                throw error("Unexpected end of input");
+            default:
+                if (c == '-' || c >= '0' && c <= '9') {
+                    value = readNumber((char) c);
+                    return Event.VALUE;
+                }
+                throw error("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private void push(boolean object) {
+        if (depth == objects.length) {
+            objects = Arrays.copyOf(objects, depth * 2);
+            states = Arrays.copyOf(states, depth * 2);
+        }
+        objects[depth] = object;
+        states[depth] = EMPTY;
+        depth++;
+    }
+
+    /**
+     * 开头的 " 已经读过；没有转义并且在缓冲中时直接由缓冲创建 String
+     */
+    private String readString() {
+        int start = position;
+        for (int i = position; i < limit; i++) {
+            char c = buffer[i];
+            if (c == '"') {
+                position = i + 1;
+                return new String(buffer, start, i - start);
+            }
+            if (c == '\\' || c < 0x20) {
+                break;
+            }
+        }
+        text.setLength(0);
+        for (; ; ) {
+            int c = advance();
+            if (c == '"') {
+                return text.toString();
+            }
+            if (c < 0) {
+                throw error("Unterminated string");
+            }
+            if (c < 0x20) {
+                throw error("Unescaped control character in string");
+            }
+            if (c == '\\') {
+                c = advance();
+                switch (c) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        break;
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'u':
+                        c = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(advance(), 16);
+                            if (digit < 0) {
+                                throw error("Invalid unicode escape");
+                            }
+                            c = c * 16 + digit;
+                        }
+                        break;
+                    default:
+                        throw error("Invalid escape");
+                }
+            }
+            text.append((char) c);
+        }
+    }
+
+    /**
+     * 18 位以内的整数直接计算，不创建字符串
+     */
+    private Object readNumber(char first) {
+        text.setLength(0);
+        text.append(first);
+        boolean integer = true;
+        for (int c = peek(); c >= '0' && c <= '9' || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-';
+             c = peek()) {
+            if (c == '.' || c == 'e' || c == 'E') {
+                integer = false;
+            }
+            text.append((char) advance());
+        }
+        int length = text.length();
+        int start = first == '-' ? 1 : 0;
+        if (integer && length > start && length - start <= 18) {
+            long number = 0;
+            for (int i = start; i < length; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    throw error("Invalid number");
+                }
+                number = number * 10 + (c - '0');
+            }
+            return start == 1 ? -number : number;
+        }
+        try {
+            String number = text.toString();
+            if (integer) {
+                try {
+                    return Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    // 超出 long 的范围
+                    return Double.parseDouble(number);
+                }
+            }
+            return Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number");
+        }
+    }
+
+    private void expect(String rest) {
+        for (int i = 0; i < rest.length(); i++) {
+            if (advance() != rest.charAt(i)) {
+                throw error("Invalid literal");
+            }
+        }
+    }
+
+    private void skipWhitespace() {
+        for (; ; ) {
+            int c = peek();
+            if (c == '\n') {
+                line++;
+            } else if (c != ' ' && c != '\t' && c != '\r') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private int peek() {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private int advance() {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private boolean fill() {
+        try {
+            int read;
+            do {
+                read = reader.read(buffer);
+            } while (read == 0);
+            if (read < 0) {
+                return false;
+            }
+            position = 0;
+            limit = read;
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeError("Cannot read '" + source + "'.");
+        }
+    }
+
+    private RuntimeError error(String message) {
+        return new RuntimeError("Invalid JSON in " + source + " at line " + line + ": " + message + ".");
+    }
+
+    @Override
+    public String toString() {
+        return elements ? "<json elements>" : "<json events>";
+    }
+}
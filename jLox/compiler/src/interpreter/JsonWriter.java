@@ -0,0 +1,212 @@
+package interpreter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * 把 Lox 的值写成 JSON：LoxMap、LoxInstance 的字段为 object，LoxArray 为 array
+ * 直接写入自己的字符缓冲，满了才交给 Writer(或 StringBuilder)，不为每个值创建中间的字符串
+ * 浮点数保留小数点(2.0)，再次解析时仍是浮点数
+ */
+final class JsonWriter {
+    // 超过这个深度时认为值中有环
+    private static final int MAX_DEPTH = 1000;
+
+    private final Writer writer;
+    private final StringBuilder builder;
+    private final String target;
+    private final char[] buffer = new char[1 << 13];
+    private int position = 0;
+    // 整数的数字，从后往前写
+    private final char[] digits = new char[20];
+
+    private JsonWriter(Writer writer, StringBuilder builder, String target) {
+        this.writer = writer;
+        this.builder = builder;
+        this.target = target;
+    }
+
+    static String toJson(Object value) {
+        StringBuilder builder = new StringBuilder();
+        JsonWriter json = new JsonWriter(null, builder, "string");
+        json.write(value, 0);
+        json.flush();
+        return builder.toString();
+    }
+
+    static void writeFile(String path, Object value) {
+        try (Writer writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+            JsonWriter json = new JsonWriter(writer, null, path);
+            json.write(value, 0);
+            json.flush();
+        } catch (IOException | InvalidPathException e) {
+            throw new RuntimeError("Cannot write file '" + path + "'.");
+        }
+    }
+
+    private void write(Object value, int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new RuntimeError("Value is nested too deeply to convert to JSON.");
+        }
+        if (value == null) {
+            append("null");
+        } else if (value instanceof Boolean) {
+            append((boolean) value ? "true" : "false");
+        } else if (value instanceof Long) {
+            writeLong((long) value);
+        } else if (value instanceof Double) {
+            double number = (double) value;
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                throw new RuntimeError("Cannot convert NaN or Infinity to JSON.");
+            }
+            append(Double.toString(number));
+        } else if (LoxString.isString(value)) {
+            writeString(value.toString());
+        } else if (value instanceof LoxArray) {
+            LoxArray array = (LoxArray) value;
+            append('[');
+            for (int i = 0; i < array.length(); i++) {
+                if (i > 0) {
+                    append(',');
+                }
+                write(array.get(i), depth + 1);
+            }
+            append(']');
+        } else if (value instanceof LoxMap) {
+            append('{');
+            boolean[] first = {true};
+            ((LoxMap) value).forEach((key, element) -> {
+                writeKey(key, first);
+                write(element, depth + 1);
+            });
+            append('}');
+        } else if (value instanceof LoxInstance) {
+            append('{');
+            boolean[] first = {true};
+            for (Map.Entry<String, Object> field : ((LoxInstance) value).fields().entrySet()) {
+                writeKey(field.getKey(), first);
+                write(field.getValue(), depth + 1);
+            }
+            append('}');
+        } else {
+            throw new RuntimeError("Cannot convert " + value + " to JSON.");
+        }
+    }
+
+    /**
+     * object 的 key 必须是字符串，数字和布尔值的 key 写成字符串
+     */
+    private void writeKey(Object key, boolean[] first) {
+        if (!first[0]) {
+            append(',');
+        }
+        first[0] = false;
+        if (LoxString.isString(key)) {
+            writeString(key.toString());
+        } else if (key instanceof Long || key instanceof Double || key instanceof Boolean) {
+            writeString(key.toString());
+        } else {
+            throw new RuntimeError("Map keys must be strings, numbers or booleans to convert to JSON.");
+        }
+        append(':');
+    }
+
+    private void writeString(String text) {
+        append('"');
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            // 不需要转义的一段整体写入
+            append(text, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    append("\\\"");
+                    break;
+                case '\\':
+                    append("\\\\");
+                    break;
+                case '\n':
+                    append("\\n");
+                    break;
+                case '\r':
+                    append("\\r");
+                    break;
+                case '\t':
+                    append("\\t");
+                    break;
+                default:
+                    append("\\u00");
+                    append(Character.forDigit(c >> 4, 16));
+                    append(Character.forDigit(c & 0xF, 16));
+                    break;
+            }
+        }
+        append(text, start, text.length());
+        append('"');
+    }
+
+    private void writeLong(long number) {
+        if (number == Long.MIN_VALUE) {
+            append(Long.toString(number));
+            return;
+        }
+        boolean negative = number < 0;
+        long rest = Math.abs(number);
+        int i = digits.length;
+        do {
+            digits[--i] = (char) ('0' + rest % 10);
+            rest /= 10;
+        } while (rest != 0);
+        if (negative) {
+            digits[--i] = '-';
+        }
+        for (; i < digits.length; i++) {
+            append(digits[i]);
+        }
+    }
+
+    private void append(char c) {
+        if (position == buffer.length) {
+            flush();
+        }
+        buffer[position++] = c;
+    }
+
+    private void append(String text) {
+        append(text, 0, text.length());
+    }
+
+    private void append(String text, int start, int end) {
+        while (start < end) {
+            if (position == buffer.length) {
+                flush();
+            }
+            int count = Math.min(end - start, buffer.length - position);
+            text.getChars(start, start + count, buffer, position);
+            position += count;
+            start += count;
+        }
+    }
+
+    private void flush() {
+        if (writer == null) {
+            builder.append(buffer, 0, position);
+        } else {
+            try {
+                writer.write(buffer, 0, position);
+            } catch (IOException e) {
+                throw new RuntimeError("Cannot write file '" + target + "'.");
+            }
+        }
+        position = 0;
+    }
+}
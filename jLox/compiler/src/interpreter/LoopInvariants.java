@@ -0,0 +1,354 @@
+package interpreter;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 循环不变量外提 (loop-invariant code motion)
+ * 在 Resolver 分析完一个 for 循环之后调用，给循环中不随迭代变化的纯表达式分配槽位，
+ * 解释器在每次进入循环时清空槽位，表达式第一次求值后结果存入槽位，之后的迭代直接读取
+ * 同时判断循环体是否会捕获环境(声明函数或类)，不捕获时解释器可以复用同一个迭代环境
+ */
+class LoopInvariants implements Expr.Visitor<Boolean>, Stmt.Visitor<Void> {
+    private final Stmt.For loop;
+    // 循环中被赋值或声明的变量名
+    private final Set<String> written = new HashSet<>();
+    // 循环中是否有函数调用，调用可能修改任意变量
+    private boolean calls = false;
+    // 循环中是否声明了函数或类(闭包会捕获当前环境)
+    private boolean captures = false;
+    // 扫描阶段 or 标记阶段
+    private boolean scanning = true;
+
+    private LoopInvariants(Stmt.For loop) {
+        this.loop = loop;
+    }
+
+    /**
+     * 分析循环并填写 loop.invariants 和 loop.reuseScope
+     *
+     * @param loop Stmt.For
+     */
+    static void analyze(Stmt.For loop) {
+        LoopInvariants analysis = new LoopInvariants(loop);
+        analysis.scan(loop.condition);
+        analysis.scan(loop.body);
+        analysis.scan(loop.increment);
+
+        analysis.scanning = false;
+        analysis.mark(loop.condition);
+        analysis.mark(loop.body);
+        analysis.mark(loop.increment);
+
+        // 没有声明的循环体本身就不会新建环境(见 Resolver.visitBlockStmt)
+        loop.reuseScope = !analysis.captures && loop.body instanceof Stmt.Block
+                && ((Stmt.Block) loop.body).scoped;
+    }
+
+    private void scan(Expr expr) {
+        if (expr != null) {
+            expr.accept(this);
+        }
+    }
+
+    private void scan(Stmt stmt) {
+        if (stmt != null) {
+            stmt.accept(this);
+        }
+    }
+
+    private void scan(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            scan(statement);
+        }
+    }
+
+    /**
+     * 表达式树的根：整棵树不变时直接标记根
+     */
+    private void mark(Expr expr) {
+        if (expr != null && expr.accept(this) && !scanning) {
+            hoist(expr);
+        }
+    }
+
+    private void mark(Stmt stmt) {
+        scan(stmt);
+    }
+
+    /**
+     * 子表达式不变但父表达式可变时，标记子表达式(只标记运算，单独的变量或字面量没有外提的价值)
+     */
+    private void markIfInvariant(Expr expr, boolean invariant) {
+        if (invariant) {
+            hoist(expr);
+        }
+    }
+
+    private void hoist(Expr expr) {
+        // 折叠过的常量不需要槽位
+        if (expr instanceof Expr.Grouping) {
+            hoist(((Expr.Grouping) expr).expression);
+        } else if (expr instanceof Expr.Binary && !((Expr.Binary) expr).folded) {
+            ((Expr.Binary) expr).invariant = loop.invariants++;
+        } else if (expr instanceof Expr.Unary && !((Expr.Unary) expr).folded) {
+            ((Expr.Unary) expr).invariant = loop.invariants++;
+        } else if (expr instanceof Expr.Logical) {
+            ((Expr.Logical) expr).invariant = loop.invariants++;
+        }
+    }
+
+    private boolean visitOperands(Expr left, Expr right) {
+        boolean leftInvariant = left.accept(this);
+        boolean rightInvariant = right.accept(this);
+        if (!scanning && leftInvariant != rightInvariant) {
+            markIfInvariant(left, leftInvariant);
+            markIfInvariant(right, rightInvariant);
+        }
+        return leftInvariant && rightInvariant;
+    }
+
+    //---------------Expression------------------//
+
+    @Override
+    public Boolean visitThisExpr(Expr.This expr) {
+        return false;
+    }
+
+    @Override
+    public Boolean visitSuperExpr(Expr.Super expr) {
+        return false;
+    }
+
+    @Override
+    public Boolean visitUnaryExpr(Expr.Unary expr) {
+        boolean invariant = expr.right.accept(this);
+        switch (expr.operator.type) {
+            case MINUS:
+            case PLUS:
+            case BANG:
+            case NOT:
+                return invariant;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public Boolean visitBinaryExpr(Expr.Binary expr) {
+        return visitOperands(expr.left, expr.right);
+    }
+
+    @Override
+    public Boolean visitGroupingExpr(Expr.Grouping expr) {
+        return expr.expression.accept(this);
+    }
+
+    @Override
+    public Boolean visitLiteralExpr(Expr.Literal expr) {
+        return true;
+    }
+
+    @Override
+    public Boolean visitLogicalExpr(Expr.Logical expr) {
+        return visitOperands(expr.left, expr.right);
+    }
+
+    @Override
+    public Boolean visitVariableExpr(Expr.Variable expr) {
+        if (expr.folded) {
+            return true;
+        }
+        return !scanning && !calls && !written.contains(expr.name.lexeme);
+    }
+
+    @Override
+    public Boolean visitAssignExpr(Expr.Assign expr) {
+        written.add(expr.name.lexeme);
+        mark(expr.value);
+        return false;
+    }
+
+    @Override
+    public Boolean visitCompoundAssignExpr(Expr.CompoundAssign expr) {
+        written.add(expr.name.lexeme);
+        mark(expr.value);
+        return false;
+    }
+
+    @Override
+    public Boolean visitCompoundSetExpr(Expr.CompoundSet expr) {
+        mark(expr.object);
+        mark(expr.value);
+        return false;
+    }
+
+    @Override
+    public Boolean visitIncrementExpr(Expr.Increment expr) {
+        if (expr.target instanceof Expr.Variable) {
+            written.add(((Expr.Variable) expr.target).name.lexeme);
+        } else {
+            mark(((Expr.Get) expr.target).object);
+        }
+        return false;
+    }
+
+    @Override
+    public Boolean visitCallExpr(Expr.Call expr) {
+        calls = true;
+        mark(expr.callee);
+        for (Expr argument : expr.arguments) {
+            mark(argument);
+        }
+        return false;
+    }
+
+    @Override
+    public Boolean visitGetExpr(Expr.Get expr) {
+        mark(expr.object);
+        return false;
+    }
+
+    @Override
+    public Boolean visitSetExpr(Expr.Set expr) {
+        mark(expr.object);
+        mark(expr.value);
+        return false;
+    }
+
+    @Override
+    public Boolean visitArrayExpr(Expr.Array expr) {
+        for (Expr element : expr.elements) {
+            mark(element);
+        }
+        return false;
+    }
+
+    @Override
+    public Boolean visitIndexExpr(Expr.Index expr) {
+        mark(expr.object);
+        mark(expr.index);
+        return false;
+    }
+
+    @Override
+    public Boolean visitIndexSetExpr(Expr.IndexSet expr) {
+        mark(expr.object);
+        mark(expr.index);
+        mark(expr.value);
+        return false;
+    }
+
+    //---------------statements------------------//
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        mark(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        mark(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) {
+            mark(stmt.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        written.add(stmt.name.lexeme);
+        if (stmt.initializer != null) {
+            mark(stmt.initializer);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitConstStmt(Stmt.Const stmt) {
+        written.add(stmt.name.lexeme);
+        mark(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scan(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        // 方法体只在调用时执行，而调用会关闭外提，这里只需记录声明
+        written.add(stmt.name.lexeme);
+        captures = true;
+        if (scanning) {
+            for (Stmt.Function method : stmt.methods) {
+                scan(method.body);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        mark(stmt.condition);
+        mark(stmt.thenBranch);
+        if (stmt.elseBranch != null) {
+            mark(stmt.elseBranch);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        written.add(stmt.name.lexeme);
+        captures = true;
+        if (scanning) {
+            scan(stmt.body);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        mark(stmt.condition);
+        mark(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitSwitchStmt(Stmt.Switch stmt) {
+        mark(stmt.value);
+        for (Expr label : stmt.labels) {
+            mark(label);
+        }
+        scan(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // 内层循环的初始化语句每次外层迭代执行一次，属于外层循环
+        // 其余部分由内层循环自己的槽位负责，标记阶段不进入
+        mark(stmt.initializer);
+        if (scanning) {
+            scan(stmt.condition);
+            scan(stmt.body);
+            scan(stmt.increment);
+        }
+        return null;
+    }
+}
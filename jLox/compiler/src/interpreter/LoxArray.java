@@ -0,0 +1,345 @@
+package interpreter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 数组，存储随元素的类型变化：
+ * 只有整数时为 long[]，只有浮点数时为 double[]，整数和浮点数混合时为 long[] 加上标记浮点数元素的位图
+ * (浮点数按 Double.doubleToRawLongBits 存放)，出现其它类型的元素后变为 Object[]，之后不再变回
+ * 整数和浮点数不混合存放在 double[] 中，否则整数读出后会变成浮点数
+ * <p>
+ * 数值元素可以由 isLong/isDouble 判断后用 getLong/getDouble 读出，不装箱
+ */
+final class LoxArray {
+    private static final int LONGS = 0;
+    private static final int DOUBLES = 1;
+    private static final int MIXED = 2;
+    private static final int OBJECTS = 3;
+
+    private int kind = LONGS;
+    private long[] longs;
+    private double[] doubles;
+    // MIXED 时第 i 位为 1 表示 longs[i] 是浮点数的位
+    private long[] doubleBits;
+    private Object[] objects;
+    private int size;
+
+    LoxArray(int capacity) {
+        longs = new long[capacity];
+    }
+
+    static LoxArray of(List<Object> elements) {
+        LoxArray array = new LoxArray(elements.size());
+        for (Object element : elements) {
+            array.push(element);
+        }
+        return array;
+    }
+
+    /**
+     * 由 double[] 的前 size 个元素创建，不复制
+     */
+    static LoxArray ofDoubles(double[] values, int size) {
+        LoxArray array = new LoxArray(0);
+        array.kind = DOUBLES;
+        array.longs = null;
+        array.doubles = values;
+        array.size = size;
+        return array;
+    }
+
+    /**
+     * 由 long[] 的前 size 个元素创建，不复制
+     */
+    static LoxArray ofLongs(long[] values, int size) {
+        LoxArray array = new LoxArray(0);
+        array.longs = values;
+        array.size = size;
+        return array;
+    }
+
+    int length() {
+        return size;
+    }
+
+    /**
+     * 数值的批量运算(VectorOps)使用的 double[]，只有前 length() 个元素有效
+     * 浮点数存储时直接返回存储本身，其它情况转换为浮点数后返回副本；有非数字的元素时返回 null
+     */
+    double[] numbers() {
+        switch (kind) {
+            case DOUBLES:
+                return doubles;
+            case LONGS:
+            case MIXED: {
+                double[] values = new double[size];
+                for (int i = 0; i < size; i++) {
+                    values[i] = getDouble(i);
+                }
+                return values;
+            }
+            default: {
+                double[] values = new double[size];
+                for (int i = 0; i < size; i++) {
+                    if (objects[i] instanceof Double) {
+                        values[i] = (double) objects[i];
+                    } else if (objects[i] instanceof Long) {
+                        values[i] = (long) objects[i];
+                    } else {
+                        return null;
+                    }
+                }
+                return values;
+            }
+        }
+    }
+
+    /**
+     * 只有整数元素时为整数的存储本身(只有前 length() 个元素有效)，否则为 null
+     */
+    long[] integers() {
+        return kind == LONGS ? longs : null;
+    }
+
+    /**
+     * 元素替换为 values 的前 length() 个整数
+     */
+    void setIntegers(long[] values) {
+        kind = LONGS;
+        longs = values;
+        doubles = null;
+        doubleBits = null;
+        objects = null;
+    }
+
+    /**
+     * 元素替换为 values 的前 length() 个浮点数(原地的批量运算，如 axpy)
+     */
+    void setNumbers(double[] values) {
+        kind = DOUBLES;
+        doubles = values;
+        longs = null;
+        doubleBits = null;
+        objects = null;
+    }
+
+    /**
+     * 下标由调用者检查，0 <= index < length()
+     */
+    Object get(int index) {
+        switch (kind) {
+            case LONGS:
+                return longs[index];
+            case DOUBLES:
+                return doubles[index];
+            case MIXED:
+                return isDouble(index) ? (Object) Double.longBitsToDouble(longs[index]) : (Object) longs[index];
+            default:
+                return objects[index];
+        }
+    }
+
+    /**
+     * 元素是否以 long 存放，是时可以用 getLong 读出
+     */
+    boolean isLong(int index) {
+        switch (kind) {
+            case LONGS:
+                return true;
+            case MIXED:
+                return (doubleBits[index >>> 6] & 1L << index) == 0;
+            case OBJECTS:
+                return objects[index] instanceof Long;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 元素是否以 double 存放，是时可以用 getDouble 读出原来的值
+     */
+    boolean isDouble(int index) {
+        switch (kind) {
+            case DOUBLES:
+                return true;
+            case MIXED:
+                return (doubleBits[index >>> 6] & 1L << index) != 0;
+            case OBJECTS:
+                return objects[index] instanceof Double;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 元素是否为数字(整数或浮点数)，是时可以用 getDouble 读出转换为浮点数的值
+     */
+    boolean isNumber(int index) {
+        return isLong(index) || isDouble(index);
+    }
+
+    long getLong(int index) {
+        return kind == OBJECTS ? (long) objects[index] : longs[index];
+    }
+
+    /**
+     * 整数元素转换为浮点数
+     */
+    double getDouble(int index) {
+        switch (kind) {
+            case LONGS:
+                return longs[index];
+            case DOUBLES:
+                return doubles[index];
+            case MIXED:
+                return isDouble(index) ? Double.longBitsToDouble(longs[index]) : longs[index];
+            default:
+                return ((Number) objects[index]).doubleValue();
+        }
+    }
+
+    void set(int index, Object value) {
+        if (value instanceof Long) {
+            setLong(index, (long) value);
+        } else if (value instanceof Double) {
+            setDouble(index, (double) value);
+        } else {
+            generalize();
+            objects[index] = value;
+        }
+    }
+
+    private void setLong(int index, long value) {
+        switch (kind) {
+            case DOUBLES:
+                mix();
+                doubleBits[index >>> 6] &= ~(1L << index);
+                longs[index] = value;
+                break;
+            case MIXED:
+                doubleBits[index >>> 6] &= ~(1L << index);
+                longs[index] = value;
+                break;
+            case LONGS:
+                longs[index] = value;
+                break;
+            default:
+                objects[index] = value;
+                break;
+        }
+    }
+
+    private void setDouble(int index, double value) {
+        switch (kind) {
+            case LONGS:
+                mix();
+                doubleBits[index >>> 6] |= 1L << index;
+                longs[index] = Double.doubleToRawLongBits(value);
+                break;
+            case MIXED:
+                doubleBits[index >>> 6] |= 1L << index;
+                longs[index] = Double.doubleToRawLongBits(value);
+                break;
+            case DOUBLES:
+                doubles[index] = value;
+                break;
+            default:
+                objects[index] = value;
+                break;
+        }
+    }
+
+    /**
+     * 追加到末尾，容量不够时翻倍，均摊 O(1)
+     */
+    void push(Object value) {
+        if (size == 0 && kind == LONGS && value instanceof Double) {
+            // 第一个元素是浮点数：直接使用 double[]
+            kind = DOUBLES;
+            doubles = new double[longs.length];
+            longs = null;
+        }
+        if (size == capacity()) {
+            grow();
+        }
+        size++;
+        set(size - 1, value);
+    }
+
+    private int capacity() {
+        switch (kind) {
+            case LONGS:
+            case MIXED:
+                return longs.length;
+            case DOUBLES:
+                return doubles.length;
+            default:
+                return objects.length;
+        }
+    }
+
+    private void grow() {
+        int capacity = Math.max(8, capacity() * 2);
+        switch (kind) {
+            case MIXED:
+                doubleBits = Arrays.copyOf(doubleBits, words(capacity));
+                longs = Arrays.copyOf(longs, capacity);
+                break;
+            case LONGS:
+                longs = Arrays.copyOf(longs, capacity);
+                break;
+            case DOUBLES:
+                doubles = Arrays.copyOf(doubles, capacity);
+                break;
+            default:
+                objects = Arrays.copyOf(objects, capacity);
+                break;
+        }
+    }
+
+    private static int words(int capacity) {
+        return (capacity + 63) >>> 6;
+    }
+
+    /**
+     * 整数和浮点数混合：转换为 long[] 加位图
+     */
+    private void mix() {
+        if (kind == DOUBLES) {
+            longs = new long[doubles.length];
+            doubleBits = new long[words(doubles.length)];
+            for (int i = 0; i < size; i++) {
+                longs[i] = Double.doubleToRawLongBits(doubles[i]);
+                doubleBits[i >>> 6] |= 1L << i;
+            }
+            doubles = null;
+        } else {
+            doubleBits = new long[words(longs.length)];
+        }
+        kind = MIXED;
+    }
+
+    /**
+     * 转换为 Object[] 存储
+     */
+    private void generalize() {
+        if (kind == OBJECTS) {
+            return;
+        }
+        Object[] boxed = new Object[capacity()];
+        for (int i = 0; i < size; i++) {
+            boxed[i] = get(i);
+        }
+        objects = boxed;
+        longs = null;
+        doubles = null;
+        doubleBits = null;
+        kind = OBJECTS;
+    }
+
+    @Override
+    public String toString() {
+        return "<array>";
+    }
+}
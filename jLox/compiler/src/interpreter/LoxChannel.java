@@ -0,0 +1,45 @@
+package interpreter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+
+/**
+ * 有界的 channel，任务之间传递值
+ * send 在 channel 满时阻塞，receive 在 channel 空时阻塞；容量为 0 时 send 等到有 receive 接收为止
+ */
+final class LoxChannel {
+    // 队列中不能存放 null，nil 用它代替
+    private static final Object NIL = new Object();
+
+    private final BlockingQueue<Object> queue;
+
+    LoxChannel(int capacity) {
+        this.queue = capacity == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(capacity);
+    }
+
+    void send(Object value) {
+        try {
+            queue.put(value == null ? NIL : value);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError("Interrupted while sending to a channel.");
+        }
+    }
+
+    Object receive() {
+        Object value;
+        try {
+            value = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError("Interrupted while receiving from a channel.");
+        }
+        return value == NIL ? null : value;
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
@@ -5,11 +5,11 @@ import java.util.Map;
 
 public class LoxClass implements LoxCallable {
     final String name;
-    final Map<String, LoxFunction> methods;
+    final Map<String, LoxMethod> methods;
     final LoxClass superclass;
 
     LoxClass(String name, LoxClass superclass,
-             Map<String, LoxFunction> methods) {
+             Map<String, LoxMethod> methods) {
         this.superclass = superclass;
         this.name = name;
         this.methods = methods;
@@ -23,7 +23,7 @@ public class LoxClass implements LoxCallable {
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
+        LoxMethod initializer = findMethod("init");
         if (initializer != null) {
             initializer.bind(instance);
             initializer.call(interpreter, arguments);
@@ -33,12 +33,12 @@ public class LoxClass implements LoxCallable {
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
+        LoxMethod initializer = findMethod("init");
         if (initializer == null) return 0;
         return initializer.arity();
     }
 
-    public LoxFunction findMethod(String name) {
+    public LoxMethod findMethod(String name) {
         if (methods.containsKey(name)) {
             return methods.get(name);
         }
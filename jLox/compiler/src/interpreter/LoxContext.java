@@ -0,0 +1,39 @@
+package interpreter;
+
+import java.io.PrintStream;
+
+/**
+ * 一次执行的上下文：自己的全局变量、错误报告和输出
+ * 同一个 context 中先后执行的程序共享全局变量；不同的 context 之间没有共享的可变状态，
+ * 可以在不同的线程中同时执行。一个 context 同一时间只能在一个线程中使用
+ */
+public final class LoxContext {
+    final Environment globals = Interpreter.natives();
+    final ErrorReporter errors;
+    final PrintStream out;
+
+    /**
+     * @param out print 的输出
+     * @param err 运行错误的输出
+     */
+    public LoxContext(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.errors = new ErrorReporter(err);
+    }
+
+    /**
+     * 执行编译好的程序
+     *
+     * @param program LoxProgram.compile 的结果
+     * @return 是否没有发生运行错误
+     */
+    public boolean run(LoxProgram program) {
+        errors.reset();
+        program.interpreter(this).interpreter(program.statements);
+        return !errors.hadRuntimeError();
+    }
+
+    public ErrorReporter errors() {
+        return errors;
+    }
+}
@@ -1,11 +1,13 @@
 package interpreter;
 
+import interpreter.ir.IrFunction;
+
 import java.util.List;
 
-public class LoxFunction implements LoxCallable {
-    private final Stmt.Function declaration;
-    private final Environment closure;
-    private final boolean isInitializer;
+public class LoxFunction implements LoxMethod {
+    final Stmt.Function declaration;
+    final Environment closure;
+    final boolean isInitializer;
 
     LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
         this.closure = closure;
@@ -15,7 +17,22 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(this.closure);
+        if (interpreter.explicitStack != null) {
+            return interpreter.explicitStack.call(this, arguments);
+        }
+        if (declaration.ir == null) {
+            interpreter.tiering.countCall(interpreter, declaration);
+        }
+        IrFunction ir = declaration.ir;
+        if (ir != null) {
+            // 已降低为 IR 的函数，局部变量在寄存器中，不需要新建环境
+            Object value = IrExecutor.execute(interpreter, ir, closure, arguments);
+            if (ir.invalidated()) {
+                interpreter.tiering.deoptimize(declaration, ir);
+            }
+            return isInitializer ? closure.getAt(0, "this") : value;
+        }
+        Environment environment = new Environment(this.closure, interpreter.owner);
         for (int i = 0; i < declaration.params.size(); i++) {
             environment.define(declaration.params.get(i).lexeme,
                     arguments.get(i));
@@ -49,7 +66,8 @@ public class LoxFunction implements LoxCallable {
      * @param loxInstance
      * @return
      */
-    public Object bind(LoxInstance loxInstance) {
+    @Override
+    public LoxFunction bind(LoxInstance loxInstance) {
         Environment environment = new Environment(closure);
         environment.define("this", loxInstance);
         return new LoxFunction(declaration, environment, isInitializer);
@@ -20,7 +20,7 @@ public class LoxInstance {
         if (fields.containsKey(name.lexeme)) {
             return fields.get(name.lexeme);
         }
-        LoxFunction method = klass.findMethod(name.lexeme);
+        LoxMethod method = klass.findMethod(name.lexeme);
         if (method != null) return method.bind(this);
 
         throw new RuntimeError(name,
@@ -30,4 +30,11 @@ public class LoxInstance {
     public void set(Token name, Object value) {
         fields.put(name.lexeme,value);
     }
+
+    /**
+     * 所有字段，JSON 序列化使用
+     */
+    Map<String, Object> fields() {
+        return fields;
+    }
 }
@@ -0,0 +1,13 @@
+package interpreter;
+
+/**
+ * 内置函数 next/close 使用的迭代器：文件的行(LoxLines)、JSON 的事件或数组元素(JsonReader)
+ */
+interface LoxIterator {
+    /**
+     * @return 下一个值，结束时为 null
+     */
+    Object next();
+
+    void close();
+}
@@ -0,0 +1,139 @@
+package interpreter;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 按行(或按分隔符)读取文件的迭代器，由内置函数 lines/records 创建
+ * 文件按窗口映射(FileChannel.map)，每个窗口最多 WINDOW 字节，超过 2GB 的文件依次映射；
+ * 记录跨过窗口的末尾时从记录的开始重新映射
+ * 每条记录是映射上的 LoxString.view，不复制，用到内容时才解码
+ * <p>
+ * 查找分隔符每次比较 8 个字节(SWAR)：与分隔符异或后，含有 0 字节的 long 中最低的 0 字节就是第一个分隔符
+ */
+final class LoxLines implements LoxIterator {
+    private static final long WINDOW = 1L << 28;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private final String path;
+    private final FileChannel channel;
+    private final long size;
+    private final byte separator;
+    // 每个字节都是分隔符的 long
+    private final long pattern;
+    // 按行读取时去掉行末的 '\r'
+    private final boolean lines;
+    private MappedByteBuffer window;
+    // 窗口在文件中的开始位置
+    private long base;
+    // 下一条记录在窗口中的开始位置
+    private int position;
+
+    private LoxLines(String path, FileChannel channel, byte separator, boolean lines) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.size = channel.size();
+        this.separator = separator;
+        this.pattern = (separator & 0xFFL) * ONES;
+        this.lines = lines;
+    }
+
+    static LoxLines open(String path, char separator, boolean lines) {
+        if (separator > 0x7F) {
+            throw new RuntimeError("Separator must be an ASCII character.");
+        }
+        try {
+            FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            return new LoxLines(path, channel, (byte) separator, lines);
+        } catch (IOException | InvalidPathException e) {
+            throw new RuntimeError("Cannot open file '" + path + "'.");
+        }
+    }
+
+    /**
+     * @return 下一条记录，读完时为 null(并关闭文件)
+     */
+    @Override
+    public synchronized Object next() {
+        if (!channel.isOpen() || base + position >= size) {
+            close();
+            return null;
+        }
+        if (window == null) {
+            map(0);
+        }
+        int end = find(position);
+        if (end < 0 && base + window.limit() < size) {
+            // 记录跨过窗口的末尾
+            map(base + position);
+            end = find(0);
+            if (end < 0 && window.limit() == WINDOW) {
+                throw new RuntimeError("Record in '" + path + "' is longer than " + (WINDOW >> 20) + " MB.");
+            }
+        }
+        int from = position;
+        int to = end < 0 ? window.limit() : end;
+        position = end < 0 ? window.limit() : end + 1;
+        if (lines && to > from && window.get(to - 1) == '\r') {
+            to--;
+        }
+        return LoxString.view(window, from, to - from);
+    }
+
+    @Override
+    public synchronized void close() {
+        window = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeError("Cannot close file '" + path + "'.");
+        }
+    }
+
+    /**
+     * 映射文件中从 start 开始的窗口，之前的窗口由引用它的记录保持
+     */
+    private void map(long start) {
+        try {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, size - start));
+        } catch (IOException e) {
+            throw new RuntimeError("Cannot read file '" + path + "'.");
+        }
+        window.order(ByteOrder.LITTLE_ENDIAN);
+        base = start;
+        position = 0;
+    }
+
+    /**
+     * @return 窗口中从 from 开始的第一个分隔符的位置，没有时为 -1
+     */
+    private int find(int from) {
+        MappedByteBuffer buffer = window;
+        int limit = buffer.limit();
+        int i = from;
+        for (; i + Long.BYTES <= limit; i += Long.BYTES) {
+            long word = buffer.getLong(i) ^ pattern;
+            long found = (word - ONES) & ~word & HIGHS;
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < limit; i++) {
+            if (buffer.get(i) == separator) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return "<lines>";
+    }
+}
@@ -0,0 +1,257 @@
+package interpreter;
+
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * 哈希表(Map)，与 cLox 的 table.c 相同：开放地址，容量为 2 的幂，线性探测，删除时留下墓碑
+ * 每个槽位的状态在 states 中：整数和浮点数的键不装箱，存放在 numbers 中(浮点数为 doubleToLongBits)，
+ * 字符串和其它键存放在 objects 中；两个数组在出现对应的键时才分配
+ * 键按 switch 标签的方式规范化(normalize)：值为整数的浮点数转换为整数，所以 1 和 1.0 是同一个键，keys 返回整数；
+ * 其它浮点数按 doubleToLongBits 比较，与 == 的 Double.compare 一致：-0.0 与 0.0 是不同的键，所有的 NaN 是同一个键；
+ * LoxString 的键展开为 String 后存放
+ */
+final class LoxMap {
+    private static final byte EMPTY = 0;
+    private static final byte TOMBSTONE = 1;
+    private static final byte INTEGER = 2;
+    private static final byte NUMBER = 3;
+    private static final byte OBJECT = 4;
+    private static final double MAX_LOAD = 0.75;
+    private static final int MIN_CAPACITY = 8;
+
+    private byte[] states = new byte[0];
+    private long[] numbers;
+    private Object[] objects;
+    private Object[] values = new Object[0];
+    // 键的个数
+    private int count = 0;
+    // 键和墓碑的个数，决定何时扩容(保证总有空槽位，探测可以结束)
+    private int used = 0;
+
+    int size() {
+        return count;
+    }
+
+    Object get(Object key) {
+        int slot = find(key);
+        return slot < 0 ? null : values[slot];
+    }
+
+    boolean has(Object key) {
+        return find(key) >= 0;
+    }
+
+    void set(Object key, Object value) {
+        key = normalize(key);
+        if (used + 1 > states.length * MAX_LOAD) {
+            resize();
+        }
+        byte kind = kind(key);
+        long bits = bits(kind, key);
+        int mask = states.length - 1;
+        int tombstone = -1;
+        for (int index = hash(kind, bits, key) & mask; ; index = (index + 1) & mask) {
+            byte state = states[index];
+            if (state == EMPTY) {
+                int slot = index;
+                if (tombstone >= 0) {
+                    slot = tombstone;
+                } else {
+                    used++;
+                }
+                store(slot, kind, bits, key, value);
+                count++;
+                return;
+            }
+            if (state == TOMBSTONE) {
+                if (tombstone < 0) {
+                    tombstone = index;
+                }
+            } else if (state == kind && matches(index, kind, bits, key)) {
+                values[index] = value;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return 键是否存在
+     */
+    boolean delete(Object key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return false;
+        }
+        // 留下墓碑，避免打断其它键的探测序列
+        states[slot] = TOMBSTONE;
+        values[slot] = null;
+        if (objects != null) {
+            objects[slot] = null;
+        }
+        count--;
+        return true;
+    }
+
+    /**
+     * 所有的键，按槽位的顺序
+     */
+    LoxArray keys() {
+        LoxArray keys = new LoxArray(count);
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] > TOMBSTONE) {
+                keys.push(key(i));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 按槽位的顺序访问所有的键值对，不创建键的数组
+     */
+    void forEach(BiConsumer<Object, Object> action) {
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] > TOMBSTONE) {
+                action.accept(key(i), values[i]);
+            }
+        }
+    }
+
+    private Object key(int slot) {
+        switch (states[slot]) {
+            case INTEGER:
+                return numbers[slot];
+            case NUMBER:
+                return Double.longBitsToDouble(numbers[slot]);
+            default:
+                return objects[slot];
+        }
+    }
+
+    private int find(Object key) {
+        if (count == 0) {
+            return -1;
+        }
+        key = normalize(key);
+        byte kind = kind(key);
+        long bits = bits(kind, key);
+        int mask = states.length - 1;
+        for (int index = hash(kind, bits, key) & mask; ; index = (index + 1) & mask) {
+            byte state = states[index];
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == kind && matches(index, kind, bits, key)) {
+                return index;
+            }
+        }
+    }
+
+    private boolean matches(int slot, byte kind, long bits, Object key) {
+        return kind == OBJECT ? Objects.equals(objects[slot], key) : numbers[slot] == bits;
+    }
+
+    private void store(int slot, byte kind, long bits, Object key, Object value) {
+        states[slot] = kind;
+        values[slot] = value;
+        if (kind == OBJECT) {
+            if (objects == null) {
+                objects = new Object[states.length];
+            }
+            objects[slot] = key;
+        } else {
+            if (numbers == null) {
+                numbers = new long[states.length];
+            }
+            numbers[slot] = bits;
+        }
+    }
+
+    /**
+     * 按键的个数重新分配(必要时翻倍)，丢弃墓碑
+     */
+    private void resize() {
+        int capacity = Math.max(MIN_CAPACITY, states.length);
+        while (count + 1 > capacity * MAX_LOAD) {
+            capacity *= 2;
+        }
+        byte[] oldStates = states;
+        long[] oldNumbers = numbers;
+        Object[] oldObjects = objects;
+        Object[] oldValues = values;
+
+        states = new byte[capacity];
+        values = new Object[capacity];
+        numbers = oldNumbers == null ? null : new long[capacity];
+        objects = oldObjects == null ? null : new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldStates.length; i++) {
+            byte kind = oldStates[i];
+            if (kind <= TOMBSTONE) {
+                continue;
+            }
+            long bits = kind == OBJECT ? 0 : oldNumbers[i];
+            Object key = kind == OBJECT ? oldObjects[i] : null;
+            int index = hash(kind, bits, key) & mask;
+            while (states[index] != EMPTY) {
+                index = (index + 1) & mask;
+            }
+            store(index, kind, bits, key, oldValues[i]);
+        }
+        used = count;
+    }
+
+    /**
+     * 与 == 相等的数字得到相同的键：值为整数的浮点数转换为整数
+     */
+    static Object normalize(Object key) {
+        if (key instanceof LoxString) {
+            return key.toString();
+        }
+        if (key instanceof Double && isIntegral((double) key)) {
+            return (long) (double) key;
+        }
+        return key;
+    }
+
+    /**
+     * 浮点数与某个整数 == 相等；-0.0 不等于 0(== 按 Double.compare 比较)
+     */
+    static boolean isIntegral(double number) {
+        return number == Math.rint(number) && Math.abs(number) < 0x1p63 && Double.compare(number, -0.0) != 0;
+    }
+
+    private static byte kind(Object key) {
+        if (key instanceof Long) {
+            return INTEGER;
+        }
+        if (key instanceof Double) {
+            return NUMBER;
+        }
+        return OBJECT;
+    }
+
+    private static long bits(byte kind, Object key) {
+        switch (kind) {
+            case INTEGER:
+                return (long) key;
+            case NUMBER:
+                return Double.doubleToLongBits((double) key);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 乘以黄金分割数后取高位，线性探测时连续的整数键不会聚集
+     */
+    private static int hash(byte kind, long bits, Object key) {
+        long hash = kind == OBJECT ? Objects.hashCode(key) : bits;
+        return (int) ((hash * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    @Override
+    public String toString() {
+        return "<map>";
+    }
+}
@@ -0,0 +1,9 @@
+package interpreter;
+
+/**
+ * 类中的方法：调用前绑定到实例上
+ * 树遍历解释器的方法为 LoxFunction，AOT 编译后的方法为 AotFunction
+ */
+interface LoxMethod extends LoxCallable {
+    LoxCallable bind(LoxInstance instance);
+}
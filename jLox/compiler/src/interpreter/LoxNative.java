@@ -0,0 +1,23 @@
+package interpreter;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标注作为内置函数的 Java 静态方法，由 NativeMethod.bind 注册
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@interface LoxNative {
+    /**
+     * Lox 中的函数名，默认为方法名
+     */
+    String value() default "";
+
+    /**
+     * 没有副作用、结果只由参数决定：调用处可以由 Resolver 标记为 intrinsic
+     */
+    boolean pure() default false;
+}
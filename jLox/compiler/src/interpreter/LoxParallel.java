@@ -0,0 +1,145 @@
+package interpreter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 数据并行的 parallelMap/parallelReduce：把数组按下标二分，在 ForkJoinPool 上同时调用 Lox 函数
+ * 每个叶子区间在自己的解释器(Interpreter.isolate)中执行，全局变量为快照；
+ * 任务只能写入自己创建的环境(函数的参数和局部变量)，写入捕获的变量或全局变量时报告错误，不会丢失或产生数据竞争
+ * 数组、Map 和实例仍然是共享的，任务中修改它们没有同步
+ * <p>
+ * 区间的划分只由数组长度决定(最多 MAX_LEAVES 个叶子)，与 CPU 核数无关，
+ * reduce 在叶子内从左到右合并，叶子之间按划分树合并，函数满足结合律时结果与顺序执行相同且每次一致
+ */
+final class LoxParallel {
+    private static final int MAX_LEAVES = 64;
+
+    private LoxParallel() {
+    }
+
+    /**
+     * @return 新数组，第 i 个元素为 function(array[i])
+     */
+    static LoxArray map(Interpreter interpreter, Object function, LoxArray array) {
+        LoxCallable callable = callable(function, 1, "parallelMap");
+        // 先在调用者的线程中取出元素，函数修改原数组不影响其它任务读到的值
+        Object[] elements = elements(array);
+        Object[] results = new Object[elements.length];
+        ForkJoinPool.commonPool().invoke(new MapTask(interpreter, callable, elements, results,
+                0, elements.length, leafSize(elements.length)));
+        return LoxArray.of(Arrays.asList(results));
+    }
+
+    /**
+     * @return function(function(array[0], array[1]), ...)，数组不能为空
+     */
+    static Object reduce(Interpreter interpreter, Object function, LoxArray array) {
+        LoxCallable callable = callable(function, 2, "parallelReduce");
+        Object[] elements = elements(array);
+        if (elements.length == 0) {
+            throw new RuntimeError("Array must not be empty.");
+        }
+        return ForkJoinPool.commonPool().invoke(new ReduceTask(interpreter, callable, elements,
+                0, elements.length, leafSize(elements.length)));
+    }
+
+    private static LoxCallable callable(Object function, int arity, String name) {
+        if (!(function instanceof LoxCallable) || ((LoxCallable) function).arity() != arity) {
+            throw new RuntimeError(name + " expects a function with " + arity
+                    + (arity == 1 ? " parameter." : " parameters."));
+        }
+        return (LoxCallable) function;
+    }
+
+    private static Object[] elements(LoxArray array) {
+        Object[] elements = new Object[array.length()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = array.get(i);
+        }
+        return elements;
+    }
+
+    private static int leafSize(int n) {
+        return Math.max(1, (n + MAX_LEAVES - 1) / MAX_LEAVES);
+    }
+
+    private static final class MapTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Interpreter interpreter;
+        private final LoxCallable function;
+        private final Object[] elements;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        MapTask(Interpreter interpreter, LoxCallable function, Object[] elements, Object[] results,
+                int from, int to, int leafSize) {
+            this.interpreter = interpreter;
+            this.function = function;
+            this.elements = elements;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= leafSize) {
+                Interpreter worker = interpreter.isolate();
+                for (int i = from; i < to; i++) {
+                    results[i] = function.call(worker, Collections.singletonList(elements[i]));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new MapTask(interpreter, function, elements, results, from, middle, leafSize),
+                    new MapTask(interpreter, function, elements, results, middle, to, leafSize));
+        }
+    }
+
+    private static final class ReduceTask extends RecursiveTask<Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final Interpreter interpreter;
+        private final LoxCallable function;
+        private final Object[] elements;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        ReduceTask(Interpreter interpreter, LoxCallable function, Object[] elements,
+                   int from, int to, int leafSize) {
+            this.interpreter = interpreter;
+            this.function = function;
+            this.elements = elements;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        protected Object compute() {
+            if (to - from <= leafSize) {
+                Interpreter worker = interpreter.isolate();
+                Object result = elements[from];
+                for (int i = from + 1; i < to; i++) {
+                    result = function.call(worker, Arrays.asList(result, elements[i]));
+                }
+                return result;
+            }
+            int middle = (from + to) >>> 1;
+            ReduceTask left = new ReduceTask(interpreter, function, elements, from, middle, leafSize);
+            ReduceTask right = new ReduceTask(interpreter, function, elements, middle, to, leafSize);
+            right.fork();
+            Object value = left.compute();
+            return function.call(interpreter.isolate(), Arrays.asList(value, right.join()));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package interpreter;
+
+import interpreter.ir.PassManager;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 编译好的程序：语法树以及语义分析、类型推导的结果
+ * 编译之后只读，可以同时在多个 LoxContext 中执行，每次执行有自己的全局变量、错误和输出
+ * <p>
+ * 语法树节点上执行时写入的只有缓存和计数：深度缓存、显式栈的代码、分层执行的计数和升级后的 IR。
+ * 缓存的内容与由哪次执行写入无关，计数只是近似值，升级在节点上同步且 IR 由 volatile 字段发布，
+ * 因此并发执行时不需要其它同步
+ */
+public final class LoxProgram {
+    final List<Stmt> statements;
+    final Map<Expr, Integer> locals;
+    final Set<Token> captured;
+
+    private LoxProgram(List<Stmt> statements, Map<Expr, Integer> locals, Set<Token> captured) {
+        this.statements = Collections.unmodifiableList(statements);
+        this.locals = Collections.unmodifiableMap(locals);
+        this.captured = Collections.unmodifiableSet(captured);
+    }
+
+    /**
+     * 编译源代码
+     *
+     * @param source 源代码
+     * @param errors 报告编译错误
+     * @return 编译好的程序，有编译错误时返回 null
+     */
+    public static LoxProgram compile(String source, ErrorReporter errors) {
+        List<Token> tokens = new Scanner(source, errors).scanTokens();
+        List<Stmt> statements = new Parser(tokens, errors).parse();
+        if (errors.hadCompileError() || statements == null) {
+            return null;
+        }
+        Map<Expr, Integer> locals = new HashMap<>();
+        Set<Token> captured = new HashSet<>();
+        // 只用于语义分析，不执行
+        Interpreter resolving = new Interpreter(Interpreter.natives(), locals, captured, errors, System.out);
+        new Resolver(resolving).resolve(statements);
+        if (errors.hadCompileError()) {
+            return null;
+        }
+        new TypeInference().infer(statements);
+        if (Boolean.getBoolean("lox.ir")) {
+            IrBuilder.compile(resolving, statements, PassManager.standard());
+        }
+        return new LoxProgram(statements, locals, captured);
+    }
+
+    /**
+     * AOT 编译为可执行的 jar，与命令行的 aot 相同
+     *
+     * @param className 生成的主类名
+     * @param jar       输出的 jar 文件
+     * @param errors    报告翻译时的警告
+     * @return 是否成功，失败的原因输出到 System.err
+     */
+    public boolean compileJar(String className, Path jar, ErrorReporter errors) throws IOException {
+        Interpreter compiling = new Interpreter(Interpreter.natives(), locals, captured, errors, System.out);
+        return AotCompiler.compile(compiling, statements, className, jar);
+    }
+
+    /**
+     * 在 context 中执行的解释器，共享语义分析的结果
+     */
+    Interpreter interpreter(LoxContext context) {
+        return new Interpreter(context.globals, locals, captured, context.errors, context.out);
+    }
+}
@@ -0,0 +1,167 @@
+package interpreter;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 正则表达式的内置函数(match、find、replace、split)，使用 java.util.regex
+ * 编译的 Pattern 按表达式字符串缓存在有界的 LRU 表中，循环中使用的表达式只编译一次
+ * <p>
+ * Matcher 直接读取 Lox 的字符串(String 或 LoxString)，匹配到的一段由 LoxString.slice 得到：
+ * 长的结果引用原来的字符串，不复制
+ */
+final class LoxRegex {
+    private static final int CAPACITY = 256;
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+    // accessOrder 为 true：get 把条目移到末尾，超过容量时删除最久没有使用的
+    private static final Map<String, Pattern> cache = new LinkedHashMap<String, Pattern>(CAPACITY, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+            if (size() > CAPACITY) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private LoxRegex() {
+    }
+
+    /**
+     * 编译过的表达式；缓存由并行的解释器共享，访问时加锁，编译在锁外
+     */
+    static Pattern compile(String regex) {
+        Pattern pattern;
+        synchronized (cache) {
+            pattern = cache.get(regex);
+        }
+        if (pattern != null) {
+            hits.increment();
+            return pattern;
+        }
+        misses.increment();
+        try {
+            pattern = Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            throw new RuntimeError("Invalid regular expression '" + regex + "': " + e.getDescription() + ".");
+        }
+        synchronized (cache) {
+            cache.put(regex, pattern);
+        }
+        return pattern;
+    }
+
+    /**
+     * 整个字符串匹配时返回各组([0] 为整个字符串，没有参与匹配的组为 NULL)，否则为 NULL
+     */
+    static Object match(Object string, String regex) {
+        Matcher matcher = compile(regex).matcher(chars(string));
+        return matcher.matches() ? groups(string, matcher) : null;
+    }
+
+    /**
+     * 所有不重叠的匹配
+     */
+    static LoxArray find(Object string, String regex) {
+        Matcher matcher = compile(regex).matcher(chars(string));
+        LoxArray found = new LoxArray(0);
+        while (matcher.find()) {
+            found.push(LoxString.slice(string, matcher.start(), matcher.end()));
+        }
+        return found;
+    }
+
+    /**
+     * 替换所有匹配，replacement 中的 $1 为第 1 组；没有匹配时返回原来的字符串
+     */
+    static Object replace(Object string, String regex, String replacement) {
+        Matcher matcher = compile(regex).matcher(chars(string));
+        if (!matcher.find()) {
+            return string;
+        }
+        try {
+            return matcher.replaceAll(replacement);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new RuntimeError("Invalid replacement '" + replacement + "': " + e.getMessage() + ".");
+        }
+    }
+
+    /**
+     * 以匹配为分隔拆分，保留空的片段；开头和末尾的空匹配不产生片段
+     */
+    static LoxArray split(Object string, String regex) {
+        CharSequence chars = chars(string);
+        Matcher matcher = compile(regex).matcher(chars);
+        LoxArray parts = new LoxArray(0);
+        int start = 0;
+        while (matcher.find()) {
+            if (matcher.end() == 0 || matcher.start() == chars.length() && matcher.end() == matcher.start()) {
+                continue;
+            }
+            parts.push(LoxString.slice(string, start, matcher.start()));
+            start = matcher.end();
+        }
+        parts.push(LoxString.slice(string, start, chars.length()));
+        return parts;
+    }
+
+    private static LoxArray groups(Object string, Matcher matcher) {
+        LoxArray groups = new LoxArray(matcher.groupCount() + 1);
+        for (int i = 0; i <= matcher.groupCount(); i++) {
+            int start = matcher.start(i);
+            groups.push(start < 0 ? null : LoxString.slice(string, start, matcher.end(i)));
+        }
+        return groups;
+    }
+
+    private static CharSequence chars(Object value) {
+        if (!LoxString.isString(value)) {
+            throw new RuntimeError("Operand must be a string.");
+        }
+        return (CharSequence) value;
+    }
+
+    private static int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    private static double hitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0.0 : (double) hit / total;
+    }
+
+    /**
+     * 内置函数 regexCacheStats 的结果：size、capacity、hits、misses、evictions、hitRate
+     */
+    static LoxMap statistics() {
+        LoxMap statistics = new LoxMap();
+        statistics.set("size", (long) size());
+        statistics.set("capacity", (long) CAPACITY);
+        statistics.set("hits", hits.sum());
+        statistics.set("misses", misses.sum());
+        statistics.set("evictions", evictions.sum());
+        statistics.set("hitRate", hitRate());
+        return statistics;
+    }
+
+    /**
+     * -Dlox.regex.stats=true 时由命令行在执行之后调用
+     */
+    static void printStatistics(PrintStream out) {
+        out.println("REGEX CACHE");
+        out.println("size: " + size() + "/" + CAPACITY + ", hits: " + hits.sum() + ", misses: " + misses.sum()
+                + ", evictions: " + evictions.sum() + String.format(", hit rate: %.1f%%", hitRate() * 100));
+    }
+}
@@ -0,0 +1,74 @@
+package interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 并发执行多个程序，每个任务在自己的 LoxContext 中执行
+ * 线程由 ExecutorService 管理：默认为每个处理器一个线程的线程池，也可以传入其它的实现(比如虚拟线程)
+ */
+public final class LoxRuntime implements AutoCloseable {
+    private final ExecutorService executor;
+    // 默认的线程池由 LoxRuntime 关闭，传入的由调用者关闭
+    private final boolean owned;
+
+    public LoxRuntime() {
+        this(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()), true);
+    }
+
+    public LoxRuntime(ExecutorService executor) {
+        this(executor, false);
+    }
+
+    private LoxRuntime(ExecutorService executor, boolean owned) {
+        this.executor = executor;
+        this.owned = owned;
+    }
+
+    /**
+     * 在指定的 context 中执行，结果为是否没有发生运行错误
+     */
+    public Future<Boolean> submit(LoxProgram program, LoxContext context) {
+        return executor.submit(() -> context.run(program));
+    }
+
+    /**
+     * 在新的 context 中执行，收集输出和错误
+     */
+    public Future<Result> submit(LoxProgram program) {
+        return executor.submit(() -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            LoxContext context = new LoxContext(new PrintStream(out, false, StandardCharsets.UTF_8),
+                    new PrintStream(err, false, StandardCharsets.UTF_8));
+            boolean success = context.run(program);
+            return new Result(success, out.toString(StandardCharsets.UTF_8), err.toString(StandardCharsets.UTF_8));
+        });
+    }
+
+    @Override
+    public void close() {
+        if (owned) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 一次执行的结果
+     */
+    public static final class Result {
+        public final boolean success;
+        public final String output;
+        public final String errors;
+
+        Result(boolean success, String output, String errors) {
+            this.success = success;
+            this.output = output;
+            this.errors = errors;
+        }
+    }
+}
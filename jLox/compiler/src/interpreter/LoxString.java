@@ -0,0 +1,208 @@
+package interpreter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * 长字符串的拼接结果(rope)、String 的一段(slice)和文件映射中的一段 UTF-8 字节(view)
+ * 拼接只创建节点，O(1)；第一次需要全部内容时(输出、比较、作为 Map 的 key)才展开为 String，之后使用展开的结果
+ * 结果不超过 SHORT 个字符的拼接直接得到 String，所以大多数字符串值仍然是 String
+ * <p>
+ * 运行时的字符串值是 String 或 LoxString：判断类型用 isString，按内容比较和作为 key 时用 plain 转换为 String
+ * hashCode 是展开后 String 的 hashCode(由 String 缓存)，与内容相同的 String 一致
+ * view 在第一次需要内容或长度时才解码，只被跳过的行不解码
+ */
+final class LoxString implements CharSequence {
+    private static final int SHORT = 64;
+
+    // view 解码之前为 -1
+    private volatile int length;
+    // slice 引用的 String 和开始位置，拼接的节点为 null
+    private final String source;
+    private final int offset;
+    // view 引用的字节和字节数，从 offset 开始
+    private final ByteBuffer bytes;
+    private final int byteLength;
+    // 拼接的两边(String 或 LoxString)，展开后置为 null，不再引用整棵树
+    private volatile Object left;
+    private volatile Object right;
+    private volatile String flat;
+
+    private LoxString(Object left, Object right, int length) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+        this.source = null;
+        this.offset = 0;
+        this.bytes = null;
+        this.byteLength = 0;
+    }
+
+    private LoxString(String source, int offset, int length) {
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+        this.bytes = null;
+        this.byteLength = 0;
+    }
+
+    private LoxString(ByteBuffer bytes, int offset, int byteLength) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.byteLength = byteLength;
+        this.length = -1;
+        this.source = null;
+    }
+
+    /**
+     * bytes 中 [offset, offset + byteLength) 的 UTF-8 字符串，不复制
+     */
+    static LoxString view(ByteBuffer bytes, int offset, int byteLength) {
+        return new LoxString(bytes, offset, byteLength);
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof LoxString;
+    }
+
+    /**
+     * LoxString 展开为 String，其它值不变
+     */
+    static Object plain(Object value) {
+        return value instanceof LoxString ? value.toString() : value;
+    }
+
+    /**
+     * 两个字符串(String 或 LoxString)的拼接
+     */
+    static Object concat(Object left, Object right) {
+        int leftLength = ((CharSequence) left).length();
+        int rightLength = ((CharSequence) right).length();
+        if (leftLength == 0) {
+            return right;
+        }
+        if (rightLength == 0) {
+            return left;
+        }
+        int length = leftLength + rightLength;
+        if (length < 0) {
+            throw new RuntimeError("String is too long.");
+        }
+        if (length <= SHORT) {
+            return left.toString() + right;
+        }
+        return new LoxString(left, right, length);
+    }
+
+    /**
+     * 字符串中 [start, end) 的一段，下标由调用者检查；长的结果不复制字符
+     */
+    static Object slice(Object string, int start, int end) {
+        int length = end - start;
+        if (string instanceof LoxString && ((LoxString) string).source != null) {
+            LoxString slice = (LoxString) string;
+            return slice(slice.source, slice.offset + start, slice.offset + end);
+        }
+        String text = string.toString();
+        if (length <= SHORT || length == text.length()) {
+            return text.substring(start, end);
+        }
+        return new LoxString(text, start, length);
+    }
+
+    @Override
+    public int length() {
+        int n = length;
+        return n >= 0 ? n : toString().length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (source != null) {
+            return source.charAt(offset + index);
+        }
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return (CharSequence) slice(this, start, end);
+    }
+
+    @Override
+    public String toString() {
+        String text = flat;
+        return text != null ? text : flatten();
+    }
+
+    /**
+     * 不递归：循环中逐个拼接得到的 rope 深度与片段数相同
+     * 其它线程可能同时展开子节点：先写入 flat 再清空 left/right，读到 null 时 flat 一定可见
+     */
+    private synchronized String flatten() {
+        if (flat != null) {
+            return flat;
+        }
+        if (bytes != null) {
+            byte[] data = new byte[byteLength];
+            bytes.get(offset, data);
+            String text = new String(data, StandardCharsets.UTF_8);
+            flat = text;
+            length = text.length();
+            return text;
+        }
+        char[] chars = new char[length];
+        int position = 0;
+        ArrayDeque<Object> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            Object part = pending.pop();
+            if (part instanceof String) {
+                String text = (String) part;
+                text.getChars(0, text.length(), chars, position);
+                position += text.length();
+                continue;
+            }
+            LoxString node = (LoxString) part;
+            if (node.bytes != null) {
+                pending.push(node.toString());
+                continue;
+            }
+            if (node.source != null) {
+                node.source.getChars(node.offset, node.offset + node.length, chars, position);
+                position += node.length;
+                continue;
+            }
+            Object left = node.left;
+            Object right = node.right;
+            if (node != this && (left == null || right == null || node.flat != null)) {
+                pending.push(node.flat);
+                continue;
+            }
+            pending.push(right);
+            pending.push(left);
+        }
+        String text = new String(chars);
+        flat = text;
+        left = null;
+        right = null;
+        return text;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!isString(other) || ((CharSequence) other).length() != length()) {
+            return false;
+        }
+        return toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -0,0 +1,129 @@
+package interpreter;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * spawn 创建的任务，await 等待它结束并得到函数的返回值
+ * 任务在自己的解释器(Interpreter.fork)中执行：全局变量是 spawn 时的快照，
+ * 只有作为参数、闭包或全局变量的值传入的对象(比如 channel)在任务之间共享
+ * <p>
+ * 任务中的 runtime error 由 await 重新抛出；程序执行结束时还没有被 await 的失败任务
+ * (以及之后才失败的任务)由 context 的 ErrorReporter 报告，错误不会被悄悄丢掉。
+ * 其它异常(如 JVM 栈溢出)同样记录为任务的失败，报告和 await 时转换为 RuntimeError
+ * <p>
+ * JVM 支持虚拟线程(JDK 21+)时每个任务一个虚拟线程，否则使用按需创建的守护线程
+ */
+final class LoxTask {
+    private static final ExecutorService executor = newExecutor();
+
+    private final ErrorReporter errors;
+    // 还可能需要报告的任务：成功结束或被 await 后移除
+    private final Set<LoxTask> pending;
+    private volatile Future<Object> result;
+    // 以下状态在 this 上同步
+    private Throwable failure;
+    // 调用过 await，错误由 await 抛出
+    private boolean observed = false;
+    // 创建任务的程序已经执行结束，之后不会再有 await
+    private boolean abandoned = false;
+
+    private LoxTask(ErrorReporter errors, Set<LoxTask> pending) {
+        this.errors = errors;
+        this.pending = pending;
+    }
+
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "lox-task");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * 在新的任务中调用没有参数的函数
+     */
+    static LoxTask spawn(Interpreter interpreter, Object function) {
+        if (!(function instanceof LoxCallable) || ((LoxCallable) function).arity() != 0) {
+            throw new RuntimeError("Can only spawn functions with no parameters.");
+        }
+        Interpreter task = interpreter.fork();
+        LoxTask loxTask = new LoxTask(interpreter.errors, interpreter.tasks);
+        interpreter.tasks.add(loxTask);
+        loxTask.result = executor.submit(() -> {
+            try {
+                Object value = ((LoxCallable) function).call(task, List.of());
+                loxTask.pending.remove(loxTask);
+                return value;
+            } catch (Throwable error) {
+                loxTask.fail(error);
+                throw error;
+            }
+        });
+        return loxTask;
+    }
+
+    private synchronized void fail(Throwable error) {
+        failure = error;
+        if (abandoned && !observed) {
+            errors.taskError(runtimeError(error));
+        }
+    }
+
+    // 不是 RuntimeError 的失败没有行号，信息中带上异常的类型
+    private static RuntimeError runtimeError(Throwable error) {
+        if (error instanceof RuntimeError) {
+            return (RuntimeError) error;
+        }
+        return new RuntimeError("Task failed: " + error + ".");
+    }
+
+    /**
+     * 程序执行结束：已经失败而没有被 await 的任务现在报告，还在执行的任务失败时报告
+     */
+    static void abandon(Set<LoxTask> tasks) {
+        for (LoxTask task : tasks) {
+            task.abandon();
+            tasks.remove(task);
+        }
+    }
+
+    private synchronized void abandon() {
+        abandoned = true;
+        if (failure != null && !observed) {
+            errors.taskError(runtimeError(failure));
+        }
+    }
+
+    /**
+     * 等待任务结束，任务中的 runtime error 在这里重新抛出
+     */
+    Object await() {
+        synchronized (this) {
+            observed = true;
+        }
+        pending.remove(this);
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError("Interrupted while awaiting a task.");
+        } catch (ExecutionException e) {
+            throw runtimeError(e.getCause());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+}
@@ -0,0 +1,58 @@
+package interpreter;
+
+/**
+ * 类型推导中使用的静态类型
+ * NONE 表示还没有任何值流入(推导的初始状态)，UNKNOWN 表示可能是多种类型
+ * NUMBER 为浮点数(Double)，INTEGER 为 64 位整数(Long)
+ */
+public enum LoxType {
+    NONE, NUMBER, INTEGER, STRING, BOOL, NIL, UNKNOWN;
+
+    /**
+     * 两个类型的最小上界
+     *
+     * @param other LoxType
+     * @return LoxType
+     */
+    LoxType join(LoxType other) {
+        if (this == NONE) {
+            return other;
+        }
+        if (other == NONE || other == this) {
+            return this;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * 根据字面量的值得到类型
+     *
+     * @param value Object
+     * @return LoxType
+     */
+    static LoxType of(Object value) {
+        if (value == null) {
+            return NIL;
+        }
+        if (value instanceof Double) {
+            return NUMBER;
+        }
+        if (value instanceof Long) {
+            return INTEGER;
+        }
+        if (LoxString.isString(value)) {
+            return STRING;
+        }
+        if (value instanceof Boolean) {
+            return BOOL;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * 是否为数字(整数或浮点数)
+     */
+    boolean isNumeric() {
+        return this == NUMBER || this == INTEGER;
+    }
+}
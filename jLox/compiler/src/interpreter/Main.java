@@ -1,6 +1,8 @@
 package interpreter;
 // run ./src/interpreter/test.txt
 
+import interpreter.ir.PassManager;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -11,12 +13,19 @@ import java.text.ParseException;
 import java.util.List;
 
 public class Main {
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadCompileError = false;
-    static boolean hadRuntimeError = false;
+    // 命令行的错误报告和解释器，REPL 的各次输入共享全局变量
+    private static final ErrorReporter errors = new ErrorReporter(System.err);
+    private static final Interpreter interpreter = new Interpreter(errors, System.out);
+    // -Dlox.ir=true 时将函数降低为 SSA IR 优化后执行，-Dlox.ir.dump=true 输出每一步的 IR
+    private static final boolean compileIr = Boolean.getBoolean("lox.ir");
+    private static final boolean dumpIr = Boolean.getBoolean("lox.ir.dump");
+    // -Dlox.strings.stats=true 时在每次执行之后输出字符串驻留表的大小和命中率
+    private static final boolean stringStatistics = Boolean.getBoolean("lox.strings.stats");
+    // -Dlox.regex.stats=true 时在每次执行之后输出正则表达式缓存的大小和命中率
+    private static final boolean regexStatistics = Boolean.getBoolean("lox.regex.stats");
     // 命令字符串，用于识别命令
     // 后续扩展：可加一个C风格的函数指针数组？不太确定Java是否有类似的用法
-    private static final String[] commands = {"run", "setPath", "lrParse"}; // 运行 设置路径 LR分析
+    private static final String[] commands = {"run", "setPath", "lrParse", "aot"}; // 运行 设置路径 LR分析 AOT编译
     private static String defaultFilePath = System.getProperty("user.dir");
 
     public static void main(String[] args) throws IOException {
@@ -35,7 +44,7 @@ public class Main {
             }
             String[] tokens = line.split(" ");
             runPrompt(tokens, line);
-            hadCompileError = false;
+            errors.reset();
             // 此处sleep是为了让 err 输出流输出完
             try {
                 Thread.sleep(100);
@@ -48,49 +57,106 @@ public class Main {
     private static void runPrompt(String[] args, String line) throws IOException { // 实时运行命令
         if (args[0].equals(commands[0])) { // run path
             if (args.length == 2) {
-                boolean absolute_route = false;
-                if (args[1].length() > 3) {
-                    if ((
-                            'a' < args[1].charAt(0) && args[1].charAt(0) < 'z' ||
-                                    'A' < args[1].charAt(0) && args[1].charAt(0) < 'Z') &&
-                            args[1].charAt(1) == ':' &&
-                            args[1].charAt(2) == '\\'
-                    ) absolute_route = true;
-                }
-                String filePath;
-                if (absolute_route) {
-                    filePath = args[1];
-                } else {
-                    filePath = defaultFilePath + "\\" + args[1];
-                    System.out.println("file path is " + filePath);
-                }
-                runFile(filePath);
+                runFile(filePath(args[1]));
             } else {
                 System.out.println("Usage: run <.c file path>"); // 参数错误
                 // System.exit(64);
             }
+        } else if (args[0].equals(commands[3])) { // aot path [jar]
+            if (args.length == 2 || args.length == 3) {
+                String filePath = filePath(args[1]);
+                compileFile(filePath, args.length == 3 ? filePath(args[2]) : withoutExtension(filePath) + ".jar");
+            } else {
+                System.out.println("Usage: aot <.c file path> [.jar file path]"); // 参数错误
+            }
         } else {
             run(line);
         }
     }
 
+    private static String filePath(String arg) { // 相对路径时以 defaultFilePath 为起点
+        boolean absolute_route = false;
+        if (arg.length() > 3) {
+            if ((
+                    'a' < arg.charAt(0) && arg.charAt(0) < 'z' ||
+                            'A' < arg.charAt(0) && arg.charAt(0) < 'Z') &&
+                    arg.charAt(1) == ':' &&
+                    arg.charAt(2) == '\\'
+            ) absolute_route = true;
+        }
+        if (absolute_route) {
+            return arg;
+        }
+        String filePath = defaultFilePath + "\\" + arg;
+        System.out.println("file path is " + filePath);
+        return filePath;
+    }
+
     private static void runFile(String path) throws IOException { // 读取源文件的代码
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        run(new String(bytes, Charset.defaultCharset()), Profile.enabled());
+    }
+
+    private static void run(String source) {
+        run(source, false);
+    }
+
+    private static void compileFile(String path, String jar) throws IOException { // AOT 编译为可执行的 jar
+        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        Scanner scanner = new Scanner(new String(bytes, Charset.defaultCharset()), errors);
+        List<Token> tokens = scanner.scanTokens();
+        scanner.printStatistics(System.out);
+        List<Stmt> statements = new Parser(tokens, errors).parse();
+        if (errors.hadCompileError() || statements == null) {
+            errors.summary("Compile Error");
+            errors.reset();
+            return;
+        }
+        // 与解释执行的全局状态分开
+        Interpreter compiling = new Interpreter(errors, System.out);
+        new Resolver(compiling).resolve(statements);
+        if (errors.hadCompileError()) {
+            errors.summary("Compile Error");
+            errors.reset();
+            return;
+        }
+        new TypeInference().infer(statements);
+        if (AotCompiler.compile(compiling, statements, className(path), Paths.get(jar))) {
+            System.out.println("compiled to " + jar + ", run with java -jar " + jar);
+        }
     }
 
-    private static void run(String source) { // 运行
+    private static String withoutExtension(String path) {
+        int dot = path.lastIndexOf('.');
+        return dot > Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) ? path.substring(0, dot) : path;
+    }
+
+    private static String className(String path) { // 文件名 -> 合法的 Java 类名
+        String name = withoutExtension(path);
+        name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+        StringBuilder out = new StringBuilder();
+        for (char c : name.toCharArray()) {
+            out.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        if (out.length() == 0 || !Character.isJavaIdentifierStart(out.charAt(0))) {
+            out.insert(0, "Lox_");
+        }
+        return out.toString();
+    }
+
+    private static void run(String source, boolean profiled) { // 运行，profiled 时读写源代码的类型反馈
         // ************************************* 词法分析
-        Scanner scanner = new Scanner(source);
+        Scanner scanner = new Scanner(source, errors);
         List<Token> tokens = scanner.scanTokens();
+        scanner.printStatistics(System.out);
 
         // ************************************* 语法分析
-        Parser parser = new Parser(tokens);
+        Parser parser = new Parser(tokens, errors);
         List<Stmt> statements = parser.parse();
 
-        if (hadCompileError) { // 编译错误
-            System.err.println("Compile Error");
-            hadCompileError = false;
+        if (errors.hadCompileError()) { // 编译错误
+            errors.summary("Compile Error");
+            errors.reset();
             return;
         }
         // ************************************* 执行
@@ -98,40 +164,37 @@ public class Main {
             // 语义分析
             Resolver resolver = new Resolver(interpreter);
             resolver.resolve(statements);
-            if (hadCompileError) { // 编译错误
-                System.err.println("Compile Error");
-                hadCompileError = false;
+            if (errors.hadCompileError()) { // 编译错误
+                errors.summary("Compile Error");
+                errors.reset();
                 return;
             }
+            // 类型推导
+            new TypeInference().infer(statements);
+            if (compileIr) {
+                PassManager passes = PassManager.standard();
+                if (dumpIr) {
+                    passes.dumpTo(System.out);
+                }
+                IrBuilder.compile(interpreter, statements, passes);
+            }
+            Profile profile = profiled ? Profile.load(interpreter, source, statements) : null;
             // 解释
             interpreter.interpreter(statements);
+            if (profile != null) {
+                profile.save();
+            }
+            if (stringStatistics) {
+                StringTable.printStatistics(System.err);
+            }
+            if (regexStatistics) {
+                LoxRegex.printStatistics(System.err);
+            }
         }
 
-        if (hadRuntimeError) { // 运行错误
-            System.err.println("Runtime Error");
-            hadRuntimeError = false;
-        }
-    }
-
-    // 报告错误
-    public static void report(int line, String where, String message) {
-        System.err.println(
-                "[line " + line + "] Error " + where + ": " + message);
-        hadCompileError = true;
-    }
-
-    // 错误函数:Token+错误信息
-    public static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, "at end", message);
-        } else {
-            report(token.line, "at '" + token.lexeme + "'", message);
+        if (errors.hadRuntimeError()) { // 运行错误
+            errors.summary("Runtime Error");
+            errors.reset();
         }
     }
-
-    // 报告运行时的语义错误
-    public static void runtimeError(RuntimeError error) {
-        report(error.token.line, "runTime\n", error.getMessage());
-        hadRuntimeError = true;
-    }
-}
\ No newline at end of file
+}
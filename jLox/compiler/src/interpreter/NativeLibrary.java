@@ -0,0 +1,474 @@
+package interpreter;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * 由 @LoxNative 绑定的内置函数
+ * 参数为 double 时接受整数和浮点数，返回 double 的函数结果为浮点数
+ */
+final class NativeLibrary {
+    private NativeLibrary() {
+    }
+
+    @LoxNative
+    static double clock() {
+        return (double) System.currentTimeMillis() / 1000.0;
+    }
+
+    /**
+     * 字符串驻留表的大小和命中率
+     */
+    @LoxNative
+    static Object stringTableStats() {
+        return StringTable.statistics();
+    }
+
+    //---------------任务和 channel------------------//
+
+    /**
+     * 在新的任务中调用没有参数的函数，任务使用全局变量的快照
+     */
+    @LoxNative
+    static Object spawn(Interpreter interpreter, Object function) {
+        return LoxTask.spawn(interpreter, function);
+    }
+
+    @LoxNative
+    static Object await(Object task) {
+        if (!(task instanceof LoxTask)) {
+            throw new RuntimeError("Can only await tasks.");
+        }
+        return ((LoxTask) task).await();
+    }
+
+    @LoxNative
+    static Object channel(Object capacity) {
+        return new LoxChannel(NativeMethod.count(capacity, "Capacity"));
+    }
+
+    @LoxNative
+    static void send(Object channel, Object value) {
+        toChannel(channel).send(value);
+    }
+
+    @LoxNative
+    static Object receive(Object channel) {
+        return toChannel(channel).receive();
+    }
+
+    @LoxNative
+    static Object parallelMap(Interpreter interpreter, Object function, Object array) {
+        return LoxParallel.map(interpreter, function, array(array));
+    }
+
+    @LoxNative
+    static Object parallelReduce(Interpreter interpreter, Object function, Object array) {
+        return LoxParallel.reduce(interpreter, function, array(array));
+    }
+
+    private static LoxChannel toChannel(Object value) {
+        if (!(value instanceof LoxChannel)) {
+            throw new RuntimeError("Operand must be a channel.");
+        }
+        return (LoxChannel) value;
+    }
+
+    //---------------字符串------------------//
+
+    /**
+     * [start, end) 的一段，长的结果引用原来的字符串
+     */
+    @LoxNative(pure = true)
+    static Object substring(Object string, Object start, Object end) {
+        CharSequence chars = string(string);
+        int from = NativeMethod.count(start, "Start");
+        int to = NativeMethod.count(end, "End");
+        if (from > to || to > chars.length()) {
+            throw new RuntimeError("Substring range out of bounds.");
+        }
+        return LoxString.slice(chars, from, to);
+    }
+
+    private static CharSequence string(Object value) {
+        if (!LoxString.isString(value)) {
+            throw new RuntimeError("Operand must be a string.");
+        }
+        return (CharSequence) value;
+    }
+
+    //---------------数组和 Map------------------//
+
+    @LoxNative
+    static void push(Object array, Object value) {
+        array(array).push(value);
+    }
+
+    /**
+     * 字符串、数组或 Map 的长度
+     */
+    @LoxNative
+    static Object len(Object value) {
+        if (LoxString.isString(value)) {
+            return (long) ((CharSequence) value).length();
+        }
+        return (long) (value instanceof LoxMap ? ((LoxMap) value).size() : array(value).length());
+    }
+
+    @LoxNative("Map")
+    static Object newMap() {
+        return new LoxMap();
+    }
+
+    @LoxNative
+    static boolean has(Object map, Object key) {
+        return map(map).has(key);
+    }
+
+    @LoxNative
+    static boolean delete(Object map, Object key) {
+        return map(map).delete(key);
+    }
+
+    @LoxNative
+    static Object keys(Object map) {
+        return map(map).keys();
+    }
+
+    private static LoxArray array(Object value) {
+        if (!(value instanceof LoxArray)) {
+            throw new RuntimeError("Operand must be an array.");
+        }
+        return (LoxArray) value;
+    }
+
+    private static LoxMap map(Object value) {
+        if (!(value instanceof LoxMap)) {
+            throw new RuntimeError("Operand must be a map.");
+        }
+        return (LoxMap) value;
+    }
+
+    //---------------数值数组的批量运算------------------//
+
+    /**
+     * 整数数组的和为整数(溢出时为浮点数)，否则为浮点数；dot、min、max、prefixSum 相同
+     */
+    @LoxNative
+    static Object sum(Object array) {
+        long[] integers = VectorOps.integers(array);
+        if (integers != null) {
+            return VectorOps.sum(integers, VectorOps.length(array));
+        }
+        return VectorOps.sum(VectorOps.numbers(array), VectorOps.length(array));
+    }
+
+    @LoxNative
+    static Object dot(Object a, Object b) {
+        long[] left = VectorOps.integers(a);
+        long[] right = VectorOps.integers(b);
+        if (left != null && right != null) {
+            return VectorOps.dot(left, right, VectorOps.sameLength(a, b));
+        }
+        return VectorOps.dot(VectorOps.numbers(a), VectorOps.numbers(b), VectorOps.sameLength(a, b));
+    }
+
+    /**
+     * y = alpha * x + y，原地修改 y
+     * alpha、x、y 都是整数时 y 仍为整数数组；有元素溢出或参与运算的有浮点数时 y 的元素变为浮点数
+     */
+    @LoxNative
+    static Object axpy(Object alpha, Object x, Object y) {
+        double scale = VectorOps.number(alpha);
+        long[] xs = VectorOps.integers(x);
+        long[] ys = VectorOps.integers(y);
+        if (alpha instanceof Long && xs != null && ys != null) {
+            long[] result = VectorOps.axpy((long) alpha, xs, ys, VectorOps.sameLength(x, y));
+            if (result != null) {
+                ((LoxArray) y).setIntegers(result);
+                return y;
+            }
+        }
+        double[] numbers = VectorOps.numbers(x);
+        double[] target = VectorOps.numbers(y);
+        VectorOps.axpy(scale, numbers, target, VectorOps.sameLength(x, y));
+        ((LoxArray) y).setNumbers(target);
+        return y;
+    }
+
+    @LoxNative
+    static Object vadd(Object a, Object b) {
+        return elementwise(VectorOps::add, VectorOps::add, Math::addExact, Double::sum, a, b);
+    }
+
+    @LoxNative
+    static Object vsub(Object a, Object b) {
+        return elementwise(VectorOps::subtract, VectorOps::subtract, Math::subtractExact, (l, r) -> l - r, a, b);
+    }
+
+    @LoxNative
+    static Object vmul(Object a, Object b) {
+        return elementwise(VectorOps::multiply, VectorOps::multiply, Math::multiplyExact, (l, r) -> l * r, a, b);
+    }
+
+    /**
+     * 与 / 相同，整数相除的结果也是浮点数
+     */
+    @LoxNative
+    static Object vdiv(Object a, Object b) {
+        return elementwise(VectorOps::divide, a, b);
+    }
+
+    @LoxNative
+    static Object min(Object array) {
+        long[] integers = VectorOps.integers(array);
+        if (integers != null) {
+            return VectorOps.min(integers, nonEmpty(array));
+        }
+        return VectorOps.min(VectorOps.numbers(array), nonEmpty(array));
+    }
+
+    @LoxNative
+    static Object max(Object array) {
+        long[] integers = VectorOps.integers(array);
+        if (integers != null) {
+            return VectorOps.max(integers, nonEmpty(array));
+        }
+        return VectorOps.max(VectorOps.numbers(array), nonEmpty(array));
+    }
+
+    @LoxNative
+    static Object prefixSum(Object array) {
+        long[] integers = VectorOps.integers(array);
+        if (integers != null) {
+            return VectorOps.prefixSum(integers, VectorOps.length(array));
+        }
+        double[] numbers = VectorOps.numbers(array);
+        int n = VectorOps.length(array);
+        return LoxArray.ofDoubles(VectorOps.prefixSum(numbers, n), n);
+    }
+
+    /**
+     * 逐元素的运算，结果为新的数组；两个都是整数数组时结果为整数数组，溢出的元素为浮点数
+     */
+    private static Object elementwise(VectorOps.IntegerElementwise integer, VectorOps.Elementwise number,
+                                      LongBinaryOperator exact, DoubleBinaryOperator inexact,
+                                      Object a, Object b) {
+        long[] left = VectorOps.integers(a);
+        long[] right = VectorOps.integers(b);
+        if (left != null && right != null) {
+            int n = VectorOps.sameLength(a, b);
+            long[] result = integer.apply(left, right, n);
+            return result != null ? LoxArray.ofLongs(result, n) : VectorOps.promote(left, right, n, exact, inexact);
+        }
+        return elementwise(number, a, b);
+    }
+
+    private static Object elementwise(VectorOps.Elementwise operation, Object a, Object b) {
+        double[] left = VectorOps.numbers(a);
+        double[] right = VectorOps.numbers(b);
+        int n = VectorOps.sameLength(a, b);
+        return LoxArray.ofDoubles(operation.apply(left, right, n), n);
+    }
+
+    private static int nonEmpty(Object array) {
+        int n = VectorOps.length(array);
+        if (n == 0) {
+            throw new RuntimeError("Array must not be empty.");
+        }
+        return n;
+    }
+
+    //---------------文件------------------//
+
+    /**
+     * 按行读取文件，行末的 \n 或 \r\n 不包括在行中
+     */
+    @LoxNative
+    static Object lines(String path) {
+        return LoxLines.open(path, '\n', true);
+    }
+
+    /**
+     * 按单个 ASCII 字符分隔的记录读取文件
+     */
+    @LoxNative
+    static Object records(String path, String separator) {
+        if (separator.length() != 1) {
+            throw new RuntimeError("Separator must be a single character.");
+        }
+        return LoxLines.open(path, separator.charAt(0), false);
+    }
+
+    /**
+     * 迭代器(lines、records、jsonEvents、jsonElements)的下一个值，结束时为 NULL
+     */
+    @LoxNative
+    static Object next(Object lines) {
+        return iterator(lines).next();
+    }
+
+    @LoxNative
+    static void close(Object lines) {
+        iterator(lines).close();
+    }
+
+    //---------------JSON------------------//
+
+    @LoxNative
+    static Object parseJson(String json) {
+        return JsonReader.parse(json);
+    }
+
+    @LoxNative
+    static String toJson(Object value) {
+        return JsonWriter.toJson(value);
+    }
+
+    @LoxNative
+    static void writeJson(String path, Object value) {
+        JsonWriter.writeFile(path, value);
+    }
+
+    /**
+     * 按事件读取 JSON 文件：next 返回 "startObject"、"endObject"、"startArray"、"endArray"、"key"、"value"
+     */
+    @LoxNative
+    static Object jsonEvents(String path) {
+        return JsonReader.open(path, false);
+    }
+
+    /**
+     * 最近的 "key" 或 "value" 事件的值
+     */
+    @LoxNative
+    static Object jsonValue(Object events) {
+        if (!(events instanceof JsonReader)) {
+            throw new RuntimeError("Operand must be a JSON reader.");
+        }
+        return ((JsonReader) events).value();
+    }
+
+    /**
+     * 依次读取 JSON 文件顶层数组的每个元素
+     */
+    @LoxNative
+    static Object jsonElements(String path) {
+        return JsonReader.open(path, true);
+    }
+
+    //---------------正则表达式------------------//
+
+    /**
+     * 整个字符串匹配 pattern 时返回各组的数组([0] 为整个字符串)，否则为 NULL
+     */
+    @LoxNative
+    static Object match(Object string, String pattern) {
+        return LoxRegex.match(string, pattern);
+    }
+
+    /**
+     * 所有不重叠的匹配组成的数组
+     */
+    @LoxNative
+    static Object find(Object string, String pattern) {
+        return LoxRegex.find(string, pattern);
+    }
+
+    @LoxNative
+    static Object replace(Object string, String pattern, String replacement) {
+        return LoxRegex.replace(string, pattern, replacement);
+    }
+
+    @LoxNative
+    static Object split(Object string, String pattern) {
+        return LoxRegex.split(string, pattern);
+    }
+
+    /**
+     * Pattern 缓存的大小、命中和淘汰次数
+     */
+    @LoxNative
+    static Object regexCacheStats() {
+        return LoxRegex.statistics();
+    }
+
+    private static LoxIterator iterator(Object value) {
+        if (!(value instanceof LoxIterator)) {
+            throw new RuntimeError("Operand must be an iterator.");
+        }
+        return (LoxIterator) value;
+    }
+
+    //---------------数学函数------------------//
+
+    /**
+     * 整数的绝对值仍为整数；Long.MIN_VALUE 的绝对值超出 long 的范围，返回浮点数
+     */
+    @LoxNative(pure = true)
+    static Object abs(Object value) {
+        if (value instanceof Long) {
+            long number = (long) value;
+            if (number == Long.MIN_VALUE) {
+                return -(double) number;
+            }
+            return Math.abs(number);
+        }
+        return Math.abs(NativeMethod.toDouble(value));
+    }
+
+    @LoxNative(pure = true)
+    static double sqrt(double value) {
+        return Math.sqrt(value);
+    }
+
+    @LoxNative(pure = true)
+    static double floor(double value) {
+        return Math.floor(value);
+    }
+
+    @LoxNative(pure = true)
+    static double ceil(double value) {
+        return Math.ceil(value);
+    }
+
+    @LoxNative(pure = true)
+    static double exp(double value) {
+        return Math.exp(value);
+    }
+
+    @LoxNative(pure = true)
+    static double log(double value) {
+        return Math.log(value);
+    }
+
+    @LoxNative(pure = true)
+    static double pow(double base, double exponent) {
+        return Math.pow(base, exponent);
+    }
+
+    @LoxNative(pure = true)
+    static double sin(double value) {
+        return Math.sin(value);
+    }
+
+    @LoxNative(pure = true)
+    static double cos(double value) {
+        return Math.cos(value);
+    }
+
+    @LoxNative(pure = true)
+    static double tan(double value) {
+        return Math.tan(value);
+    }
+
+    @LoxNative(pure = true)
+    static double atan2(double y, double x) {
+        return Math.atan2(y, x);
+    }
+
+    @LoxNative(pure = true)
+    static double hypot(double x, double y) {
+        return Math.hypot(x, y);
+    }
+}
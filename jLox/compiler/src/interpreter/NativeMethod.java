@@ -0,0 +1,292 @@
+package interpreter;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * 由 @LoxNative 标注的 Java 静态方法绑定的内置函数，所有的内置函数都由这里注册
+ * MethodHandle 的参数和返回值适配为 Object：double/long 参数接受 Lox 的数字，boolean 参数接受布尔值，
+ * String 参数接受字符串(LoxString 先展开)，Object 参数不转换；返回的基本类型装箱，void 返回 NULL
+ * 第一个参数为 Interpreter 的方法得到调用它的解释器(spawn、parallelMap)，不算在 Lox 的参数个数中
+ * <p>
+ * 解释器调用时不创建参数列表(invoke)；全局的内置函数的调用处由 Resolver 标记(Expr.Call.intrinsic)，
+ * 全局作用域中的内置函数没有被重新定义或赋值时直接调用，不查找全局变量，也不检查参数个数
+ * 类型为 (double)double 和 (double, double)double 的方法(数学函数)另外绑定为 DoubleUnaryOperator/DoubleBinaryOperator，
+ * 直接调用 Java 方法，不经过 MethodHandle
+ */
+final class NativeMethod implements LoxCallable {
+    // 参数类型 -> 由 Lox 的值转换的 MethodHandle，Object 不转换
+    private static final Map<Class<?>, MethodHandle> ARGUMENTS = arguments();
+    // 内置的函数库，不可变，所有 Interpreter 共享
+    static final Map<String, NativeMethod> LIBRARY = bind(NativeLibrary.class);
+
+    final String name;
+    final boolean pure;
+    private final int arity;
+    // 类型为 (Interpreter, Object, ...)Object
+    private final MethodHandle handle;
+    // 数学函数的直接调用，其它函数为 null
+    private final DoubleUnaryOperator unary;
+    private final DoubleBinaryOperator binary;
+
+    private NativeMethod(String name, boolean pure, MethodHandle handle,
+                         DoubleUnaryOperator unary, DoubleBinaryOperator binary) {
+        this.name = name;
+        this.pure = pure;
+        this.arity = handle.type().parameterCount() - 1;
+        this.handle = handle;
+        this.unary = unary;
+        this.binary = binary;
+    }
+
+    /**
+     * 绑定 library 中所有 @LoxNative 的静态方法，按方法名排序
+     */
+    static Map<String, NativeMethod> bind(Class<?> library) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        Method[] methods = library.getDeclaredMethods();
+        Arrays.sort(methods, Comparator.comparing(Method::getName));
+        Map<String, NativeMethod> bound = new LinkedHashMap<>();
+        for (Method method : methods) {
+            LoxNative annotation = method.getAnnotation(LoxNative.class);
+            if (annotation == null) {
+                continue;
+            }
+            if (!Modifier.isStatic(method.getModifiers())) {
+                throw new IllegalArgumentException("@LoxNative method must be static: " + method);
+            }
+            String name = annotation.value().isEmpty() ? method.getName() : annotation.value();
+            try {
+                MethodHandle target = lookup.unreflect(method);
+                bound.put(name, new NativeMethod(name, annotation.pure(), adapt(target),
+                        (DoubleUnaryOperator) direct(lookup, target, DoubleUnaryOperator.class, "applyAsDouble"),
+                        (DoubleBinaryOperator) direct(lookup, target, DoubleBinaryOperator.class, "applyAsDouble")));
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("@LoxNative method is not accessible: " + method, e);
+            }
+        }
+        return Collections.unmodifiableMap(bound);
+    }
+
+    /**
+     * Resolver 使用：全局的 name 以 arity 个参数调用时的内置函数
+     */
+    static NativeMethod intrinsic(String name, int arity) {
+        NativeMethod method = LIBRARY.get(name);
+        return method != null && method.arity == arity ? method : null;
+    }
+
+    private static MethodHandle adapt(MethodHandle target) {
+        MethodType type = target.type();
+        MethodHandle handle = target;
+        int first = 0;
+        if (type.parameterCount() > 0 && type.parameterType(0) == Interpreter.class) {
+            first = 1;
+        } else {
+            handle = MethodHandles.dropArguments(handle, 0, Interpreter.class);
+        }
+        for (int i = first; i < type.parameterCount(); i++) {
+            Class<?> parameter = type.parameterType(i);
+            if (parameter == Object.class) {
+                continue;
+            }
+            MethodHandle conversion = ARGUMENTS.get(parameter);
+            if (conversion == null) {
+                throw new IllegalArgumentException("Unsupported @LoxNative parameter type: " + parameter);
+            }
+            handle = MethodHandles.filterArguments(handle, i + 1 - first, conversion);
+        }
+        int arity = type.parameterCount() - first;
+        return handle.asType(MethodType.genericMethodType(arity).insertParameterTypes(0, Interpreter.class));
+    }
+
+    /**
+     * 类型与 face 的方法相同的 target 实现为 face 的对象，类型不同时为 null
+     */
+    private static Object direct(MethodHandles.Lookup lookup, MethodHandle target, Class<?> face, String method) {
+        MethodType type = target.type();
+        MethodType expected = face == DoubleUnaryOperator.class
+                ? MethodType.methodType(double.class, double.class)
+                : MethodType.methodType(double.class, double.class, double.class);
+        if (!type.equals(expected)) {
+            return null;
+        }
+        try {
+            return LambdaMetafactory.metafactory(lookup, method, MethodType.methodType(face),
+                    type, target, type).getTarget().invoke();
+        } catch (Throwable e) {
+            throw new IllegalArgumentException("Cannot bind @LoxNative method directly: " + target, e);
+        }
+    }
+
+    private static Map<Class<?>, MethodHandle> arguments() {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        Map<Class<?>, MethodHandle> arguments = new HashMap<>();
+        try {
+            arguments.put(double.class, lookup.findStatic(NativeMethod.class, "toDouble",
+                    MethodType.methodType(double.class, Object.class)));
+            arguments.put(long.class, lookup.findStatic(NativeMethod.class, "toLong",
+                    MethodType.methodType(long.class, Object.class)));
+            arguments.put(boolean.class, lookup.findStatic(NativeMethod.class, "toBoolean",
+                    MethodType.methodType(boolean.class, Object.class)));
+            arguments.put(String.class, lookup.findStatic(NativeMethod.class, "toText",
+                    MethodType.methodType(String.class, Object.class)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+        return arguments;
+    }
+
+    //---------------参数的转换------------------//
+
+    static double toDouble(Object value) {
+        if (value instanceof Double) {
+            return (double) value;
+        }
+        if (value instanceof Long) {
+            return (long) value;
+        }
+        throw new RuntimeError("Operand must be a number.");
+    }
+
+    static long toLong(Object value) {
+        if (value instanceof Long) {
+            return (long) value;
+        }
+        if (value instanceof Double && (double) value == Math.rint((double) value)) {
+            return (long) (double) value;
+        }
+        throw new RuntimeError("Operand must be an integer.");
+    }
+
+    static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return (boolean) value;
+        }
+        throw new RuntimeError("Operand must be a boolean.");
+    }
+
+    static String toText(Object value) {
+        if (LoxString.isString(value)) {
+            return value.toString();
+        }
+        throw new RuntimeError("Operand must be a string.");
+    }
+
+    /**
+     * 非负整数参数(整数或者没有小数部分的浮点数)
+     */
+    static int count(Object value, String what) {
+        if (value instanceof Long && (long) value >= 0 && (long) value <= Integer.MAX_VALUE) {
+            return (int) (long) value;
+        }
+        if (value instanceof Double && (double) value >= 0 && (double) value <= Integer.MAX_VALUE
+                && (double) value == Math.floor((double) value)) {
+            return (int) (double) value;
+        }
+        throw new RuntimeError(what + " must be a non-negative integer.");
+    }
+
+    //---------------调用------------------//
+
+    /**
+     * 不创建参数列表的调用，参数个数由调用者保证
+     */
+    Object invoke(Interpreter interpreter) {
+        try {
+            return (Object) handle.invokeExact(interpreter);
+        } catch (Throwable e) {
+            throw failure(e);
+        }
+    }
+
+    Object invoke(Interpreter interpreter, Object a) {
+        if (unary != null) {
+            return unary.applyAsDouble(toDouble(a));
+        }
+        try {
+            return (Object) handle.invokeExact(interpreter, a);
+        } catch (Throwable e) {
+            throw failure(e);
+        }
+    }
+
+    Object invoke(Interpreter interpreter, Object a, Object b) {
+        if (binary != null) {
+            return binary.applyAsDouble(toDouble(a), toDouble(b));
+        }
+        try {
+            return (Object) handle.invokeExact(interpreter, a, b);
+        } catch (Throwable e) {
+            throw failure(e);
+        }
+    }
+
+    Object invoke(Interpreter interpreter, Object a, Object b, Object c) {
+        try {
+            return (Object) handle.invokeExact(interpreter, a, b, c);
+        } catch (Throwable e) {
+            throw failure(e);
+        }
+    }
+
+    /**
+     * RuntimeError 和其它 unchecked 异常原样抛出，checked 异常转换为 RuntimeError
+     */
+    private RuntimeException failure(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new RuntimeError(name + " failed: " + e.getMessage());
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        switch (arguments.size()) {
+            case 0:
+                return invoke(interpreter);
+            case 1:
+                return invoke(interpreter, arguments.get(0));
+            case 2:
+                return invoke(interpreter, arguments.get(0), arguments.get(1));
+            case 3:
+                return invoke(interpreter, arguments.get(0), arguments.get(1), arguments.get(2));
+            default:
+                List<Object> values = new ArrayList<>(arguments.size() + 1);
+                values.add(interpreter);
+                values.addAll(arguments);
+                try {
+                    return handle.invokeWithArguments(values);
+                } catch (Throwable e) {
+                    throw failure(e);
+                }
+        }
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String toString() {
+        return "<native function>";
+    }
+}
@@ -1,7 +1,6 @@
 package interpreter;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 public class Parser {
@@ -15,10 +14,12 @@ public class Parser {
     }
 
     private final List<Token> tokens;
+    private final ErrorReporter errors;
     private int current = 0;
 
-    Parser(List<Token> tokens) {
+    Parser(List<Token> tokens, ErrorReporter errors) {
         this.tokens = tokens;
+        this.errors = errors;
     }
 
     /**
@@ -35,7 +36,7 @@ public class Parser {
     }
 
     /**
-     * declaration    → funDecl | varDecl | statement | classDecl;
+     * declaration    → funDecl | varDecl | constDecl | statement | classDecl;
      */
     private Stmt declaration() {
         try {
@@ -48,6 +49,9 @@ public class Parser {
             if (match(TokenType.VAR)) {
                 return varDeclaration();
             }
+            if (match(TokenType.CONST)) {
+                return constDeclaration();
+            }
             return statement();
         } catch (ParseError Ps) {
             synchronize();
@@ -125,9 +129,21 @@ public class Parser {
         return new Stmt.Var(name, initializer);
     }
 
+    /**
+     * constDecl      → "const" IDENTIFIER "=" expression ";" ;
+     */
+    private Stmt constDeclaration() {
+        Token name = consume(TokenType.IDENTIFIER, "Expect constant name.");
+        consume(TokenType.EQUAL, "Expect '=' after constant name.");
+        Expr initializer = expression();
+
+        consume(TokenType.SEMICOLON, "Expect ';' after constant declaration.");
+        return new Stmt.Const(name, initializer);
+    }
+
     /**
      * statement      → exprStmt | printStmt | returnStmt | block |
-     * ifStmt | whileStmt | forStmt ;
+     * ifStmt | whileStmt | forStmt | switchStmt | breakStmt ;
      */
     private Stmt statement() {
         if (match(TokenType.PRINT)) {
@@ -148,9 +164,68 @@ public class Parser {
         if (match(TokenType.FOR)) {
             return forStatement();
         }
+        if (match(TokenType.SWITCH)) {
+            return switchStatement();
+        }
+        if (match(TokenType.BREAK)) {
+            Token keyword = previous();
+            consume(TokenType.SEMICOLON, "Expect ';' after 'break'.");
+            return new Stmt.Break(keyword);
+        }
         return expressionStatement();
     }
 
+    /**
+     * switchStmt     → "switch" "(" expression ")" "{" switchCase* "}" ;
+     * switchCase     → ( "case" expression | "default" ) ":" declaration* ;
+     * case 之间默认贯穿(fall through)，用 break 跳出
+     * 所有 case 共用一个作用域，跳转到后面的 case 不能越过变量声明，需要声明时用 {} 包起来
+     */
+    private Stmt switchStatement() {
+        Token keyword = previous();
+        consume(TokenType.LEFT_PAREN, "Expect '(' after 'switch'.");
+        Expr value = expression();
+        consume(TokenType.RIGHT_PAREN, "Expect ')' after switch value.");
+        consume(TokenType.LEFT_BRACE, "Expect '{' before switch body.");
+
+        List<Expr> labels = new ArrayList<>();
+        List<Integer> targets = new ArrayList<>();
+        List<Stmt> body = new ArrayList<>();
+        boolean declared = false;
+        boolean hasDefault = false;
+        while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
+            if (match(TokenType.CASE, TokenType.DEFAULT)) {
+                Token label = previous();
+                if (declared) {
+                    error(label, "Can't jump past a declaration, wrap the case body in a block.");
+                }
+                if (label.type == TokenType.CASE) {
+                    labels.add(expression());
+                } else {
+                    if (hasDefault) {
+                        error(label, "Multiple default labels in one switch.");
+                    }
+                    hasDefault = true;
+                    labels.add(null);
+                }
+                targets.add(body.size());
+                consume(TokenType.COLON, "Expect ':' after case label.");
+            } else if (labels.isEmpty()) {
+                throw error(peek(), "Expect 'case' or 'default'.");
+            } else {
+                Stmt statement = declaration();
+                if (statement instanceof Stmt.Var || statement instanceof Stmt.Const ||
+                        statement instanceof Stmt.Function || statement instanceof Stmt.Class) {
+                    declared = true;
+                }
+                body.add(statement);
+            }
+        }
+
+        consume(TokenType.RIGHT_BRACE, "Expect '}' after switch body.");
+        return new Stmt.Switch(keyword, value, labels, targets, body);
+    }
+
     /**
      * exprStmt       → expression ";"
      */
@@ -218,11 +293,12 @@ public class Parser {
      * whileStmt      → "while" "(" expression ")" statement ;
      */
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(TokenType.LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
         consume(TokenType.RIGHT_PAREN, "Expect ')' after condition.");
         Stmt body = statement();
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body);
     }
 
     /**
@@ -232,6 +308,7 @@ public class Parser {
      * expression? ")" statement ;
      */
     private Stmt forStatement() {
+        Token keyword = previous();
         consume(TokenType.LEFT_PAREN, "Expect '(' after 'for'.");
         Stmt initializer;
         if (match(TokenType.SEMICOLON)) {
@@ -256,25 +333,8 @@ public class Parser {
 
         Stmt body = statement();
 
-        //将 increment 添加到block最后
-        if (increment != null) {
-            body = new Stmt.Block(
-                    Arrays.asList(
-                            body,
-                            new Stmt.Expression(increment)));
-        }
-        //将 condition 添加到whileStatement
-        if (condition == null) {
-            condition = new Expr.Literal(true);
-        }
-        body = new Stmt.While(condition, body);
-
-        //将 initializer 添加到block最前
-        if (initializer != null) {
-            body = new Stmt.Block(Arrays.asList(initializer, body));
-        }
-
-        return body;
+        // 不再脱糖为 Block + While，由解释器中的循环执行器直接执行
+        return new Stmt.For(keyword, initializer, condition, increment, body);
     }
 
     /**
@@ -286,6 +346,7 @@ public class Parser {
 
     /**
      * assignment     → ( call "." )? IDENTIFIER "=" assignment
+     * | call "[" expression "]" "=" assignment
      * | logic_or ;
      */
     private Expr assignment() {
@@ -300,20 +361,79 @@ public class Parser {
             } else if (expr instanceof Expr.Get) {
                 Expr.Get get = (Expr.Get) expr;
                 return new Expr.Set(get.object, get.name, value);
+            } else if (expr instanceof Expr.Index) {
+                Expr.Index index = (Expr.Index) expr;
+                return new Expr.IndexSet(index.object, index.bracket, index.index, value);
             }
             // 不 throw，继续分析，但报告错误
             error(equals, "Invalid assignment target.");
+        } else if (match(TokenType.PLUS_EQUAL, TokenType.MINUS_EQUAL, TokenType.MULTIPLY_EQUAL,
+                TokenType.DIVIDE_EQUAL, TokenType.MOD_EQUAL, TokenType.AND_EQUAL, TokenType.OR_EQUAL,
+                TokenType.XOR_EQUAL, TokenType.SHIFT_LEFT_EQUAL, TokenType.SHIFT_RIGHT_EQUAL)) {
+            Token operator = previous();
+            Expr value = assignment();
+            if (expr instanceof Expr.Variable) {
+                Token name = ((Expr.Variable) expr).name;
+                return new Expr.CompoundAssign(name, binaryOperator(operator), value);
+            } else if (expr instanceof Expr.Get) {
+                Expr.Get get = (Expr.Get) expr;
+                return new Expr.CompoundSet(get.object, get.name, binaryOperator(operator), value);
+            }
+            error(operator, "Invalid assignment target.");
         }
         return expr;
     }
 
     /**
-     * logic_or       → logic_and ( "or" logic_and )* ;
+     * 复合赋值和自增自减对应的二元运算符，如 += 和 ++ 对应 +
+     * 保留原来的 lexeme 和行号，用于报告错误
+     */
+    private Token binaryOperator(Token operator) {
+        TokenType type;
+        switch (operator.type) {
+            case PLUS_EQUAL:
+            case PLUS_PLUS:
+                type = TokenType.PLUS;
+                break;
+            case MINUS_EQUAL:
+            case MINUS_MINUS:
+                type = TokenType.MINUS;
+                break;
+            case MULTIPLY_EQUAL:
+                type = TokenType.MULTIPLY;
+                break;
+            case DIVIDE_EQUAL:
+                type = TokenType.DIVIDE;
+                break;
+            case MOD_EQUAL:
+                type = TokenType.MOD;
+                break;
+            case AND_EQUAL:
+                type = TokenType.AND;
+                break;
+            case OR_EQUAL:
+                type = TokenType.OR;
+                break;
+            case XOR_EQUAL:
+                type = TokenType.XOR;
+                break;
+            case SHIFT_LEFT_EQUAL:
+                type = TokenType.SHIFT_LEFT;
+                break;
+            default:
+                type = TokenType.SHIFT_RIGHT;
+                break;
+        }
+        return new Token(type, operator.lexeme, null, operator.line, operator.offset);
+    }
+
+    /**
+     * logic_or       → logic_and ( "||" logic_and )* ;
      */
     private Expr or() {
         Expr expr = and();
 
-        while (match(TokenType.OR)) {
+        while (match(TokenType.OR_OR)) {
             Token operator = previous();
             Expr right = and();
             expr = new Expr.Logical(expr, operator, right);
@@ -322,19 +442,98 @@ public class Parser {
     }
 
     /**
-     * logic_and      → equality ( "and" equality )* ;
+     * logic_and      → bit_or ( "&&" bit_or )* ;
      */
     private Expr and() {
+        Expr expr = bitOr();
+
+        while (match(TokenType.AND_AND)) {
+            Token operator = previous();
+            Expr right = bitOr();
+            expr = new Expr.Logical(expr, operator, right);
+        }
+        return expr;
+    }
+
+    /**
+     * 按位运算的优先级与 C 相同，低于相等判断
+     * bit_or         → bit_xor ( "|" bit_xor )* ;
+     */
+    private Expr bitOr() {
+        Expr expr = bitXor();
+
+        while (match(TokenType.OR)) {
+            Token operator = previous();
+            Expr right = bitXor();
+            checkLogical(operator, expr, right, "||");
+            expr = new Expr.Binary(expr, operator, right);
+        }
+        return expr;
+    }
+
+    /**
+     * bit_xor        → bit_and ( "^" bit_and )* ;
+     */
+    private Expr bitXor() {
+        Expr expr = bitAnd();
+
+        while (match(TokenType.XOR)) {
+            Token operator = previous();
+            Expr right = bitAnd();
+            expr = new Expr.Binary(expr, operator, right);
+        }
+        return expr;
+    }
+
+    /**
+     * bit_and        → equality ( "&" equality )* ;
+     */
+    private Expr bitAnd() {
         Expr expr = equality();
 
         while (match(TokenType.AND)) {
             Token operator = previous();
             Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
+            checkLogical(operator, expr, right, "&&");
+            expr = new Expr.Binary(expr, operator, right);
         }
         return expr;
     }
 
+    /**
+     * | 和 & 原来是逻辑运算符，现在是按位运算：作用于布尔值时两边都求值，不短路
+     * 操作数是比较、逻辑运算或 ! 时很可能是旧的写法，给出警告
+     */
+    private void checkLogical(Token operator, Expr left, Expr right, String logical) {
+        if (isCondition(left) || isCondition(right)) {
+            errors.warning(operator, "'" + operator.lexeme + "' is bitwise and does not short-circuit;"
+                    + " use '" + logical + "' for logical " + (logical.equals("||") ? "or" : "and") + ".");
+        }
+    }
+
+    private static boolean isCondition(Expr expr) {
+        if (expr instanceof Expr.Logical) {
+            return true;
+        }
+        if (expr instanceof Expr.Unary) {
+            return ((Expr.Unary) expr).operator.type == TokenType.BANG;
+        }
+        if (expr instanceof Expr.Binary) {
+            switch (((Expr.Binary) expr).operator.type) {
+                case EQUAL_EQUAL:
+                case BANG_EQUAL:
+                case GREATER:
+                case GREATER_EQUAL:
+                case LESS:
+                case LESS_EQUAL:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
     /**
      * equality       → (Comparison [==,!=] Equality) | Comparison;
      */
@@ -401,20 +600,35 @@ public class Parser {
     }
 
     /**
-     * Unary          → ([!,-,+,++,--] Unary) | call
+     * Unary          → ([!,~,-,+] Unary) | ([++,--] Unary) | call
      */
     private Expr unary() {
-        if (match(TokenType.BANG, TokenType.MINUS, TokenType.PLUS,
-                TokenType.PLUS_PLUS, TokenType.MINUS_MINUS)) {
+        if (match(TokenType.BANG, TokenType.NOT, TokenType.MINUS, TokenType.PLUS)) {
             Token operator = previous();
             Expr right = unary();
             return new Expr.Unary(operator, right);
         }
+        if (match(TokenType.PLUS_PLUS, TokenType.MINUS_MINUS)) {
+            Token operator = previous();
+            Expr target = unary();
+            return increment(target, operator, true);
+        }
         return call();
     }
 
     /**
-     * call           → primary ( "(" arguments? ")" | "." IDENTIFIER )*;
+     * 自增自减的对象只能是变量或属性
+     */
+    private Expr increment(Expr target, Token operator, boolean prefix) {
+        if (!(target instanceof Expr.Variable) && !(target instanceof Expr.Get)) {
+            error(operator, "Invalid increment target.");
+            return target;
+        }
+        return new Expr.Increment(target, binaryOperator(operator), prefix);
+    }
+
+    /**
+     * call           → primary ( "(" arguments? ")" | "." IDENTIFIER | "[" expression "]" )* ( "++" | "--" )?;
      * arguments      → expression ( "," expression )* ;
      */
     private Expr call() {
@@ -426,10 +640,17 @@ public class Parser {
                 Token name = consume(TokenType.IDENTIFIER,
                         "Expect property name after '.'.");
                 expr = new Expr.Get(expr, name);
+            } else if (match(TokenType.LEFT_BRACKET)) {
+                Expr index = expression();
+                Token bracket = consume(TokenType.RIGHT_BRACKET, "Expect ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
             } else {
                 break;
             }
         }
+        if (match(TokenType.PLUS_PLUS, TokenType.MINUS_MINUS)) {
+            expr = increment(expr, previous(), false);
+        }
         return expr;
     }
 
@@ -451,6 +672,7 @@ public class Parser {
     /**
      * primary → NUMBER | STRING | "true" | "false" | "NULL"
      * | "(" expression ")"
+     * | "[" ( expression ( "," expression )* )? "]"
      * | "super" "." IDENTIFIER ;
      */
     private Expr primary() {
@@ -491,6 +713,17 @@ public class Parser {
                 return new Expr.Grouping(expr);
             }
 
+            if (match(TokenType.LEFT_BRACKET)) {
+                List<Expr> elements = new ArrayList<>();
+                if (!check(TokenType.RIGHT_BRACKET)) {
+                    do {
+                        elements.add(expression());
+                    } while (match(TokenType.COMMA));
+                }
+                Token bracket = consume(TokenType.RIGHT_BRACKET, "Expect ']' after array elements.");
+                return new Expr.Array(bracket, elements);
+            }
+
             throw error(peek(), "Expect expression.");
         } catch (ParseError Pe) {
             return null;
@@ -597,7 +830,7 @@ public class Parser {
      * @return
      */
     private ParseError error(Token token, String message) {
-        Main.error(token, message);
+        errors.error(token, message);
         return new ParseError();
     }
 
@@ -0,0 +1,467 @@
+package interpreter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 类型反馈的持久化
+ * 树遍历解释器执行时在语法树节点上记录：函数的调用次数、while 和 for 的回边次数、
+ * 二元运算观察到的操作数类型(Binary.seen)、调用点的目标函数(Call.target)
+ * <p>
+ * 执行结束后写入 profile 文件，节点以源代码的哈希 + 节点的 token 在源代码中的偏移量标识；
+ * 下一次运行同一份源代码时，在执行之前读入：计数达到阈值的函数和循环直接升级，
+ * 只观察到一种类型的二元运算和单态的调用点预先特化(Binary.expected, Call.target)
+ * <p>
+ * -Dlox.profile=目录 时启用，每份源代码一个文件
+ */
+class Profile implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAGIC = 0x4C4F5850; // "LOXP"
+    private static final int VERSION = 1;
+
+    // 记录的种类
+    private static final byte CALLS = 0;
+    private static final byte BACK_EDGES = 1;
+    private static final byte OPERANDS = 2;
+    private static final byte TARGET = 3;
+    // 调用点观察到多个目标
+    private static final int POLYMORPHIC = -1;
+
+    private final Path file;
+    private final long hash;
+    // 节点的偏移量 -> 节点
+    private final Map<Integer, Stmt.Function> functions = new HashMap<>();
+    private final Map<Integer, Stmt.While> loops = new HashMap<>();
+    private final Map<Integer, Stmt.For> forLoops = new HashMap<>();
+    private final Map<Integer, Expr.Binary> binaries = new HashMap<>();
+    private final Map<Integer, Expr.Call> calls = new HashMap<>();
+
+    private Profile(Path file, long hash) {
+        this.file = file;
+        this.hash = hash;
+    }
+
+    /**
+     * 是否启用了 profile
+     */
+    static boolean enabled() {
+        return System.getProperty("lox.profile") != null;
+    }
+
+    /**
+     * 为一份源代码建立节点索引，读入已有的 profile 并应用
+     *
+     * @param interpreter 用于升级热点函数和循环
+     * @param source      源代码
+     * @param statements  源代码的语法树，已经完成语义分析和类型推导
+     * @return Profile，执行结束后调用 save()
+     */
+    static Profile load(Interpreter interpreter, String source, List<Stmt> statements) {
+        long hash = hash(source);
+        Path file = Paths.get(System.getProperty("lox.profile"), Long.toHexString(hash) + ".loxprof");
+        Profile profile = new Profile(file, hash);
+        profile.index(statements);
+        if (Files.exists(file)) {
+            try {
+                profile.read();
+            } catch (IOException e) {
+                // profile 损坏或者版本不同时从头开始记录，不升级也不特化
+                System.err.println("[profile] ignore " + file + ": " + e.getMessage());
+                return profile;
+            }
+            profile.apply(interpreter);
+        }
+        return profile;
+    }
+
+    /**
+     * 写入 profile 文件
+     */
+    void save() {
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeLong(hash);
+                for (Map.Entry<Integer, Stmt.Function> entry : functions.entrySet()) {
+                    write(out, CALLS, entry.getKey(), entry.getValue().calls);
+                }
+                for (Map.Entry<Integer, Stmt.While> entry : loops.entrySet()) {
+                    write(out, BACK_EDGES, entry.getKey(), entry.getValue().backEdges);
+                }
+                for (Map.Entry<Integer, Stmt.For> entry : forLoops.entrySet()) {
+                    write(out, BACK_EDGES, entry.getKey(), entry.getValue().backEdges);
+                }
+                for (Map.Entry<Integer, Expr.Binary> entry : binaries.entrySet()) {
+                    write(out, OPERANDS, entry.getKey(), entry.getValue().seen);
+                }
+                for (Map.Entry<Integer, Expr.Call> entry : calls.entrySet()) {
+                    Expr.Call call = entry.getValue();
+                    if (call.polymorphic) {
+                        write(out, TARGET, entry.getKey(), POLYMORPHIC);
+                    } else if (call.target != null) {
+                        write(out, TARGET, entry.getKey(), call.target.name.offset);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[profile] cannot write " + file + ": " + e.getMessage());
+        }
+    }
+
+    // 没有信息的记录不写入
+    private static void write(DataOutputStream out, byte kind, int offset, int value) throws IOException {
+        if (value != 0) {
+            out.writeByte(kind);
+            out.writeInt(offset);
+            out.writeInt(value);
+        }
+    }
+
+    private void read() throws IOException {
+        // 整个文件读完才写入节点，读到一半出错时节点上没有一部分的记录
+        List<int[]> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION || in.readLong() != hash) {
+                throw new IOException("not a profile of this source");
+            }
+            int kind;
+            while ((kind = in.read()) != -1) {
+                if (kind != CALLS && kind != BACK_EDGES && kind != OPERANDS && kind != TARGET) {
+                    throw new IOException("unknown record " + kind);
+                }
+                records.add(new int[]{kind, in.readInt(), in.readInt()});
+            }
+        }
+        for (int[] record : records) {
+            int kind = record[0];
+            int offset = record[1];
+            int value = record[2];
+            switch (kind) {
+                case CALLS:
+                    if (functions.containsKey(offset)) {
+                        functions.get(offset).calls = value;
+                    }
+                    break;
+                case BACK_EDGES:
+                    if (loops.containsKey(offset)) {
+                        loops.get(offset).backEdges = value;
+                    } else if (forLoops.containsKey(offset)) {
+                        forLoops.get(offset).backEdges = value;
+                    }
+                    break;
+                case OPERANDS:
+                    if (binaries.containsKey(offset)) {
+                        binaries.get(offset).seen = value;
+                    }
+                    break;
+                case TARGET:
+                    Expr.Call call = calls.get(offset);
+                    if (call == null) {
+                        break;
+                    }
+                    if (value == POLYMORPHIC) {
+                        call.polymorphic = true;
+                    } else if (functions.containsKey(value)
+                            && functions.get(value).params.size() == call.arguments.size()) {
+                        call.target = functions.get(value);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 根据读入的记录升级和特化
+     */
+    private void apply(Interpreter interpreter) {
+        for (Stmt.Function function : functions.values()) {
+            if (interpreter.tiering.isHot(function)) {
+                interpreter.tiering.promote(interpreter, function);
+            }
+        }
+        for (Stmt.While loop : loops.values()) {
+            if (interpreter.tiering.isHot(loop)) {
+                interpreter.tiering.promote(interpreter, loop);
+            }
+        }
+        for (Stmt.For loop : forLoops.values()) {
+            if (interpreter.tiering.isHot(loop)) {
+                interpreter.tiering.promote(interpreter, loop);
+            }
+        }
+        for (Expr.Binary binary : binaries.values()) {
+            if (binary.operands == LoxType.UNKNOWN) {
+                binary.expected = expected(binary.seen);
+            }
+        }
+    }
+
+    /**
+     * 只观察到一种可以特化的类型时返回这个类型
+     */
+    static LoxType expected(int seen) {
+        for (LoxType type : new LoxType[]{LoxType.NUMBER, LoxType.INTEGER, LoxType.STRING}) {
+            if (seen == mask(type)) {
+                return type;
+            }
+        }
+        return LoxType.UNKNOWN;
+    }
+
+    static int mask(LoxType type) {
+        return 1 << type.ordinal();
+    }
+
+    private static long hash(String source) {
+        CRC32 crc = new CRC32();
+        crc.update(source.getBytes(StandardCharsets.UTF_8));
+        return (long) source.length() << 32 | crc.getValue();
+    }
+
+    //---------------建立节点索引------------------//
+
+    private void index(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            index(statement);
+        }
+    }
+
+    private void index(Stmt stmt) {
+        if (stmt != null) {
+            stmt.accept(this);
+        }
+    }
+
+    private void index(Expr expr) {
+        if (expr != null) {
+            expr.accept(this);
+        }
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        index(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        index(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        index(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        index(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitConstStmt(Stmt.Const stmt) {
+        index(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        index(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        for (Stmt.Function method : stmt.methods) {
+            index(method);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        index(stmt.condition);
+        index(stmt.thenBranch);
+        index(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        functions.put(stmt.name.offset, stmt);
+        index(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        loops.put(stmt.keyword.offset, stmt);
+        index(stmt.condition);
+        index(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        forLoops.put(stmt.keyword.offset, stmt);
+        index(stmt.initializer);
+        index(stmt.condition);
+        index(stmt.increment);
+        index(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitSwitchStmt(Stmt.Switch stmt) {
+        index(stmt.value);
+        for (Expr label : stmt.labels) {
+            index(label);
+        }
+        index(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        index(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        binaries.put(expr.operator.offset, expr);
+        index(expr.left);
+        index(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        index(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        index(expr.left);
+        index(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        index(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        calls.put(expr.paren.offset, expr);
+        index(expr.callee);
+        for (Expr argument : expr.arguments) {
+            index(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        index(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        index(expr.object);
+        index(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        for (Expr element : expr.elements) {
+            index(element);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        index(expr.object);
+        index(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        index(expr.object);
+        index(expr.index);
+        index(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitCompoundAssignExpr(Expr.CompoundAssign expr) {
+        index(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitCompoundSetExpr(Expr.CompoundSet expr) {
+        index(expr.object);
+        index(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitIncrementExpr(Expr.Increment expr) {
+        index(expr.target);
+        return null;
+    }
+}
@@ -1,7 +1,5 @@
 package interpreter;
 
-import com.sun.corba.se.spi.ior.IdentifiableContainerBase;
-
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,20 +25,33 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private ClassType currentClass = ClassType.NONE;
 
     private final Interpreter interpreter;
+    private final ErrorReporter errors;
     // 块的栈，等同于 interpreter中的 enviroment
     // <变量名,是否准备好（初始化）>
     private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    // 与 scopes 一一对应，作用域中的常量声明
+    private final Stack<Map<String, Stmt.Const>> constants = new Stack<>();
+    // 与 scopes 一一对应，作用域中声明的 token 以及作用域属于第几层函数，用于找出被闭包捕获的变量
+    private final Stack<Map<String, Token>> bindings = new Stack<>();
+    private final Stack<Integer> levels = new Stack<>();
+    private int level = 0;
+    // 全局常量，包括之前的 REPL 输入中已经执行过的
+    private final Map<String, Stmt.Const> globalConstants;
     // 当前是否在函数中，防止非函数中的 return语句
     private FunctionType currentFunction = FunctionType.NONE;
+    // break 是否在 switch 中(循环和函数体中的 break 不能跳出外层的 switch)
+    private boolean inSwitch = false;
 
     public Resolver(Interpreter interpreter) {
         this.interpreter = interpreter;
+        this.errors = interpreter.errors;
+        this.globalConstants = new HashMap<>(interpreter.constants);
     }
 
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Main.error(expr.keyword,
+            errors.error(expr.keyword,
                     "Can't use 'this' outside of a class.");
             return null;
         }
@@ -51,10 +62,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Main.error(expr.keyword,
+            errors.error(expr.keyword,
                     "Can't use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Main.error(expr.keyword,
+            errors.error(expr.keyword,
                     "Can't use 'super' in a class with no superclass.");
         }
         resolveLocal(expr,expr.keyword);
@@ -64,6 +75,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitUnaryExpr(Expr.Unary expr) {
         resolve(expr.right);
+        ConstantFolder.fold(interpreter, expr);
         return null;
     }
 
@@ -71,6 +83,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitBinaryExpr(Expr.Binary expr) {
         resolve(expr.left);
         resolve(expr.right);
+        ConstantFolder.fold(interpreter, expr);
         return null;
     }
 
@@ -96,16 +109,23 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitVariableExpr(Expr.Variable expr) {
         if (!scopes.isEmpty() &&
                 scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Main.error(expr.name,
+            errors.error(expr.name,
                     "Can't read local variable without initializer.");
         }
         resolveLocal(expr, expr.name);
+        // 编译期已知的常量直接代入
+        Stmt.Const constant = constant(expr.name);
+        if (constant != null && constant.folded) {
+            expr.folded = true;
+            expr.value = constant.value;
+        }
         return null;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
+        checkAssignable(expr.name);
         resolveLocal(expr, expr.name);
         return null;
     }
@@ -117,6 +137,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         for (Expr argument : expr.arguments) {
             resolve(argument);
         }
+        // 调用全局的内置函数：执行时内置函数没有被替换就直接调用，pure 的函数参数都是常量时折叠
+        if (expr.callee instanceof Expr.Variable && interpreter.depth(expr.callee) == null) {
+            expr.intrinsic = NativeMethod.intrinsic(((Expr.Variable) expr.callee).name.lexeme, expr.arguments.size());
+            ConstantFolder.fold(interpreter, expr);
+        }
         return null;
     }
 
@@ -133,6 +158,54 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        for (Expr element : expr.elements) {
+            resolve(element);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        resolve(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitCompoundAssignExpr(Expr.CompoundAssign expr) {
+        resolve(expr.value);
+        checkAssignable(expr.name);
+        resolveLocal(expr, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitCompoundSetExpr(Expr.CompoundSet expr) {
+        resolve(expr.object);
+        resolve(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitIncrementExpr(Expr.Increment expr) {
+        // 变量的深度记录在 target 上
+        if (expr.target instanceof Expr.Variable) {
+            checkAssignable(((Expr.Variable) expr.target).name);
+        }
+        resolve(expr.target);
+        return null;
+    }
+
     @Override
     public Void visitExpressionStmt(Stmt.Expression stmt) {
         resolve(stmt.expression);
@@ -148,11 +221,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Main.error(stmt.keyword,
+            errors.error(stmt.keyword,
                     "Can't return from top-level code.");
         }
         if (currentFunction == FunctionType.INITIALIZER) {
-            Main.error(stmt.keyword,
+            errors.error(stmt.keyword,
                     "Can't return a value from an initializer.");
         }
         if (stmt.value != null) {
@@ -171,8 +244,33 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitConstStmt(Stmt.Const stmt) {
+        declare(stmt.name);
+        resolve(stmt.initializer);
+        define(stmt.name);
+
+        Object value = ConstantFolder.valueOf(stmt.initializer);
+        if (value != ConstantFolder.NOT_CONSTANT) {
+            stmt.folded = true;
+            stmt.value = value;
+        }
+        if (scopes.isEmpty()) {
+            globalConstants.put(stmt.name.lexeme, stmt);
+        } else {
+            constants.peek().put(stmt.name.lexeme, stmt);
+        }
+        return null;
+    }
+
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        // 块内没有声明时不产生作用域，解释器直接在当前环境中执行
+        stmt.scoped = declares(stmt.statements);
+        if (!stmt.scoped) {
+            resolve(stmt.statements);
+            return null;
+        }
         beginScope();
         resolve(stmt.statements);
         endScope();
@@ -188,7 +286,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null &&
                 stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-            Main.error(stmt.superclass.name,
+            errors.error(stmt.superclass.name,
                     "A class can't inherit from itself.");
         }
 
@@ -243,10 +341,78 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         resolve(stmt.condition);
+        resolveLoopBody(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // 只有 var 声明的初始化语句需要循环作用域，与解释器保持一致
+        boolean scoped = stmt.initializer instanceof Stmt.Var;
+        if (scoped) {
+            beginScope();
+        }
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        if (stmt.condition != null) {
+            resolve(stmt.condition);
+        }
+        resolveLoopBody(stmt.body);
+        if (stmt.increment != null) {
+            resolve(stmt.increment);
+        }
+        if (scoped) {
+            endScope();
+        }
+
+        LoopInvariants.analyze(stmt);
+        return null;
+    }
+
+    /**
+     * switch (x) { case 1: ... break; ... }
+     * case 标签在外层作用域中分析，全部是常量时生成分派表
+     */
+    @Override
+    public Void visitSwitchStmt(Stmt.Switch stmt) {
+        resolve(stmt.value);
+        for (Expr label : stmt.labels) {
+            if (label != null) {
+                resolve(label);
+            }
+        }
+
+        boolean enclosingSwitch = inSwitch;
+        inSwitch = true;
+        stmt.scoped = declares(stmt.body);
+        if (stmt.scoped) {
+            beginScope();
+        }
         resolve(stmt.body);
+        if (stmt.scoped) {
+            endScope();
+        }
+        inSwitch = enclosingSwitch;
+
+        stmt.table = SwitchTable.build(stmt, errors);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        if (!inSwitch) {
+            errors.error(stmt.keyword, "Can't use 'break' outside of a switch.");
+        }
         return null;
     }
 
+    private void resolveLoopBody(Stmt body) {
+        boolean enclosingSwitch = inSwitch;
+        inSwitch = false;
+        resolve(body);
+        inSwitch = enclosingSwitch;
+    }
 
     void resolve(List<Stmt> statements) {
         for (Stmt statement : statements) {
@@ -255,11 +421,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void resolve(Stmt stmt) {
-        stmt.accept(this);
+        Stmt.dispatch(stmt, this);
     }
 
     private void resolve(Expr expr) {
-        expr.accept(this);
+        Expr.dispatch(expr, this);
     }
 
     /**
@@ -272,6 +438,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         for (int i = scopes.size() - 1; i >= 0; --i) {
             if (scopes.get(i).containsKey(name.lexeme)) {
                 interpreter.resolve(expr, scopes.size() - 1 - i);
+                Token binding = bindings.get(i).get(name.lexeme);
+                if (levels.get(i) < level && binding != null) {
+                    // 在声明它的函数之外被引用
+                    interpreter.capture(binding);
+                }
                 return;
             }
         }
@@ -279,7 +450,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private void resolveFunction(Stmt.Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
+        boolean enclosingSwitch = inSwitch;
         currentFunction = type;
+        inSwitch = false;
+        level++;
         beginScope();
         for (Token param : function.params) {
             declare(param);
@@ -287,15 +461,62 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
         resolve(function.body);
         endScope();
+        level--;
         currentFunction = enclosingFunction;
+        inSwitch = enclosingSwitch;
+    }
+
+    /**
+     * 判断一串语句是否直接在当前作用域中引入新的绑定
+     *
+     * @param statements List<Stmt>
+     * @return bool
+     */
+    private boolean declares(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var ||
+                    statement instanceof Stmt.Const ||
+                    statement instanceof Stmt.Function ||
+                    statement instanceof Stmt.Class) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private void beginScope() {
         scopes.push(new HashMap<String, Boolean>());
+        constants.push(new HashMap<>());
+        bindings.push(new HashMap<>());
+        levels.push(level);
     }
 
     private void endScope() {
         scopes.pop();
+        constants.pop();
+        bindings.pop();
+        levels.pop();
+    }
+
+    /**
+     * 变量引用的常量声明，不是常量时返回 null
+     *
+     * @param name Token
+     * @return Stmt.Const
+     */
+    private Stmt.Const constant(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; --i) {
+            if (scopes.get(i).containsKey(name.lexeme)) {
+                return constants.get(i).get(name.lexeme);
+            }
+        }
+        return globalConstants.get(name.lexeme);
+    }
+
+    private void checkAssignable(Token name) {
+        if (constant(name) != null) {
+            errors.error(name, "Can't assign to constant '" + name.lexeme + "'.");
+        }
     }
 
     /**
@@ -305,13 +526,17 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
      */
     private void declare(Token name) {
         if (scopes.isEmpty()) {
+            if (globalConstants.containsKey(name.lexeme)) {
+                errors.error(name, "Can't redeclare constant '" + name.lexeme + "'.");
+            }
             return;
         }
         Map<String, Boolean> scope = scopes.peek();
         if (scope.containsKey(name.lexeme)) {
-            Main.error(name, "Already variable with this name in this scope.");
+            errors.error(name, "Already variable with this name in this scope.");
         }
         scope.put(name.lexeme, false);
+        bindings.peek().put(name.lexeme, name);
     }
 
     /**
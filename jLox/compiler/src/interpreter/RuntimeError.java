@@ -10,4 +10,11 @@ public class RuntimeError extends RuntimeException {
         super(message);
         this.token = token;
     }
+
+    /**
+     * 原生函数中发生的错误，由 Interpreter.call 补上调用处的 token
+     */
+    RuntimeError(String message) {
+        this(null, message);
+    }
 }
@@ -1,5 +1,6 @@
 package interpreter;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -7,6 +8,7 @@ import java.util.Map;
 
 public class Scanner {
     private String source;
+    private final ErrorReporter errors;
     private List<Token> tokens = new ArrayList<>();
     private static final Map<String, TokenType> keywords; // 关键字
     // 双指针
@@ -69,8 +71,9 @@ public class Scanner {
         keywords.put("super", TokenType.SUPER);
     }
 
-    Scanner(String source) {
+    Scanner(String source, ErrorReporter errors) {
         this.source = source;
+        this.errors = errors;
     }
 
     List<Token> scanTokens() {
@@ -78,15 +81,20 @@ public class Scanner {
             start = current;
             scanToken();
         }
-        System.out.println("LEXICAL ANALYSIS RESULT");
-        System.out.println("line: " + line + ", token: " + tokens.size());
-        System.out.println("identifier: " + num_identifier + ", number: " + num_number
-                + ", string: " + num_string + ", keyword: " + num_keyword);
-
-        tokens.add(new Token(TokenType.EOF, "", null, line));
+        tokens.add(new Token(TokenType.EOF, "", null, line, source.length()));
         return tokens;
     }
 
+    /**
+     * 输出词法分析的统计结果，由命令行调用；嵌入使用(LoxProgram)时不输出
+     */
+    void printStatistics(PrintStream out) {
+        out.println("LEXICAL ANALYSIS RESULT");
+        out.println("line: " + line + ", token: " + (tokens.size() - 1));
+        out.println("identifier: " + num_identifier + ", number: " + num_number
+                + ", string: " + num_string + ", keyword: " + num_keyword);
+    }
+
     private boolean isAtEnd() {
         return current >= source.length();
     }
@@ -237,7 +245,7 @@ public class Scanner {
                         }
                         current++;
                     }
-                    Main.report(line, "at end", "missing */ to close /*");
+                    errors.report(line, "at end", "missing */ to close /*");
                 } else if (match('=')) {
                     addToken(TokenType.DIVIDE_EQUAL);
                 } else {
@@ -266,7 +274,7 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Main.report(line, "at " + current, "Unexpected Character(ASCII value) " + (int) c + ".");
+                    errors.report(line, "at " + current, "Unexpected Character(ASCII value) " + (int) c + ".");
                 }
                 break;
         }
@@ -308,7 +316,7 @@ public class Scanner {
 
     private void addToken(TokenType type, Object literal) {
         String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        tokens.add(new Token(type, text, literal, line, start));
     }
 
     private boolean isDigit(char c) {
@@ -325,13 +333,26 @@ public class Scanner {
         return isAlpha(c) || isDigit(c);
     }
 
+    private boolean isHexDigit(char c) {
+        return isDigit(c) || ('a' <= c && c <= 'f') || ('A' <= c && c <= 'F');
+    }
+
     // 遇到number 执行此函数
+    // 没有小数点和指数的字面量为整数(Long)，超出 long 范围时报告 "Integer literal is too large."
+    // 0x 开头的为十六进制整数，按无符号的 64 位解析(见 hexNumber)
     private void number() {
+        if (source.charAt(start) == '0' && (peek() == 'x' || peek() == 'X') && isHexDigit(peekNext())) {
+            hexNumber();
+            return;
+        }
+
+        boolean integral = true;
         while (isDigit(peek())) {
             current++;
         }
 
         if (peek() == '.' && isDigit(peekNext())) {
+            integral = false;
             current++;
             while (isDigit(peek())) {
                 current++;
@@ -339,6 +360,7 @@ public class Scanner {
         }
 
         if (peek() == 'E' || peek() == 'e') {
+            integral = false;
             current++;
             if (peek() == '+' || peek() == '-') {
                 current++;
@@ -348,8 +370,37 @@ public class Scanner {
             }
         }
 
-        addToken(TokenType.NUMBER,
-                Double.parseDouble(source.substring(start, current)));
+        String text = source.substring(start, current);
+        if (!integral) {
+            addToken(TokenType.NUMBER, Double.parseDouble(text));
+        } else {
+            try {
+                addToken(TokenType.NUMBER, Long.parseLong(text));
+            } catch (NumberFormatException e) {
+                // 不悄悄变成浮点数；需要浮点数时写成 1e19 或 10000000000000000000.0
+                // 仍然产生 token，避免解析时出现连带的错误
+                errors.report(line, "at " + text, "Integer literal is too large.");
+                addToken(TokenType.NUMBER, 0L);
+            }
+        }
+
+        num_number++;
+    }
+
+    // 十六进制整数 0x...，按无符号解析，0xFFFFFFFFFFFFFFFF 为 -1
+    private void hexNumber() {
+        current++;
+        while (isHexDigit(peek())) {
+            current++;
+        }
+
+        String digits = source.substring(start + 2, current);
+        if (digits.length() > 16) {
+            errors.report(line, "at " + source.substring(start, current), "Hex literal is too large.");
+            addToken(TokenType.NUMBER, 0L);
+        } else {
+            addToken(TokenType.NUMBER, Long.parseUnsignedLong(digits, 16));
+        }
 
         num_number++;
     }
@@ -366,28 +417,28 @@ public class Scanner {
         if (type == null) {
             type = TokenType.IDENTIFIER;
             List<Token> newIdentifier = new ArrayList<>();
-            newIdentifier.add(new Token(type, text, "", line));
+            newIdentifier.add(new Token(type, text, "", line, start));
 
             num_identifier++;
         } else {
             num_keyword++;
         }
 //        addToken(type);
-        tokens.add(new Token(type, text, "", line));
+        tokens.add(new Token(type, text, "", line, start));
     }
 
     // 遇到字符串 执行此函数
     private void strings() {
         while (peek() != '"') {
             if (peek() == '\0') {
-                Main.report(line, "at end", "missing \" character");
+                errors.report(line, "at end", "missing \" character");
                 break;
             }
             current++;
         }
         start += 1;
         String text = source.substring(start, current);
-        addToken(TokenType.STRING, text);
+        addToken(TokenType.STRING, StringTable.constant(text));
 
         current++;
         num_string++;
@@ -399,7 +450,7 @@ public class Scanner {
         while (peek() != '\'') {
             if (peek() == '\0') {
 
-                Main.report(line, "at end", "missing ' character");
+                errors.report(line, "at end", "missing ' character");
                 break;
             }
             length++;
@@ -407,7 +458,7 @@ public class Scanner {
         }
         System.out.println("1");
         if (length > 1) {
-            Main.report(line, "at" + source.substring(start + 1, current), "illegal chracter");
+            errors.report(line, "at" + source.substring(start + 1, current), "illegal chracter");
             current++;
             num_string++;
             return;
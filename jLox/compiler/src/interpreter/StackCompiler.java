@@ -0,0 +1,593 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 将语法树翻译为 StackEvaluator 执行的线性指令(基于操作数栈)
+ * 变量仍然通过 Environment 和 Resolver 得到的深度访问，与树遍历解释器、LoxFunction 的闭包互通
+ * 控制流(if/while/for/switch/break/return)全部变成跳转，执行时不需要 Java 的递归
+ */
+class StackCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // 指令，操作数紧跟在指令之后，k 为 constants 的下标
+    static final int CONST = 0;            // k            -> value
+    static final int POP = 1;              // value ->
+    static final int DUP = 2;              // a -> a a
+    static final int DUP_X1 = 3;           // a b -> b a b
+    static final int GET_LOCAL = 4;        // depth k(name)
+    static final int SET_LOCAL = 5;        // depth k(Token)，赋值后的值留在栈上
+    static final int GET_GLOBAL = 6;       // k(Token)
+    static final int SET_GLOBAL = 7;       // k(Token)
+    static final int DEFINE = 8;           // k(name)      value ->
+    static final int DEFINE_CONST = 9;     // k(Stmt.Const) value ->
+    static final int PUSH_ENV = 10;
+    static final int POP_ENV = 11;
+    static final int UNARY = 12;           // k(Expr.Unary)
+    static final int BINARY = 13;          // k(Expr.Binary)
+    static final int OPERATE = 14;         // k(CompoundAssign/CompoundSet) 复合赋值的运算
+    static final int INCREMENT = 15;       // k(Expr.Increment)
+    static final int JUMP = 16;            // target
+    static final int JUMP_IF_FALSE = 17;   // target      condition ->
+    static final int JUMP_IF_TRUE_OR_POP = 18;  // target  || 的短路
+    static final int JUMP_IF_FALSE_OR_POP = 19; // target  && 的短路
+    static final int CALL = 20;            // count k(Expr.Call)   callee arguments... -> value
+    static final int RETURN = 21;          // value ->
+    static final int PRINT = 22;           // value ->
+    static final int FUNCTION = 23;        // k(Stmt.Function)   -> closure
+    static final int CLASS = 24;           // k(Stmt.Class)      superclass ->
+    static final int GET = 25;             // k(Token)     object -> value
+    static final int CHECK_INSTANCE = 26;  // k(Token)     object -> object
+    static final int SET = 27;             // k(Token)     object value -> value
+    static final int SUPER = 28;           // depth k(Expr.Super)
+    static final int MATCH = 29;           // value label -> boolean
+    static final int SWITCH_TABLE = 30;    // k(SwitchTable)  value -> position
+    static final int DISPATCH = 31;        // k(int[] 语句下标 -> 指令地址)  position ->
+    static final int NEW_ENV = 32;         // -> environment  循环复用的环境放在操作数栈上
+    static final int ENTER_ENV = 33;       // environment -> environment  进入栈顶的环境
+    static final int ARRAY = 34;           // count       elements... -> array
+    static final int INDEX = 35;           // k(Token)    array index -> value
+    static final int INDEX_SET = 36;       // k(Token)    array index value -> value
+
+    /**
+     * 一段指令：函数体或者一次执行的顶层语句
+     */
+    static final class Chunk {
+        final String name;
+        final int[] code;
+        final Object[] constants;
+
+        Chunk(String name, int[] code, Object[] constants) {
+            this.name = name;
+            this.code = code;
+            this.constants = constants;
+        }
+    }
+
+    /**
+     * 正在翻译的 switch，break 跳到结尾
+     */
+    private static final class SwitchContext {
+        final int scopes;
+        final List<Integer> breaks = new ArrayList<>();
+
+        SwitchContext(int scopes) {
+            this.scopes = scopes;
+        }
+    }
+
+    private final Interpreter interpreter;
+    private int[] code = new int[64];
+    private int size = 0;
+    private final List<Object> constants = new ArrayList<>();
+    // 当前嵌套的 PUSH_ENV 层数，break 需要弹出 switch 内部的环境
+    private int scopes = 0;
+    private SwitchContext currentSwitch = null;
+
+    private StackCompiler(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * 顶层语句，在全局环境中执行
+     */
+    static Chunk compile(Interpreter interpreter, List<Stmt> statements) {
+        StackCompiler compiler = new StackCompiler(interpreter);
+        compiler.statements(statements);
+        compiler.emit(CONST, compiler.constant(null));
+        compiler.emit(RETURN);
+        return compiler.finish("script");
+    }
+
+    /**
+     * 函数体，参数已经定义在新的环境中；结果缓存在 Stmt.Function.chunk 上
+     */
+    static Chunk compile(Interpreter interpreter, Stmt.Function function) {
+        if (function.chunk != null) {
+            return function.chunk;
+        }
+        StackCompiler compiler = new StackCompiler(interpreter);
+        compiler.statements(function.body);
+        compiler.emit(CONST, compiler.constant(null));
+        compiler.emit(RETURN);
+        Chunk chunk = compiler.finish(function.name.lexeme);
+        function.chunk = chunk;
+        return chunk;
+    }
+
+    private Chunk finish(String name) {
+        return new Chunk(name, Arrays.copyOf(code, size), constants.toArray());
+    }
+
+    //---------------输出------------------//
+
+    private void emit(int value) {
+        if (size == code.length) {
+            code = Arrays.copyOf(code, size * 2);
+        }
+        code[size++] = value;
+    }
+
+    private void emit(int opcode, int operand) {
+        emit(opcode);
+        emit(operand);
+    }
+
+    private void emit(int opcode, int first, int second) {
+        emit(opcode);
+        emit(first);
+        emit(second);
+    }
+
+    private int constant(Object value) {
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    /**
+     * 输出跳转指令，返回待回填的操作数位置
+     */
+    private int jump(int opcode) {
+        emit(opcode, -1);
+        return size - 1;
+    }
+
+    private void patch(int operand) {
+        code[operand] = size;
+    }
+
+    private void statements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    //---------------statements------------------//
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(POP);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            emit(CONST, constant(null));
+        }
+        emit(RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(CONST, constant(null));
+        }
+        emit(DEFINE, constant(stmt.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitConstStmt(Stmt.Const stmt) {
+        if (stmt.folded) {
+            emit(CONST, constant(stmt.value));
+        } else {
+            compile(stmt.initializer);
+        }
+        emit(DEFINE_CONST, constant(stmt));
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (!stmt.scoped) {
+            statements(stmt.statements);
+            return null;
+        }
+        emit(PUSH_ENV);
+        scopes++;
+        statements(stmt.statements);
+        scopes--;
+        emit(POP_ENV);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+        } else {
+            emit(CONST, constant(null));
+        }
+        emit(CLASS, constant(stmt));
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int otherwise = jump(JUMP_IF_FALSE);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch == null) {
+            patch(otherwise);
+            return null;
+        }
+        int end = jump(JUMP);
+        patch(otherwise);
+        stmt.elseBranch.accept(this);
+        patch(end);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        emit(FUNCTION, constant(stmt));
+        emit(DEFINE, constant(stmt.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loop = size;
+        compile(stmt.condition);
+        int exit = jump(JUMP_IF_FALSE);
+        stmt.body.accept(this);
+        emit(JUMP, loop);
+        patch(exit);
+        return null;
+    }
+
+    /**
+     * 循环体不捕获环境时(reuseScope)，与解释器一样所有迭代复用同一个环境
+     * 循环不变量的槽位是树遍历解释器的优化，这里直接求值
+     */
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        boolean scoped = stmt.initializer instanceof Stmt.Var;
+        if (scoped) {
+            emit(PUSH_ENV);
+            scopes++;
+        }
+        if (stmt.initializer != null) {
+            stmt.initializer.accept(this);
+        }
+        if (stmt.reuseScope) {
+            emit(NEW_ENV);
+        }
+        int loop = size;
+        int exit = -1;
+        if (stmt.condition != null) {
+            compile(stmt.condition);
+            exit = jump(JUMP_IF_FALSE);
+        }
+        if (stmt.reuseScope) {
+            // 条件和增量在 for 的环境中求值，只有循环体在复用的环境中
+            emit(ENTER_ENV);
+            scopes++;
+            statements(((Stmt.Block) stmt.body).statements);
+            scopes--;
+            emit(POP_ENV);
+        } else {
+            stmt.body.accept(this);
+        }
+        if (stmt.increment != null) {
+            compile(stmt.increment);
+            emit(POP);
+        }
+        emit(JUMP, loop);
+        if (exit >= 0) {
+            patch(exit);
+        }
+        if (stmt.reuseScope) {
+            emit(POP);
+        }
+        if (scoped) {
+            scopes--;
+            emit(POP_ENV);
+        }
+        return null;
+    }
+
+    /**
+     * 先在外层环境中求出开始执行的语句下标(查表或者依次比较标签)，再进入 switch 的环境跳转
+     */
+    @Override
+    public Void visitSwitchStmt(Stmt.Switch stmt) {
+        compile(stmt.value);
+        if (stmt.table != null) {
+            emit(SWITCH_TABLE, constant(stmt.table));
+        } else {
+            List<Integer> found = new ArrayList<>();
+            int otherwise = stmt.body.size();
+            for (int i = 0; i < stmt.labels.size(); i++) {
+                Expr label = stmt.labels.get(i);
+                if (label == null) {
+                    otherwise = stmt.targets.get(i);
+                    continue;
+                }
+                emit(DUP);
+                compile(label);
+                emit(MATCH);
+                int next = jump(JUMP_IF_FALSE);
+                emit(POP);
+                emit(CONST, constant(stmt.targets.get(i)));
+                found.add(jump(JUMP));
+                patch(next);
+            }
+            emit(POP);
+            emit(CONST, constant(otherwise));
+            for (int operand : found) {
+                patch(operand);
+            }
+        }
+
+        if (stmt.scoped) {
+            emit(PUSH_ENV);
+            scopes++;
+        }
+        int[] positions = new int[stmt.body.size() + 1];
+        emit(DISPATCH, constant(positions));
+
+        SwitchContext enclosing = currentSwitch;
+        currentSwitch = new SwitchContext(scopes);
+        for (int i = 0; i < stmt.body.size(); i++) {
+            positions[i] = size;
+            stmt.body.get(i).accept(this);
+        }
+        positions[stmt.body.size()] = size;
+        for (int operand : currentSwitch.breaks) {
+            patch(operand);
+        }
+        currentSwitch = enclosing;
+
+        if (stmt.scoped) {
+            scopes--;
+            emit(POP_ENV);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        for (int i = currentSwitch.scopes; i < scopes; i++) {
+            emit(POP_ENV);
+        }
+        currentSwitch.breaks.add(jump(JUMP));
+        return null;
+    }
+
+    //---------------expressions------------------//
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        emit(GET_LOCAL, interpreter.depth(expr), constant("this"));
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        emit(SUPER, interpreter.depth(expr), constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        if (expr.folded) {
+            emit(CONST, constant(expr.value));
+            return null;
+        }
+        compile(expr.right);
+        emit(UNARY, constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        if (expr.folded) {
+            emit(CONST, constant(expr.value));
+            return null;
+        }
+        compile(expr.left);
+        compile(expr.right);
+        emit(BINARY, constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        emit(CONST, constant(expr.value));
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        int end = jump(expr.operator.type == TokenType.OR_OR ? JUMP_IF_TRUE_OR_POP : JUMP_IF_FALSE_OR_POP);
+        compile(expr.right);
+        patch(end);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.folded) {
+            emit(CONST, constant(expr.value));
+            return null;
+        }
+        load(expr, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        store(expr, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        emit(CALL, expr.arguments.size(), constant(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        emit(GET, constant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        emit(CHECK_INSTANCE, constant(expr.name));
+        compile(expr.value);
+        emit(SET, constant(expr.name));
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        for (Expr element : expr.elements) {
+            compile(element);
+        }
+        emit(ARRAY, expr.elements.size());
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        compile(expr.object);
+        compile(expr.index);
+        emit(INDEX, constant(expr.bracket));
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        compile(expr.object);
+        compile(expr.index);
+        compile(expr.value);
+        emit(INDEX_SET, constant(expr.bracket));
+        return null;
+    }
+
+    /**
+     * 与解释器一致：先读出旧值，再求值右边的表达式
+     */
+    @Override
+    public Void visitCompoundAssignExpr(Expr.CompoundAssign expr) {
+        load(expr, expr.name);
+        compile(expr.value);
+        emit(OPERATE, constant(expr));
+        store(expr, expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitCompoundSetExpr(Expr.CompoundSet expr) {
+        compile(expr.object);
+        emit(DUP);
+        emit(GET, constant(expr.name));
+        compile(expr.value);
+        emit(OPERATE, constant(expr));
+        emit(SET, constant(expr.name));
+        return null;
+    }
+
+    /**
+     * 后缀形式在栈上保留旧值
+     */
+    @Override
+    public Void visitIncrementExpr(Expr.Increment expr) {
+        if (expr.target instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr.target;
+            load(variable, variable.name);
+            if (!expr.prefix) {
+                emit(DUP);
+            }
+            emit(INCREMENT, constant(expr));
+            store(variable, variable.name);
+        } else {
+            Expr.Get get = (Expr.Get) expr.target;
+            compile(get.object);
+            emit(DUP);
+            emit(GET, constant(get.name));
+            if (!expr.prefix) {
+                emit(DUP_X1);
+            }
+            emit(INCREMENT, constant(expr));
+            emit(SET, constant(get.name));
+        }
+        if (!expr.prefix) {
+            emit(POP);
+        }
+        return null;
+    }
+
+    private void load(Expr expr, Token name) {
+        Integer distance = interpreter.depth(expr);
+        if (distance != null) {
+            emit(GET_LOCAL, distance, constant(name.lexeme));
+        } else {
+            emit(GET_GLOBAL, constant(name));
+        }
+    }
+
+    private void store(Expr expr, Token name) {
+        Integer distance = interpreter.depth(expr);
+        if (distance != null) {
+            emit(SET_LOCAL, distance, constant(name));
+        } else {
+            emit(SET_GLOBAL, constant(name));
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package interpreter;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static interpreter.StackCompiler.*;
+
+/**
+ * 显式栈求值器：Lox 的调用帧和操作数都在堆上的数组中，Lox 函数调用不占用 Java 的调用栈
+ * 栈的大小只受 -Dlox.stack.slots 限制(默认 16000000 个槽)，而不是 JVM 线程栈的大小：
+ * 操作数每个占一个槽，调用帧每个占 FRAME_SLOTS 个槽，两者合计不超过上限，占用的内存因此有界
+ * (帧引用的 Environment 在堆上，不计入)
+ * <p>
+ * -Dlox.stack=explicit 时启用，语法树先由 StackCompiler 翻译为线性指令；
+ * 运算、属性访问、原生函数的调用与 Interpreter 共用，语义和错误信息一致
+ * 原生代码(如 LoxClass 之外的 LoxCallable)回调 Lox 函数时，在当前栈上嵌套执行直到该帧返回
+ */
+class StackEvaluator {
+    private static final Object NONE = new Object();
+    // 一个调用帧按对象头加 5 个字段计算的槽数
+    static final int FRAME_SLOTS = 8;
+
+    /**
+     * 一个 Lox 调用帧
+     */
+    private static final class Frame {
+        Chunk chunk;
+        int pc;
+        // 调用者的环境，返回时恢复
+        Environment caller;
+        // 调用者的操作数栈顶
+        int base;
+        // 初始化方法和构造调用的结果(实例)，否则为 NONE
+        Object result;
+    }
+
+    private final Interpreter interpreter;
+    private final int maxSlots;
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private Frame[] frames = new Frame[64];
+    private int depth = 0;
+    private Environment environment;
+
+    StackEvaluator(Interpreter interpreter, int maxSlots) {
+        this.interpreter = interpreter;
+        this.maxSlots = maxSlots;
+        this.environment = interpreter.globals;
+    }
+
+    /**
+     * -Dlox.stack=explicit 时返回求值器，否则返回 null(使用树遍历解释器)
+     */
+    static StackEvaluator fromProperties(Interpreter interpreter) {
+        if (!"explicit".equals(System.getProperty("lox.stack"))) {
+            return null;
+        }
+        return new StackEvaluator(interpreter, Integer.getInteger("lox.stack.slots", 16_000_000));
+    }
+
+    /**
+     * 执行顶层语句
+     */
+    void execute(List<Stmt> statements) {
+        Chunk chunk = StackCompiler.compile(interpreter, statements);
+        run(chunk, interpreter.globals, NONE, null);
+    }
+
+    /**
+     * 从 Java 代码中调用 Lox 函数(LoxFunction.call)，参数个数已经检查过
+     */
+    Object call(LoxFunction function, List<Object> arguments) {
+        Environment environment = new Environment(function.closure, interpreter.owner);
+        for (int i = 0; i < arguments.size(); i++) {
+            environment.define(function.declaration.params.get(i).lexeme, arguments.get(i));
+        }
+        return run(StackCompiler.compile(interpreter, function.declaration), environment,
+                function.isInitializer ? function.closure.getAt(0, "this") : NONE, function.declaration.name);
+    }
+
+    /**
+     * 压入一帧并执行到这一帧返回；出错时恢复调用之前的栈
+     */
+    private Object run(Chunk chunk, Environment environment, Object result, Token name) {
+        int exit = depth;
+        int base = sp;
+        Environment caller = this.environment;
+        push(chunk, environment, result, name);
+        try {
+            return loop(exit);
+        } catch (RuntimeException | Error e) {
+            Arrays.fill(frames, exit, depth, null);
+            Arrays.fill(stack, base, sp, null);
+            depth = exit;
+            sp = base;
+            this.environment = caller;
+            throw e;
+        }
+    }
+
+    private void push(Chunk chunk, Environment environment, Object result, Token name) {
+        if (slots(depth + 1, sp) > maxSlots) {
+            throw new RuntimeError(name, overflow());
+        }
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        Frame frame = frames[depth];
+        if (frame == null) {
+            frame = frames[depth] = new Frame();
+        }
+        depth++;
+        frame.chunk = chunk;
+        frame.pc = 0;
+        frame.caller = this.environment;
+        frame.base = sp;
+        frame.result = result;
+        this.environment = environment;
+    }
+
+    /**
+     * depth 个帧和 sp 个操作数占用的槽数
+     */
+    private static long slots(int depth, int sp) {
+        return (long) depth * FRAME_SLOTS + sp;
+    }
+
+    private String overflow() {
+        return "Stack overflow (more than " + maxSlots + " slots).";
+    }
+
+    /**
+     * 操作数栈满时扩容，容量不超过剩余的槽数
+     */
+    private Object[] growStack() {
+        long available = maxSlots - slots(depth, 0);
+        if (sp >= available) {
+            throw new RuntimeError(overflow());
+        }
+        stack = Arrays.copyOf(stack, (int) Math.min((long) sp * 2, available));
+        return stack;
+    }
+
+    /**
+     * 主循环，执行到帧的深度回到 exit
+     * 栈、栈顶和环境放在局部变量中，调用和返回时与字段同步
+     */
+    private Object loop(int exit) {
+        Frame frame = frames[depth - 1];
+        int[] code = frame.chunk.code;
+        Object[] constants = frame.chunk.constants;
+        int pc = 0;
+        Object[] stack = this.stack;
+        int sp = this.sp;
+        Environment environment = this.environment;
+
+        while (true) {
+            // 每条指令最多压入一个值
+            if (sp == stack.length) {
+                stack = growStack();
+            }
+            switch (code[pc++]) {
+                case CONST:
+                    stack[sp++] = constants[code[pc++]];
+                    break;
+                case POP:
+                    stack[--sp] = null;
+                    break;
+                case DUP:
+                    stack[sp] = stack[sp - 1];
+                    sp++;
+                    break;
+                case DUP_X1: {
+                    Object top = stack[sp - 1];
+                    stack[sp - 1] = stack[sp - 2];
+                    stack[sp - 2] = top;
+                    stack[sp++] = top;
+                    break;
+                }
+                case GET_LOCAL: {
+                    int distance = code[pc++];
+                    stack[sp++] = environment.getAt(distance, (String) constants[code[pc++]]);
+                    break;
+                }
+                case SET_LOCAL: {
+                    Environment target = environment.ancestor(code[pc++]);
+                    Token name = (Token) constants[code[pc++]];
+                    interpreter.checkWritable(target, name);
+                    target.assignHere(name.lexeme, stack[sp - 1]);
+                    break;
+                }
+                case GET_GLOBAL:
+                    stack[sp++] = interpreter.globals.get((Token) constants[code[pc++]]);
+                    break;
+                case SET_GLOBAL: {
+                    Token name = (Token) constants[code[pc++]];
+                    interpreter.checkWritable(interpreter.globals, name);
+                    interpreter.globals.assign(name, stack[sp - 1]);
+                    break;
+                }
+                case DEFINE:
+                    environment.define((String) constants[code[pc++]], stack[--sp]);
+                    stack[sp] = null;
+                    break;
+                case DEFINE_CONST: {
+                    Stmt.Const stmt = (Stmt.Const) constants[code[pc++]];
+                    environment.define(stmt.name.lexeme, stack[--sp]);
+                    stack[sp] = null;
+                    if (environment == interpreter.globals) {
+                        interpreter.constants.put(stmt.name.lexeme, stmt);
+                    }
+                    break;
+                }
+                case PUSH_ENV:
+                    environment = new Environment(environment, interpreter.owner);
+                    break;
+                case POP_ENV:
+                    environment = environment.enclosing;
+                    break;
+                case NEW_ENV:
+                    stack[sp++] = new Environment(environment, interpreter.owner);
+                    break;
+                case ENTER_ENV:
+                    environment = (Environment) stack[sp - 1];
+                    break;
+                case UNARY: {
+                    Expr.Unary expr = (Expr.Unary) constants[code[pc++]];
+                    stack[sp - 1] = interpreter.unary(expr.operator, stack[sp - 1], expr.operand == LoxType.NUMBER);
+                    break;
+                }
+                case BINARY: {
+                    Expr.Binary expr = (Expr.Binary) constants[code[pc++]];
+                    Object right = stack[--sp];
+                    stack[sp] = null;
+                    stack[sp - 1] = interpreter.binary(expr, stack[sp - 1], right);
+                    break;
+                }
+                case OPERATE: {
+                    Object node = constants[code[pc++]];
+                    Object right = stack[--sp];
+                    stack[sp] = null;
+                    if (node instanceof Expr.CompoundAssign) {
+                        Expr.CompoundAssign expr = (Expr.CompoundAssign) node;
+                        stack[sp - 1] = interpreter.binary(expr.operator, expr.operands, stack[sp - 1], right);
+                    } else {
+                        stack[sp - 1] = interpreter.binary(((Expr.CompoundSet) node).operator, stack[sp - 1], right);
+                    }
+                    break;
+                }
+                case INCREMENT:
+                    stack[sp - 1] = interpreter.increment((Expr.Increment) constants[code[pc++]], stack[sp - 1]);
+                    break;
+                case JUMP:
+                    pc = code[pc];
+                    break;
+                case JUMP_IF_FALSE: {
+                    Object condition = stack[--sp];
+                    stack[sp] = null;
+                    pc = interpreter.isTruthy(condition) ? pc + 1 : code[pc];
+                    break;
+                }
+                case JUMP_IF_TRUE_OR_POP:
+                    if (interpreter.isTruthy(stack[sp - 1])) {
+                        pc = code[pc];
+                    } else {
+                        stack[--sp] = null;
+                        pc++;
+                    }
+                    break;
+                case JUMP_IF_FALSE_OR_POP:
+                    if (!interpreter.isTruthy(stack[sp - 1])) {
+                        pc = code[pc];
+                    } else {
+                        stack[--sp] = null;
+                        pc++;
+                    }
+                    break;
+                case CALL: {
+                    int count = code[pc++];
+                    Expr.Call expr = (Expr.Call) constants[code[pc++]];
+                    int callee = sp - count - 1;
+                    Object function = stack[callee];
+                    if (function instanceof LoxFunction) {
+                        LoxFunction target = (LoxFunction) function;
+                        checkArity(expr, target.arity(), count);
+                        frame.pc = pc;
+                        this.sp = sp;
+                        this.environment = environment;
+                        enter(target.declaration, target.closure, callee, count,
+                                target.isInitializer ? target.closure.getAt(0, "this") : NONE, expr.paren);
+                    } else if (function instanceof LoxClass
+                            && ((LoxClass) function).findMethod("init") instanceof LoxFunction) {
+                        // 与 LoxClass.call 一致：执行 init，结果为新的实例
+                        LoxClass klass = (LoxClass) function;
+                        LoxFunction initializer = (LoxFunction) klass.findMethod("init");
+                        checkArity(expr, initializer.arity(), count);
+                        frame.pc = pc;
+                        this.sp = sp;
+                        this.environment = environment;
+                        enter(initializer.declaration, initializer.closure, callee, count,
+                                new LoxInstance(klass), expr.paren);
+                    } else {
+                        Object[] arguments = Arrays.copyOfRange(stack, callee + 1, sp);
+                        Arrays.fill(stack, callee, sp, null);
+                        sp = callee;
+                        // 原生函数可能回调 Lox 函数，在此之前保存当前帧
+                        frame.pc = pc;
+                        this.sp = sp;
+                        this.environment = environment;
+                        Object value = interpreter.call(function, expr.paren, Arrays.asList(arguments));
+                        stack = this.stack;
+                        stack[sp++] = value;
+                        break;
+                    }
+                    sp = this.sp;
+                    environment = this.environment;
+                    frame = frames[depth - 1];
+                    code = frame.chunk.code;
+                    constants = frame.chunk.constants;
+                    pc = 0;
+                    break;
+                }
+                case RETURN: {
+                    Object value = stack[--sp];
+                    if (frame.result != NONE) {
+                        value = frame.result;
+                    }
+                    Arrays.fill(stack, frame.base, sp + 1, null);
+                    sp = frame.base;
+                    environment = frame.caller;
+                    frame.chunk = null;
+                    frame.caller = null;
+                    frame.result = null;
+                    depth--;
+                    if (depth == exit) {
+                        this.sp = sp;
+                        this.environment = environment;
+                        return value;
+                    }
+                    stack[sp++] = value;
+                    frame = frames[depth - 1];
+                    code = frame.chunk.code;
+                    constants = frame.chunk.constants;
+                    pc = frame.pc;
+                    break;
+                }
+                case PRINT:
+                    interpreter.print(stack[--sp]);
+                    stack[sp] = null;
+                    break;
+                case FUNCTION:
+                    stack[sp++] = new LoxFunction((Stmt.Function) constants[code[pc++]], environment, false);
+                    break;
+                case CLASS:
+                    interpreter.defineClass((Stmt.Class) constants[code[pc++]], stack[--sp], environment);
+                    stack[sp] = null;
+                    break;
+                case GET: {
+                    Token name = (Token) constants[code[pc++]];
+                    stack[sp - 1] = interpreter.get(stack[sp - 1], name);
+                    break;
+                }
+                case CHECK_INSTANCE: {
+                    Token name = (Token) constants[code[pc++]];
+                    if (!(stack[sp - 1] instanceof LoxInstance)) {
+                        throw new RuntimeError(name, "Only instances have fields.");
+                    }
+                    break;
+                }
+                case SET: {
+                    Token name = (Token) constants[code[pc++]];
+                    Object value = stack[--sp];
+                    interpreter.set(stack[sp - 1], name, value);
+                    stack[sp] = null;
+                    stack[sp - 1] = value;
+                    break;
+                }
+                case ARRAY: {
+                    int count = code[pc++];
+                    LoxArray array = new LoxArray(count);
+                    for (int i = sp - count; i < sp; i++) {
+                        array.push(stack[i]);
+                        stack[i] = null;
+                    }
+                    sp -= count;
+                    stack[sp++] = array;
+                    break;
+                }
+                case INDEX: {
+                    Token bracket = (Token) constants[code[pc++]];
+                    Object index = stack[--sp];
+                    stack[sp] = null;
+                    stack[sp - 1] = interpreter.index(stack[sp - 1], bracket, index);
+                    break;
+                }
+                case INDEX_SET: {
+                    Token bracket = (Token) constants[code[pc++]];
+                    Object value = stack[--sp];
+                    Object index = stack[--sp];
+                    interpreter.setIndex(stack[sp - 1], bracket, index, value);
+                    stack[sp + 1] = null;
+                    stack[sp] = null;
+                    stack[sp - 1] = value;
+                    break;
+                }
+                case SUPER: {
+                    int distance = code[pc++];
+                    Expr.Super expr = (Expr.Super) constants[code[pc++]];
+                    stack[sp++] = interpreter.superMethod(expr, environment, distance);
+                    break;
+                }
+                case MATCH: {
+                    Object label = stack[--sp];
+                    stack[sp] = null;
+                    stack[sp - 1] = SwitchTable.matches(stack[sp - 1], label);
+                    break;
+                }
+                case SWITCH_TABLE:
+                    stack[sp - 1] = ((SwitchTable) constants[code[pc++]]).position(stack[sp - 1]);
+                    break;
+                case DISPATCH: {
+                    int[] positions = (int[]) constants[code[pc]];
+                    int position = (int) stack[--sp];
+                    stack[sp] = null;
+                    pc = positions[position];
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown instruction " + code[pc - 1] + " in " + frame.chunk.name);
+            }
+        }
+    }
+
+    private static void checkArity(Expr.Call expr, int arity, int count) {
+        if (arity != count) {
+            throw new RuntimeError(expr.paren, "Expected " + arity + " arguments but got " + count + ".");
+        }
+    }
+
+    /**
+     * 调用 Lox 函数：参数从操作数栈移到新的环境中，压入新的一帧
+     */
+    private void enter(Stmt.Function declaration, Environment closure, int callee, int count,
+                       Object result, Token paren) {
+        Environment environment = new Environment(closure, interpreter.owner);
+        for (int i = 0; i < count; i++) {
+            environment.define(declaration.params.get(i).lexeme, stack[callee + 1 + i]);
+        }
+        Arrays.fill(stack, callee, sp, null);
+        sp = callee;
+        push(StackCompiler.compile(interpreter, declaration), environment, result, paren);
+    }
+}
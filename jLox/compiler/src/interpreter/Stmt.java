@@ -3,6 +3,27 @@ package interpreter;
 import java.util.List;
 
 abstract class Stmt {
+    static final int EXPRESSION = 0;
+    static final int PRINT = 1;
+    static final int RETURN = 2;
+    static final int VAR = 3;
+    static final int CONST = 4;
+    static final int BLOCK = 5;
+    static final int CLASS = 6;
+    static final int IF = 7;
+    static final int FUNCTION = 8;
+    static final int WHILE = 9;
+    static final int FOR = 10;
+    static final int SWITCH = 11;
+    static final int BREAK = 12;
+
+    // 节点种类，dispatch 按它分派
+    final int kind;
+
+    Stmt(int kind) {
+        this.kind = kind;
+    }
+
     abstract <R> R accept(Visitor<R> visitor);
 
     public interface Visitor<R> {
@@ -10,46 +31,86 @@ abstract class Stmt {
         R visitPrintStmt(Print Stmt);
         R visitReturnStmt(Return Stmt);
         R visitVarStmt(Var Stmt);
+        R visitConstStmt(Const Stmt);
         R visitBlockStmt(Block Stmt);
         R visitClassStmt(Class Stmt);
         R visitIfStmt(If Stmt);
         R visitFunctionStmt(Function Stmt);
         R visitWhileStmt(While Stmt);
+        R visitForStmt(For Stmt);
+        R visitSwitchStmt(Switch Stmt);
+        R visitBreakStmt(Break Stmt);
     }
 
-    static class Expression extends Stmt {
+    static <R> R dispatch(Stmt stmt, Visitor<R> visitor) {
+        switch (stmt.kind) {
+            case EXPRESSION:
+                return visitor.visitExpressionStmt((Expression) stmt);
+            case PRINT:
+                return visitor.visitPrintStmt((Print) stmt);
+            case RETURN:
+                return visitor.visitReturnStmt((Return) stmt);
+            case VAR:
+                return visitor.visitVarStmt((Var) stmt);
+            case CONST:
+                return visitor.visitConstStmt((Const) stmt);
+            case BLOCK:
+                return visitor.visitBlockStmt((Block) stmt);
+            case CLASS:
+                return visitor.visitClassStmt((Class) stmt);
+            case IF:
+                return visitor.visitIfStmt((If) stmt);
+            case FUNCTION:
+                return visitor.visitFunctionStmt((Function) stmt);
+            case WHILE:
+                return visitor.visitWhileStmt((While) stmt);
+            case FOR:
+                return visitor.visitForStmt((For) stmt);
+            case SWITCH:
+                return visitor.visitSwitchStmt((Switch) stmt);
+            case BREAK:
+                return visitor.visitBreakStmt((Break) stmt);
+            default:
+                throw new IllegalStateException("Unknown stmt kind " + stmt.kind);
+        }
+    }
+
+    static final class Expression extends Stmt {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitExpressionStmt(this);
         }
 
         Expression(Expr expression) {
+            super(EXPRESSION);
             this.expression = expression;
         }
 
         final Expr expression;
     }
 
-    static class Print extends Stmt {
+    static final class Print extends Stmt {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitPrintStmt(this);
         }
 
         Print(Expr expression) {
+            super(PRINT);
             this.expression = expression;
         }
 
         final Expr expression;
     }
 
-    static class Return extends Stmt {
+    static final class Return extends Stmt {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitReturnStmt(this);
         }
 
         Return(Token keyword, Expr value) {
+            super(RETURN);
             this.keyword = keyword;
             this.value = value;
         }
@@ -58,41 +119,65 @@ abstract class Stmt {
         final Expr value;
     }
 
-    static class Var extends Stmt {
+    static final class Var extends Stmt {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitVarStmt(this);
         }
 
         Var(Token name, Expr initializer) {
+            super(VAR);
+            this.name = name;
+            this.initializer = initializer;
+        }
+
+        final Token name;
+        final Expr initializer;
+        LoxType type = LoxType.UNKNOWN;
+    }
+
+    static final class Const extends Stmt {
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitConstStmt(this);
+        }
+
+        Const(Token name, Expr initializer) {
+            super(CONST);
             this.name = name;
             this.initializer = initializer;
         }
 
         final Token name;
         final Expr initializer;
+        boolean folded = false;
+        Object value = null;
+        LoxType type = LoxType.UNKNOWN;
     }
 
-    static class Block extends Stmt {
+    static final class Block extends Stmt {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitBlockStmt(this);
         }
 
         Block(List<Stmt> statements) {
+            super(BLOCK);
             this.statements = statements;
         }
 
         final List<Stmt> statements;
+        boolean scoped = true;
     }
 
-    static class Class extends Stmt {
+    static final class Class extends Stmt {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitClassStmt(this);
         }
 
         Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
+            super(CLASS);
             this.name = name;
             this.superclass = superclass;
             this.methods = methods;
@@ -103,13 +188,14 @@ abstract class Stmt {
         final List<Stmt.Function> methods;
     }
 
-    static class If extends Stmt {
+    static final class If extends Stmt {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitIfStmt(this);
         }
 
         If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
+            super(IF);
             this.condition = condition;
             this.thenBranch = thenBranch;
             this.elseBranch = elseBranch;
@@ -120,13 +206,14 @@ abstract class Stmt {
         final Stmt elseBranch;
     }
 
-    static class Function extends Stmt {
+    static final class Function extends Stmt {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitFunctionStmt(this);
         }
 
         Function(Token name, List<Token> params, List<Stmt> body) {
+            super(FUNCTION);
             this.name = name;
             this.params = params;
             this.body = body;
@@ -135,21 +222,96 @@ abstract class Stmt {
         final Token name;
         final List<Token> params;
         final List<Stmt> body;
+        int calls = 0;
+        int deopts = 0;
+        volatile interpreter.ir.IrFunction ir = null;
+        StackCompiler.Chunk chunk = null;
     }
 
-    static class While extends Stmt {
+    static final class While extends Stmt {
         @Override
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitWhileStmt(this);
         }
 
-        While(Expr condition, Stmt body) {
+        While(Token keyword, Expr condition, Stmt body) {
+            super(WHILE);
+            this.keyword = keyword;
+            this.condition = condition;
+            this.body = body;
+        }
+
+        final Token keyword;
+        final Expr condition;
+        final Stmt body;
+        int backEdges = 0;
+        int deopts = 0;
+        volatile interpreter.ir.IrFunction ir = null;
+    }
+
+    static final class For extends Stmt {
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitForStmt(this);
+        }
+
+        For(Token keyword, Stmt initializer, Expr condition, Expr increment, Stmt body) {
+            super(FOR);
+            this.keyword = keyword;
+            this.initializer = initializer;
             this.condition = condition;
+            this.increment = increment;
             this.body = body;
         }
 
+        final Token keyword;
+        final Stmt initializer;
         final Expr condition;
+        final Expr increment;
         final Stmt body;
+        int invariants = 0;
+        boolean reuseScope = false;
+        int backEdges = 0;
+        int deopts = 0;
+        volatile interpreter.ir.IrFunction ir = null;
+    }
+
+    static final class Switch extends Stmt {
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitSwitchStmt(this);
+        }
+
+        Switch(Token keyword, Expr value, List<Expr> labels, List<Integer> targets, List<Stmt> body) {
+            super(SWITCH);
+            this.keyword = keyword;
+            this.value = value;
+            this.labels = labels;
+            this.targets = targets;
+            this.body = body;
+        }
+
+        final Token keyword;
+        final Expr value;
+        final List<Expr> labels;
+        final List<Integer> targets;
+        final List<Stmt> body;
+        boolean scoped = true;
+        SwitchTable table = null;
+    }
+
+    static final class Break extends Stmt {
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitBreakStmt(this);
+        }
+
+        Break(Token keyword) {
+            super(BREAK);
+            this.keyword = keyword;
+        }
+
+        final Token keyword;
     }
 
 }
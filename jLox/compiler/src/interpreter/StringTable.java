@@ -0,0 +1,111 @@
+package interpreter;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 字符串的驻留表，作用与 cLox 的 vm.strings 相似：内容相同的字符串尽量是同一个对象，
+ * 比较时由 String.equals 开头的引用比较直接得到结果，作为 Map 的 key 时也不重复占用内存
+ * <p>
+ * 源代码中的字符串常量由 Scanner 驻留到 JVM 的字符串表(String.intern)，一直保留，内容相同的常量总是同一个对象
+ * 运行时读入的 key(JSON 的 key)驻留到有界的表：按 hash 直接映射到槽位，冲突时替换旧的字符串；
+ * 槽位数和字符串的长度都有上限，表占用的内存有界，被替换的字符串由 GC 正常回收
+ * 这个表会丢弃字符串，驻留的字符串不是唯一的，引用不同时仍要比较内容；所以拼接的结果不驻留，不为每次拼接计算 hash
+ * 槽位的读写不加锁：String 不可变，竞争时最多少命中一次
+ */
+final class StringTable {
+    private static final int CAPACITY = 1 << 12;
+    // 更长的字符串很少作为 key 或标签，不驻留
+    private static final int MAX_LENGTH = 64;
+
+    private static final String[] slots = new String[CAPACITY];
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+
+    private StringTable() {
+    }
+
+    /**
+     * 源代码中的字符串常量
+     */
+    static String constant(String value) {
+        String interned = value.intern();
+        slots[slot(interned)] = interned;
+        return interned;
+    }
+
+    /**
+     * 运行时读入的字符串：表中有内容相同的字符串时返回它，否则放入表中
+     */
+    static String intern(String value) {
+        if (value.length() > MAX_LENGTH) {
+            return value;
+        }
+        int slot = slot(value);
+        String existing = slots[slot];
+        if (existing != null && existing.equals(value)) {
+            hits.increment();
+            return existing;
+        }
+        misses.increment();
+        slots[slot] = value;
+        return value;
+    }
+
+    private static int slot(String value) {
+        int hash = value.hashCode();
+        return (hash ^ (hash >>> 16)) & (CAPACITY - 1);
+    }
+
+    /**
+     * 表中字符串的个数
+     */
+    static int size() {
+        int size = 0;
+        for (String slot : slots) {
+            if (slot != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    static long hits() {
+        return hits.sum();
+    }
+
+    static long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * 运行时驻留的命中率，没有驻留过时为 0
+     */
+    static double hitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * 内置函数 stringTableStats 的结果：size、capacity、hits、misses、hitRate
+     */
+    static LoxMap statistics() {
+        LoxMap statistics = new LoxMap();
+        statistics.set("size", (long) size());
+        statistics.set("capacity", (long) CAPACITY);
+        statistics.set("hits", hits());
+        statistics.set("misses", misses());
+        statistics.set("hitRate", hitRate());
+        return statistics;
+    }
+
+    /**
+     * -Dlox.strings.stats=true 时由命令行在执行之后调用
+     */
+    static void printStatistics(PrintStream out) {
+        out.println("STRING TABLE");
+        out.println("size: " + size() + "/" + CAPACITY + ", hits: " + hits.sum() + ", misses: " + misses.sum()
+                + String.format(", hit rate: %.1f%%", hitRate() * 100));
+    }
+}
@@ -0,0 +1,171 @@
+package interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * switch 的分派表，在语义分析阶段由常量 case 标签(字面量、常量以及它们折叠后的表达式)生成
+ * 整数标签足够密集时使用数组，否则使用哈希表，分派的代价与 case 的个数无关
+ * <p>
+ * 入口(entry)为 switch 体中执行开始的语句下标，去重后升序排列，最后一个入口总是 body.size()，
+ * 表示直接跳出 switch；表中存放的是入口的编号
+ */
+class SwitchTable {
+    // 数组的长度不超过标签个数的这个倍数时使用数组
+    private static final int DENSITY = 2;
+    // default 标签
+    static final Object DEFAULT = new Object();
+
+    final int[] entries;
+    // 没有匹配的标签时的入口编号(default 或跳出)
+    final int otherwise;
+    // 数组：标签 min + i 对应 dense[i]，-1 表示没有这个标签
+    private final long min;
+    private final int[] dense;
+    // 哈希表：key(标签) -> 入口编号
+    private final Map<Object, Integer> sparse;
+
+    private SwitchTable(int[] entries, int otherwise, long min, int[] dense, Map<Object, Integer> sparse) {
+        this.entries = entries;
+        this.otherwise = otherwise;
+        this.min = min;
+        this.dense = dense;
+        this.sparse = sparse;
+    }
+
+    /**
+     * 所有 case 标签都是常量时生成分派表，否则返回 null，由解释器依次比较
+     *
+     * @param stmt   Stmt.Switch
+     * @param errors 报告重复的标签
+     * @return SwitchTable or null
+     */
+    static SwitchTable build(Stmt.Switch stmt, ErrorReporter errors) {
+        List<Object> labels = new ArrayList<>();
+        for (Expr label : stmt.labels) {
+            if (label == null) {
+                labels.add(DEFAULT);
+                continue;
+            }
+            Object value = ConstantFolder.valueOf(label);
+            if (value == ConstantFolder.NOT_CONSTANT) {
+                return null;
+            }
+            labels.add(value);
+        }
+        return of(stmt.keyword, labels, stmt.targets, stmt.body.size(), errors);
+    }
+
+    /**
+     * 由标签的值生成分派表，AOT 编译后的代码在运行时也用它生成
+     *
+     * @param keyword switch，用于报告重复的标签
+     * @param labels  每个 case 标签的值，default 为 DEFAULT
+     * @param targets 每个标签开始执行的语句下标
+     * @param size    switch 体中语句的个数
+     * @param errors  报告重复的标签
+     * @return SwitchTable
+     */
+    static SwitchTable of(Token keyword, List<Object> labels, List<Integer> targets, int size,
+                          ErrorReporter errors) {
+        List<Object> keys = new ArrayList<>();
+        TreeSet<Integer> positions = new TreeSet<>();
+        int otherwisePosition = size;
+        for (int i = 0; i < labels.size(); i++) {
+            Object label = labels.get(i);
+            positions.add(targets.get(i));
+            if (label == DEFAULT) {
+                otherwisePosition = targets.get(i);
+            }
+            keys.add(label == DEFAULT ? DEFAULT : key(label));
+        }
+        positions.add(size);
+
+        int[] entries = new int[positions.size()];
+        Map<Integer, Integer> entryOf = new HashMap<>();
+        for (int position : positions) {
+            entryOf.put(position, entryOf.size());
+            entries[entryOf.size() - 1] = position;
+        }
+
+        Map<Object, Integer> sparse = new HashMap<>();
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        boolean integers = true;
+        for (int i = 0; i < keys.size(); i++) {
+            Object key = keys.get(i);
+            if (key == DEFAULT) {
+                continue;
+            }
+            if (sparse.containsKey(key)) {
+                errors.error(keyword, "Duplicate case label '" + key + "'.");
+                continue;
+            }
+            sparse.put(key, entryOf.get(targets.get(i)));
+            if (key instanceof Long) {
+                min = Math.min(min, (long) key);
+                max = Math.max(max, (long) key);
+            } else {
+                integers = false;
+            }
+        }
+
+        int otherwise = entryOf.get(otherwisePosition);
+        // max - min 溢出时为负数
+        long span = max - min;
+        if (integers && !sparse.isEmpty() && span >= 0 && span < (long) DENSITY * sparse.size() + 8) {
+            int[] dense = new int[(int) span + 1];
+            Arrays.fill(dense, -1);
+            for (Map.Entry<Object, Integer> entry : sparse.entrySet()) {
+                dense[(int) ((long) entry.getKey() - min)] = entry.getValue();
+            }
+            return new SwitchTable(entries, otherwise, min, dense, null);
+        }
+        return new SwitchTable(entries, otherwise, 0, null, sparse);
+    }
+
+    /**
+     * 值对应的入口编号
+     */
+    int entry(Object value) {
+        if (dense != null) {
+            long index;
+            if (value instanceof Long) {
+                index = (long) value - min;
+            } else if (value instanceof Double && LoxMap.isIntegral((double) value)) {
+                index = (long) (double) value - min;
+            } else {
+                return otherwise;
+            }
+            if (index < 0 || index >= dense.length || dense[(int) index] < 0) {
+                return otherwise;
+            }
+            return dense[(int) index];
+        }
+        Integer entry = sparse.get(key(value));
+        return entry != null ? entry : otherwise;
+    }
+
+    /**
+     * 值对应的开始执行的语句下标
+     */
+    int position(Object value) {
+        return entries[entry(value)];
+    }
+
+    /**
+     * 标签与值按 == 的语义比较：整数和值相等的浮点数是同一个 key
+     */
+    static boolean matches(Object value, Object label) {
+        Object key = key(value);
+        return key == null ? label == null : key.equals(key(label));
+    }
+
+    private static Object key(Object value) {
+        return LoxMap.normalize(value);
+    }
+}
@@ -0,0 +1,211 @@
+package interpreter;
+
+import interpreter.ir.IrFunction;
+import interpreter.ir.PassManager;
+
+import java.io.PrintStream;
+
+/**
+ * 分层执行：函数和循环(while、for)先由树遍历解释器执行，并在语法树节点上计数
+ * 函数的调用次数或循环的回边次数达到阈值后，降低为 SSA IR 并优化(升级)，之后由 IrExecutor 执行；
+ * 循环在执行中途升级(on-stack replacement)，剩余的迭代直接由 IR 执行，for 循环的初始化不再重复
+ * <p>
+ * 升级时按解释器观察到的操作数类型(Binary.seen)推测类型没有被证明的二元运算；
+ * 推测不成立时这一次执行仍按通用的路径完成，之后退回解释器(deopt)，计数清零，重新收集类型后再升级。
+ * 退回 MAX_DEOPTS 次后再升级时不再推测，IR 在类型没有被证明的地方保留运行时检查
+ * <p>
+ * 不能降低的函数和循环被降级，固定由解释器执行，不再尝试
+ * <p>
+ * -Dlox.tier=false 关闭分层，-Dlox.tier.calls / -Dlox.tier.backedges 设置阈值，
+ * -Dlox.tier.log=true 输出升级、退回和降级的事件
+ */
+class TieringPolicy {
+    static final int DEFAULT_CALLS = 1000;
+    static final int DEFAULT_BACK_EDGES = 10000;
+    static final int MAX_DEOPTS = 3;
+
+    private final boolean enabled;
+    final int callThreshold;
+    final int backEdgeThreshold;
+    private final PrintStream log;
+    private final PassManager passes = PassManager.standard();
+
+    TieringPolicy(boolean enabled, int callThreshold, int backEdgeThreshold, PrintStream log) {
+        this.enabled = enabled;
+        this.callThreshold = Math.max(callThreshold, 1);
+        this.backEdgeThreshold = Math.max(backEdgeThreshold, 1);
+        this.log = log;
+    }
+
+    /**
+     * 从系统属性读取配置
+     */
+    static TieringPolicy fromProperties() {
+        boolean enabled = Boolean.parseBoolean(System.getProperty("lox.tier", "true"));
+        PrintStream log = Boolean.getBoolean("lox.tier.log") ? System.err : null;
+        TieringPolicy policy = new TieringPolicy(enabled,
+                Integer.getInteger("lox.tier.calls", DEFAULT_CALLS),
+                Integer.getInteger("lox.tier.backedges", DEFAULT_BACK_EDGES),
+                log);
+        if (Boolean.getBoolean("lox.ir.dump")) {
+            policy.passes.dumpTo(System.out);
+        }
+        return policy;
+    }
+
+    boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * 记录一次对尚未升级的函数的调用，达到阈值时升级
+     * 计数没有同步，并发调用时只是近似值
+     */
+    void countCall(Interpreter interpreter, Stmt.Function declaration) {
+        if (enabled && ++declaration.calls == callThreshold) {
+            promote(interpreter, declaration);
+        }
+    }
+
+    /**
+     * 记录循环的一条回边，达到阈值时升级
+     *
+     * @return 循环已经升级，剩余的迭代应当由 IR 执行
+     */
+    boolean countBackEdge(Interpreter interpreter, Stmt.While loop) {
+        if (!enabled || ++loop.backEdges != backEdgeThreshold) {
+            return false;
+        }
+        return promote(interpreter, loop);
+    }
+
+    boolean countBackEdge(Interpreter interpreter, Stmt.For loop) {
+        if (!enabled || ++loop.backEdges != backEdgeThreshold) {
+            return false;
+        }
+        return promote(interpreter, loop);
+    }
+
+    /**
+     * 计数(包括 profile 中读入的计数)达到阈值的函数或循环在执行之前直接升级
+     */
+    boolean isHot(Stmt.Function declaration) {
+        return enabled && declaration.ir == null && declaration.calls >= callThreshold;
+    }
+
+    boolean isHot(Stmt.While loop) {
+        return enabled && loop.ir == null && loop.backEdges >= backEdgeThreshold;
+    }
+
+    boolean isHot(Stmt.For loop) {
+        return enabled && loop.ir == null && loop.backEdges >= backEdgeThreshold;
+    }
+
+    /**
+     * 同一个程序在多个 LoxContext 中执行时可能同时达到阈值，在节点上同步，只升级一次
+     */
+    boolean promote(Interpreter interpreter, Stmt.Function declaration) {
+        synchronized (declaration) {
+            if (declaration.ir != null) {
+                return true;
+            }
+            IrFunction function = IrBuilder.lower(interpreter, declaration, declaration.deopts < MAX_DEOPTS);
+            if (!install(function, "<fn " + declaration.name.lexeme + ">",
+                    "after " + declaration.calls + " calls", declaration.deopts)) {
+                return false;
+            }
+            declaration.ir = function;
+            return true;
+        }
+    }
+
+    boolean promote(Interpreter interpreter, Stmt.While loop) {
+        synchronized (loop) {
+            if (loop.ir != null) {
+                return true;
+            }
+            IrFunction function = IrBuilder.lowerLoop(interpreter, loop, loop.deopts < MAX_DEOPTS);
+            if (!install(function, "while at line " + loop.keyword.line,
+                    "after " + loop.backEdges + " back edges", loop.deopts)) {
+                return false;
+            }
+            loop.ir = function;
+            return true;
+        }
+    }
+
+    boolean promote(Interpreter interpreter, Stmt.For loop) {
+        synchronized (loop) {
+            if (loop.ir != null) {
+                return true;
+            }
+            IrFunction function = IrBuilder.lowerLoop(interpreter, loop, loop.deopts < MAX_DEOPTS);
+            if (!install(function, "for at line " + loop.keyword.line,
+                    "after " + loop.backEdges + " back edges", loop.deopts)) {
+                return false;
+            }
+            loop.ir = function;
+            return true;
+        }
+    }
+
+    /**
+     * 优化降低的结果；不能降低时降级
+     */
+    private boolean install(IrFunction function, String what, String detail, int deopts) {
+        if (function == null) {
+            report("demote", what, "cannot be lowered");
+            return false;
+        }
+        passes.run(function);
+        report("promote", what, deopts < MAX_DEOPTS ? detail : detail + " without speculation");
+        return true;
+    }
+
+    /**
+     * 执行 IR 之后调用：推测失败的 IR 被丢弃，计数清零，重新由解释器执行并收集类型，再次达到阈值时重新升级
+     * 已被其它执行丢弃或替换的 IR 不再处理
+     */
+    void deoptimize(Stmt.Function declaration, IrFunction function) {
+        synchronized (declaration) {
+            if (declaration.ir == function) {
+                declaration.ir = null;
+                declaration.calls = 0;
+                declaration.deopts++;
+                report("deopt", "<fn " + declaration.name.lexeme + ">", deopted(declaration.deopts));
+            }
+        }
+    }
+
+    void deoptimize(Stmt.While loop, IrFunction function) {
+        synchronized (loop) {
+            if (loop.ir == function) {
+                loop.ir = null;
+                loop.backEdges = 0;
+                loop.deopts++;
+                report("deopt", "while at line " + loop.keyword.line, deopted(loop.deopts));
+            }
+        }
+    }
+
+    void deoptimize(Stmt.For loop, IrFunction function) {
+        synchronized (loop) {
+            if (loop.ir == function) {
+                loop.ir = null;
+                loop.backEdges = 0;
+                loop.deopts++;
+                report("deopt", "for at line " + loop.keyword.line, deopted(loop.deopts));
+            }
+        }
+    }
+
+    private static String deopted(int deopts) {
+        return "speculation failed (" + deopts + "/" + MAX_DEOPTS + ")";
+    }
+
+    private void report(String event, String what, String detail) {
+        if (log != null) {
+            log.println("[tier] " + event + " " + what + " " + detail);
+        }
+    }
+}
@@ -5,12 +5,14 @@ public class Token {
     public String lexeme; // 标识符
     public Object literal; // 字面量(值)
     public final int line; // 行数
+    public final int offset; // 在源代码中的位置，用于标识语法树节点
 
-    public Token(TokenType type, String lexeme, Object literal, int line) {
+    public Token(TokenType type, String lexeme, Object literal, int line, int offset) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.offset = offset;
     }
 
     @Override
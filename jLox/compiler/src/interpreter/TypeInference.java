@@ -0,0 +1,695 @@
+package interpreter;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * 类型推导，在语义分析之后进行
+ * 推导局部变量、参数和返回值的类型(number, string, bool, nil, unknown)，
+ * 并把证明了的操作数类型写到 Binary / Unary / Logical 节点上，解释器据此跳过运行时类型检查
+ * <p>
+ * - 未被闭包捕获的局部变量：流敏感，每条语句之后更新类型，分支处合并，循环处迭代到不动点
+ * - 被闭包捕获的局部变量：任意调用都可能修改它，取所有赋值类型的合并
+ * - 全局变量：REPL 之后输入的代码也能修改它们，一律视为 unknown
+ * - 局部函数的名字只作为被调用者出现时，参数类型为所有调用处实参类型的合并
+ */
+public class TypeInference implements Expr.Visitor<LoxType>, Stmt.Visitor<Void> {
+    // 块的栈，与 Resolver 中的 scopes 一一对应，<变量名,声明处的token>
+    private final Stack<Map<String, Token>> scopes = new Stack<>();
+    // 变量声明于哪个函数(顶层为 null)
+    private final Map<Token, Stmt.Function> owners = new HashMap<>();
+    // 在声明它的函数之外被引用的变量
+    private final Set<Token> captured = new HashSet<>();
+    // 局部函数的名字 -> 函数声明
+    private final Map<Token, Stmt.Function> functions = new HashMap<>();
+    // 除了直接调用之外还被读取或被赋值的函数名，无法得到全部调用处
+    private final Set<Token> escaping = new HashSet<>();
+    // 被赋值过的函数名，调用处不能假设它仍然指向原来的函数
+    private final Set<Token> reassigned = new HashSet<>();
+
+    // 流不敏感的结论：被捕获的变量和参数的类型，函数的返回值类型
+    private final Map<Token, LoxType> facts = new HashMap<>();
+    private final Map<Stmt.Function, LoxType> returns = new HashMap<>();
+    // 流敏感的状态：当前程序点上未被捕获的局部变量的类型
+    private Map<Token, LoxType> state = new HashMap<>();
+    // 一遍推导中写入每个局部变量的所有类型的合并，最后一遍的结果写在 Var/Const 节点上
+    private final Map<Token, LoxType> stores = new HashMap<>();
+    private final Map<Token, Stmt.Var> variables = new HashMap<>();
+    private final Map<Token, Stmt.Const> constants = new HashMap<>();
+
+    private Stmt.Function currentFunction = null;
+    private LoxType returnType = LoxType.NONE;
+    private boolean reachable = true;
+    // 当前 switch 中所有 break 处状态的合并，null 表示还没有可达的 break
+    private Map<Token, LoxType> breaks = null;
+    // 第一遍只收集变量的捕获和函数名的使用情况
+    private boolean collecting = true;
+    private boolean changed = false;
+
+    /**
+     * 对外接口：对已经通过语义分析的程序进行类型推导
+     *
+     * @param statements 一系列statement
+     */
+    void infer(List<Stmt> statements) {
+        walk(statements);
+        collecting = false;
+        // 收集阶段的捕获信息不完整，得到的结论不可用
+        facts.clear();
+        returns.clear();
+        // 结论只会变大，且格的高度有限，迭代一定会停止
+        // 最后一遍没有任何结论变化，这一遍写入的注解就是最终结果
+        do {
+            changed = false;
+            state = new HashMap<>();
+            stores.clear();
+            reachable = true;
+            walk(statements);
+        } while (changed);
+        for (Map.Entry<Token, Stmt.Var> entry : variables.entrySet()) {
+            entry.getValue().type = stores.getOrDefault(entry.getKey(), LoxType.UNKNOWN);
+        }
+        for (Map.Entry<Token, Stmt.Const> entry : constants.entrySet()) {
+            entry.getValue().type = stores.getOrDefault(entry.getKey(), LoxType.UNKNOWN);
+        }
+    }
+
+    private void walk(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    private LoxType type(Expr expr) {
+        return expr.accept(this);
+    }
+
+    //---------------statements------------------//
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        type(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        type(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        LoxType value = LoxType.NIL;
+        if (stmt.value != null) {
+            value = type(stmt.value);
+        }
+        returnType = returnType.join(value);
+        reachable = false;
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        LoxType value = LoxType.NIL;
+        if (stmt.initializer != null) {
+            value = type(stmt.initializer);
+        }
+        Token binding = declare(stmt.name);
+        if (binding != null) {
+            variables.put(binding, stmt);
+            store(binding, value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitConstStmt(Stmt.Const stmt) {
+        LoxType value = type(stmt.initializer);
+        Token binding = declare(stmt.name);
+        if (binding != null) {
+            constants.put(binding, stmt);
+            store(binding, value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (!stmt.scoped) {
+            walk(stmt.statements);
+            return null;
+        }
+        scopes.push(new HashMap<>());
+        walk(stmt.statements);
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        Token binding = declare(stmt.name);
+        if (binding != null) {
+            store(binding, LoxType.UNKNOWN);
+        }
+        if (stmt.superclass != null) {
+            type(stmt.superclass);
+            scopes.push(new HashMap<>());
+        }
+        scopes.push(new HashMap<>());
+        for (Stmt.Function method : stmt.methods) {
+            function(method, false);
+        }
+        scopes.pop();
+        if (stmt.superclass != null) {
+            scopes.pop();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        type(stmt.condition);
+        Map<Token, LoxType> before = new HashMap<>(state);
+        boolean reachableBefore = reachable;
+
+        stmt.thenBranch.accept(this);
+        Map<Token, LoxType> afterThen = state;
+        boolean reachableThen = reachable;
+
+        state = before;
+        reachable = reachableBefore;
+        if (stmt.elseBranch != null) {
+            stmt.elseBranch.accept(this);
+        }
+
+        // 返回了的分支不参与合并
+        if (reachableThen && reachable) {
+            state = join(afterThen, state);
+        } else if (reachableThen) {
+            state = afterThen;
+        }
+        reachable = reachableThen || reachable;
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        Token binding = declare(stmt.name);
+        if (binding != null) {
+            store(binding, LoxType.UNKNOWN);
+            if (collecting) {
+                functions.put(binding, stmt);
+            }
+        }
+        function(stmt, binding != null && !escaping.contains(binding));
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        loop(stmt.condition, stmt.body, null);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        boolean scoped = stmt.initializer instanceof Stmt.Var;
+        if (scoped) {
+            scopes.push(new HashMap<>());
+        }
+        if (stmt.initializer != null) {
+            stmt.initializer.accept(this);
+        }
+        loop(stmt.condition, stmt.body, stmt.increment);
+        if (scoped) {
+            scopes.pop();
+        }
+        return null;
+    }
+
+    /**
+     * switch：每个入口的状态为进入 switch 时的状态与上一条语句贯穿下来的状态的合并
+     * 结束时的状态为贯穿到末尾、break 和没有匹配(没有 default 时)三者的合并
+     */
+    @Override
+    public Void visitSwitchStmt(Stmt.Switch stmt) {
+        type(stmt.value);
+        for (Expr label : stmt.labels) {
+            if (label != null) {
+                type(label);
+            }
+        }
+        Map<Token, LoxType> before = new HashMap<>(state);
+        boolean reachableBefore = reachable;
+        Map<Token, LoxType> enclosingBreaks = breaks;
+        breaks = null;
+
+        if (stmt.scoped) {
+            scopes.push(new HashMap<>());
+        }
+        reachable = false;
+        for (int i = 0; i <= stmt.body.size(); i++) {
+            if (stmt.targets.contains(i)) {
+                state = reachable ? join(state, before) : new HashMap<>(before);
+                reachable = reachableBefore;
+            }
+            if (i < stmt.body.size()) {
+                stmt.body.get(i).accept(this);
+            }
+        }
+        if (stmt.scoped) {
+            scopes.pop();
+        }
+
+        Map<Token, LoxType> exit = reachable ? state : null;
+        if (breaks != null) {
+            exit = exit == null ? breaks : join(exit, breaks);
+        }
+        if (!stmt.labels.contains(null) && reachableBefore) {
+            exit = exit == null ? before : join(exit, before);
+        }
+        reachable = exit != null;
+        state = exit != null ? exit : before;
+        breaks = enclosingBreaks;
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        if (reachable) {
+            breaks = breaks == null ? new HashMap<>(state) : join(breaks, state);
+        }
+        reachable = false;
+        return null;
+    }
+
+    //---------------Expression------------------//
+
+    @Override
+    public LoxType visitBinaryExpr(Expr.Binary expr) {
+        if (expr.folded) {
+            return LoxType.of(expr.value);
+        }
+        LoxType left = type(expr.left);
+        LoxType right = type(expr.right);
+        expr.operands = left == right ? left : LoxType.UNKNOWN;
+        return binary(expr.operator.type, left, right);
+    }
+
+    /**
+     * 二元运算结果的类型
+     */
+    private LoxType binary(TokenType operator, LoxType left, LoxType right) {
+        switch (operator) {
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+            case BANG_EQUAL:
+            case EQUAL_EQUAL:
+                return LoxType.BOOL;
+            case DIVIDE:
+                return LoxType.NUMBER;
+            case PLUS:
+                if (left == right && left == LoxType.STRING) {
+                    return left;
+                }
+                return arithmetic(left, right);
+            case MINUS:
+            case MULTIPLY:
+                return arithmetic(left, right);
+            case MOD:
+                if (left == LoxType.INTEGER && right == LoxType.INTEGER) {
+                    return LoxType.INTEGER;
+                }
+                return arithmetic(left, right);
+            case SHIFT_LEFT:
+            case SHIFT_RIGHT:
+                return LoxType.INTEGER;
+            case AND:
+            case OR:
+            case XOR:
+                if (left == LoxType.NONE || right == LoxType.NONE) {
+                    return LoxType.NONE;
+                }
+                if (left == right && (left == LoxType.INTEGER || left == LoxType.BOOL)) {
+                    return left;
+                }
+                return LoxType.UNKNOWN;
+            default:
+                return LoxType.UNKNOWN;
+        }
+    }
+
+    /**
+     * 算术运算结果的类型：有浮点数参与时为浮点数，整数之间的运算可能溢出为浮点数
+     */
+    private LoxType arithmetic(LoxType left, LoxType right) {
+        if (left == LoxType.NONE || right == LoxType.NONE) {
+            return LoxType.NONE;
+        }
+        if (left.isNumeric() && right.isNumeric() &&
+                (left == LoxType.NUMBER || right == LoxType.NUMBER)) {
+            return LoxType.NUMBER;
+        }
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitGroupingExpr(Expr.Grouping expr) {
+        return type(expr.expression);
+    }
+
+    @Override
+    public LoxType visitLiteralExpr(Expr.Literal expr) {
+        return LoxType.of(expr.value);
+    }
+
+    @Override
+    public LoxType visitLogicalExpr(Expr.Logical expr) {
+        LoxType left = type(expr.left);
+        Map<Token, LoxType> before = new HashMap<>(state);
+        // 右操作数可能不执行
+        LoxType right = type(expr.right);
+        state = join(before, state);
+        expr.operand = left;
+        return left.join(right);
+    }
+
+    @Override
+    public LoxType visitUnaryExpr(Expr.Unary expr) {
+        if (expr.folded) {
+            return LoxType.of(expr.value);
+        }
+        LoxType right = type(expr.right);
+        expr.operand = right;
+        switch (expr.operator.type) {
+            case MINUS:
+                // 整数取负可能溢出(-Long.MIN_VALUE)为浮点数
+                return right == LoxType.NUMBER || right == LoxType.NONE ? right : LoxType.UNKNOWN;
+            case PLUS:
+                return right.isNumeric() || right == LoxType.NONE ? right : LoxType.UNKNOWN;
+            case BANG:
+                return LoxType.BOOL;
+            case NOT:
+                return LoxType.INTEGER;
+            default:
+                return LoxType.UNKNOWN;
+        }
+    }
+
+    @Override
+    public LoxType visitVariableExpr(Expr.Variable expr) {
+        if (expr.folded) {
+            return LoxType.of(expr.value);
+        }
+        Token binding = lookUp(expr.name);
+        if (binding == null) {
+            return LoxType.UNKNOWN;
+        }
+        if (collecting && functions.containsKey(binding)) {
+            escaping.add(binding);
+        }
+        return load(binding);
+    }
+
+    @Override
+    public LoxType visitAssignExpr(Expr.Assign expr) {
+        LoxType value = type(expr.value);
+        Token binding = lookUp(expr.name);
+        if (binding != null) {
+            if (collecting && functions.containsKey(binding)) {
+                escaping.add(binding);
+                reassigned.add(binding);
+            }
+            store(binding, value);
+        }
+        return value;
+    }
+
+    @Override
+    public LoxType visitCompoundAssignExpr(Expr.CompoundAssign expr) {
+        Token binding = lookUp(expr.name);
+        LoxType left = LoxType.UNKNOWN;
+        if (binding != null) {
+            if (collecting && functions.containsKey(binding)) {
+                escaping.add(binding);
+                reassigned.add(binding);
+            }
+            left = load(binding);
+        }
+        LoxType right = type(expr.value);
+        expr.operands = left == right ? left : LoxType.UNKNOWN;
+        LoxType value = binary(expr.operator.type, left, right);
+        if (binding != null) {
+            store(binding, value);
+        }
+        return value;
+    }
+
+    @Override
+    public LoxType visitCompoundSetExpr(Expr.CompoundSet expr) {
+        type(expr.object);
+        type(expr.value);
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitIncrementExpr(Expr.Increment expr) {
+        if (!(expr.target instanceof Expr.Variable)) {
+            type(expr.target);
+            return LoxType.UNKNOWN;
+        }
+        Token binding = lookUp(((Expr.Variable) expr.target).name);
+        if (binding == null) {
+            return LoxType.UNKNOWN;
+        }
+        if (collecting && functions.containsKey(binding)) {
+            escaping.add(binding);
+            reassigned.add(binding);
+        }
+        LoxType old = load(binding);
+        // 浮点数加 1.0，整数加 1，其余类型运行时检查
+        expr.operand = old;
+        LoxType value = binary(expr.operator.type, old, old == LoxType.NUMBER ? old : LoxType.INTEGER);
+        store(binding, value);
+        return expr.prefix ? value : old;
+    }
+
+    @Override
+    public LoxType visitCallExpr(Expr.Call expr) {
+        Stmt.Function callee = null;
+        Token binding = null;
+        if (expr.callee instanceof Expr.Variable) {
+            // 直接调用不算作函数名的逃逸
+            binding = lookUp(((Expr.Variable) expr.callee).name);
+            if (binding != null) {
+                load(binding);
+                if (!reassigned.contains(binding)) {
+                    callee = functions.get(binding);
+                }
+            }
+        } else {
+            type(expr.callee);
+        }
+
+        boolean closed = callee != null && !escaping.contains(binding) &&
+                callee.params.size() == expr.arguments.size();
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            LoxType argument = type(expr.arguments.get(i));
+            if (closed) {
+                fact(callee.params.get(i), argument);
+            }
+        }
+
+        if (callee == null || collecting) {
+            return LoxType.UNKNOWN;
+        }
+        return returns.getOrDefault(callee, LoxType.NONE);
+    }
+
+    @Override
+    public LoxType visitGetExpr(Expr.Get expr) {
+        type(expr.object);
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitSetExpr(Expr.Set expr) {
+        type(expr.object);
+        return type(expr.value);
+    }
+
+    @Override
+    public LoxType visitArrayExpr(Expr.Array expr) {
+        for (Expr element : expr.elements) {
+            type(element);
+        }
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitIndexExpr(Expr.Index expr) {
+        type(expr.object);
+        type(expr.index);
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitIndexSetExpr(Expr.IndexSet expr) {
+        type(expr.object);
+        type(expr.index);
+        return type(expr.value);
+    }
+
+    @Override
+    public LoxType visitThisExpr(Expr.This expr) {
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitSuperExpr(Expr.Super expr) {
+        return LoxType.UNKNOWN;
+    }
+
+    //---------------helpers------------------//
+
+    /**
+     * 推导函数体，closed 表示所有调用处都已知，参数类型可以取实参类型的合并
+     */
+    private void function(Stmt.Function function, boolean closed) {
+        Map<Token, LoxType> enclosingState = state;
+        Stmt.Function enclosingFunction = currentFunction;
+        LoxType enclosingReturn = returnType;
+        boolean enclosingReachable = reachable;
+
+        state = new HashMap<>();
+        currentFunction = function;
+        returnType = LoxType.NONE;
+        reachable = true;
+
+        scopes.push(new HashMap<>());
+        for (Token param : function.params) {
+            Token binding = declare(param);
+            LoxType type = LoxType.UNKNOWN;
+            if (closed) {
+                type = facts.getOrDefault(binding, LoxType.NONE);
+            }
+            store(binding, type);
+        }
+        walk(function.body);
+        scopes.pop();
+
+        if (reachable) {
+            returnType = returnType.join(LoxType.NIL);
+        }
+        LoxType previous = returns.getOrDefault(function, LoxType.NONE);
+        LoxType result = previous.join(returnType);
+        if (result != previous) {
+            returns.put(function, result);
+            changed = true;
+        }
+
+        state = enclosingState;
+        currentFunction = enclosingFunction;
+        returnType = enclosingReturn;
+        reachable = enclosingReachable;
+    }
+
+    /**
+     * 循环：以进入循环时的状态开始，反复推导循环体，直到入口状态不再变化
+     * 循环结束时的状态为最后一次条件判断之后的状态
+     */
+    private void loop(Expr condition, Stmt body, Expr increment) {
+        boolean reachableBefore = reachable;
+        Map<Token, LoxType> entry = new HashMap<>(state);
+        Map<Token, LoxType> exit;
+        while (true) {
+            state = new HashMap<>(entry);
+            if (condition != null) {
+                type(condition);
+            }
+            exit = state;
+            state = new HashMap<>(exit);
+            body.accept(this);
+            if (increment != null) {
+                type(increment);
+            }
+            Map<Token, LoxType> merged = join(entry, state);
+            if (merged.equals(entry)) {
+                break;
+            }
+            entry = merged;
+        }
+        state = exit;
+        reachable = reachableBefore;
+    }
+
+    private Map<Token, LoxType> join(Map<Token, LoxType> a, Map<Token, LoxType> b) {
+        Map<Token, LoxType> result = new HashMap<>(a);
+        for (Map.Entry<Token, LoxType> entry : b.entrySet()) {
+            result.merge(entry.getKey(), entry.getValue(), LoxType::join);
+        }
+        return result;
+    }
+
+    /**
+     * 在当前作用域中声明变量，全局变量不做推导，返回 null
+     */
+    private Token declare(Token name) {
+        if (scopes.isEmpty()) {
+            return null;
+        }
+        scopes.peek().put(name.lexeme, name);
+        if (collecting) {
+            owners.put(name, currentFunction);
+        }
+        return name;
+    }
+
+    /**
+     * 找到变量声明处的token，全局变量返回 null
+     */
+    private Token lookUp(Token name) {
+        for (int i = scopes.size() - 1; i >= 0; --i) {
+            Token binding = scopes.get(i).get(name.lexeme);
+            if (binding != null) {
+                if (collecting && owners.get(binding) != currentFunction) {
+                    captured.add(binding);
+                }
+                return binding;
+            }
+        }
+        return null;
+    }
+
+    private LoxType load(Token binding) {
+        if (captured.contains(binding)) {
+            return facts.getOrDefault(binding, LoxType.NONE);
+        }
+        return state.getOrDefault(binding, LoxType.UNKNOWN);
+    }
+
+    private void store(Token binding, LoxType type) {
+        stores.merge(binding, type, LoxType::join);
+        if (captured.contains(binding)) {
+            fact(binding, type);
+        } else {
+            state.put(binding, type);
+        }
+    }
+
+    private void fact(Token binding, LoxType type) {
+        LoxType previous = facts.getOrDefault(binding, LoxType.NONE);
+        LoxType result = previous.join(type);
+        if (result != previous) {
+            facts.put(binding, result);
+            changed = true;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package interpreter;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * 数值数组的批量运算，由 NativeLibrary 注册为内置函数
+ * 参与运算的数组都是整数时在 long[] 上运算，结果仍为整数；否则在 double[] 上运算，整数数组先转换为浮点数
+ * 整数运算溢出时与 + - * 相同地得到浮点数：溢出的元素(或溢出之后的累加)按浮点数计算
+ * <p>
+ * 都是普通的标量循环，没有使用 Vector API：写成 C2 的 SuperWord 可以自动向量化的形式
+ * (计数循环、没有分支、按下标访问)，是否生成 SIMD 指令由 JIT 决定；
+ * 求和类的归约用 4 个累加器展开，打破加法之间的依赖链。整数的快速路径用按位的溢出标志代替分支，
+ * 只有出现溢出时才逐个元素重新计算
+ */
+final class VectorOps {
+    /**
+     * 逐元素的二元运算，结果为新的数组
+     */
+    @FunctionalInterface
+    interface Elementwise {
+        double[] apply(double[] a, double[] b, int n);
+    }
+
+    /**
+     * 整数数组逐元素的二元运算，有元素溢出时返回 null
+     */
+    @FunctionalInterface
+    interface IntegerElementwise {
+        long[] apply(long[] a, long[] b, int n);
+    }
+
+    private VectorOps() {
+    }
+
+    static double sum(double[] a, int n) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += a[i];
+            s1 += a[i + 1];
+            s2 += a[i + 2];
+            s3 += a[i + 3];
+        }
+        for (; i < n; i++) {
+            s0 += a[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    static double dot(double[] a, double[] b, int n) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < n; i++) {
+            s0 += a[i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * y = alpha * x + y
+     */
+    static void axpy(double alpha, double[] x, double[] y, int n) {
+        for (int i = 0; i < n; i++) {
+            y[i] += alpha * x[i];
+        }
+    }
+
+    static double[] add(double[] a, double[] b, int n) {
+        double[] c = new double[n];
+        for (int i = 0; i < n; i++) {
+            c[i] = a[i] + b[i];
+        }
+        return c;
+    }
+
+    static double[] subtract(double[] a, double[] b, int n) {
+        double[] c = new double[n];
+        for (int i = 0; i < n; i++) {
+            c[i] = a[i] - b[i];
+        }
+        return c;
+    }
+
+    static double[] multiply(double[] a, double[] b, int n) {
+        double[] c = new double[n];
+        for (int i = 0; i < n; i++) {
+            c[i] = a[i] * b[i];
+        }
+        return c;
+    }
+
+    static double[] divide(double[] a, double[] b, int n) {
+        double[] c = new double[n];
+        for (int i = 0; i < n; i++) {
+            c[i] = a[i] / b[i];
+        }
+        return c;
+    }
+
+    static double min(double[] a, int n) {
+        double m0 = a[0], m1 = a[0], m2 = a[0], m3 = a[0];
+        int i = 1;
+        for (; i + 3 < n; i += 4) {
+            m0 = Math.min(m0, a[i]);
+            m1 = Math.min(m1, a[i + 1]);
+            m2 = Math.min(m2, a[i + 2]);
+            m3 = Math.min(m3, a[i + 3]);
+        }
+        for (; i < n; i++) {
+            m0 = Math.min(m0, a[i]);
+        }
+        return Math.min(Math.min(m0, m1), Math.min(m2, m3));
+    }
+
+    static double max(double[] a, int n) {
+        double m0 = a[0], m1 = a[0], m2 = a[0], m3 = a[0];
+        int i = 1;
+        for (; i + 3 < n; i += 4) {
+            m0 = Math.max(m0, a[i]);
+            m1 = Math.max(m1, a[i + 1]);
+            m2 = Math.max(m2, a[i + 2]);
+            m3 = Math.max(m3, a[i + 3]);
+        }
+        for (; i < n; i++) {
+            m0 = Math.max(m0, a[i]);
+        }
+        return Math.max(Math.max(m0, m1), Math.max(m2, m3));
+    }
+
+    /**
+     * 包含当前元素的前缀和，c[i] = a[0] + ... + a[i]
+     */
+    static double[] prefixSum(double[] a, int n) {
+        double[] c = new double[n];
+        double s = 0;
+        for (int i = 0; i < n; i++) {
+            s += a[i];
+            c[i] = s;
+        }
+        return c;
+    }
+
+    //---------------整数数组------------------//
+
+    /**
+     * 整数的和；溢出后与 Lox 中逐个相加的循环相同，剩余的部分按浮点数累加
+     */
+    static Object sum(long[] a, int n) {
+        long s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        long overflow = 0;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            long r0 = s0 + a[i], r1 = s1 + a[i + 1], r2 = s2 + a[i + 2], r3 = s3 + a[i + 3];
+            overflow |= (s0 ^ r0) & (a[i] ^ r0) | (s1 ^ r1) & (a[i + 1] ^ r1)
+                    | (s2 ^ r2) & (a[i + 2] ^ r2) | (s3 ^ r3) & (a[i + 3] ^ r3);
+            s0 = r0;
+            s1 = r1;
+            s2 = r2;
+            s3 = r3;
+        }
+        if (overflow >= 0) {
+            try {
+                long s = Math.addExact(Math.addExact(s0, s1), Math.addExact(s2, s3));
+                for (; i < n; i++) {
+                    s = Math.addExact(s, a[i]);
+                }
+                return s;
+            } catch (ArithmeticException ignored) {
+                // 按顺序重新计算
+            }
+        }
+        return sequentialSum(a, n);
+    }
+
+    private static Object sequentialSum(long[] a, int n) {
+        long s = 0;
+        int i = 0;
+        try {
+            for (; i < n; i++) {
+                s = Math.addExact(s, a[i]);
+            }
+            return s;
+        } catch (ArithmeticException overflow) {
+            double d = (double) s + (double) a[i];
+            for (i++; i < n; i++) {
+                d += a[i];
+            }
+            return d;
+        }
+    }
+
+    static Object dot(long[] a, long[] b, int n) {
+        long s = 0;
+        int i = 0;
+        try {
+            for (; i < n; i++) {
+                s = Math.addExact(s, Math.multiplyExact(a[i], b[i]));
+            }
+            return s;
+        } catch (ArithmeticException overflow) {
+            double d = (double) s + (double) a[i] * (double) b[i];
+            for (i++; i < n; i++) {
+                d += (double) a[i] * (double) b[i];
+            }
+            return d;
+        }
+    }
+
+    /**
+     * y = alpha * x + y，结果都不溢出时返回新的存储，否则返回 null
+     */
+    static long[] axpy(long alpha, long[] x, long[] y, int n) {
+        long[] c = new long[n];
+        long overflow = 0;
+        for (int i = 0; i < n; i++) {
+            long product = alpha * x[i];
+            long result = product + y[i];
+            // 乘法溢出时高位不是符号扩展；加法溢出时符号位为 1
+            overflow |= (Math.multiplyHigh(alpha, x[i]) ^ (product >> 63))
+                    | ((product ^ result) & (y[i] ^ result)) >>> 63;
+            c[i] = result;
+        }
+        return overflow == 0 ? c : null;
+    }
+
+    static long[] add(long[] a, long[] b, int n) {
+        long[] c = new long[n];
+        long overflow = 0;
+        for (int i = 0; i < n; i++) {
+            long r = a[i] + b[i];
+            overflow |= (a[i] ^ r) & (b[i] ^ r);
+            c[i] = r;
+        }
+        return overflow < 0 ? null : c;
+    }
+
+    static long[] subtract(long[] a, long[] b, int n) {
+        long[] c = new long[n];
+        long overflow = 0;
+        for (int i = 0; i < n; i++) {
+            long r = a[i] - b[i];
+            overflow |= (a[i] ^ b[i]) & (a[i] ^ r);
+            c[i] = r;
+        }
+        return overflow < 0 ? null : c;
+    }
+
+    static long[] multiply(long[] a, long[] b, int n) {
+        long[] c = new long[n];
+        long overflow = 0;
+        for (int i = 0; i < n; i++) {
+            long r = a[i] * b[i];
+            overflow |= Math.multiplyHigh(a[i], b[i]) ^ (r >> 63);
+            c[i] = r;
+        }
+        return overflow == 0 ? c : null;
+    }
+
+    static long min(long[] a, int n) {
+        long m0 = a[0], m1 = a[0], m2 = a[0], m3 = a[0];
+        int i = 1;
+        for (; i + 3 < n; i += 4) {
+            m0 = Math.min(m0, a[i]);
+            m1 = Math.min(m1, a[i + 1]);
+            m2 = Math.min(m2, a[i + 2]);
+            m3 = Math.min(m3, a[i + 3]);
+        }
+        for (; i < n; i++) {
+            m0 = Math.min(m0, a[i]);
+        }
+        return Math.min(Math.min(m0, m1), Math.min(m2, m3));
+    }
+
+    static long max(long[] a, int n) {
+        long m0 = a[0], m1 = a[0], m2 = a[0], m3 = a[0];
+        int i = 1;
+        for (; i + 3 < n; i += 4) {
+            m0 = Math.max(m0, a[i]);
+            m1 = Math.max(m1, a[i + 1]);
+            m2 = Math.max(m2, a[i + 2]);
+            m3 = Math.max(m3, a[i + 3]);
+        }
+        for (; i < n; i++) {
+            m0 = Math.max(m0, a[i]);
+        }
+        return Math.max(Math.max(m0, m1), Math.max(m2, m3));
+    }
+
+    /**
+     * 整数的前缀和；溢出之后的元素为浮点数
+     */
+    static LoxArray prefixSum(long[] a, int n) {
+        long[] c = new long[n];
+        long s = 0;
+        int i = 0;
+        try {
+            for (; i < n; i++) {
+                s = Math.addExact(s, a[i]);
+                c[i] = s;
+            }
+            return LoxArray.ofLongs(c, n);
+        } catch (ArithmeticException overflow) {
+            LoxArray result = LoxArray.ofLongs(c, i);
+            double d = s;
+            for (; i < n; i++) {
+                d += a[i];
+                result.push(d);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 有元素溢出时逐个元素计算：溢出的元素为浮点数，其它仍为整数(与 Lox 中的 + - * 相同)
+     */
+    static LoxArray promote(long[] a, long[] b, int n, LongBinaryOperator exact, DoubleBinaryOperator inexact) {
+        LoxArray c = new LoxArray(n);
+        for (int i = 0; i < n; i++) {
+            try {
+                c.push(exact.applyAsLong(a[i], b[i]));
+            } catch (ArithmeticException overflow) {
+                c.push(inexact.applyAsDouble(a[i], b[i]));
+            }
+        }
+        return c;
+    }
+
+    //---------------内置函数的参数------------------//
+
+    /**
+     * 只有整数元素的数组的 long[]，否则为 null
+     */
+    static long[] integers(Object value) {
+        return value instanceof LoxArray ? ((LoxArray) value).integers() : null;
+    }
+
+    static double[] numbers(Object value) {
+        if (value instanceof LoxArray) {
+            double[] numbers = ((LoxArray) value).numbers();
+            if (numbers != null) {
+                return numbers;
+            }
+        }
+        throw new RuntimeError("Operand must be an array of numbers.");
+    }
+
+    static int length(Object value) {
+        return ((LoxArray) value).length();
+    }
+
+    /**
+     * 两个数组的长度相同，返回长度
+     */
+    static int sameLength(Object a, Object b) {
+        int n = length(a);
+        if (n != length(b)) {
+            throw new RuntimeError("Arrays must have the same length.");
+        }
+        return n;
+    }
+
+    static double number(Object value) {
+        if (value instanceof Double) {
+            return (double) value;
+        }
+        if (value instanceof Long) {
+            return (long) value;
+        }
+        throw new RuntimeError("Operand must be a number.");
+    }
+}
@@ -0,0 +1,56 @@
+package interpreter.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基本块：若干 phi，之后是普通指令，最后一条是跳转或返回
+ */
+public class BasicBlock {
+    public final List<Instruction> instructions = new ArrayList<>();
+    public final List<BasicBlock> predecessors = new ArrayList<>();
+    int id;
+
+    BasicBlock(int id) {
+        this.id = id;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public Instruction terminator() {
+        if (instructions.isEmpty()) {
+            return null;
+        }
+        Instruction last = instructions.get(instructions.size() - 1);
+        return last.opcode.isTerminator() ? last : null;
+    }
+
+    public List<BasicBlock> successors() {
+        Instruction terminator = terminator();
+        if (terminator == null) {
+            return new ArrayList<>();
+        }
+        return terminator.targets;
+    }
+
+    /**
+     * 块开头的 phi 指令
+     */
+    public List<Instruction> phis() {
+        List<Instruction> phis = new ArrayList<>();
+        for (Instruction instruction : instructions) {
+            if (instruction.opcode != Opcode.PHI) {
+                break;
+            }
+            phis.add(instruction);
+        }
+        return phis;
+    }
+
+    @Override
+    public String toString() {
+        return "b" + id;
+    }
+}
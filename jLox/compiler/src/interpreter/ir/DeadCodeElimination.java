@@ -0,0 +1,50 @@
+package interpreter.ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 死代码删除：从有副作用或可能抛出错误的指令出发标记活跃的值，删除其余的指令
+ */
+public class DeadCodeElimination implements Pass {
+    @Override
+    public String name() {
+        return "dce";
+    }
+
+    @Override
+    public boolean run(IrFunction function) {
+        Set<Instruction> live = new HashSet<>();
+        Deque<Instruction> worklist = new ArrayDeque<>();
+        for (BasicBlock block : function.blocks) {
+            for (Instruction instruction : block.instructions) {
+                if (!instruction.isRemovable()) {
+                    live.add(instruction);
+                    worklist.add(instruction);
+                }
+            }
+        }
+        while (!worklist.isEmpty()) {
+            Instruction instruction = worklist.poll();
+            for (Instruction operand : instruction.operands) {
+                if (live.add(operand)) {
+                    worklist.add(operand);
+                }
+            }
+        }
+
+        boolean changed = false;
+        for (BasicBlock block : function.blocks) {
+            for (Instruction instruction : new ArrayList<>(block.instructions)) {
+                if (!live.contains(instruction)) {
+                    function.remove(instruction);
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+}
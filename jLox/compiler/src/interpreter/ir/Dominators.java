@@ -0,0 +1,103 @@
+package interpreter.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 支配树 (Cooper, Harvey, Kennedy: A Simple, Fast Dominance Algorithm)
+ */
+public class Dominators {
+    private final Map<BasicBlock, BasicBlock> idom = new HashMap<>();
+    private final Map<BasicBlock, Integer> order = new HashMap<>();
+    private final Map<BasicBlock, List<BasicBlock>> children = new HashMap<>();
+    private final List<BasicBlock> reversePostorder;
+
+    public Dominators(IrFunction function) {
+        reversePostorder = function.reversePostorder();
+        for (int i = 0; i < reversePostorder.size(); i++) {
+            order.put(reversePostorder.get(i), i);
+            children.put(reversePostorder.get(i), new ArrayList<>());
+        }
+
+        BasicBlock entry = function.entry();
+        idom.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : reversePostorder) {
+                if (block == entry) {
+                    continue;
+                }
+                BasicBlock dominator = null;
+                for (BasicBlock predecessor : block.predecessors) {
+                    if (!idom.containsKey(predecessor)) {
+                        continue;
+                    }
+                    dominator = dominator == null ? predecessor : intersect(predecessor, dominator);
+                }
+                if (dominator != null && idom.get(block) != dominator) {
+                    idom.put(block, dominator);
+                    changed = true;
+                }
+            }
+        }
+
+        for (BasicBlock block : reversePostorder) {
+            if (block != entry && idom.containsKey(block)) {
+                children.get(idom.get(block)).add(block);
+            }
+        }
+    }
+
+    private BasicBlock intersect(BasicBlock a, BasicBlock b) {
+        while (a != b) {
+            while (order.get(a) > order.get(b)) {
+                a = idom.get(a);
+            }
+            while (order.get(b) > order.get(a)) {
+                b = idom.get(b);
+            }
+        }
+        return a;
+    }
+
+    /**
+     * a 是否支配 b (每个块都支配自己)
+     */
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        if (!idom.containsKey(b)) {
+            return false;
+        }
+        while (true) {
+            if (a == b) {
+                return true;
+            }
+            BasicBlock parent = idom.get(b);
+            if (parent == b) {
+                return false;
+            }
+            b = parent;
+        }
+    }
+
+    /**
+     * 指令 def 的值在指令 use 处是否可用
+     */
+    public boolean dominates(Instruction def, Instruction use) {
+        if (def.block != use.block) {
+            return dominates(def.block, use.block);
+        }
+        List<Instruction> instructions = def.block.instructions;
+        return instructions.indexOf(def) < instructions.indexOf(use);
+    }
+
+    public List<BasicBlock> children(BasicBlock block) {
+        return children.get(block);
+    }
+
+    public List<BasicBlock> reversePostorder() {
+        return reversePostorder;
+    }
+}
@@ -0,0 +1,105 @@
+package interpreter.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 全局值编号：沿支配树前序遍历，被支配的相同纯计算替换为支配它的那一个
+ * 所有操作数都相同的 phi 也被替换为该操作数
+ */
+public class GlobalValueNumbering implements Pass {
+    private final Map<String, Instruction> available = new HashMap<>();
+    private IrFunction function;
+    private Dominators dominators;
+    private boolean changed;
+
+    @Override
+    public String name() {
+        return "gvn";
+    }
+
+    @Override
+    public boolean run(IrFunction function) {
+        this.function = function;
+        this.dominators = new Dominators(function);
+        this.changed = false;
+        available.clear();
+        visit(function.entry());
+        return changed;
+    }
+
+    private void visit(BasicBlock block) {
+        List<String> added = new ArrayList<>();
+        for (Instruction instruction : new ArrayList<>(block.instructions)) {
+            if (instruction.opcode == Opcode.PHI) {
+                Instruction same = trivialPhi(instruction);
+                if (same != null) {
+                    replace(instruction, same);
+                }
+                continue;
+            }
+            if (!instruction.isPure()) {
+                continue;
+            }
+            String key = key(instruction);
+            Instruction existing = available.get(key);
+            if (existing != null) {
+                replace(instruction, existing);
+            } else {
+                available.put(key, instruction);
+                added.add(key);
+            }
+        }
+        for (BasicBlock child : dominators.children(block)) {
+            visit(child);
+        }
+        // 离开支配子树后，这些值不再可用
+        for (String key : added) {
+            available.remove(key);
+        }
+    }
+
+    private void replace(Instruction instruction, Instruction replacement) {
+        function.replaceAllUses(instruction, replacement);
+        function.remove(instruction);
+        changed = true;
+    }
+
+    private Instruction trivialPhi(Instruction phi) {
+        Instruction same = null;
+        for (Instruction operand : phi.operands) {
+            if (operand == phi || operand == same) {
+                continue;
+            }
+            if (same != null) {
+                return null;
+            }
+            same = operand;
+        }
+        return same;
+    }
+
+    private String key(Instruction instruction) {
+        StringBuilder key = new StringBuilder(instruction.opcode.name());
+        if (instruction.token != null) {
+            key.append(' ').append(instruction.token.type);
+        }
+        if (instruction.opcode == Opcode.CONST) {
+            Object value = instruction.constant;
+            key.append(' ').append(value == null ? "nil" : value.getClass().getSimpleName() + ":" + value);
+        }
+        if (instruction.opcode == Opcode.PARAM) {
+            key.append(' ').append(instruction.index);
+        }
+        key.append(instruction.checked ? " checked" : " unchecked");
+        if (instruction.speculated != null) {
+            key.append(" speculated ").append(instruction.speculated.getSimpleName());
+        }
+        for (Instruction operand : instruction.operands) {
+            key.append(' ').append(operand);
+        }
+        return key.toString();
+    }
+}
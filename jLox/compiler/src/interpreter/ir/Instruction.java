@@ -0,0 +1,92 @@
+package interpreter.ir;
+
+import interpreter.Token;
+import interpreter.TokenType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SSA 形式的指令，同时也是它产生的值
+ */
+public class Instruction {
+    public final Opcode opcode;
+    public final List<Instruction> operands = new ArrayList<>();
+    // 运算符或变量名，运行时错误也报告在这个 token 上
+    public final Token token;
+    // CONST 的值
+    public final Object constant;
+    // PARAM 的下标 或 LOAD/STORE 的环境层数
+    public final int index;
+    // JUMP/BRANCH/SWITCH 的目标块
+    public final List<BasicBlock> targets = new ArrayList<>();
+    // BINARY/UNARY 的操作数类型未被证明时需要运行时检查，可能抛出 runtime error
+    public boolean checked = true;
+    // BINARY 的操作数类型由类型反馈推测而没有被证明时为推测的类型(Long 或 Double)，
+    // 运行时不符则按通用的路径执行并使函数失效(deopt)
+    public Class<?> speculated = null;
+
+    BasicBlock block;
+    int id;
+
+    Instruction(Opcode opcode, Token token, Object constant, int index) {
+        this.opcode = opcode;
+        this.token = token;
+        this.constant = constant;
+        this.index = index;
+    }
+
+    public BasicBlock block() {
+        return block;
+    }
+
+    /**
+     * 在函数中的编号，也是执行时寄存器的下标
+     */
+    public int id() {
+        return id;
+    }
+
+    /**
+     * 运行时是否可能抛出 runtime error
+     */
+    public boolean canThrow() {
+        switch (opcode) {
+            case BINARY:
+                TokenType type = token.type;
+                return (checked || speculated != null) && type != TokenType.EQUAL_EQUAL && type != TokenType.BANG_EQUAL;
+            case UNARY:
+                return checked && token.type != TokenType.BANG;
+            case LOAD_GLOBAL:
+            case STORE_GLOBAL:
+            case CALL:
+            case GET:
+            case SET:
+            case INDEX:
+            case INDEX_SET:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 结果只取决于操作数，可以进行值编号
+     */
+    public boolean isPure() {
+        return opcode == Opcode.CONST || opcode == Opcode.PARAM ||
+                opcode == Opcode.BINARY || opcode == Opcode.UNARY;
+    }
+
+    /**
+     * 可以删除或移动而不改变程序行为
+     */
+    public boolean isRemovable() {
+        return !opcode.hasSideEffects() && !canThrow();
+    }
+
+    @Override
+    public String toString() {
+        return "%" + id;
+    }
+}
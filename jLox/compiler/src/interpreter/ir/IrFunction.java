@@ -0,0 +1,203 @@
+package interpreter.ir;
+
+import interpreter.Token;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 一个 Lox 函数体的 SSA 形式，blocks.get(0) 为入口块
+ */
+public class IrFunction {
+    public final String name;
+    public final int arity;
+    public final List<BasicBlock> blocks = new ArrayList<>();
+    private int nextInstruction = 0;
+    private int nextBlock = 0;
+    // 推测的类型不成立时由执行器标记，调用者在这次执行结束后退回解释器
+    private volatile boolean invalidated = false;
+
+    public IrFunction(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    public void invalidate() {
+        invalidated = true;
+    }
+
+    public boolean invalidated() {
+        return invalidated;
+    }
+
+    public BasicBlock entry() {
+        return blocks.get(0);
+    }
+
+    /**
+     * 执行时需要的寄存器个数
+     */
+    public int size() {
+        return nextInstruction;
+    }
+
+    public BasicBlock newBlock() {
+        BasicBlock block = new BasicBlock(nextBlock++);
+        blocks.add(block);
+        return block;
+    }
+
+    public Instruction append(BasicBlock block, Opcode opcode, Token token,
+                              Object constant, int index, Instruction... operands) {
+        Instruction instruction = new Instruction(opcode, token, constant, index);
+        for (Instruction operand : operands) {
+            instruction.operands.add(operand);
+        }
+        instruction.block = block;
+        instruction.id = nextInstruction++;
+        block.instructions.add(instruction);
+        return instruction;
+    }
+
+    public Instruction constant(BasicBlock block, Object value) {
+        return append(block, Opcode.CONST, null, value, 0);
+    }
+
+    /**
+     * 在块开头(已有的 phi 之后)插入一个没有操作数的 phi
+     */
+    public Instruction phi(BasicBlock block) {
+        Instruction phi = new Instruction(Opcode.PHI, null, null, 0);
+        phi.block = block;
+        phi.id = nextInstruction++;
+        block.instructions.add(block.phis().size(), phi);
+        return phi;
+    }
+
+    public void jump(BasicBlock from, BasicBlock to) {
+        Instruction jump = append(from, Opcode.JUMP, null, null, 0);
+        jump.targets.add(to);
+        to.predecessors.add(from);
+    }
+
+    public void branch(BasicBlock from, Instruction condition,
+                       BasicBlock ifTrue, BasicBlock ifFalse) {
+        Instruction branch = append(from, Opcode.BRANCH, null, null, 0, condition);
+        branch.targets.add(ifTrue);
+        branch.targets.add(ifFalse);
+        ifTrue.predecessors.add(from);
+        ifFalse.predecessors.add(from);
+    }
+
+    /**
+     * 多路跳转，table 由执行器解释，把 value 映射为 targets 的下标，targets 不能重复
+     */
+    public Instruction dispatch(BasicBlock from, Token token, Instruction value,
+                                Object table, List<BasicBlock> targets) {
+        Instruction dispatch = append(from, Opcode.SWITCH, token, table, 0, value);
+        for (BasicBlock target : targets) {
+            dispatch.targets.add(target);
+            target.predecessors.add(from);
+        }
+        return dispatch;
+    }
+
+    /**
+     * 把 instruction 移动到 block 的跳转指令之前
+     */
+    public void moveBeforeTerminator(Instruction instruction, BasicBlock block) {
+        instruction.block.instructions.remove(instruction);
+        int position = block.instructions.size();
+        if (block.terminator() != null) {
+            position--;
+        }
+        block.instructions.add(position, instruction);
+        instruction.block = block;
+    }
+
+    public void remove(Instruction instruction) {
+        instruction.block.instructions.remove(instruction);
+    }
+
+    /**
+     * 把所有对 old 的使用替换为 replacement，返回使用了 old 的指令
+     */
+    public List<Instruction> replaceAllUses(Instruction old, Instruction replacement) {
+        List<Instruction> users = new ArrayList<>();
+        for (BasicBlock block : blocks) {
+            for (Instruction instruction : block.instructions) {
+                boolean used = false;
+                for (int i = 0; i < instruction.operands.size(); i++) {
+                    if (instruction.operands.get(i) == old) {
+                        instruction.operands.set(i, replacement);
+                        used = true;
+                    }
+                }
+                if (used) {
+                    users.add(instruction);
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * 删除从入口不可达的块，同时从可达块的 phi 中删除对应的操作数
+     */
+    public void removeUnreachableBlocks() {
+        Set<BasicBlock> reachable = new HashSet<>(reversePostorder());
+        for (BasicBlock block : blocks) {
+            if (!reachable.contains(block)) {
+                continue;
+            }
+            for (int i = block.predecessors.size() - 1; i >= 0; i--) {
+                if (reachable.contains(block.predecessors.get(i))) {
+                    continue;
+                }
+                block.predecessors.remove(i);
+                for (Instruction phi : block.phis()) {
+                    phi.operands.remove(i);
+                }
+            }
+        }
+        blocks.retainAll(reachable);
+    }
+
+    /**
+     * 重新按顺序编号块和指令，使寄存器紧凑
+     */
+    public void renumber() {
+        nextBlock = 0;
+        nextInstruction = 0;
+        for (BasicBlock block : reversePostorder()) {
+            block.id = nextBlock++;
+            for (Instruction instruction : block.instructions) {
+                instruction.id = nextInstruction++;
+            }
+        }
+        blocks.sort((a, b) -> a.id - b.id);
+    }
+
+    /**
+     * 从入口出发的逆后序，即前驱(回边除外)总是排在后继之前
+     */
+    public List<BasicBlock> reversePostorder() {
+        List<BasicBlock> order = new ArrayList<>();
+        postorder(entry(), new HashSet<>(), order);
+        Collections.reverse(order);
+        return order;
+    }
+
+    private void postorder(BasicBlock block, Set<BasicBlock> visited, List<BasicBlock> order) {
+        if (!visited.add(block)) {
+            return;
+        }
+        for (BasicBlock successor : block.successors()) {
+            postorder(successor, visited, order);
+        }
+        order.add(block);
+    }
+}
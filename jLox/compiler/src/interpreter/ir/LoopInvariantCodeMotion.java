@@ -0,0 +1,141 @@
+package interpreter.ir;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 循环不变量外提：操作数都定义在循环外的指令移动到循环的前置块(preheader)
+ * 只移动不会抛出错误的纯计算，以及循环中没有调用和对应写入时的闭包变量读取，
+ * 因此即使循环一次都不执行，提前计算也不会改变程序的行为
+ */
+public class LoopInvariantCodeMotion implements Pass {
+    @Override
+    public String name() {
+        return "licm";
+    }
+
+    @Override
+    public boolean run(IrFunction function) {
+        Dominators dominators = new Dominators(function);
+        // 循环头 -> 循环中的块
+        Map<BasicBlock, Set<BasicBlock>> loops = new LinkedHashMap<>();
+        for (BasicBlock block : dominators.reversePostorder()) {
+            for (BasicBlock successor : block.successors()) {
+                if (dominators.dominates(successor, block)) {
+                    Set<BasicBlock> body = loops.computeIfAbsent(successor, header -> new HashSet<>());
+                    collect(successor, block, body);
+                }
+            }
+        }
+
+        // 先处理内层循环，外提到内层前置块的值可以继续被外层循环外提
+        List<Map.Entry<BasicBlock, Set<BasicBlock>>> ordered = new ArrayList<>(loops.entrySet());
+        ordered.sort((a, b) -> a.getValue().size() - b.getValue().size());
+
+        boolean changed = false;
+        for (Map.Entry<BasicBlock, Set<BasicBlock>> loop : ordered) {
+            BasicBlock preheader = preheader(loop.getKey(), loop.getValue());
+            if (preheader != null) {
+                changed |= hoist(function, dominators.reversePostorder(), loop.getValue(), preheader);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 回边 latch -> header 对应的自然循环
+     */
+    private void collect(BasicBlock header, BasicBlock latch, Set<BasicBlock> body) {
+        body.add(header);
+        List<BasicBlock> worklist = new ArrayList<>();
+        if (body.add(latch)) {
+            worklist.add(latch);
+        }
+        while (!worklist.isEmpty()) {
+            BasicBlock block = worklist.remove(worklist.size() - 1);
+            for (BasicBlock predecessor : block.predecessors) {
+                if (body.add(predecessor)) {
+                    worklist.add(predecessor);
+                }
+            }
+        }
+    }
+
+    /**
+     * 循环外唯一的、只跳转到循环头的前驱
+     */
+    private BasicBlock preheader(BasicBlock header, Set<BasicBlock> body) {
+        BasicBlock preheader = null;
+        for (BasicBlock predecessor : header.predecessors) {
+            if (body.contains(predecessor)) {
+                continue;
+            }
+            if (preheader != null) {
+                return null;
+            }
+            preheader = predecessor;
+        }
+        if (preheader == null || preheader.successors().size() != 1) {
+            return null;
+        }
+        return preheader;
+    }
+
+    private boolean hoist(IrFunction function, List<BasicBlock> order,
+                          Set<BasicBlock> body, BasicBlock preheader) {
+        boolean calls = false;
+        Set<String> stores = new HashSet<>();
+        for (BasicBlock block : body) {
+            for (Instruction instruction : block.instructions) {
+                if (instruction.opcode == Opcode.CALL) {
+                    calls = true;
+                } else if (instruction.opcode == Opcode.STORE) {
+                    stores.add(instruction.token.lexeme + "@" + instruction.index);
+                }
+            }
+        }
+
+        boolean changed = false;
+        boolean moved = true;
+        while (moved) {
+            moved = false;
+            for (BasicBlock block : order) {
+                if (!body.contains(block)) {
+                    continue;
+                }
+                for (Instruction instruction : new ArrayList<>(block.instructions)) {
+                    if (!invariant(instruction, body)) {
+                        continue;
+                    }
+                    boolean hoistable = instruction.isPure() && instruction.isRemovable();
+                    if (instruction.opcode == Opcode.LOAD) {
+                        hoistable = !calls && !stores.contains(
+                                instruction.token.lexeme + "@" + instruction.index);
+                    }
+                    if (hoistable) {
+                        function.moveBeforeTerminator(instruction, preheader);
+                        moved = true;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    private boolean invariant(Instruction instruction, Set<BasicBlock> body) {
+        if (instruction.opcode == Opcode.PHI || instruction.opcode.isTerminator()) {
+            return false;
+        }
+        for (Instruction operand : instruction.operands) {
+            if (body.contains(operand.block)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,48 @@
+package interpreter.ir;
+
+/**
+ * IR 指令的种类
+ */
+public enum Opcode {
+    CONST,        // 常量 constant
+    PARAM,        // 第 index 个参数
+    PHI,          // 按前驱块选择操作数
+    BINARY,       // 二元运算 token 为运算符
+    UNARY,        // 一元运算 token 为运算符
+    LOAD,         // 读取闭包环境中 distance 层的变量 token
+    STORE,        // 写入闭包环境中 distance 层的变量 token
+    LOAD_GLOBAL,  // 读取全局变量
+    STORE_GLOBAL, // 写入全局变量
+    CALL,         // operands[0] 为被调用者，其余为实参
+    GET,          // 读取属性
+    SET,          // 写入属性
+    ARRAY,        // 由 operands 创建数组
+    INDEX,        // operands[0][operands[1]]
+    INDEX_SET,    // operands[0][operands[1]] = operands[2]
+    PRINT,
+    JUMP,         // 无条件跳转到 targets[0]
+    BRANCH,       // 为真跳转到 targets[0]，否则 targets[1]
+    SWITCH,       // 按 constant 中的分派表跳转到 targets 中的一个
+    RETURN;
+
+    public boolean isTerminator() {
+        return this == JUMP || this == BRANCH || this == SWITCH || this == RETURN;
+    }
+
+    /**
+     * 是否有除了产生值以外的副作用
+     */
+    public boolean hasSideEffects() {
+        switch (this) {
+            case STORE:
+            case STORE_GLOBAL:
+            case CALL:
+            case SET:
+            case INDEX_SET:
+            case PRINT:
+                return true;
+            default:
+                return isTerminator();
+        }
+    }
+}
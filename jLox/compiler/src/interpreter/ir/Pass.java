@@ -0,0 +1,14 @@
+package interpreter.ir;
+
+/**
+ * IR 上的一个优化
+ */
+public interface Pass {
+    String name();
+
+    /**
+     * @param function IrFunction
+     * @return IR 是否被修改
+     */
+    boolean run(IrFunction function);
+}
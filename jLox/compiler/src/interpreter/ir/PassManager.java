@@ -0,0 +1,55 @@
+package interpreter.ir;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 按顺序执行一组优化，每个优化之后验证 IR，可选地输出每一步的结果
+ */
+public class PassManager {
+    private final List<Pass> passes = new ArrayList<>();
+    private PrintStream dump = null;
+
+    public PassManager(Pass... passes) {
+        this.passes.addAll(Arrays.asList(passes));
+    }
+
+    /**
+     * 默认的优化流水线
+     */
+    public static PassManager standard() {
+        return new PassManager(
+                new GlobalValueNumbering(),
+                new LoopInvariantCodeMotion(),
+                new GlobalValueNumbering(),
+                new DeadCodeElimination());
+    }
+
+    public PassManager add(Pass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    public PassManager dumpTo(PrintStream dump) {
+        this.dump = dump;
+        return this;
+    }
+
+    public void run(IrFunction function) {
+        function.removeUnreachableBlocks();
+        Verifier.verify(function);
+        if (dump != null) {
+            dump.print("; lowered\n" + Printer.print(function));
+        }
+        for (Pass pass : passes) {
+            boolean changed = pass.run(function);
+            Verifier.verify(function);
+            if (dump != null && changed) {
+                dump.print("; after " + pass.name() + "\n" + Printer.print(function));
+            }
+        }
+        function.renumber();
+    }
+}
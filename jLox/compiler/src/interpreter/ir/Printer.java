@@ -0,0 +1,87 @@
+package interpreter.ir;
+
+/**
+ * 将 IR 输出为文本，便于调试
+ * <pre>
+ * fun fib(1) {
+ * b0:
+ *   %0 = param 0
+ *   %1 = const 2
+ *   %2 = binary < %0 %1
+ *   branch %2 b1 b2
+ * ...
+ * </pre>
+ */
+public class Printer {
+    public static String print(IrFunction function) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("fun ").append(function.name)
+                .append("(").append(function.arity).append(") {\n");
+        for (BasicBlock block : function.blocks) {
+            builder.append(block).append(":");
+            if (!block.predecessors.isEmpty()) {
+                builder.append("  ; preds");
+                for (BasicBlock predecessor : block.predecessors) {
+                    builder.append(" ").append(predecessor);
+                }
+            }
+            builder.append("\n");
+            for (Instruction instruction : block.instructions) {
+                builder.append("  ").append(print(instruction)).append("\n");
+            }
+        }
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    public static String print(Instruction instruction) {
+        StringBuilder builder = new StringBuilder();
+        if (!instruction.opcode.isTerminator() && instruction.opcode != Opcode.STORE &&
+                instruction.opcode != Opcode.STORE_GLOBAL && instruction.opcode != Opcode.PRINT) {
+            builder.append(instruction).append(" = ");
+        }
+        builder.append(instruction.opcode.name().toLowerCase());
+        switch (instruction.opcode) {
+            case CONST:
+                Object value = instruction.constant;
+                builder.append(" ").append(value instanceof String ? "\"" + value + "\"" : value);
+                break;
+            case PARAM:
+                builder.append(" ").append(instruction.index);
+                break;
+            case LOAD:
+            case STORE:
+                builder.append(" ").append(instruction.token.lexeme)
+                        .append("@").append(instruction.index);
+                break;
+            case LOAD_GLOBAL:
+            case STORE_GLOBAL:
+            case GET:
+            case SET:
+                builder.append(" ").append(instruction.token.lexeme);
+                break;
+            case BINARY:
+            case UNARY:
+                builder.append(" ").append(instruction.token.lexeme);
+                if (!instruction.checked) {
+                    builder.append(" unchecked");
+                }
+                if (instruction.speculated != null) {
+                    builder.append(" speculated ").append(instruction.speculated.getSimpleName());
+                }
+                break;
+            default:
+                break;
+        }
+        for (int i = 0; i < instruction.operands.size(); i++) {
+            builder.append(" ").append(instruction.operands.get(i));
+            if (instruction.opcode == Opcode.PHI) {
+                builder.append(" ").append(instruction.block.predecessors.get(i));
+            }
+        }
+        for (BasicBlock target : instruction.targets) {
+            builder.append(" ").append(target);
+        }
+        return builder.toString();
+    }
+}
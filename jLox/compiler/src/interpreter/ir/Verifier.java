@@ -0,0 +1,82 @@
+package interpreter.ir;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 检查 IR 是否合法：块结构、phi 与前驱一致、每个使用都被定义支配
+ * 不合法时抛出 IllegalStateException，说明是编译器本身的错误
+ */
+public class Verifier {
+    public static void verify(IrFunction function) {
+        Set<Instruction> defined = new HashSet<>();
+        Set<BasicBlock> blocks = new HashSet<>(function.blocks);
+        for (BasicBlock block : function.blocks) {
+            for (Instruction instruction : block.instructions) {
+                defined.add(instruction);
+            }
+        }
+        Dominators dominators = new Dominators(function);
+
+        for (BasicBlock block : function.blocks) {
+            if (block.terminator() == null) {
+                fail(function, block + " does not end with a terminator");
+            }
+            boolean phis = true;
+            for (int i = 0; i < block.instructions.size(); i++) {
+                Instruction instruction = block.instructions.get(i);
+                if (instruction.block != block) {
+                    fail(function, instruction + " is listed in " + block + " but belongs to " + instruction.block);
+                }
+                if (instruction.opcode.isTerminator() && i != block.instructions.size() - 1) {
+                    fail(function, "terminator " + instruction + " in the middle of " + block);
+                }
+                if (instruction.opcode == Opcode.PHI) {
+                    if (!phis) {
+                        fail(function, "phi " + instruction + " after a non-phi in " + block);
+                    }
+                    if (instruction.operands.size() != block.predecessors.size()) {
+                        fail(function, "phi " + instruction + " has " + instruction.operands.size() +
+                                " operands but " + block + " has " + block.predecessors.size() + " predecessors");
+                    }
+                } else {
+                    phis = false;
+                }
+
+                for (int j = 0; j < instruction.operands.size(); j++) {
+                    Instruction operand = instruction.operands.get(j);
+                    if (!defined.contains(operand)) {
+                        fail(function, instruction + " uses undefined value " + operand);
+                    }
+                    if (instruction.opcode == Opcode.PHI) {
+                        // phi 的操作数只需要在对应前驱的末尾可用
+                        BasicBlock predecessor = block.predecessors.get(j);
+                        if (!dominators.dominates(operand.block, predecessor)) {
+                            fail(function, "phi operand " + operand + " does not dominate " + predecessor);
+                        }
+                    } else if (!dominators.dominates(operand, instruction)) {
+                        fail(function, operand + " does not dominate its use " + instruction);
+                    }
+                }
+            }
+
+            for (BasicBlock successor : block.successors()) {
+                if (!blocks.contains(successor)) {
+                    fail(function, block + " jumps to removed block " + successor);
+                }
+                if (!successor.predecessors.contains(block)) {
+                    fail(function, block + " is missing from the predecessors of " + successor);
+                }
+            }
+            for (BasicBlock predecessor : block.predecessors) {
+                if (!predecessor.successors().contains(block)) {
+                    fail(function, predecessor + " is listed as a predecessor of " + block + " but does not jump to it");
+                }
+            }
+        }
+    }
+
+    private static void fail(IrFunction function, String message) {
+        throw new IllegalStateException("Invalid IR in " + function.name + ": " + message);
+    }
+}
@@ -10,6 +10,7 @@ import java.util.List;
 
 /**
  * 工具类，生成 Expr 和 Stmt 两个 Visiter 类
+ * 每种节点有一个 kind 编号，dispatch 按 kind 的 switch 分派，代替 accept 的虚调用
  */
 public class GenerateAst {
     public static void main(String[] args) throws IOException {
@@ -25,34 +26,65 @@ public class GenerateAst {
         }
 
         String outputDir = tokens[1];
-        // 语法产生式: ClassName : field[type, name]
+        // 语法产生式: ClassName : field[type, name] ( ; annotation )?
+        // annotation 为语义分析阶段填写的可变字段，不出现在构造函数中
         defineAst(outputDir, "Expr", Arrays.asList(
-                "This     : Token keyword",
+                "This     : Token keyword ; Object cache = null",
                 "Super    : Token keyword, Token method",
-                "Unary    : Token operator, Expr right",
-                "Binary   : Expr left, Token operator, Expr right",
+                "Unary    : Token operator, Expr right" +
+                        " ; int invariant = -1, LoxType operand = LoxType.UNKNOWN," +
+                        " boolean folded = false, Object value = null",
+                "Binary   : Expr left, Token operator, Expr right" +
+                        " ; int invariant = -1, LoxType operands = LoxType.UNKNOWN," +
+                        " boolean folded = false, Object value = null," +
+                        " int seen = 0, LoxType expected = LoxType.UNKNOWN",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
-                "Logical  : Expr left, Token operator, Expr right",
-                "Variable : Token name",
+                "Logical  : Expr left, Token operator, Expr right" +
+                        " ; int invariant = -1, LoxType operand = LoxType.UNKNOWN",
+                "Variable : Token name ; boolean folded = false, Object value = null, Object cache = null",
                 "Assign   : Token name, Expr value",
-                "Call     : Expr callee, Token paren, List<Expr> arguments",
+                "Call     : Expr callee, Token paren, List<Expr> arguments" +
+                        " ; Stmt.Function target = null, boolean polymorphic = false, NativeMethod intrinsic = null," +
+                        " boolean folded = false, Object value = null",
                 "Get      : Expr object, Token name",
-                "Set      : Expr object, Token name, Expr value"
+                "Set      : Expr object, Token name, Expr value",
+                "CompoundAssign : Token name, Token operator, Expr value" +
+                        " ; LoxType operands = LoxType.UNKNOWN",
+                "CompoundSet    : Expr object, Token name, Token operator, Expr value",
+                "Increment      : Expr target, Token operator, boolean prefix" +
+                        " ; LoxType operand = LoxType.UNKNOWN",
+                "Array    : Token bracket, List<Expr> elements",
+                "Index    : Expr object, Token bracket, Expr index",
+                "IndexSet : Expr object, Token bracket, Expr index, Expr value"
         ));
         defineAst(outputDir, "Stmt", Arrays.asList(
                 "Expression : Expr expression",
                 "Print      : Expr expression",
                 "Return     : Token keyword, Expr value",
-                "Var        : Token name, Expr initializer",
-                "Block      : List<Stmt> statements",
+                "Var        : Token name, Expr initializer ; LoxType type = LoxType.UNKNOWN",
+                "Const      : Token name, Expr initializer" +
+                        " ; boolean folded = false, Object value = null, LoxType type = LoxType.UNKNOWN",
+                "Block      : List<Stmt> statements ; boolean scoped = true",
                 "Class      : Token name, Expr.Variable superclass," +
                         " List<Stmt.Function> methods",
                 "If         : Expr condition, Stmt thenBranch," +
                         " Stmt elseBranch",
                 "Function   : Token name, List<Token> params," +
-                        " List<Stmt> body",
-                "While      : Expr condition, Stmt body"
+                        " List<Stmt> body ; int calls = 0, int deopts = 0," +
+                        " volatile interpreter.ir.IrFunction ir = null, StackCompiler.Chunk chunk = null",
+                "While      : Token keyword, Expr condition, Stmt body" +
+                        " ; int backEdges = 0, int deopts = 0," +
+                        " volatile interpreter.ir.IrFunction ir = null",
+                "For        : Token keyword, Stmt initializer, Expr condition," +
+                        " Expr increment, Stmt body" +
+                        " ; int invariants = 0, boolean reuseScope = false," +
+                        " int backEdges = 0, int deopts = 0," +
+                        " volatile interpreter.ir.IrFunction ir = null",
+                "Switch     : Token keyword, Expr value, List<Expr> labels," +
+                        " List<Integer> targets, List<Stmt> body" +
+                        " ; boolean scoped = true, SwitchTable table = null",
+                "Break      : Token keyword"
         ));
     }
 
@@ -67,21 +99,67 @@ public class GenerateAst {
         writer.println("import java.util.List;");
         writer.println();
         writer.println("abstract class " + baseName + " {");
+        defineKinds(writer, baseName, types);
         writer.println("    abstract <R> R accept(Visitor<R> visitor);");
         writer.println();
 
         defineVisitor(writer, baseName, types);
+        defineDispatch(writer, baseName, types);
 
         for (String type : types) {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] body = type.substring(type.indexOf(':') + 1).split(";");
+            String fields = body[0].trim();
+            String annotations = body.length > 1 ? body[1].trim() : null;
+            defineType(writer, baseName, className, fields, annotations);
         }
 
         writer.println("}");
         writer.close();
     }
 
+    // 节点种类的编号，以及所有节点共有的字段
+    private static void defineKinds(PrintWriter writer, String baseName,
+                                    List<String> types) {
+        for (int i = 0; i < types.size(); i++) {
+            String typeName = types.get(i).split(":")[0].trim();
+            writer.println("    static final int " + kindName(typeName) + " = " + i + ";");
+        }
+        writer.println();
+        writer.println("    // 节点种类，dispatch 按它分派");
+        writer.println("    final int kind;");
+        writer.println();
+        writer.println("    " + baseName + "(int kind) {");
+        writer.println("        this.kind = kind;");
+        writer.println("    }");
+        writer.println();
+    }
+
+    // 按 kind 分派：switch 编译为 tableswitch，各个 case 的类型转换和调用都是单态的
+    private static void defineDispatch(PrintWriter writer, String baseName,
+                                       List<String> types) {
+        String name = baseName.toLowerCase();
+        writer.println("    static <R> R dispatch(" + baseName + " " + name + ", Visitor<R> visitor) {");
+        writer.println("        switch (" + name + ".kind) {");
+        for (String type : types) {
+            String typeName = type.split(":")[0].trim();
+            writer.println("            case " + kindName(typeName) + ":");
+            writer.println("                return visitor.visit" + typeName + baseName + "((" +
+                    typeName + ") " + name + ");");
+        }
+        writer.println("            default:");
+        writer.println("                throw new IllegalStateException(\"Unknown " + name +
+                " kind \" + " + name + ".kind);");
+        writer.println("        }");
+        writer.println("    }");
+        writer.println();
+    }
+
+    // CompoundAssign -> COMPOUND_ASSIGN
+    private static String kindName(String typeName) {
+        return typeName.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+    }
+
     private static void defineVisitor(PrintWriter writer, String baseName,
                                       List<String> types) {
         writer.println("    public interface Visitor<R> {");
@@ -98,8 +176,9 @@ public class GenerateAst {
 
     // 定义语法
     private static void defineType(PrintWriter writer, String baseName,
-                                   String className, String fieldList) {
-        writer.println("    static class " + className + " extends " + baseName + " {");
+                                   String className, String fieldList,
+                                   String annotationList) {
+        writer.println("    static final class " + className + " extends " + baseName + " {");
 
         writer.println("        @Override");
         writer.println("        <R> R accept(Visitor<R> visitor) {");
@@ -110,6 +189,7 @@ public class GenerateAst {
 
         // 构造函数
         writer.println("        " + className + "(" + fieldList + ") {");
+        writer.println("            super(" + kindName(className) + ");");
 
         String[] fields = fieldList.split(", ");
         for (String filed : fields) {
@@ -124,6 +204,13 @@ public class GenerateAst {
             writer.println("        final " + field + ";");
         }
 
+        // 可变的注解字段
+        if (annotationList != null) {
+            for (String annotation : annotationList.split(", ")) {
+                writer.println("        " + annotation + ";");
+            }
+        }
+
         writer.println("    }");
         writer.println();
     }
@@ -0,0 +1,278 @@
+package interpreter.tool;
+
+import interpreter.ErrorReporter;
+import interpreter.LoxContext;
+import interpreter.LoxProgram;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 工具类，执行测试目录中的 .lox 脚本并与脚本中注释的期望结果比较
+ * <p>
+ * 期望写在行尾的注释中：
+ * // expect: 值                   print 输出的一行，按顺序与输出逐行比较
+ * // expect runtime error: 信息   程序因运行错误结束(包括没有被 await 的任务中的错误)
+ * // expect error: 信息           编译错误
+ * // expect warning: 信息         编译警告
+ * 脚本还可以限定执行方式和设置系统属性：
+ * // modes: explicit              只在列出的执行方式下运行(如树遍历会耗尽 JVM 栈的深递归)
+ *                                  aot 只在列出时运行：AOT 编译为 jar，在新的 JVM 中执行
+ * // set: lox.stack.slots=1000    这个脚本运行时设置的系统属性
+ * <p>
+ * 每个脚本在几种执行方式下运行(树遍历、显式栈、IR 分层执行、关闭分层执行、记录类型反馈)，结果都应相同；
+ * 每种方式下编译一次，在两个新的 LoxContext 中先后执行；aot 方式编译为 jar 执行一次
+ * 用法：java interpreter.tool.TestRunner [测试目录，默认为 jLox/test]
+ */
+public class TestRunner {
+    private static final String EXPECT = "// expect: ";
+    private static final String RUNTIME_ERROR = "// expect runtime error: ";
+    private static final String ERROR = "// expect error: ";
+    private static final String WARNING = "// expect warning: ";
+    private static final String MODES_ONLY = "// modes: ";
+    private static final String SET = "// set: ";
+
+    // 执行方式：名称和需要设置的系统属性
+    private static final String[][] MODES = {
+            {"tree"},
+            {"explicit", "lox.stack", "explicit"},
+            {"ir", "lox.ir", "true", "lox.tier.calls", "2", "lox.tier.backedges", "3"},
+            {"untiered", "lox.tier", "false"},
+            // 只记录类型反馈，profile 的读写由命令行负责
+            {"profiled", "lox.profile", System.getProperty("java.io.tmpdir")},
+            // 编译 jar 和启动 JVM 较慢，只用于 modes 中列出 aot 的脚本
+            {"aot"},
+    };
+    private static final String AOT = "aot";
+    // aot 执行的 jar 的最长时间
+    private static final long AOT_TIMEOUT_SECONDS = 60;
+    private static final String[] PROPERTIES = {"lox.stack", "lox.ir", "lox.tier", "lox.tier.calls", "lox.tier.backedges",
+            "lox.profile"};
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args.length > 0 ? args[0] : "jLox/test");
+        List<Path> scripts = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.lox")) {
+            for (Path script : stream) {
+                scripts.add(script);
+            }
+        }
+        scripts.sort(null);
+
+        int passed = 0;
+        int failed = 0;
+        for (Path script : scripts) {
+            String source = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+            for (String[] mode : MODES) {
+                if (!selected(source, mode[0])) {
+                    continue;
+                }
+                String failure = run(source, mode);
+                if (failure == null) {
+                    passed++;
+                } else {
+                    failed++;
+                    System.out.println("FAIL " + script.getFileName() + " [" + mode[0] + "]");
+                    System.out.println(failure);
+                }
+            }
+        }
+        System.out.println(passed + " passed, " + failed + " failed");
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    // 没有 modes 注释时在除 aot 外的所有执行方式下运行
+    private static boolean selected(String source, String mode) {
+        for (String line : source.split("\n")) {
+            if (line.startsWith(MODES_ONLY)) {
+                return Arrays.asList(comment(line, MODES_ONLY).split(" +")).contains(mode);
+            }
+        }
+        return !mode.equals(AOT);
+    }
+
+    /**
+     * 以 mode 执行一次，结果符合期望时返回 null，否则返回说明
+     */
+    private static String run(String source, String[] mode) throws IOException {
+        for (String property : PROPERTIES) {
+            System.clearProperty(property);
+        }
+        for (int i = 1; i < mode.length; i += 2) {
+            System.setProperty(mode[i], mode[i + 1]);
+        }
+        List<String> properties = new ArrayList<>();
+        for (String line : source.split("\n")) {
+            if (line.startsWith(SET)) {
+                String[] property = comment(line, SET).split("=", 2);
+                System.setProperty(property[0], property[1]);
+                properties.add(property[0]);
+            }
+        }
+        try {
+            return check(source, mode[0]);
+        } finally {
+            for (String property : properties) {
+                System.clearProperty(property);
+            }
+        }
+    }
+
+    private static String check(String source, String mode) throws IOException {
+        List<String> expected = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        List<String> warnings = new ArrayList<>();
+        String runtimeError = null;
+        for (String line : source.split("\n")) {
+            if (line.contains(EXPECT)) {
+                expected.add(comment(line, EXPECT));
+            } else if (line.contains(RUNTIME_ERROR)) {
+                runtimeError = comment(line, RUNTIME_ERROR);
+            } else if (line.contains(ERROR)) {
+                errors.add(comment(line, ERROR));
+            } else if (line.contains(WARNING)) {
+                warnings.add(comment(line, WARNING));
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        PrintStream outStream = new PrintStream(out, true, "UTF-8");
+        PrintStream errStream = new PrintStream(err, true, "UTF-8");
+        LoxProgram program = LoxProgram.compile(source, new ErrorReporter(errStream));
+        if (program == null) {
+            if (errors.isEmpty()) {
+                return "unexpected compile error:\n" + text(err);
+            }
+            return missing(errors, text(err), "compile error");
+        }
+        if (!errors.isEmpty()) {
+            return "expected compile error: " + errors.get(0);
+        }
+        String failure = missing(warnings, text(err), "warning");
+        if (failure != null) {
+            return failure;
+        }
+        if (mode.equals(AOT)) {
+            return aot(program, source, expected, runtimeError);
+        }
+
+        // 同一个程序在新的 context 中再执行一次：节点上的缓存和分层执行的状态已经由第一次写入，结果应相同
+        for (int round = 1; round <= 2; round++) {
+            out.reset();
+            err.reset();
+            LoxContext context = new LoxContext(outStream, errStream);
+            boolean succeeded = context.run(program);
+            // 没有被 await 的任务可能在程序结束之后才失败并报告，最多等待 2 秒
+            for (int i = 0; i < 200 && runtimeError != null && !text(err).contains(runtimeError); i++) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            succeeded &= !context.errors().hadRuntimeError();
+            failure = compare(succeeded, text(out), text(err), expected, runtimeError);
+            if (failure != null) {
+                return round == 1 ? failure : "second run in a new context:\n" + failure;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * AOT 编译到临时目录，在新的 JVM 中执行 jar；// set: 的属性作为 -D 传给它
+     */
+    private static String aot(LoxProgram program, String source, List<String> expected, String runtimeError)
+            throws IOException {
+        Path directory = Files.createTempDirectory("lox-aot");
+        Path jar = directory.resolve("test.jar");
+        Path out = directory.resolve("out.txt");
+        Path err = directory.resolve("err.txt");
+        try {
+            ByteArrayOutputStream warnings = new ByteArrayOutputStream();
+            if (!program.compileJar("LoxTest", jar, new ErrorReporter(new PrintStream(warnings, true, "UTF-8")))) {
+                return "aot compile failed:\n" + text(warnings);
+            }
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.add("-Dfile.encoding=UTF-8");
+            for (String line : source.split("\n")) {
+                if (line.startsWith(SET)) {
+                    command.add("-D" + comment(line, SET));
+                }
+            }
+            command.add("-jar");
+            command.add(jar.toString());
+            Process process = new ProcessBuilder(command).redirectOutput(out.toFile()).redirectError(err.toFile())
+                    .start();
+            try {
+                if (!process.waitFor(AOT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                    return "aot run timed out after " + AOT_TIMEOUT_SECONDS + " seconds";
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+                return "interrupted";
+            }
+            return compare(process.exitValue() == 0, text(out), text(err), expected, runtimeError);
+        } finally {
+            for (Path file : Arrays.asList(jar, out, err, directory)) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static String compare(boolean succeeded, String out, String err, List<String> expected,
+                                  String runtimeError) {
+        List<String> actual = Arrays.asList(out.split("\n", -1));
+        actual = actual.subList(0, actual.size() - 1);
+        if (!actual.equals(expected)) {
+            return "expected output:\n" + String.join("\n", expected) + "\nactual output:\n" + String.join("\n", actual)
+                    + (succeeded ? "" : "\n" + err);
+        }
+        if (runtimeError == null) {
+            return succeeded ? null : "unexpected runtime error:\n" + err;
+        }
+        if (succeeded) {
+            return "expected runtime error: " + runtimeError;
+        }
+        return missing(Arrays.asList(runtimeError), err, "runtime error");
+    }
+
+    private static String comment(String line, String prefix) {
+        return line.substring(line.indexOf(prefix) + prefix.length()).trim();
+    }
+
+    private static String text(ByteArrayOutputStream stream) {
+        return new String(stream.toByteArray(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+    }
+
+    private static String text(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).replace("\r\n", "\n");
+    }
+
+    // 每条期望的信息都应出现在错误输出中
+    private static String missing(List<String> messages, String err, String what) {
+        for (String message : messages) {
+            if (!err.contains(message)) {
+                return "expected " + what + ": " + message + "\nactual errors:\n" + err;
+            }
+        }
+        return null;
+    }
+}